@@ -211,7 +211,24 @@ public abstract class EvalFunc<T>  {
      * @throws IOException
      */
     abstract public T exec(Tuple input) throws IOException;
-    
+
+    /**
+     * Invoked instead of {@link #exec(Tuple)} on a batch of tuples when the expression
+     * calling this function is evaluated in batches, see pig.exec.batch. The default
+     * implementation calls exec on each tuple; a function with a cheaper way of processing
+     * many tuples at once can override it.
+     *
+     * @param inputs the Tuples to be processed, only the first count are valid.
+     * @param count the number of tuples.
+     * @param outputs receives the result for inputs[i] in outputs[i].
+     * @throws IOException
+     */
+    public void execBatch(Tuple[] inputs, int count, Object[] outputs) throws IOException {
+        for (int i = 0; i < count; i++) {
+            outputs[i] = exec(inputs[i]);
+        }
+    }
+
     /**
      * Report the schema of the output of this UDF.  Pig will make use of
      * this in error checking, optimization, and planning.  The schema
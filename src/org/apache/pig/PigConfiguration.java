@@ -35,6 +35,14 @@ public class PigConfiguration {
      */
     public static final String PROP_CACHEDBAG_MEMUSAGE = "pig.cachedbag.memusage";
 
+    /**
+     * Controls the fraction of total memory the bags accounted for by the
+     * SpillableMemoryManager may use before the biggest ones are spilled, without
+     * waiting for the heap to fill up. 0 only spills them when the heap is nearly full.
+     * Default is 0.3.
+     */
+    public static final String PROP_SPILL_MEMUSAGE = "pig.spill.memusage";
+
     /**
      * Controls whether partial aggregation is turned on
      */
@@ -47,6 +55,33 @@ public class PigConfiguration {
      */
     public static final String PARTAGG_MINREDUCTION = "pig.exec.mapPartAgg.minReduction";
 
+    /**
+     * Controls whether partial aggregation keeps the running values of the builtin
+     * COUNT, SUM, MIN, MAX and AVG over numbers in primitive accumulators, instead of
+     * buffering their inputs. Default is true.
+     */
+    public static final String PROP_EXEC_MAP_PARTAGG_PRIMITIVE = "pig.exec.mapPartAgg.primitive";
+
+    /**
+     * Controls whether the expressions of FILTER and FOREACH are compiled to Java classes
+     * instead of being interpreted, the operators the compiler does not know still being
+     * interpreted. Needs a JDK on the nodes. Default is false.
+     */
+    public static final String PROP_EXEC_CODEGEN = "pig.exec.codegen";
+
+    /**
+     * Controls whether the Spark backend runs FILTER and FOREACH on batches of tuples,
+     * evaluating their expressions column by column over the batch, instead of one tuple
+     * at a time. The expressions the batch mode does not know are still evaluated tuple by
+     * tuple. Default is false.
+     */
+    public static final String PROP_EXEC_BATCH = "pig.exec.batch";
+
+    /**
+     * The number of tuples in a batch when {@link #PROP_EXEC_BATCH} is set. Default is 1024.
+     */
+    public static final String PROP_EXEC_BATCH_SIZE = "pig.exec.batch.size";
+
     /**
      * Controls whether execution time of Pig UDFs should be tracked.
      * This feature uses counters; use judiciously.
@@ -70,6 +105,19 @@ public class PigConfiguration {
 
     public static final String SCHEMA_TUPLE_SHOULD_ALLOW_FORCE = "pig.schematuple.force";
 
+    /**
+     * Controls whether the compiled SchemaTuple classes are kept in a cache on the local disk,
+     * shared by the scripts run on the machine. Default is true.
+     */
+    public static final String SCHEMA_TUPLE_CACHE = "pig.schematuple.cache";
+
+    /**
+     * The directory of the SchemaTuple class cache. Default is pig-schematuple-${user.name}
+     * in java.io.tmpdir. It must be owned by the user with permissions 700, or the classes
+     * are not cached; a directory Pig creates is given them.
+     */
+    public static final String SCHEMA_TUPLE_CACHE_DIR = "pig.schematuple.cache.dir";
+
     /*
      * Turns off use of combiners in MapReduce jobs produced by Pig.
      */
@@ -93,4 +141,51 @@ public class PigConfiguration {
      * as default in case this is undefined.
      */
     public static final String PIG_DEFAULT_STORE_FUNC = "pig.default.store.func";
+
+    /**
+     * Master of the Spark session the scripts run in, in Spark mode. The SPARK_MASTER
+     * environment variable is used when it is not set, then local.
+     */
+    public static final String PIG_SPARK_MASTER = "spark.master";
+
+    /**
+     * Spark installation of the cluster, in Spark mode. The SPARK_HOME environment variable is
+     * used when it is not set.
+     */
+    public static final String PIG_SPARK_HOME = "spark.home";
+
+    /**
+     * Comma separated jars shipped to the Spark executors when the session starts, in addition
+     * to the jar of Pig and to the jars of the functions of the scripts. The SPARK_JARS
+     * environment variable is used when it is not set.
+     */
+    public static final String PIG_SPARK_JARS = "pig.spark.jars";
+
+    /**
+     * Storage level of the data shared by the branches of a split in Spark mode, one of the
+     * names of spark.storage.StorageLevel (MEMORY_ONLY, MEMORY_AND_DISK_SER, DISK_ONLY...).
+     * Default is MEMORY_AND_DISK.
+     */
+    public static final String PIG_SPARK_SPLIT_STORAGE_LEVEL = "pig.spark.split.storagelevel";
+
+    /**
+     * Storage level of the data of a path read by several loads of a script in Spark mode, so
+     * that it is only scanned once, as for {@link #PIG_SPARK_SPLIT_STORAGE_LEVEL}. NONE reads the
+     * path again for each load. Default is MEMORY_AND_DISK.
+     */
+    public static final String PIG_SPARK_SHARED_LOAD_STORAGE_LEVEL = "pig.spark.sharedload.storagelevel";
+
+    /**
+     * Storage level of the relations cached with CACHE in Spark mode. If it is not set, a
+     * relation is kept deserialized (MEMORY_ONLY) when its input fits in the cache memory,
+     * serialized (MEMORY_AND_DISK_SER) otherwise.
+     */
+    public static final String PIG_SPARK_CACHE_STORAGE_LEVEL = "pig.spark.cache.storagelevel";
+
+    /**
+     * Memory in bytes the relations cached with CACHE in Spark mode may use before the least
+     * recently used ones are dropped. Default is 512MB. A dropped relation is computed again
+     * when reused, but its blocks are only freed when Spark needs the memory.
+     */
+    public static final String PIG_SPARK_CACHE_MAX_BYTES = "pig.spark.cache.maxbytes";
 }
@@ -28,5 +28,11 @@ public enum PigCounters {
     PROACTIVE_SPILL_COUNT_BAGS, 
     
     //total number of records that have been spilled to disk
-    PROACTIVE_SPILL_COUNT_RECS;
+    PROACTIVE_SPILL_COUNT_RECS,
+
+    // estimate of the memory freed by the spills of the SpillableMemoryManager
+    SPILLABLE_MEMORY_MANAGER_SPILL_BYTES,
+
+    // time spent by the SpillableMemoryManager spilling, in milliseconds
+    SPILLABLE_MEMORY_MANAGER_SPILL_PAUSE_MS;
 }
\ No newline at end of file
@@ -1047,7 +1047,8 @@ public class PigServer {
             pp.explain(pps, format, verbose);
 
             MapRedUtil.checkLeafIsStore(pp, pigContext);
-            MapReduceLauncher launcher = new MapReduceLauncher();
+            Launcher launcher = pigContext.getExecType() == ExecType.SPARK ?
+                    new SparkLauncher() : new MapReduceLauncher();
             launcher.explain(pp, pigContext, eps, format, verbose);
 
             if (markAsExecute) {
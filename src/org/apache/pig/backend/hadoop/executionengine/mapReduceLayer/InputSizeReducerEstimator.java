@@ -96,7 +96,7 @@ public class InputSizeReducerEstimator implements PigReducerEstimator {
      * Get the input size for as many inputs as possible. Inputs that do not report
      * their size nor can pig look that up itself are excluded from this size.
      */
-    static long getTotalInputFileSize(Configuration conf,
+    public static long getTotalInputFileSize(Configuration conf,
                                       List<POLoad> lds, Job job) throws IOException {
         long totalInputFileSize = 0;
         boolean foundSize = false;
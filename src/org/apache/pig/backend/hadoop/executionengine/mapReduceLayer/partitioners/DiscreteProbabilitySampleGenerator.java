@@ -16,13 +16,16 @@
  * limitations under the License.
  */
 package org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.partitioners;
+import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Random;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-public class DiscreteProbabilitySampleGenerator {
+public class DiscreteProbabilitySampleGenerator implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     Random rGen;
     float[] probVec;
     float epsilon = 0.00001f;
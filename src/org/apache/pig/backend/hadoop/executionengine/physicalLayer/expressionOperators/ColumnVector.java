@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators;
+
+import org.apache.pig.data.DataType;
+
+/**
+ * The values of an expression for the rows of a {@link VectorBatch}, indexed by the position
+ * of the row in the batch. The ints, longs and booleans (as 0 and 1) are kept in
+ * {@link #longs}, the floats and doubles in {@link #doubles}, with a flag per row in
+ * {@link #isNull}.
+ * <p>
+ * The values read from the tuples or given by the interpreter are also kept as they are in
+ * {@link #objects}, and only unboxed when an operator computing on them asks for it.
+ */
+public class ColumnVector {
+    public final byte type;
+    public final long[] longs;
+    public final double[] doubles;
+    public final Object[] objects;
+    public final boolean[] isNull;
+
+    private final boolean hasObjects;
+    private boolean unbox = false;
+
+    /**
+     * @param type the Pig type of the values
+     * @param capacity the number of rows in the batches
+     * @param hasObjects whether the values are set as objects, with {@link #set(int, Object)}
+     */
+    ColumnVector(byte type, int capacity, boolean hasObjects) {
+        this.type = type;
+        this.hasObjects = hasObjects;
+        isNull = new boolean[capacity];
+        objects = hasObjects ? new Object[capacity] : null;
+        switch (type) {
+        case DataType.INTEGER:
+        case DataType.LONG:
+        case DataType.BOOLEAN:
+            longs = new long[capacity];
+            doubles = null;
+            break;
+        case DataType.FLOAT:
+        case DataType.DOUBLE:
+            longs = null;
+            doubles = new double[capacity];
+            break;
+        default:
+            longs = null;
+            doubles = null;
+        }
+    }
+
+    /**
+     * Makes {@link #set(int, Object)} unbox the values into {@link #longs} or {@link #doubles}.
+     */
+    void setUnbox() {
+        unbox = hasObjects && (longs != null || doubles != null);
+    }
+
+    /**
+     * Sets the value of a row from an object, of the class of the type.
+     */
+    void set(int row, Object o) {
+        objects[row] = o;
+        isNull[row] = o == null;
+        if (!unbox || o == null) {
+            return;
+        }
+        switch (type) {
+        case DataType.INTEGER:
+            longs[row] = ((Integer)o).intValue();
+            break;
+        case DataType.LONG:
+            longs[row] = ((Long)o).longValue();
+            break;
+        case DataType.BOOLEAN:
+            longs[row] = ((Boolean)o).booleanValue() ? 1 : 0;
+            break;
+        case DataType.FLOAT:
+            doubles[row] = ((Float)o).floatValue();
+            break;
+        case DataType.DOUBLE:
+            doubles[row] = ((Double)o).doubleValue();
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * @return the value of a row as an object, null for null
+     */
+    public Object get(int row) {
+        if (hasObjects) {
+            return objects[row];
+        }
+        if (isNull[row]) {
+            return null;
+        }
+        switch (type) {
+        case DataType.INTEGER:
+            return Integer.valueOf((int)longs[row]);
+        case DataType.LONG:
+            return Long.valueOf(longs[row]);
+        case DataType.BOOLEAN:
+            return Boolean.valueOf(longs[row] != 0);
+        case DataType.FLOAT:
+            return Float.valueOf((float)doubles[row]);
+        case DataType.DOUBLE:
+            return Double.valueOf(doubles[row]);
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * @return whether a row has the value true
+     */
+    public boolean isTrue(int row) {
+        return !isNull[row] && (hasObjects ? ((Boolean)objects[row]).booleanValue()
+                : longs[row] != 0);
+    }
+}
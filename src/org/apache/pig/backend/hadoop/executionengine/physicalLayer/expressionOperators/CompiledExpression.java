@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators;
+
+import org.apache.pig.PigWarning;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PigLogger;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.data.Tuple;
+
+/**
+ * The base class of the classes {@link ExpressionCompiler} generates for the expression
+ * plans of FILTER and FOREACH. A generated class evaluates the whole plan in one method,
+ * keeping the values of the operators in primitive locals instead of Result objects.
+ * <p>
+ * The operators the generator does not know are evaluated by the interpreter: the plan keeps
+ * its input attached while the compiled expression runs, and the generated code calls
+ * {@link #fallback(int, byte)} on them. An interpreted operator returning an error or the end
+ * of its input ends the evaluation, and its Result is returned as is.
+ * <p>
+ * Instances are not thread safe; each operator has its own.
+ */
+public abstract class CompiledExpression {
+
+    // Thrown by fallback() to unwind the generated code, it carries no stack
+    private static final RuntimeException ABORT = new RuntimeException() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    };
+
+    /**
+     * The operators of the plan the generated code refers to, by index: the interpreted ones,
+     * the projections and the constants.
+     */
+    protected ExpressionOperator[] ops;
+
+    private final Result result = new Result();
+    private Result aborted;
+
+    void setOperators(ExpressionOperator[] ops) {
+        this.ops = ops;
+    }
+
+    /**
+     * Evaluates the expression on a tuple.
+     * @param input the tuple attached to the plan
+     * @return the value of the expression, with the status POStatus.STATUS_OK, or the Result
+     * of an interpreted operator which did not return a value
+     */
+    public Result getNext(Tuple input) throws ExecException {
+        try {
+            result.result = evaluate(input);
+        } catch (RuntimeException e) {
+            if (e != ABORT) {
+                throw e;
+            }
+            Result r = aborted;
+            aborted = null;
+            return r;
+        }
+        result.returnStatus = POStatus.STATUS_OK;
+        return result;
+    }
+
+    /**
+     * @return the value of the expression, null for null
+     */
+    protected abstract Object evaluate(Tuple input) throws ExecException;
+
+    /**
+     * Evaluates an operator with the interpreter.
+     * @param op the index of the operator
+     * @param type the type to ask the operator for
+     */
+    protected final Object fallback(int op, byte type) throws ExecException {
+        Result r = ops[op].getNext(PhysicalOperator.getDummy(type), type);
+        if (r.returnStatus == POStatus.STATUS_OK) {
+            return r.result;
+        }
+        if (r.returnStatus == POStatus.STATUS_NULL) {
+            return null;
+        }
+        aborted = r;
+        throw ABORT;
+    }
+
+    /**
+     * Projects a field of the input as {@link POProject} does. A missing field is left to the
+     * projection itself, which warns about it.
+     * @param op the index of the projection
+     */
+    protected final Object project(Tuple input, int column, int op, byte type)
+            throws ExecException {
+        if (input == null) {
+            return null;
+        }
+        if (column < input.size()) {
+            return input.get(column);
+        }
+        return fallback(op, type);
+    }
+
+    /**
+     * @param op the index of the constant
+     */
+    protected final Object constant(int op) {
+        return ((ConstantExpression)ops[op]).getValue();
+    }
+
+    /**
+     * Warns that a division by zero gave a null, as {@link Divide} does.
+     * @param op the index of the division
+     */
+    protected final void divideByZero(int op) {
+        PigLogger pigLogger = PhysicalOperator.getPigLogger();
+        if (pigLogger != null) {
+            pigLogger.warn(ops[op], "Divide by zero. Converting it to NULL.",
+                    PigWarning.DIVIDE_BY_ZERO);
+        }
+    }
+}
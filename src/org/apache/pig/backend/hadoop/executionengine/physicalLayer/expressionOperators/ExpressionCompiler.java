@@ -0,0 +1,571 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.ToolProvider;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.pig.PigConfiguration;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigMapReduce;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.data.DataType;
+import org.apache.pig.impl.util.JarManager;
+import org.apache.pig.impl.util.JavaCompilerHelper;
+
+import com.google.common.io.Files;
+
+/**
+ * Compiles the expression plan of a FILTER or of a FOREACH column to a single Java class,
+ * a {@link CompiledExpression}, with {@link JavaCompilerHelper} as the SchemaTuples are.
+ * <p>
+ * The generated code keeps the value of each operator in a primitive local and a null flag,
+ * and follows the semantics of the interpreter: nulls propagate through arithmetic and
+ * comparisons, AND and OR are three-valued and short circuit, a division by zero gives a null.
+ * It knows:
+ * <ul>
+ * <li>the projections of a field of the input, and the constants</li>
+ * <li>+, -, *, /, % and the negation of int, long, float and double</li>
+ * <li>the comparisons of int, long, float, double and chararray, and the equality of
+ * booleans</li>
+ * <li>AND, OR, NOT and IS NULL</li>
+ * <li>the casts between int, long, float and double</li>
+ * </ul>
+ * Any other operator, a UDF for instance, is evaluated by the interpreter from the generated
+ * code, with its own subtree.
+ * <p>
+ * The classes are shared by the plans of the same shape in the JVM. If the classes cannot be
+ * compiled, for instance when the JVM has no compiler, the plans are interpreted.
+ */
+public class ExpressionCompiler {
+    private static final Log LOG = LogFactory.getLog(ExpressionCompiler.class);
+
+    private static final String CLASS_PREFIX = "PigCompiledExpression_";
+
+    // the generated classes by the code of their method, null for the code not compiled
+    private static final Map<String, Class<?>> classes = new HashMap<String, Class<?>>();
+    private static File codeDir = null;
+    private static URLClassLoader classLoader = null;
+    private static boolean unavailable = false;
+
+    private final List<ExpressionOperator> ops = new ArrayList<ExpressionOperator>();
+    private int vars = 0;
+    private int compiledOps = 0;
+
+    private ExpressionCompiler() {
+    }
+
+    /**
+     * @return whether {@link PigConfiguration#PROP_EXEC_CODEGEN} is set in the job
+     */
+    public static boolean isEnabled() {
+        Configuration conf = PigMapReduce.sJobConfInternal.get();
+        return conf != null && conf.getBoolean(PigConfiguration.PROP_EXEC_CODEGEN, false);
+    }
+
+    /**
+     * Compiles the plan of an expression.
+     * @param plan an expression plan, with a single leaf
+     * @return the compiled expression, null if the plan is not worth compiling or could not
+     * be compiled
+     */
+    public static CompiledExpression compile(PhysicalPlan plan) throws ExecException {
+        if (plan == null || plan.getLeaves().size() != 1
+                || !(plan.getLeaves().get(0) instanceof ExpressionOperator)) {
+            return null;
+        }
+        ExpressionOperator leaf = (ExpressionOperator)plan.getLeaves().get(0);
+        if (!isSupported(leaf.getResultType())) {
+            return null;
+        }
+        ExpressionCompiler compiler = new ExpressionCompiler();
+        StringBuilder code = new StringBuilder();
+        String value = compiler.generate(code, leaf, leaf.getResultType(), "        ");
+        if (compiler.compiledOps == 0) {
+            // the plan is a projection, a constant or a UDF, nothing to gain
+            return null;
+        }
+        code.append("        return n").append(value).append(" ? null : ")
+            .append(box("v" + value, leaf.getResultType())).append(";\n");
+
+        Class<?> clazz = getCompiledClass(code.toString());
+        if (clazz == null) {
+            return null;
+        }
+        try {
+            CompiledExpression expr = (CompiledExpression)clazz.newInstance();
+            expr.setOperators(compiler.ops.toArray(new ExpressionOperator[compiler.ops.size()]));
+            return expr;
+        } catch (Exception e) {
+            LOG.warn("Unable to instantiate " + clazz.getName() + ", interpreting the plan", e);
+            return null;
+        }
+    }
+
+    private static synchronized Class<?> getCompiledClass(String method) {
+        if (classes.containsKey(method)) {
+            return classes.get(method);
+        }
+        Class<?> clazz = null;
+        if (!unavailable && ToolProvider.getSystemJavaCompiler() == null) {
+            LOG.warn("No Java compiler in this JVM, the expressions are interpreted");
+            unavailable = true;
+        }
+        if (!unavailable) {
+            String name = CLASS_PREFIX + classes.size();
+            try {
+                if (codeDir == null) {
+                    codeDir = Files.createTempDir();
+                    codeDir.deleteOnExit();
+                    classLoader = new URLClassLoader(new URL[] { codeDir.toURI().toURL() },
+                            CompiledExpression.class.getClassLoader());
+                }
+                JavaCompilerHelper compiler = new JavaCompilerHelper();
+                compiler.addToClassPath(codeDir.getAbsolutePath());
+                // in a Spark executor Pig is not on the class path of the JVM
+                String pigJar = JarManager.findContainingJar(CompiledExpression.class);
+                if (pigJar != null) {
+                    compiler.addToClassPath(pigJar);
+                }
+                compiler.compile(codeDir.getAbsolutePath(),
+                        new JavaCompilerHelper.JavaSourceFromString(name, wrap(name, method)));
+                clazz = classLoader.loadClass(name);
+                LOG.info("Compiled expression class " + name);
+            } catch (Exception e) {
+                LOG.warn("Unable to compile expression class " + name
+                        + ", interpreting the plan", e);
+            }
+        }
+        classes.put(method, clazz);
+        return clazz;
+    }
+
+    private static String wrap(String name, String method) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("public class ").append(name).append(" extends ")
+            .append(CompiledExpression.class.getName()).append(" {\n");
+        sb.append("    @Override\n");
+        sb.append("    protected Object evaluate(").append("org.apache.pig.data.Tuple input)")
+            .append(" throws org.apache.pig.backend.executionengine.ExecException {\n");
+        sb.append(method);
+        sb.append("    }\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    /**
+     * Generates the evaluation of an operator as the given type, which is the type its
+     * parent asks it for.
+     * @return the suffix of the locals holding the value, v&lt;suffix&gt;, and its null flag,
+     * n&lt;suffix&gt;
+     */
+    private String generate(StringBuilder code, ExpressionOperator op, byte type, String indent)
+            throws ExecException {
+        if (op.getResultType() != type) {
+            return generateFallback(code, op, type, indent);
+        }
+        Class<?> opClass = op.getClass();
+        if (opClass == POProject.class && isProjectable((POProject)op)) {
+            return generateProject(code, (POProject)op, indent);
+        } else if (opClass == ConstantExpression.class) {
+            return generateConstant(code, (ConstantExpression)op, indent);
+        } else if (opClass == Add.class || opClass == Subtract.class
+                || opClass == Multiply.class || opClass == Divide.class) {
+            if (isNumber(type)) {
+                return generateArithmetic(code, (BinaryExpressionOperator)op, indent);
+            }
+        } else if (opClass == Mod.class) {
+            if (type == DataType.INTEGER || type == DataType.LONG) {
+                return generateArithmetic(code, (BinaryExpressionOperator)op, indent);
+            }
+        } else if (opClass == PONegative.class) {
+            if (isNumber(type)) {
+                return generateNegative(code, (PONegative)op, indent);
+            }
+        } else if (opClass == POAnd.class || opClass == POOr.class) {
+            return generateLogical(code, (BinaryExpressionOperator)op, indent);
+        } else if (isComparison(op)) {
+            if (isComparable(op, ((BinaryComparisonOperator)op).getOperandType())) {
+                return generateComparison(code, (BinaryComparisonOperator)op, indent);
+            }
+        } else if (opClass == PONot.class) {
+            return generateNot(code, (PONot)op, indent);
+        } else if (opClass == POIsNull.class) {
+            String value = generateIsNull(code, (POIsNull)op, indent);
+            if (value != null) {
+                return value;
+            }
+        } else if (opClass == POCast.class) {
+            List<PhysicalOperator> inputs = op.getInputs();
+            if (isNumber(type) && inputs != null && inputs.size() == 1
+                    && inputs.get(0) instanceof ExpressionOperator
+                    && isNumber(inputs.get(0).getResultType())) {
+                return generateCast(code, (ExpressionOperator)inputs.get(0), type, indent);
+            }
+        }
+        return generateFallback(code, op, type, indent);
+    }
+
+    private String generateFallback(StringBuilder code, ExpressionOperator op, byte type,
+            String indent) {
+        String v = declare(code, type, indent);
+        int index = addOp(op);
+        code.append(indent).append("Object o").append(v).append(" = fallback(")
+            .append(index).append(", (byte)").append(type).append(");\n");
+        assignObject(code, v, type, indent);
+        return v;
+    }
+
+    private String generateProject(StringBuilder code, POProject op, String indent)
+            throws ExecException {
+        byte type = op.getResultType();
+        String v = declare(code, type, indent);
+        int index = addOp(op);
+        code.append(indent).append("Object o").append(v).append(" = project(input, ")
+            .append(op.getColumn()).append(", ").append(index).append(", (byte)").append(type)
+            .append(");\n");
+        assignObject(code, v, type, indent);
+        return v;
+    }
+
+    private String generateConstant(StringBuilder code, ConstantExpression op, String indent) {
+        byte type = op.getResultType();
+        Object value = op.getValue();
+        String literal = null;
+        if (value == null) {
+            return declare(code, type, indent);
+        } else if (type == DataType.INTEGER && value instanceof Integer) {
+            literal = "(" + value + ")";
+        } else if (type == DataType.LONG && value instanceof Long) {
+            literal = "(" + value + "L)";
+        } else if (type == DataType.FLOAT && value instanceof Float) {
+            literal = "Float.intBitsToFloat(0x"
+                + Integer.toHexString(Float.floatToRawIntBits((Float)value)) + ")";
+        } else if (type == DataType.DOUBLE && value instanceof Double) {
+            literal = "Double.longBitsToDouble(0x"
+                + Long.toHexString(Double.doubleToRawLongBits((Double)value)) + "L)";
+        } else if (type == DataType.BOOLEAN && value instanceof Boolean) {
+            literal = value.toString();
+        } else if (type == DataType.CHARARRAY && value instanceof String) {
+            literal = "(String)constant(" + addOp(op) + ")";
+        } else {
+            return generateFallback(code, op, type, indent);
+        }
+        String v = declare(code, type, indent);
+        code.append(indent).append("n").append(v).append(" = false; v").append(v).append(" = ")
+            .append(literal).append(";\n");
+        return v;
+    }
+
+    private String generateArithmetic(StringBuilder code, BinaryExpressionOperator op,
+            String indent) throws ExecException {
+        compiledOps++;
+        byte type = op.getResultType();
+        String l = generate(code, op.getLhs(), type, indent);
+        String v = declare(code, type, indent);
+        // as the interpreter, the right operand is not evaluated after a null
+        code.append(indent).append("if (!n").append(l).append(") {\n");
+        String inner = indent + "    ";
+        String r = generate(code, op.getRhs(), type, inner);
+        code.append(inner).append("if (!n").append(r).append(") {\n");
+        String body = inner + "    ";
+        if (op instanceof Divide) {
+            String zero;
+            if (type == DataType.FLOAT) {
+                zero = "Float.floatToIntBits(v" + r + ") == 0";
+            } else if (type == DataType.DOUBLE) {
+                zero = "Double.doubleToLongBits(v" + r + ") == 0L";
+            } else {
+                zero = "v" + r + " == 0";
+            }
+            code.append(body).append("if (").append(zero).append(") {\n");
+            code.append(body).append("    divideByZero(").append(addOp(op)).append(");\n");
+            code.append(body).append("} else {\n");
+            assign(code, v, "v" + l + " / v" + r, body + "    ");
+            code.append(body).append("}\n");
+        } else {
+            String operator;
+            if (op instanceof Add) {
+                operator = " + ";
+            } else if (op instanceof Subtract) {
+                operator = " - ";
+            } else if (op instanceof Multiply) {
+                operator = " * ";
+            } else {
+                operator = " % ";
+            }
+            assign(code, v, "v" + l + operator + "v" + r, body);
+        }
+        code.append(inner).append("}\n");
+        code.append(indent).append("}\n");
+        return v;
+    }
+
+    private String generateNegative(StringBuilder code, PONegative op, String indent)
+            throws ExecException {
+        compiledOps++;
+        String e = generate(code, op.getExpr(), op.getResultType(), indent);
+        String v = declare(code, op.getResultType(), indent);
+        code.append(indent).append("if (!n").append(e).append(") {\n");
+        assign(code, v, "-v" + e, indent + "    ");
+        code.append(indent).append("}\n");
+        return v;
+    }
+
+    private String generateComparison(StringBuilder code, BinaryComparisonOperator op,
+            String indent) throws ExecException {
+        compiledOps++;
+        byte type = op.getOperandType();
+        // as the interpreter, both operands are evaluated
+        String l = generate(code, op.getLhs(), type, indent);
+        String r = generate(code, op.getRhs(), type, indent);
+        String v = declare(code, DataType.BOOLEAN, indent);
+
+        String operator;
+        if (op instanceof EqualToExpr) {
+            operator = " == ";
+        } else if (op instanceof NotEqualToExpr) {
+            operator = " != ";
+        } else if (op instanceof GreaterThanExpr) {
+            operator = " > ";
+        } else if (op instanceof GTOrEqualToExpr) {
+            operator = " >= ";
+        } else if (op instanceof LessThanExpr) {
+            operator = " < ";
+        } else {
+            operator = " <= ";
+        }
+        String comparison;
+        switch (type) {
+        case DataType.INTEGER:
+        case DataType.LONG:
+        case DataType.BOOLEAN:
+            comparison = "v" + l + operator + "v" + r;
+            break;
+        case DataType.FLOAT:
+            // compareTo of the boxed values, which orders NaN and -0.0
+            comparison = "Float.compare(v" + l + ", v" + r + ")" + operator + "0";
+            break;
+        case DataType.DOUBLE:
+            comparison = "Double.compare(v" + l + ", v" + r + ")" + operator + "0";
+            break;
+        default:
+            comparison = "v" + l + ".compareTo(v" + r + ")" + operator + "0";
+        }
+        code.append(indent).append("if (!n").append(l).append(" && !n").append(r)
+            .append(") {\n");
+        assign(code, v, comparison, indent + "    ");
+        code.append(indent).append("}\n");
+        return v;
+    }
+
+    private String generateLogical(StringBuilder code, BinaryExpressionOperator op,
+            String indent) throws ExecException {
+        compiledOps++;
+        boolean and = op instanceof POAnd;
+        // the value which decides the result alone: false for AND, true for OR
+        String decisive = and ? "!" : "";
+        String l = generate(code, op.getLhs(), DataType.BOOLEAN, indent);
+        String v = declare(code, DataType.BOOLEAN, indent);
+        code.append(indent).append("if (!n").append(l).append(" && ").append(decisive)
+            .append("v").append(l).append(") {\n");
+        assign(code, v, String.valueOf(!and), indent + "    ");
+        code.append(indent).append("} else {\n");
+        String inner = indent + "    ";
+        String r = generate(code, op.getRhs(), DataType.BOOLEAN, inner);
+        code.append(inner).append("if (!n").append(r).append(" && ").append(decisive)
+            .append("v").append(r).append(") {\n");
+        assign(code, v, String.valueOf(!and), inner + "    ");
+        // null with the other value gives null
+        code.append(inner).append("} else if (!n").append(r).append(" && !n").append(l)
+            .append(") {\n");
+        assign(code, v, String.valueOf(and), inner + "    ");
+        code.append(inner).append("}\n");
+        code.append(indent).append("}\n");
+        return v;
+    }
+
+    private String generateNot(StringBuilder code, PONot op, String indent)
+            throws ExecException {
+        compiledOps++;
+        String e = generate(code, op.getExpr(), DataType.BOOLEAN, indent);
+        String v = declare(code, DataType.BOOLEAN, indent);
+        code.append(indent).append("if (!n").append(e).append(") {\n");
+        assign(code, v, "!v" + e, indent + "    ");
+        code.append(indent).append("}\n");
+        return v;
+    }
+
+    /**
+     * The interpreter tells the null of a comparison, given with POStatus.STATUS_NULL, from
+     * a null value, IS NULL only being true for the latter: only the operands which cannot
+     * give the status are compiled.
+     * @return null if the operand may give the status
+     */
+    private String generateIsNull(StringBuilder code, POIsNull op, String indent)
+            throws ExecException {
+        byte type = op.getOperandType();
+        ExpressionOperator expr = op.getExpr();
+        if (type == DataType.BOOLEAN || expr.getResultType() != type) {
+            return null;
+        }
+        StringBuilder operand = new StringBuilder();
+        int first = ops.size();
+        String e = generate(operand, expr, type, indent);
+        for (int i = first; i < ops.size(); i++) {
+            ExpressionOperator used = ops.get(i);
+            if (!(used instanceof POProject || used instanceof ConstantExpression
+                    || used instanceof Divide)) {
+                // an interpreted operator: drops the operand, leaving its operators unused
+                return null;
+            }
+        }
+        compiledOps++;
+        code.append(operand);
+        String v = declare(code, DataType.BOOLEAN, indent);
+        assign(code, v, "n" + e, indent);
+        return v;
+    }
+
+    private String generateCast(StringBuilder code, ExpressionOperator input, byte type,
+            String indent) throws ExecException {
+        compiledOps++;
+        String e = generate(code, input, input.getResultType(), indent);
+        String v = declare(code, type, indent);
+        code.append(indent).append("if (!n").append(e).append(") {\n");
+        assign(code, v, "(" + javaType(type) + ")v" + e, indent + "    ");
+        code.append(indent).append("}\n");
+        return v;
+    }
+
+    private String declare(StringBuilder code, byte type, String indent) {
+        String v = Integer.toString(vars++);
+        code.append(indent).append(javaType(type)).append(" v").append(v).append(" = ")
+            .append(defaultValue(type)).append("; boolean n").append(v).append(" = true;\n");
+        return v;
+    }
+
+    private static void assign(StringBuilder code, String v, String value, String indent) {
+        code.append(indent).append("n").append(v).append(" = false; v").append(v).append(" = ")
+            .append(value).append(";\n");
+    }
+
+    private static void assignObject(StringBuilder code, String v, byte type, String indent) {
+        code.append(indent).append("if (o").append(v).append(" != null) {\n");
+        assign(code, v, unbox("o" + v, type), indent + "    ");
+        code.append(indent).append("}\n");
+    }
+
+    private int addOp(ExpressionOperator op) {
+        ops.add(op);
+        return ops.size() - 1;
+    }
+
+    private static boolean isProjectable(POProject op) {
+        return !op.isStar() && !op.isProjectToEnd() && !op.isOverloaded()
+            && op.getColumns().size() == 1 && isSupported(op.getResultType())
+            && (op.getInputs() == null || op.getInputs().isEmpty());
+    }
+
+    /**
+     * Whether the operator is one of the comparisons of two operands, ==, !=, &lt;, &lt;=, &gt;
+     * and &gt;=. POAnd and POOr are BinaryComparisonOperators too, as are the regular
+     * expression and the user comparison, which are not.
+     */
+    static boolean isComparison(ExpressionOperator op) {
+        return op instanceof BinaryComparisonOperator && !(op instanceof POAnd)
+            && !(op instanceof POOr) && !(op instanceof PORegexp)
+            && !(op instanceof POUserComparisonFunc);
+    }
+
+    private static boolean isComparable(ExpressionOperator op, byte type) {
+        if (type == DataType.BOOLEAN) {
+            return op instanceof EqualToExpr || op instanceof NotEqualToExpr;
+        }
+        return isNumber(type) || type == DataType.CHARARRAY;
+    }
+
+    private static boolean isNumber(byte type) {
+        return type == DataType.INTEGER || type == DataType.LONG
+            || type == DataType.FLOAT || type == DataType.DOUBLE;
+    }
+
+    private static boolean isSupported(byte type) {
+        return isNumber(type) || type == DataType.BOOLEAN || type == DataType.CHARARRAY;
+    }
+
+    private static String javaType(byte type) {
+        switch (type) {
+        case DataType.INTEGER: return "int";
+        case DataType.LONG: return "long";
+        case DataType.FLOAT: return "float";
+        case DataType.DOUBLE: return "double";
+        case DataType.BOOLEAN: return "boolean";
+        case DataType.CHARARRAY: return "String";
+        default: return "Object";
+        }
+    }
+
+    private static String defaultValue(byte type) {
+        switch (type) {
+        case DataType.INTEGER:
+        case DataType.LONG:
+        case DataType.FLOAT:
+        case DataType.DOUBLE:
+            return "0";
+        case DataType.BOOLEAN:
+            return "false";
+        default:
+            return "null";
+        }
+    }
+
+    private static String unbox(String value, byte type) {
+        switch (type) {
+        case DataType.INTEGER: return "((Integer)" + value + ").intValue()";
+        case DataType.LONG: return "((Long)" + value + ").longValue()";
+        case DataType.FLOAT: return "((Float)" + value + ").floatValue()";
+        case DataType.DOUBLE: return "((Double)" + value + ").doubleValue()";
+        case DataType.BOOLEAN: return "((Boolean)" + value + ").booleanValue()";
+        case DataType.CHARARRAY: return "(String)" + value;
+        default: return value;
+        }
+    }
+
+    private static String box(String value, byte type) {
+        switch (type) {
+        case DataType.INTEGER: return "Integer.valueOf(" + value + ")";
+        case DataType.LONG: return "Long.valueOf(" + value + ")";
+        case DataType.FLOAT: return "Float.valueOf(" + value + ")";
+        case DataType.DOUBLE: return "Double.valueOf(" + value + ")";
+        case DataType.BOOLEAN: return "Boolean.valueOf(" + value + ")";
+        default: return value;
+        }
+    }
+}
@@ -25,6 +25,7 @@ import java.io.ObjectInputStream;
 import java.lang.reflect.Type;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -152,10 +153,10 @@ public class POUserFunc extends ExpressionOperator {
 
     private transient TupleMaker inputTupleMaker;
     private boolean usingSchemaTupleFactory;
+    // the input tuples of getNextBatch()
+    private transient Tuple[] batchInputs;
 
-    @Override
-    public Result processInput() throws ExecException {
-
+    private void initialize() {
         // Make sure the reporter is set, because it isn't getting carried
         // across in the serialization (don't know why).  I suspect it's as
         // cheap to call the setReporter call everytime as to check whether I
@@ -194,6 +195,11 @@ public class POUserFunc extends ExpressionOperator {
 
             initialized = true;
         }
+    }
+
+    @Override
+    public Result processInput() throws ExecException {
+        initialize();
 
         Result res = new Result();
         Tuple inpValue = null;
@@ -345,28 +351,87 @@ public class POUserFunc extends ExpressionOperator {
         } catch (ExecException ee) {
             throw ee;
         } catch (IOException ioe) {
-            int errCode = 2078;
-            String msg = "Caught error from UDF: " + funcSpec.getClassName();
-            String footer = " [" + ioe.getMessage() + "]";
-
-            if(ioe instanceof PigException) {
-                int udfErrorCode = ((PigException)ioe).getErrorCode();
-                if(udfErrorCode != 0) {
-                    errCode = udfErrorCode;
-                    msg = ((PigException)ioe).getMessage();
-                } else {
-                    msg += " [" + ((PigException)ioe).getMessage() + " ]";
-                }
+            throw udfError(ioe);
+        } catch (IndexOutOfBoundsException ie) {
+            throw udfError(ie);
+        }
+    }
+
+    private ExecException udfError(IOException ioe) {
+        int errCode = 2078;
+        String msg = "Caught error from UDF: " + funcSpec.getClassName();
+        String footer = " [" + ioe.getMessage() + "]";
+
+        if(ioe instanceof PigException) {
+            int udfErrorCode = ((PigException)ioe).getErrorCode();
+            if(udfErrorCode != 0) {
+                errCode = udfErrorCode;
+                msg = ((PigException)ioe).getMessage();
             } else {
-                msg += footer;
+                msg += " [" + ((PigException)ioe).getMessage() + " ]";
             }
+        } else {
+            msg += footer;
+        }
+
+        return new ExecException(msg, errCode, PigException.BUG, ioe);
+    }
+
+    private ExecException udfError(IndexOutOfBoundsException ie) {
+        int errCode = 2078;
+        String msg = "Caught error from UDF: " + funcSpec.getClassName() +
+        ", Out of bounds access [" + ie.getMessage() + "]";
+        return new ExecException(msg, errCode, PigException.BUG, ie);
+    }
+
+    /**
+     * @return whether the function can be called on batches of arguments with
+     * {@link #getNextBatch(Object[][], int, Object[])}: it is neither accumulative, nor
+     * monitored, nor timed
+     */
+    public boolean canExecBatch() {
+        initialize();
+        return !isAccumulative() && executor == null && !doTiming;
+    }
 
-            throw new ExecException(msg, errCode, PigException.BUG, ioe);
+    /**
+     * Calls the function on a batch of arguments, through {@link EvalFunc#execBatch}. The
+     * arguments are the values of the inputs of this operator, which are not evaluated.
+     * @param args the arguments by input, args[i][j] being the value of the i-th input for
+     * the j-th call
+     * @param count the number of calls
+     * @param results receives the result of the j-th call in results[j]
+     */
+    public void getNextBatch(Object[][] args, int count, Object[] results)
+            throws ExecException {
+        initialize();
+        if (batchInputs == null || batchInputs.length < count) {
+            batchInputs = new Tuple[count];
+        }
+        for (int j = 0; j < count; j++) {
+            Tuple t = inputTupleMaker.newTuple();
+            for (int i = 0; i < args.length; i++) {
+                if (usingSchemaTupleFactory) {
+                    t.set(i, args[i][j]);
+                } else {
+                    t.append(args[i][j]);
+                }
+            }
+            batchInputs[j] = t;
+        }
+        if(getReporter()!=null) {
+            getReporter().progress();
+        }
+        try {
+            func.execBatch(batchInputs, count, results);
+        } catch (ExecException ee) {
+            throw ee;
+        } catch (IOException ioe) {
+            throw udfError(ioe);
         } catch (IndexOutOfBoundsException ie) {
-            int errCode = 2078;
-            String msg = "Caught error from UDF: " + funcSpec.getClassName() +
-            ", Out of bounds access [" + ie.getMessage() + "]";
-            throw new ExecException(msg, errCode, PigException.BUG, ie);
+            throw udfError(ie);
+        } finally {
+            Arrays.fill(batchInputs, 0, count, null);
         }
     }
 
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators;
+
+import java.util.Arrays;
+
+import org.apache.pig.data.Tuple;
+
+/**
+ * A batch of tuples, which the FILTER and FOREACH operators process at once when
+ * pig.exec.batch is set. The {@link VectorExpression}s evaluate their operators on the
+ * batch column by column, into {@link ColumnVector}s.
+ * <p>
+ * A FILTER does not move the tuples: it narrows the selection of the batch, the positions of
+ * the rows still selected, in order.
+ */
+public class VectorBatch {
+    private final Tuple[] rows;
+    private int size = 0;
+    private final int[] selected;
+    private int selectedCount = 0;
+    // the rows an interpreted operator ended with POStatus.STATUS_EOP
+    private final boolean[] dropped;
+    private boolean anyDropped = false;
+
+    public VectorBatch(int capacity) {
+        rows = new Tuple[capacity];
+        selected = new int[capacity];
+        dropped = new boolean[capacity];
+    }
+
+    public int getCapacity() {
+        return rows.length;
+    }
+
+    public boolean isFull() {
+        return size == rows.length;
+    }
+
+    /**
+     * Adds a row to the batch, selected.
+     */
+    public void add(Tuple row) {
+        rows[size] = row;
+        selected[selectedCount++] = size;
+        size++;
+    }
+
+    /**
+     * Empties the batch.
+     */
+    public void clear() {
+        Arrays.fill(rows, 0, size, null);
+        if (anyDropped) {
+            Arrays.fill(dropped, 0, size, false);
+            anyDropped = false;
+        }
+        size = 0;
+        selectedCount = 0;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public Tuple getRow(int row) {
+        return rows[row];
+    }
+
+    /**
+     * @return the positions of the rows selected, in order, the first
+     * {@link #getSelectedCount()} being valid
+     */
+    public int[] getSelected() {
+        return selected;
+    }
+
+    public int getSelectedCount() {
+        return selectedCount;
+    }
+
+    public void setSelectedCount(int selectedCount) {
+        this.selectedCount = selectedCount;
+    }
+
+    /**
+     * Marks a row for which an interpreted operator returned POStatus.STATUS_EOP: as for a
+     * single tuple, the operator evaluating the expression gives no output for it.
+     */
+    void drop(int row) {
+        dropped[row] = true;
+        anyDropped = true;
+    }
+
+    public boolean isDropped(int row) {
+        return anyDropped && dropped[row];
+    }
+}
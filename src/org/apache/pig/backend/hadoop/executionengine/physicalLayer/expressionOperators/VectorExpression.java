@@ -0,0 +1,848 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.pig.PigWarning;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PigLogger;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+
+/**
+ * The expression plan of a FILTER or of a FOREACH column, evaluated on a {@link VectorBatch}
+ * one operator at a time: each operator computes its values for all the rows of the batch
+ * into a {@link ColumnVector}, in a loop over arrays of primitives, instead of being called
+ * once per row.
+ * <p>
+ * The operators follow the semantics of the interpreter, as those {@link ExpressionCompiler}
+ * generates: nulls propagate through arithmetic and comparisons, AND and OR are three-valued
+ * and only evaluate their right operand on the rows the left one does not decide, the right
+ * operand of an arithmetic operator is only evaluated on the rows where the left one is not
+ * null, a division by zero gives a null. The operators known are those of the compiler, and
+ * the UDFs, called through {@link org.apache.pig.EvalFunc#execBatch}. Any other operator is
+ * evaluated by the interpreter, row by row, with its own subtree.
+ * <p>
+ * Instances are not thread safe; each operator has its own.
+ */
+public abstract class VectorExpression {
+
+    protected final ColumnVector result;
+
+    // whether the interpreter may give this value with POStatus.STATUS_NULL instead of
+    // returning a null: IS NULL is false then, and a UDF is not called
+    private final boolean mayBeStatusNull;
+
+    private VectorExpression(ColumnVector result, boolean mayBeStatusNull) {
+        this.result = result;
+        this.mayBeStatusNull = mayBeStatusNull;
+    }
+
+    /**
+     * Evaluates the expression on the selected rows of a batch.
+     * @return the values, by row
+     */
+    public ColumnVector evaluate(VectorBatch batch) throws ExecException {
+        evaluate(batch, batch.getSelected(), batch.getSelectedCount());
+        return result;
+    }
+
+    /**
+     * @return the number of rows of the batches the expression is built for
+     */
+    public int getCapacity() {
+        return result.isNull.length;
+    }
+
+    /**
+     * Evaluates the expression on some rows of a batch into {@link #result}.
+     * @param rows the positions of the rows in the batch, the first count being valid
+     */
+    abstract void evaluate(VectorBatch batch, int[] rows, int count) throws ExecException;
+
+    /**
+     * @return whether the root of the expression is evaluated on the batch, and not by the
+     * interpreter
+     */
+    boolean isVectorized() {
+        return true;
+    }
+
+    /**
+     * Builds the vectorized evaluation of an expression plan.
+     * @param plan an expression plan, with a single leaf
+     * @param capacity the number of rows of the batches
+     * @return the expression, null if its root is evaluated by the interpreter
+     */
+    public static VectorExpression build(PhysicalPlan plan, int capacity) throws ExecException {
+        if (plan == null || plan.getLeaves().size() != 1
+                || !(plan.getLeaves().get(0) instanceof ExpressionOperator)) {
+            return null;
+        }
+        ExpressionOperator leaf = (ExpressionOperator)plan.getLeaves().get(0);
+        VectorExpression expr = new Builder(plan, capacity).build(leaf, leaf.getResultType());
+        return expr.isVectorized() ? expr : null;
+    }
+
+    private static class Builder {
+        private final PhysicalPlan plan;
+        private final int capacity;
+
+        private Builder(PhysicalPlan plan, int capacity) {
+            this.plan = plan;
+            this.capacity = capacity;
+        }
+
+        /**
+         * Builds the evaluation of an operator as the type its parent asks it for.
+         */
+        private VectorExpression build(ExpressionOperator op, byte type) throws ExecException {
+            if (op.getResultType() != type) {
+                return new Interpreted(op, type, plan, capacity);
+            }
+            Class<?> opClass = op.getClass();
+            if (opClass == POProject.class && isProjectable((POProject)op)) {
+                return new Project((POProject)op, type, plan, capacity);
+            } else if (opClass == ConstantExpression.class) {
+                Object value = ((ConstantExpression)op).getValue();
+                if (value == null || DataType.findType(value) == type) {
+                    return new Constant(value, type, capacity);
+                }
+            } else if (opClass == Add.class || opClass == Subtract.class
+                    || opClass == Multiply.class || opClass == Divide.class) {
+                if (isNumber(type)) {
+                    return arithmetic((BinaryExpressionOperator)op, type);
+                }
+            } else if (opClass == Mod.class) {
+                if (type == DataType.INTEGER || type == DataType.LONG) {
+                    return arithmetic((BinaryExpressionOperator)op, type);
+                }
+            } else if (opClass == PONegative.class) {
+                if (isNumber(type)) {
+                    return new Negative(unboxed(((PONegative)op).getExpr(), type), type, capacity);
+                }
+            } else if (opClass == POAnd.class || opClass == POOr.class) {
+                BinaryExpressionOperator logical = (BinaryExpressionOperator)op;
+                return new Logical(opClass == POAnd.class,
+                        unboxed(logical.getLhs(), DataType.BOOLEAN),
+                        unboxed(logical.getRhs(), DataType.BOOLEAN), capacity);
+            } else if (ExpressionCompiler.isComparison(op)) {
+                BinaryComparisonOperator comparison = (BinaryComparisonOperator)op;
+                byte operandType = comparison.getOperandType();
+                if (isComparable(op, operandType)) {
+                    VectorExpression lhs = build(comparison.getLhs(), operandType);
+                    VectorExpression rhs = build(comparison.getRhs(), operandType);
+                    if (operandType != DataType.CHARARRAY) {
+                        lhs.result.setUnbox();
+                        rhs.result.setUnbox();
+                    }
+                    return new Comparison(comparison, lhs, rhs, capacity);
+                }
+            } else if (opClass == PONot.class) {
+                return new Not(unboxed(((PONot)op).getExpr(), DataType.BOOLEAN), capacity);
+            } else if (opClass == POIsNull.class) {
+                POIsNull isNull = (POIsNull)op;
+                byte operandType = isNull.getOperandType();
+                if (operandType != DataType.BOOLEAN
+                        && isNull.getExpr().getResultType() == operandType) {
+                    VectorExpression expr = build(isNull.getExpr(), operandType);
+                    if (!expr.mayBeStatusNull) {
+                        return new IsNull(expr, capacity);
+                    }
+                }
+            } else if (opClass == POCast.class) {
+                List<PhysicalOperator> inputs = op.getInputs();
+                if (isNumber(type) && inputs != null && inputs.size() == 1
+                        && inputs.get(0) instanceof ExpressionOperator
+                        && isNumber(inputs.get(0).getResultType())) {
+                    ExpressionOperator input = (ExpressionOperator)inputs.get(0);
+                    return new Cast(unboxed(input, input.getResultType()), type, capacity);
+                }
+            } else if (opClass == POUserFunc.class) {
+                VectorExpression function = userFunc((POUserFunc)op, type);
+                if (function != null) {
+                    return function;
+                }
+            }
+            return new Interpreted(op, type, plan, capacity);
+        }
+
+        /**
+         * Builds an operand whose values are computed on.
+         */
+        private VectorExpression unboxed(ExpressionOperator op, byte type)
+                throws ExecException {
+            VectorExpression expr = build(op, type);
+            expr.result.setUnbox();
+            return expr;
+        }
+
+        private VectorExpression arithmetic(BinaryExpressionOperator op, byte type)
+                throws ExecException {
+            return new Arithmetic(op, unboxed(op.getLhs(), type), unboxed(op.getRhs(), type),
+                    type, capacity);
+        }
+
+        /**
+         * As in POUserFunc.processInput(), the function is not called when an input gives
+         * POStatus.STATUS_NULL, its inputs cannot be evaluated on the batch then. A function
+         * without inputs is given the whole input tuple, and is left to the interpreter.
+         */
+        private VectorExpression userFunc(POUserFunc op, byte type) throws ExecException {
+            List<PhysicalOperator> inputs = op.getInputs();
+            if (!op.canExecBatch() || inputs == null || inputs.isEmpty()) {
+                return null;
+            }
+            VectorExpression[] args = new VectorExpression[inputs.size()];
+            for (int i = 0; i < args.length; i++) {
+                PhysicalOperator input = inputs.get(i);
+                if (!(input instanceof ExpressionOperator) || (input instanceof POProject
+                        && ((POProject)input).isProjectToEnd())) {
+                    return null;
+                }
+                args[i] = build((ExpressionOperator)input, input.getResultType());
+                if (args[i].mayBeStatusNull) {
+                    return null;
+                }
+            }
+            return new UserFunc(op, args, type, capacity);
+        }
+    }
+
+    private static boolean isProjectable(POProject op) {
+        return !op.isStar() && !op.isProjectToEnd() && !op.isOverloaded()
+            && op.getColumns().size() == 1
+            && (op.getInputs() == null || op.getInputs().isEmpty());
+    }
+
+    private static boolean isComparable(ExpressionOperator op, byte type) {
+        if (type == DataType.BOOLEAN) {
+            return op instanceof EqualToExpr || op instanceof NotEqualToExpr;
+        }
+        return isNumber(type) || type == DataType.CHARARRAY;
+    }
+
+    private static boolean isNumber(byte type) {
+        return type == DataType.INTEGER || type == DataType.LONG
+            || type == DataType.FLOAT || type == DataType.DOUBLE;
+    }
+
+    /**
+     * An operator evaluated by the interpreter, on the row attached to the plan.
+     */
+    private static final class Interpreted extends VectorExpression {
+        private final ExpressionOperator op;
+        private final byte type;
+        private final PhysicalPlan plan;
+
+        private Interpreted(ExpressionOperator op, byte type, PhysicalPlan plan, int capacity) {
+            super(new ColumnVector(type, capacity, true), true);
+            this.op = op;
+            this.type = type;
+            this.plan = plan;
+        }
+
+        @Override
+        boolean isVectorized() {
+            return false;
+        }
+
+        @Override
+        void evaluate(VectorBatch batch, int[] rows, int count) throws ExecException {
+            try {
+                for (int i = 0; i < count; i++) {
+                    int row = rows[i];
+                    plan.attachInput(batch.getRow(row));
+                    result.set(row, interpret(op, type, batch, row));
+                }
+            } finally {
+                plan.detachInput();
+            }
+        }
+    }
+
+    /**
+     * @return the value of an operator given by the interpreter for a row attached to the
+     * plan, null for a row it ends with POStatus.STATUS_EOP, which is dropped
+     */
+    private static Object interpret(ExpressionOperator op, byte type, VectorBatch batch,
+            int row) throws ExecException {
+        Result r = op.getNext(PhysicalOperator.getDummy(type), type);
+        switch (r.returnStatus) {
+        case POStatus.STATUS_OK:
+            return r.result;
+        case POStatus.STATUS_NULL:
+            return null;
+        case POStatus.STATUS_EOP:
+            batch.drop(row);
+            return null;
+        default:
+            throw new ExecException("Error while evaluating " + op.name() + " on a batch: "
+                    + r);
+        }
+    }
+
+    /**
+     * The projection of a field of the input, see {@link POProject}. A missing field is
+     * left to the projection itself, which warns about it.
+     */
+    private static final class Project extends VectorExpression {
+        private final POProject op;
+        private final int column;
+        private final byte type;
+        private final PhysicalPlan plan;
+
+        private Project(POProject op, byte type, PhysicalPlan plan, int capacity)
+                throws ExecException {
+            super(new ColumnVector(type, capacity, true), false);
+            this.op = op;
+            this.column = op.getColumn();
+            this.type = type;
+            this.plan = plan;
+        }
+
+        @Override
+        void evaluate(VectorBatch batch, int[] rows, int count) throws ExecException {
+            for (int i = 0; i < count; i++) {
+                int row = rows[i];
+                Tuple input = batch.getRow(row);
+                if (input == null) {
+                    result.set(row, null);
+                } else if (column < input.size()) {
+                    result.set(row, input.get(column));
+                } else {
+                    try {
+                        plan.attachInput(input);
+                        result.set(row, interpret(op, type, batch, row));
+                    } finally {
+                        plan.detachInput();
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class Constant extends VectorExpression {
+        private Constant(Object value, byte type, int capacity) {
+            super(new ColumnVector(type, capacity, true), false);
+            result.setUnbox();
+            for (int row = 0; row < capacity; row++) {
+                result.set(row, value);
+            }
+        }
+
+        @Override
+        void evaluate(VectorBatch batch, int[] rows, int count) {
+        }
+    }
+
+    /**
+     * The rows of an operand whose value is not null.
+     * @return the number of rows copied into notNull
+     */
+    private static int selectNotNull(ColumnVector operand, int[] rows, int count,
+            int[] notNull) {
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            int row = rows[i];
+            if (!operand.isNull[row]) {
+                notNull[n++] = row;
+            }
+        }
+        return n;
+    }
+
+    private static final class Arithmetic extends VectorExpression {
+        private static final int ADD = 0;
+        private static final int SUBTRACT = 1;
+        private static final int MULTIPLY = 2;
+        private static final int DIVIDE = 3;
+        private static final int MOD = 4;
+
+        private final ExpressionOperator op;
+        private final int operator;
+        private final VectorExpression lhs;
+        private final VectorExpression rhs;
+        private final byte type;
+        private final int[] notNull;
+
+        private Arithmetic(ExpressionOperator op, VectorExpression lhs, VectorExpression rhs,
+                byte type, int capacity) {
+            super(new ColumnVector(type, capacity, false),
+                    lhs.mayBeStatusNull || rhs.mayBeStatusNull);
+            this.op = op;
+            if (op instanceof Add) {
+                operator = ADD;
+            } else if (op instanceof Subtract) {
+                operator = SUBTRACT;
+            } else if (op instanceof Multiply) {
+                operator = MULTIPLY;
+            } else if (op instanceof Divide) {
+                operator = DIVIDE;
+            } else {
+                operator = MOD;
+            }
+            this.lhs = lhs;
+            this.rhs = rhs;
+            this.type = type;
+            notNull = new int[capacity];
+        }
+
+        @Override
+        void evaluate(VectorBatch batch, int[] rows, int count) throws ExecException {
+            lhs.evaluate(batch, rows, count);
+            for (int i = 0; i < count; i++) {
+                result.isNull[rows[i]] = true;
+            }
+            int n = selectNotNull(lhs.result, rows, count, notNull);
+            rhs.evaluate(batch, notNull, n);
+            switch (type) {
+            case DataType.INTEGER:
+                evaluateInts(n);
+                break;
+            case DataType.LONG:
+                evaluateLongs(n);
+                break;
+            case DataType.FLOAT:
+                evaluateFloats(n);
+                break;
+            default:
+                evaluateDoubles(n);
+            }
+        }
+
+        private void evaluateInts(int n) {
+            long[] l = lhs.result.longs;
+            long[] r = rhs.result.longs;
+            boolean[] rNull = rhs.result.isNull;
+            long[] v = result.longs;
+            boolean[] vNull = result.isNull;
+            for (int i = 0; i < n; i++) {
+                int row = notNull[i];
+                if (rNull[row]) {
+                    continue;
+                }
+                int a = (int)l[row];
+                int b = (int)r[row];
+                switch (operator) {
+                case ADD:
+                    v[row] = a + b;
+                    break;
+                case SUBTRACT:
+                    v[row] = a - b;
+                    break;
+                case MULTIPLY:
+                    v[row] = a * b;
+                    break;
+                case DIVIDE:
+                    if (b == 0) {
+                        divideByZero();
+                        continue;
+                    }
+                    v[row] = a / b;
+                    break;
+                default:
+                    v[row] = a % b;
+                }
+                vNull[row] = false;
+            }
+        }
+
+        private void evaluateLongs(int n) {
+            long[] l = lhs.result.longs;
+            long[] r = rhs.result.longs;
+            boolean[] rNull = rhs.result.isNull;
+            long[] v = result.longs;
+            boolean[] vNull = result.isNull;
+            for (int i = 0; i < n; i++) {
+                int row = notNull[i];
+                if (rNull[row]) {
+                    continue;
+                }
+                long a = l[row];
+                long b = r[row];
+                switch (operator) {
+                case ADD:
+                    v[row] = a + b;
+                    break;
+                case SUBTRACT:
+                    v[row] = a - b;
+                    break;
+                case MULTIPLY:
+                    v[row] = a * b;
+                    break;
+                case DIVIDE:
+                    if (b == 0) {
+                        divideByZero();
+                        continue;
+                    }
+                    v[row] = a / b;
+                    break;
+                default:
+                    v[row] = a % b;
+                }
+                vNull[row] = false;
+            }
+        }
+
+        private void evaluateFloats(int n) {
+            double[] l = lhs.result.doubles;
+            double[] r = rhs.result.doubles;
+            boolean[] rNull = rhs.result.isNull;
+            double[] v = result.doubles;
+            boolean[] vNull = result.isNull;
+            for (int i = 0; i < n; i++) {
+                int row = notNull[i];
+                if (rNull[row]) {
+                    continue;
+                }
+                float a = (float)l[row];
+                float b = (float)r[row];
+                switch (operator) {
+                case ADD:
+                    v[row] = a + b;
+                    break;
+                case SUBTRACT:
+                    v[row] = a - b;
+                    break;
+                case MULTIPLY:
+                    v[row] = a * b;
+                    break;
+                default:
+                    // as Divide, only a positive zero is a zero
+                    if (Float.floatToIntBits(b) == 0) {
+                        divideByZero();
+                        continue;
+                    }
+                    v[row] = a / b;
+                }
+                vNull[row] = false;
+            }
+        }
+
+        private void evaluateDoubles(int n) {
+            double[] l = lhs.result.doubles;
+            double[] r = rhs.result.doubles;
+            boolean[] rNull = rhs.result.isNull;
+            double[] v = result.doubles;
+            boolean[] vNull = result.isNull;
+            for (int i = 0; i < n; i++) {
+                int row = notNull[i];
+                if (rNull[row]) {
+                    continue;
+                }
+                double a = l[row];
+                double b = r[row];
+                switch (operator) {
+                case ADD:
+                    v[row] = a + b;
+                    break;
+                case SUBTRACT:
+                    v[row] = a - b;
+                    break;
+                case MULTIPLY:
+                    v[row] = a * b;
+                    break;
+                default:
+                    if (Double.doubleToLongBits(b) == 0L) {
+                        divideByZero();
+                        continue;
+                    }
+                    v[row] = a / b;
+                }
+                vNull[row] = false;
+            }
+        }
+
+        private void divideByZero() {
+            PigLogger pigLogger = PhysicalOperator.getPigLogger();
+            if (pigLogger != null) {
+                pigLogger.warn(op, "Divide by zero. Converting it to NULL.",
+                        PigWarning.DIVIDE_BY_ZERO);
+            }
+        }
+    }
+
+    private static final class Negative extends VectorExpression {
+        private final VectorExpression expr;
+        private final byte type;
+
+        private Negative(VectorExpression expr, byte type, int capacity) {
+            super(new ColumnVector(type, capacity, false), expr.mayBeStatusNull);
+            this.expr = expr;
+            this.type = type;
+        }
+
+        @Override
+        void evaluate(VectorBatch batch, int[] rows, int count) throws ExecException {
+            expr.evaluate(batch, rows, count);
+            ColumnVector e = expr.result;
+            for (int i = 0; i < count; i++) {
+                int row = rows[i];
+                result.isNull[row] = e.isNull[row];
+                switch (type) {
+                case DataType.INTEGER:
+                    result.longs[row] = -(int)e.longs[row];
+                    break;
+                case DataType.LONG:
+                    result.longs[row] = -e.longs[row];
+                    break;
+                case DataType.FLOAT:
+                    result.doubles[row] = -(float)e.doubles[row];
+                    break;
+                default:
+                    result.doubles[row] = -e.doubles[row];
+                }
+            }
+        }
+    }
+
+    /**
+     * A cast between int, long, float and double, the Java conversion.
+     */
+    private static final class Cast extends VectorExpression {
+        private final VectorExpression expr;
+        private final byte type;
+
+        private Cast(VectorExpression expr, byte type, int capacity) {
+            super(new ColumnVector(type, capacity, false), expr.mayBeStatusNull);
+            this.expr = expr;
+            this.type = type;
+        }
+
+        @Override
+        void evaluate(VectorBatch batch, int[] rows, int count) throws ExecException {
+            expr.evaluate(batch, rows, count);
+            ColumnVector e = expr.result;
+            // the floats are exact in a double, and the ints in a long
+            boolean fromLongs = e.longs != null;
+            for (int i = 0; i < count; i++) {
+                int row = rows[i];
+                result.isNull[row] = e.isNull[row];
+                if (e.isNull[row]) {
+                    continue;
+                }
+                switch (type) {
+                case DataType.INTEGER:
+                    result.longs[row] = fromLongs ? (int)e.longs[row] : (int)e.doubles[row];
+                    break;
+                case DataType.LONG:
+                    result.longs[row] = fromLongs ? e.longs[row] : (long)e.doubles[row];
+                    break;
+                case DataType.FLOAT:
+                    result.doubles[row] = fromLongs ? (float)e.longs[row] : (float)e.doubles[row];
+                    break;
+                default:
+                    result.doubles[row] = fromLongs ? (double)e.longs[row] : e.doubles[row];
+                }
+            }
+        }
+    }
+
+    private static final class Comparison extends VectorExpression {
+        private final VectorExpression lhs;
+        private final VectorExpression rhs;
+        private final byte operandType;
+        private final boolean less;
+        private final boolean equal;
+        private final boolean greater;
+
+        private Comparison(BinaryComparisonOperator op, VectorExpression lhs,
+                VectorExpression rhs, int capacity) {
+            super(new ColumnVector(DataType.BOOLEAN, capacity, false), true);
+            this.lhs = lhs;
+            this.rhs = rhs;
+            operandType = op.getOperandType();
+            less = op instanceof LessThanExpr || op instanceof LTOrEqualToExpr
+                || op instanceof NotEqualToExpr;
+            equal = op instanceof EqualToExpr || op instanceof LTOrEqualToExpr
+                || op instanceof GTOrEqualToExpr;
+            greater = op instanceof GreaterThanExpr || op instanceof GTOrEqualToExpr
+                || op instanceof NotEqualToExpr;
+        }
+
+        @Override
+        void evaluate(VectorBatch batch, int[] rows, int count) throws ExecException {
+            // as the interpreter, both operands are evaluated
+            lhs.evaluate(batch, rows, count);
+            rhs.evaluate(batch, rows, count);
+            ColumnVector l = lhs.result;
+            ColumnVector r = rhs.result;
+            for (int i = 0; i < count; i++) {
+                int row = rows[i];
+                if (l.isNull[row] || r.isNull[row]) {
+                    result.isNull[row] = true;
+                    continue;
+                }
+                int c;
+                switch (operandType) {
+                case DataType.INTEGER:
+                case DataType.LONG:
+                case DataType.BOOLEAN:
+                    c = compare(l.longs[row], r.longs[row]);
+                    break;
+                case DataType.FLOAT:
+                case DataType.DOUBLE:
+                    // compareTo of the boxed values, which orders NaN and -0.0
+                    c = Double.compare(l.doubles[row], r.doubles[row]);
+                    break;
+                default:
+                    c = ((String)l.objects[row]).compareTo((String)r.objects[row]);
+                }
+                result.isNull[row] = false;
+                result.longs[row] = (c < 0 ? less : c > 0 ? greater : equal) ? 1 : 0;
+            }
+        }
+
+        private static int compare(long a, long b) {
+            return a < b ? -1 : (a == b ? 0 : 1);
+        }
+    }
+
+    private static final class Logical extends VectorExpression {
+        private final boolean and;
+        private final VectorExpression lhs;
+        private final VectorExpression rhs;
+        private final int[] undecided;
+
+        private Logical(boolean and, VectorExpression lhs, VectorExpression rhs, int capacity) {
+            super(new ColumnVector(DataType.BOOLEAN, capacity, false), true);
+            this.and = and;
+            this.lhs = lhs;
+            this.rhs = rhs;
+            undecided = new int[capacity];
+        }
+
+        @Override
+        void evaluate(VectorBatch batch, int[] rows, int count) throws ExecException {
+            // the value which decides the result alone: false for AND, true for OR
+            long decisive = and ? 0 : 1;
+            lhs.evaluate(batch, rows, count);
+            ColumnVector l = lhs.result;
+            int n = 0;
+            for (int i = 0; i < count; i++) {
+                int row = rows[i];
+                if (!l.isNull[row] && l.longs[row] == decisive) {
+                    result.isNull[row] = false;
+                    result.longs[row] = decisive;
+                } else {
+                    undecided[n++] = row;
+                }
+            }
+            rhs.evaluate(batch, undecided, n);
+            ColumnVector r = rhs.result;
+            for (int i = 0; i < n; i++) {
+                int row = undecided[i];
+                if (!r.isNull[row] && r.longs[row] == decisive) {
+                    result.isNull[row] = false;
+                    result.longs[row] = decisive;
+                } else if (!r.isNull[row] && !l.isNull[row]) {
+                    result.isNull[row] = false;
+                    result.longs[row] = 1 - decisive;
+                } else {
+                    // null with the other value gives null
+                    result.isNull[row] = true;
+                }
+            }
+        }
+    }
+
+    private static final class Not extends VectorExpression {
+        private final VectorExpression expr;
+
+        private Not(VectorExpression expr, int capacity) {
+            super(new ColumnVector(DataType.BOOLEAN, capacity, false), true);
+            this.expr = expr;
+        }
+
+        @Override
+        void evaluate(VectorBatch batch, int[] rows, int count) throws ExecException {
+            expr.evaluate(batch, rows, count);
+            ColumnVector e = expr.result;
+            for (int i = 0; i < count; i++) {
+                int row = rows[i];
+                result.isNull[row] = e.isNull[row];
+                result.longs[row] = 1 - e.longs[row];
+            }
+        }
+    }
+
+    private static final class IsNull extends VectorExpression {
+        private final VectorExpression expr;
+
+        private IsNull(VectorExpression expr, int capacity) {
+            super(new ColumnVector(DataType.BOOLEAN, capacity, false), false);
+            this.expr = expr;
+        }
+
+        @Override
+        void evaluate(VectorBatch batch, int[] rows, int count) throws ExecException {
+            expr.evaluate(batch, rows, count);
+            ColumnVector e = expr.result;
+            for (int i = 0; i < count; i++) {
+                int row = rows[i];
+                result.isNull[row] = false;
+                result.longs[row] = e.isNull[row] ? 1 : 0;
+            }
+        }
+    }
+
+    /**
+     * A UDF, called once per batch with the values of its inputs.
+     */
+    private static final class UserFunc extends VectorExpression {
+        private final POUserFunc op;
+        private final VectorExpression[] args;
+        private final Object[][] argValues;
+        private final Object[] results;
+
+        private UserFunc(POUserFunc op, VectorExpression[] args, byte type, int capacity) {
+            super(new ColumnVector(type, capacity, true), false);
+            this.op = op;
+            this.args = args;
+            argValues = new Object[args.length][capacity];
+            results = new Object[capacity];
+        }
+
+        @Override
+        void evaluate(VectorBatch batch, int[] rows, int count) throws ExecException {
+            for (int a = 0; a < args.length; a++) {
+                args[a].evaluate(batch, rows, count);
+                ColumnVector arg = args[a].result;
+                Object[] values = argValues[a];
+                for (int i = 0; i < count; i++) {
+                    values[i] = arg.get(rows[i]);
+                }
+            }
+            op.getNextBatch(argValues, count, results);
+            for (int i = 0; i < count; i++) {
+                result.set(rows[i], results[i]);
+                results[i] = null;
+            }
+            for (Object[] values : argValues) {
+                Arrays.fill(values, 0, count, null);
+            }
+        }
+    }
+}
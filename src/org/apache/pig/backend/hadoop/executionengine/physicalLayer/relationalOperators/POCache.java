@@ -21,11 +21,17 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.pig.LoadFunc;
 import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.datastorage.ConfigurationUtil;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhyPlanVisitor;
@@ -36,6 +42,7 @@ import org.apache.pig.impl.plan.NodeIdGenerator;
 import org.apache.pig.impl.plan.OperatorKey;
 import org.apache.pig.impl.plan.VisitorException;
 import org.apache.pig.impl.util.Pair;
+import org.apache.pig.impl.util.UriUtil;
 import org.apache.pig.pen.util.ExampleTuple;
 
 public class POCache extends PhysicalOperator {
@@ -115,8 +122,8 @@ public class POCache extends PhysicalOperator {
         if (key == null) {
             key = computeRawCacheKey(inputs);
             if (key != null) {
-                // TODO deal with collisions!!
-                key = UUID.nameUUIDFromBytes(key.getBytes()).toString();
+                // a SHA-256 of the whole fingerprint, so that different plans do not collide
+                key = DigestUtils.sha256Hex(key);
             }
         }
         return key;
@@ -129,12 +136,9 @@ public class POCache extends PhysicalOperator {
         StringBuilder sb = new StringBuilder();
         for (PhysicalOperator operator : preds) {
             if (operator instanceof POLoad) {
-                // Load operators are equivalent if the file is the same
-                // and the loader is the same
-                // Potential problems down the line:
-                // * not checking LoadFunc arguments
-                sb.append("LOAD: " + ((POLoad) operator).getLFile().getFileName()
-                        + ((POLoad) operator).getLoadFunc().getClass().getName());
+                // Load operators are equivalent if the files are the same and have not
+                // changed, and the loader and its arguments are the same
+                sb.append(loadKey((POLoad) operator));
             } else if (operator instanceof POForEach) {
                 // We consider ForEach operators to be equivalent if their inner plans
                 // have the same explain plan after dropping scope markers.
@@ -201,6 +205,44 @@ public class POCache extends PhysicalOperator {
         return sb.toString();
     }
 
+    private static String loadKey(POLoad load) {
+        StringBuilder sb = new StringBuilder("LOAD: ");
+        sb.append(load.getLFile().getFileName()).append(" USING ").append(load.getLFile().getFuncSpec());
+        Configuration conf = load.getPc() == null ? new Configuration()
+                : ConfigurationUtil.toConfiguration(load.getPc().getProperties());
+        for (String location : LoadFunc.getPathStrings(load.getLFile().getFileName())) {
+            if (!UriUtil.isHDFSFileOrLocalOrS3N(location)) {
+                continue;
+            }
+            try {
+                Path path = new Path(location);
+                FileSystem fs = path.getFileSystem(conf);
+                FileStatus[] statuses = fs.globStatus(path);
+                if (statuses != null) {
+                    for (FileStatus status : statuses) {
+                        appendStatus(fs, status, sb);
+                    }
+                }
+            } catch (IOException e) {
+                LOG.warn("Unable to get the modification time of " + location
+                        + ", its cache key only depends on its name", e);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void appendStatus(FileSystem fs, FileStatus status, StringBuilder sb)
+            throws IOException {
+        if (status.isDir()) {
+            for (FileStatus child : fs.listStatus(status.getPath())) {
+                appendStatus(fs, child, sb);
+            }
+        } else {
+            sb.append(" ").append(status.getPath()).append("@").append(status.getModificationTime())
+                    .append(":").append(status.getLen());
+        }
+    }
+
     private String innerPlanKey(PhysicalPlan plan) throws VisitorException, IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         PlanPrinter<PhysicalOperator, PhysicalPlan> pp =
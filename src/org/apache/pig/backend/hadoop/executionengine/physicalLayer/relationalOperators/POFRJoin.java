@@ -22,6 +22,7 @@ import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -110,6 +111,10 @@ public class POFRJoin extends PhysicalOperator {
     private Schema[] inputSchemas;
     private Schema[] keySchemas;
 
+    // Hash tables of the replicated inputs built up front by the caller. When
+    // set, replFiles are not read.
+    private transient List<? extends Map<Tuple, List<Tuple>>> prebuiltReplicates;
+
     public POFRJoin(OperatorKey k, int rp, List<PhysicalOperator> inp,
             List<List<PhysicalPlan>> ppLists, List<List<Byte>> keyTypes,
             FileSpec[] replFiles, int fragment, boolean isLeftOuter,
@@ -228,7 +233,10 @@ public class POFRJoin extends PhysicalOperator {
         Result res = null;
         Result inp = null;
         if (!setUp) {
-            setUpHashMap();
+            // the prebuilt hash tables are read as they are
+            if (prebuiltReplicates == null) {
+                setUpHashMap();
+            }
             setUp = true;
         }
         if (processingPlan) {
@@ -288,15 +296,15 @@ public class POFRJoin extends PhysicalOperator {
                     ce.setValue(value);
                     continue;
                 }
-                TupleToMapKey replicate = replicates[i];
-                if (replicate.get(key) == null) {
+                List<Tuple> matches = getReplicated(i, key);
+                if (matches == null) {
                     if (isLeftOuterJoin) {
                         ce.setValue(nullBag);
                     }
                     noMatch = true;
                     break;
                 }
-                ce.setValue(new NonSpillableDataBag(replicate.get(key).getList()));
+                ce.setValue(new NonSpillableDataBag(matches));
             }
 
             // If this is not LeftOuter Join and there was no match we
@@ -416,6 +424,73 @@ public class POFRJoin extends PhysicalOperator {
         log.debug("Hash Table built. Time taken: " + (time2 - time1));
     }
 
+    /**
+     * Builds the hash table for the replicated input at the given index from
+     * the tuples of that input, the same way {@link #setUpHashMap()} does from
+     * the replicated file. The result can be handed to
+     * {@link #setPrebuiltReplicates(List)}, possibly after being shipped to
+     * another JVM, so that the replicated inputs don't have to be read from the
+     * DFS by every task.
+     *
+     * @param index the input of the join the tuples belong to
+     * @param tuples the tuples of that input
+     * @return map from the join key, wrapped in a tuple, to the matching values
+     * @throws ExecException
+     */
+    public HashMap<Tuple, List<Tuple>> buildReplicate(int index, Iterator<Tuple> tuples)
+            throws ExecException {
+        if (mTupleFactory == null) {
+            mTupleFactory = TupleFactory.getInstance();
+        }
+        POLocalRearrange lr = LRs[index];
+        HashMap<Tuple, List<Tuple>> replicate = new HashMap<Tuple, List<Tuple>>(1000);
+        while (tuples.hasNext()) {
+            lr.attachInput(tuples.next());
+            Result res = lr.getNext(dummyTuple);
+            if (res.returnStatus != POStatus.STATUS_OK) {
+                int errCode = 2092;
+                String msg = "LocalRearrange of replicated input " + index
+                        + " isn't configured right or is not working";
+                throw new ExecException(msg, errCode, PigException.BUG);
+            }
+            Tuple tuple = (Tuple) res.result;
+            if (isKeyNull(tuple.get(1))) continue;
+            Tuple key = mTupleFactory.newTuple(1);
+            key.set(0, tuple.get(1));
+            List<Tuple> values = replicate.get(key);
+            if (values == null) {
+                values = new ArrayList<Tuple>(1);
+                replicate.put(key, values);
+            }
+            values.add(getValueTuple(lr, tuple));
+        }
+        lr.detachInput();
+        return replicate;
+    }
+
+    /**
+     * Sets the hash tables of the replicated inputs, as built by
+     * {@link #buildReplicate(int, Iterator)}, one per input of the join.
+     * The entry for the fragmented input is ignored. The tables are only
+     * read, so the joins of several tasks can share them.
+     */
+    public void setPrebuiltReplicates(List<? extends Map<Tuple, List<Tuple>>> prebuiltReplicates) {
+        this.prebuiltReplicates = prebuiltReplicates;
+        this.setUp = false;
+    }
+
+    /**
+     * @return the values of the replicated input at the given index matching a
+     * key, null if there are none
+     */
+    private List<Tuple> getReplicated(int index, Tuple key) {
+        if (prebuiltReplicates != null) {
+            return prebuiltReplicates.get(index).get(key);
+        }
+        TuplesToSchemaTupleList values = replicates[index].get(key);
+        return values == null ? null : values.getList();
+    }
+
     private boolean isKeyNull(Object key) throws ExecException {
         if (key == null) return true;
         if (key instanceof Tuple) {
@@ -26,6 +26,11 @@ import org.apache.pig.data.Tuple;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ColumnVector;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.CompiledExpression;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ExpressionCompiler;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.VectorBatch;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.VectorExpression;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhyPlanVisitor;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
 import org.apache.pig.impl.plan.OperatorKey;
@@ -40,6 +45,10 @@ import org.apache.pig.pen.util.LineageTracer;
  * avoid many function calls, the filter operator, stores the Comparison
  * Operator that is the root of the Expression Plan and uses its getNext
  * directly.
+ * When pig.exec.codegen is set, the Expression Plan is compiled instead, see
+ * {@link ExpressionCompiler}.
+ * When pig.exec.batch is set, the backend may filter whole batches of tuples
+ * with {@link #filterBatch(VectorBatch)}.
  * 
  * Since the filter is supposed to return tuples only, getNext is not supported
  * on any other data type.
@@ -65,6 +74,14 @@ public class POFilter extends PhysicalOperator {
     // appropriate type
     byte compOperandType;
 
+    // The expression plan compiled, null when it is interpreted
+    private transient CompiledExpression compiledPlan = null;
+    private transient boolean compiledPlanChecked = false;
+
+    // The expression plan evaluated on batches, null when it is not
+    private transient VectorExpression vectorPlan = null;
+    private transient boolean vectorPlanChecked = false;
+
     public POFilter(OperatorKey k) {
         this(k, -1, null);
     }
@@ -102,6 +119,13 @@ public class POFilter extends PhysicalOperator {
 
             plan.attachInput((Tuple) inp.result);
 
+            if (!compiledPlanChecked) {
+                compiledPlanChecked = true;
+                if (illustrator == null && ExpressionCompiler.isEnabled()) {
+                    compiledPlan = ExpressionCompiler.compile(plan);
+                }
+            }
+
             /*
             switch (compOperandType) {
             case DataType.BOOLEAN:
@@ -145,7 +169,11 @@ public class POFilter extends PhysicalOperator {
                     DataType.findTypeName(compOperandType));
             }
             */
-            res = comOp.getNext(dummyBool);
+            if (compiledPlan != null) {
+                res = compiledPlan.getNext((Tuple) inp.result);
+            } else {
+                res = comOp.getNext(dummyBool);
+            }
             plan.detachInput();
             if (res.returnStatus != POStatus.STATUS_OK 
                     && res.returnStatus != POStatus.STATUS_NULL) 
@@ -160,6 +188,39 @@ public class POFilter extends PhysicalOperator {
         return inp;
     }
 
+    /**
+     * @param capacity the number of tuples of the batches
+     * @return whether {@link #filterBatch(VectorBatch)} evaluates the expression plan on
+     * the batches, rather than tuple by tuple
+     */
+    public boolean canProcessBatch(int capacity) throws ExecException {
+        if (!vectorPlanChecked) {
+            vectorPlanChecked = true;
+            if (illustrator == null) {
+                vectorPlan = VectorExpression.build(plan, capacity);
+            }
+        }
+        return vectorPlan != null && vectorPlan.getCapacity() == capacity;
+    }
+
+    /**
+     * Filters a batch of tuples: narrows its selection to the tuples for which the
+     * expression plan is true. Only to be called when {@link #canProcessBatch(int)}.
+     */
+    public void filterBatch(VectorBatch batch) throws ExecException {
+        ColumnVector values = vectorPlan.evaluate(batch);
+        int[] selected = batch.getSelected();
+        int count = batch.getSelectedCount();
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            int row = selected[i];
+            if (values.isTrue(row) && !batch.isDropped(row)) {
+                selected[n++] = row;
+            }
+        }
+        batch.setSelectedCount(n);
+    }
+
     @Override
     public String name() {
         return getAliasString() + "Filter" + "["
@@ -185,6 +246,10 @@ public class POFilter extends PhysicalOperator {
     public void setPlan(PhysicalPlan plan) {
         this.plan = plan;
         comOp = plan.getLeaves().get(0);
+        compiledPlan = null;
+        compiledPlanChecked = false;
+        vectorPlan = null;
+        vectorPlanChecked = false;
 //        compOperandType = comOp.getOperandType();
     }
 
@@ -28,9 +28,14 @@ import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ColumnVector;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.CompiledExpression;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ExpressionCompiler;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ExpressionOperator;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POProject;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.PORelationToExprProject;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.VectorBatch;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.VectorExpression;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhyPlanVisitor;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
 import org.apache.pig.data.AccumulativeBag;
@@ -92,6 +97,17 @@ public class POForEach extends PhysicalOperator {
 
     protected Tuple inpTuple;
 
+    // the plans compiled, by column, null for the plans interpreted
+    private transient CompiledExpression[] compiledPlans = null;
+    private transient boolean compiledPlansChecked = false;
+    // the tuple attached to the plans, which the compiled plans read
+    private transient Tuple planInput = null;
+
+    // the plans evaluated on batches, by column, null for the plans evaluated tuple by tuple
+    private transient VectorExpression[] vectorPlans = null;
+    private transient boolean vectorPlansChecked = false;
+    private transient int vectorPlansCapacity = 0;
+
     private Schema schema;
 
     public POForEach(OperatorKey k) {
@@ -319,7 +335,7 @@ public class POForEach extends PhysicalOperator {
         isEarlyTerminated = true;
     }
 
-    protected Result processPlan() throws ExecException{
+    private void initTupleMaker() {
         if (schema != null && tupleMaker == null) {
             // Note here that if SchemaTuple is currently turned on, then any UDF's in the chain
             // must follow good practices. Namely, they should not append to the Tuple that comes
@@ -332,6 +348,10 @@ public class POForEach extends PhysicalOperator {
         if (tupleMaker == null) {
             tupleMaker = TupleFactory.getInstance();
         }
+    }
+
+    protected Result processPlan() throws ExecException{
+        initTupleMaker();
 
         Result res = new Result();
 
@@ -357,6 +377,10 @@ public class POForEach extends PhysicalOperator {
             bags = new Object[noItems];
             earlyTermination = new BitSet(noItems);
 
+            if (!compiledPlansChecked) {
+                compilePlans();
+            }
+
             for(int i = 0; i < noItems; ++i) {
                 //Getting the iterators
                 //populate the input data
@@ -375,7 +399,11 @@ public class POForEach extends PhysicalOperator {
                 case DataType.BIGDECIMAL :
                 case DataType.DATETIME :
                 case DataType.CHARARRAY :
-                    inputData = planLeafOps[i].getNext(getDummy(resultTypes[i]), resultTypes[i]);
+                    if (compiledPlans != null && compiledPlans[i] != null) {
+                        inputData = compiledPlans[i].getNext(planInput);
+                    } else {
+                        inputData = planLeafOps[i].getNext(getDummy(resultTypes[i]), resultTypes[i]);
+                    }
                     break;
                 default: {
                     int errCode = 2080;
@@ -532,6 +560,138 @@ public class POForEach extends PhysicalOperator {
         for(PhysicalPlan p : inputPlans) {
             p.attachInput(t);
         }
+        planInput = t;
+    }
+
+    /**
+     * Compiles the plans of the columns not flattened when pig.exec.codegen is set.
+     * The accumulative plans, which are evaluated batch by batch, are interpreted.
+     */
+    private void compilePlans() throws ExecException {
+        compiledPlansChecked = true;
+        compiledPlans = null;
+        if (inputPlans == null || illustrator != null || isAccumulative()
+                || !ExpressionCompiler.isEnabled()) {
+            return;
+        }
+        CompiledExpression[] compiled = new CompiledExpression[noItems];
+        boolean any = false;
+        for (int i = 0; i < noItems; i++) {
+            if (!isToBeFlattenedArray[i]) {
+                compiled[i] = ExpressionCompiler.compile(inputPlans.get(i));
+                any |= compiled[i] != null;
+            }
+        }
+        if (any) {
+            compiledPlans = compiled;
+        }
+    }
+
+    /**
+     * @param capacity the number of tuples of the batches
+     * @return whether {@link #processBatch(VectorBatch, List)} evaluates plans on the
+     * batches: none is flattened, nor accumulative, nor has nested relational operators,
+     * and at least one can be evaluated on batches
+     */
+    public boolean canProcessBatch(int capacity) throws ExecException {
+        if (!vectorPlansChecked) {
+            vectorPlansChecked = true;
+            vectorPlans = null;
+            vectorPlansCapacity = capacity;
+            if (inputPlans == null || planLeafOps == null || illustrator != null
+                    || isAccumulative() || !opsToBeReset.isEmpty()) {
+                return false;
+            }
+            VectorExpression[] vectors = new VectorExpression[noItems];
+            boolean any = false;
+            for (int i = 0; i < noItems; i++) {
+                if (isToBeFlattenedArray[i]
+                        || !(planLeafOps[i] instanceof ExpressionOperator)) {
+                    return false;
+                }
+                vectors[i] = VectorExpression.build(inputPlans.get(i), capacity);
+                any |= vectors[i] != null;
+            }
+            if (any) {
+                vectorPlans = vectors;
+            }
+        }
+        return vectorPlans != null && vectorPlansCapacity == capacity;
+    }
+
+    /**
+     * Processes the selected tuples of a batch, the plans which can be evaluated on batches
+     * column by column, the others tuple by tuple. Only to be called when
+     * {@link #canProcessBatch(int)}.
+     * @param output receives the output tuples, in the order of the input
+     */
+    public void processBatch(VectorBatch batch, List<Tuple> output) throws ExecException {
+        initTupleMaker();
+        if (!compiledPlansChecked) {
+            compilePlans();
+        }
+        try {
+            ColumnVector[] columns = new ColumnVector[noItems];
+            boolean allVectorized = true;
+            for (int i = 0; i < noItems; i++) {
+                if (vectorPlans[i] != null) {
+                    columns[i] = vectorPlans[i].evaluate(batch);
+                } else {
+                    allVectorized = false;
+                }
+            }
+            if (getReporter() != null) {
+                getReporter().progress();
+            }
+            Object[] values = new Object[noItems];
+            int[] selected = batch.getSelected();
+            int count = batch.getSelectedCount();
+            rows: for (int s = 0; s < count; s++) {
+                int row = selected[s];
+                if (batch.isDropped(row)) {
+                    continue;
+                }
+                Tuple input = batch.getRow(row);
+                if (!allVectorized) {
+                    attachInputToPlans(input);
+                }
+                for (int i = 0; i < noItems; i++) {
+                    if (columns[i] != null) {
+                        values[i] = columns[i].get(row);
+                        continue;
+                    }
+                    Result inputData;
+                    if (compiledPlans != null && compiledPlans[i] != null) {
+                        inputData = compiledPlans[i].getNext(input);
+                    } else {
+                        inputData = planLeafOps[i].getNext(getDummy(resultTypes[i]),
+                                resultTypes[i]);
+                    }
+                    switch (inputData.returnStatus) {
+                    case POStatus.STATUS_OK:
+                    case POStatus.STATUS_NULL:
+                        values[i] = inputData.result;
+                        break;
+                    case POStatus.STATUS_EOP:
+                        // as processPlan(), no output for this tuple
+                        continue rows;
+                    default:
+                        throw new ExecException("Error while executing ForEach at "
+                                + getOriginalLocations() + ": " + inputData.result);
+                    }
+                }
+                inpTuple = input;
+                output.add(createTuple(values));
+            }
+        } catch (RuntimeException e) {
+            throw new ExecException("Error while executing ForEach at " + this.getOriginalLocations(), e);
+        } finally {
+            for (PhysicalPlan plan : inputPlans) {
+                plan.detachInput();
+            }
+            planInput = null;
+            inpTuple = null;
+        }
     }
 
     public void getLeaves() {
@@ -558,6 +718,10 @@ public class POForEach extends PhysicalOperator {
     }
 
     private void reInitialize() {
+        compiledPlans = null;
+        compiledPlansChecked = false;
+        vectorPlans = null;
+        vectorPlansChecked = false;
         if(planLeafOps != null) {
             noItems = planLeafOps.length;
             resultTypes = new byte[noItems];
@@ -29,6 +29,7 @@ import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
 import org.apache.pig.data.DataType;
 import org.apache.pig.data.InternalCachedBag;
+import org.apache.pig.data.SerializedCachedBag;
 import org.apache.pig.data.NonSpillableDataBag;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.impl.io.NullableTuple;
@@ -49,6 +50,8 @@ public class POJoinPackage extends POPackage {
     private boolean firstTime = true;
     private boolean useDefaultBag = false;
 
+    private boolean useSerializedBag = false;
+
     public static final String DEFAULT_CHUNK_SIZE = "1000";
 
     private long chunkSize = Long.parseLong(DEFAULT_CHUNK_SIZE);
@@ -112,6 +115,8 @@ public class POJoinPackage extends POPackage {
                 String bagType = PigMapReduce.sJobConfInternal.get().get("pig.cachedbag.type");
                 if (bagType != null && bagType.equalsIgnoreCase("default")) {
                     useDefaultBag = true;
+                } else if (bagType != null && bagType.equalsIgnoreCase("serialized")) {
+                    useSerializedBag = true;
                 }
             }
         }
@@ -148,6 +153,7 @@ public class POJoinPackage extends POPackage {
                 // POJoinPackage in the pipeline and is also blocking the pipeline;
                 // constructor argument should be 2 * numInputs. But for one obscure
                 // case we don't want to pay the penalty all the time.        
+                        : useSerializedBag ? new SerializedCachedBag(numInputs-1)
                         : new InternalCachedBag(numInputs-1);                    
             }
             // For last bag, we always use NonSpillableBag.
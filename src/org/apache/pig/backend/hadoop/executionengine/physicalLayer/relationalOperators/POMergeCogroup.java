@@ -470,6 +470,27 @@ public class POMergeCogroup extends PhysicalOperator {
         return mTupleFactory.newTuple(((Tuple)lrOut.result).getAll());
     }
 
+    /**
+     * Extracts the group key of a tuple of the given relation (0 is the base relation), for
+     * backends which feed all the relations to the cogroup themselves.
+     * @return the key, null if the key is null
+     * @throws ExecException
+     */
+    public Object getGroupKey(final Tuple inp, final int lrIdx) throws ExecException{
+
+        POLocalRearrange lr = LRs[lrIdx];
+        lr.attachInput(inp);
+        Result lrOut = lr.getNext(dummyTuple);
+        lr.detachInput();
+
+        if(lrOut.returnStatus!=POStatus.STATUS_OK){
+            int errCode = 2167;
+            String errMsg = "LocalRearrange used to extract keys from tuple isn't configured correctly";
+            throw new ExecException(errMsg,errCode,PigException.BUG);
+        } 
+        return ((Tuple)lrOut.result).get(1);
+    }
+
     @Override
     public void visit(PhyPlanVisitor v) throws VisitorException {
         v.visitMergeCoGroup(this);
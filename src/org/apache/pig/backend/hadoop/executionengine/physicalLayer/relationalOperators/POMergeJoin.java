@@ -610,6 +610,16 @@ public class POMergeJoin extends PhysicalOperator {
         return ((Tuple) lrOut.result).get(1);
     }
 
+    /**
+     * Extracts the join key of a tuple of the given input (0 is left, 1 is right), for backends
+     * which feed both inputs to the join themselves.
+     * @return the key, null if the key is null
+     * @throws ExecException
+     */
+    public Object getJoinKey(Tuple tuple, int lrIdx) throws ExecException {
+        return extractKeysFromTuple(new Result(POStatus.STATUS_OK, tuple), lrIdx);
+    }
+
     public void setupRightPipeline(PhysicalPlan rightPipeline) throws FrontendException{
 
         if(rightPipeline != null){
@@ -36,6 +36,7 @@ import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
 import org.apache.pig.data.DataType;
 import org.apache.pig.data.InternalCachedBag;
+import org.apache.pig.data.SerializedCachedBag;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.data.TupleFactory;
 import org.apache.pig.impl.io.NullableTuple;
@@ -119,6 +120,8 @@ public class POPackage extends PhysicalOperator {
 
     private boolean useDefaultBag = false;
 
+    private boolean useSerializedBag = false;
+
     private PackageType pkgType;
 
     public POPackage(OperatorKey k) {
@@ -227,6 +230,8 @@ public class POPackage extends PhysicalOperator {
                 String bagType = PigMapReduce.sJobConfInternal.get().get("pig.cachedbag.type");
                 if (bagType != null && bagType.equalsIgnoreCase("default")) {
                     useDefaultBag = true;
+                } else if (bagType != null && bagType.equalsIgnoreCase("serialized")) {
+                    useSerializedBag = true;
                 }
             }
         }
@@ -258,6 +263,7 @@ public class POPackage extends PhysicalOperator {
                     // POPackage in the pipeline and is also blocking the pipeline;
                     // constructor argument should be 2 * numInputs. But for one obscure
                     // case we don't want to pay the penalty all the time.
+                            : useSerializedBag ? new SerializedCachedBag(numInputs)
                             : new InternalCachedBag(numInputs);
                 }
                 //For each indexed tup in the inp, sort them
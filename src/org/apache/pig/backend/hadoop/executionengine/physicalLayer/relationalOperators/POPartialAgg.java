@@ -111,6 +111,9 @@ public class POPartialAgg extends PhysicalOperator implements Spillable {
     private int avgTupleSize = 0;
     private Iterator<Entry<Object, List<Tuple>>> spillingIterator;
     private boolean estimatedMemThresholds = false;
+    // accumulators replacing the maps when the value plans are builtin functions
+    private transient PrimitiveAggTable primitiveTable;
+    private int numRecsAggregated = 0;
 
 
     public POPartialAgg(OperatorKey k) {
@@ -123,6 +126,13 @@ public class POPartialAgg extends PhysicalOperator implements Spillable {
         if (percent <= 0) {
             LOG.info("No memory allocated to intermediate memory buffers. Turning off partial aggregation.");
             disableMapAgg();
+        } else if (isPrimitiveAggEnabled()) {
+            memLimits = new MemoryLimits(ALL_POPARTS.size(), percent);
+            primitiveTable = PrimitiveAggTable.create(keyLeaf.getResultType(), valuePlans,
+                    memLimits.getMaxMemUsage());
+            if (primitiveTable != null) {
+                LOG.info("Aggregating into primitive accumulators.");
+            }
         }
         initialized = true;
         SpillableMemoryManager.getInstance().registerSpillable(this);
@@ -144,6 +154,9 @@ public class POPartialAgg extends PhysicalOperator implements Spillable {
         if (!initialized && !ALL_POPARTS.containsKey(this)) {
             init();
         }
+        if (primitiveTable != null) {
+            return getNextPrimitive();
+        }
 
         while (true) {
             if (!sizeReductionChecked && numRecsInRawMap >= NUM_RECS_TO_SAMPLE) {
@@ -212,6 +225,72 @@ public class POPartialAgg extends PhysicalOperator implements Spillable {
         }
     }
 
+    /**
+     * getNext() when the values are aggregated in the primitive table: each
+     * input is added to the accumulators of its key, which are output when
+     * the table is full, when the memory manager asks for a spill, or at the
+     * end of the input.
+     */
+    private Result getNextPrimitive() throws ExecException {
+        while (true) {
+            if (doSpill) {
+                Tuple output = primitiveTable.emitNext();
+                if (output != null) {
+                    return new Result(POStatus.STATUS_OK, output);
+                }
+                doSpill = false;
+                if (inputsExhausted) {
+                    return EOP_RESULT;
+                }
+            }
+            if (mapAggDisabled()) {
+                return processInput();
+            }
+            Result inp = processInput();
+            if (inp.returnStatus == POStatus.STATUS_ERR) {
+                return inp;
+            } else if (inp.returnStatus == POStatus.STATUS_EOP) {
+                if (parentPlan.endOfAllInput) {
+                    inputsExhausted = true;
+                    doSpill = true;
+                    LOG.info("Spilling last bits.");
+                    continue;
+                } else {
+                    return EOP_RESULT;
+                }
+            } else if (inp.returnStatus == POStatus.STATUS_NULL) {
+                continue;
+            }
+            Tuple inpTuple = (Tuple) inp.result;
+            keyPlan.attachInput(inpTuple);
+            Result keyRes = getResult(keyLeaf);
+            if (keyRes == ERR_RESULT) {
+                return ERR_RESULT;
+            }
+            keyPlan.detachInput();
+            primitiveTable.add(keyRes.result, inpTuple);
+            numRecsAggregated++;
+
+            if (!sizeReductionChecked && numRecsAggregated >= NUM_RECS_TO_SAMPLE) {
+                int reduction = numRecsAggregated / primitiveTable.size();
+                LOG.info("Observed reduction factor: from " + numRecsAggregated +
+                        " to " + primitiveTable.size() + " => " + reduction + ".");
+                int minReduction = getMinOutputReductionFromProp();
+                if (reduction < minReduction) {
+                    LOG.info("Disabling in-memory aggregation, since observed reduction is less than " + minReduction);
+                    disableMapAgg = true;
+                    doSpill = true;
+                }
+                sizeReduction = reduction;
+                sizeReductionChecked = true;
+            }
+            if (primitiveTable.isFull()) {
+                LOG.info("Starting spill of " + primitiveTable.size() + " keys.");
+                doSpill = true;
+            }
+        }
+    }
+
     private void estimateMemThresholds() {
         if (!mapAggDisabled()) {
             LOG.info("Getting mem limits; considering " + ALL_POPARTS.size() + " POPArtialAgg objects.");
@@ -434,6 +513,12 @@ public class POPartialAgg extends PhysicalOperator implements Spillable {
         return minReduction;
     }
 
+    private boolean isPrimitiveAggEnabled() {
+        return PigMapReduce.sJobConfInternal.get() == null
+                || PigMapReduce.sJobConfInternal.get().getBoolean(
+                        PigConfiguration.PROP_EXEC_MAP_PARTAGG_PRIMITIVE, true);
+    }
+
     private float getPercentUsageFromProp() {
         float percent = 0.2F;
         if (PigMapReduce.sJobConfInternal.get() != null) {
@@ -548,6 +633,9 @@ public class POPartialAgg extends PhysicalOperator implements Spillable {
 
     @Override
     public long getMemorySize() {
+        if (primitiveTable != null) {
+            return primitiveTable.getMemorySize();
+        }
         return avgTupleSize * (numRecsInProcessedMap + numRecsInRawMap);
     }
 
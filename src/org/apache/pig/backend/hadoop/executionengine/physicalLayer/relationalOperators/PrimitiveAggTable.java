@@ -0,0 +1,497 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.pig.PigException;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POProject;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POUserFunc;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.builtin.AVG;
+import org.apache.pig.builtin.COUNT;
+import org.apache.pig.builtin.COUNT_STAR;
+import org.apache.pig.builtin.DoubleAvg;
+import org.apache.pig.builtin.DoubleMax;
+import org.apache.pig.builtin.DoubleMin;
+import org.apache.pig.builtin.DoubleSum;
+import org.apache.pig.builtin.FloatAvg;
+import org.apache.pig.builtin.FloatMax;
+import org.apache.pig.builtin.FloatMin;
+import org.apache.pig.builtin.IntAvg;
+import org.apache.pig.builtin.IntMax;
+import org.apache.pig.builtin.IntMin;
+import org.apache.pig.builtin.LongAvg;
+import org.apache.pig.builtin.LongMax;
+import org.apache.pig.builtin.LongMin;
+import org.apache.pig.builtin.LongSum;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.SizeUtil;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+
+/**
+ * The accumulators of {@link POPartialAgg} when all its value plans are the
+ * Intermediate function of a builtin COUNT, SUM, MIN, MAX or AVG over
+ * numbers. Instead of buffering the input tuples and running the functions
+ * over bags of them, the running value of each function is kept per key in
+ * primitive arrays, so that aggregating a row costs a probe of the table.
+ * The tuples emitted are the ones the Intermediate functions would return.
+ * <p>
+ * Keys are stored in an open addressing table with linear probing: as longs
+ * for integer and long keys, as objects for the other keys, such as the
+ * tuples of composite keys. The null key has a slot of its own, after the
+ * others.
+ */
+class PrimitiveAggTable {
+
+    private static final TupleFactory TF = TupleFactory.getInstance();
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private static enum Agg {
+        COUNT, SUM_LONG, MIN_LONG, MAX_LONG, MIN_INT, MAX_INT, SUM_DOUBLE,
+        MIN_DOUBLE, MAX_DOUBLE, MIN_FLOAT, MAX_FLOAT, AVG_LONG, AVG_DOUBLE
+    }
+
+    private static final Map<String, Agg> INTERMEDIATES = new HashMap<String, Agg>();
+    static {
+        INTERMEDIATES.put(COUNT.Intermediate.class.getName(), Agg.COUNT);
+        INTERMEDIATES.put(COUNT_STAR.Intermediate.class.getName(), Agg.COUNT);
+        // IntSum uses the Intermediate of LongSum, FloatSum the one of DoubleSum
+        INTERMEDIATES.put(LongSum.Intermediate.class.getName(), Agg.SUM_LONG);
+        INTERMEDIATES.put(LongMin.Intermediate.class.getName(), Agg.MIN_LONG);
+        INTERMEDIATES.put(LongMax.Intermediate.class.getName(), Agg.MAX_LONG);
+        INTERMEDIATES.put(IntMin.Intermediate.class.getName(), Agg.MIN_INT);
+        INTERMEDIATES.put(IntMax.Intermediate.class.getName(), Agg.MAX_INT);
+        INTERMEDIATES.put(DoubleSum.Intermediate.class.getName(), Agg.SUM_DOUBLE);
+        INTERMEDIATES.put(DoubleMin.Intermediate.class.getName(), Agg.MIN_DOUBLE);
+        INTERMEDIATES.put(DoubleMax.Intermediate.class.getName(), Agg.MAX_DOUBLE);
+        INTERMEDIATES.put(FloatMin.Intermediate.class.getName(), Agg.MIN_FLOAT);
+        INTERMEDIATES.put(FloatMax.Intermediate.class.getName(), Agg.MAX_FLOAT);
+        INTERMEDIATES.put(IntAvg.Intermediate.class.getName(), Agg.AVG_LONG);
+        INTERMEDIATES.put(LongAvg.Intermediate.class.getName(), Agg.AVG_LONG);
+        INTERMEDIATES.put(DoubleAvg.Intermediate.class.getName(), Agg.AVG_DOUBLE);
+        INTERMEDIATES.put(FloatAvg.Intermediate.class.getName(), Agg.AVG_DOUBLE);
+        INTERMEDIATES.put(AVG.Intermediate.class.getName(), Agg.AVG_DOUBLE);
+    }
+
+    private final Agg[] aggs;
+    private final int[] columns;
+    private final byte keyType;
+    private final boolean longKeys;
+    private final long maxMemory;
+
+    private int capacity;
+    private int threshold;
+    private int size = 0;
+    private long keyMemory = 0;
+
+    // slot capacity is the null key
+    private boolean[] used;
+    private long[] keys;
+    private Object[] objectKeys;
+    private long[][] longValues;
+    private double[][] doubleValues;
+    private long[][] counts;
+    private boolean[][] seen;
+
+    // next slot to emit, -1 when not emitting
+    private int emitSlot = -1;
+
+    private PrimitiveAggTable(Agg[] aggs, int[] columns, byte keyType, long maxMemory) {
+        this.aggs = aggs;
+        this.columns = columns;
+        this.keyType = keyType;
+        this.longKeys = keyType == DataType.INTEGER || keyType == DataType.LONG;
+        this.maxMemory = maxMemory;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param keyType the type of the group key
+     * @param valuePlans the value plans of the POPartialAgg
+     * @param maxMemory the memory the table may use
+     * @return a table for the value plans, null if one of them is not an
+     * Intermediate function it knows
+     */
+    static PrimitiveAggTable create(byte keyType, List<PhysicalPlan> valuePlans,
+            long maxMemory) throws ExecException {
+        Agg[] aggs = new Agg[valuePlans.size()];
+        int[] columns = new int[valuePlans.size()];
+        for (int i = 0; i < valuePlans.size(); i++) {
+            PhysicalPlan plan = valuePlans.get(i);
+            if (plan.size() != 2 || plan.getRoots().size() != 1
+                    || plan.getLeaves().size() != 1) {
+                return null;
+            }
+            PhysicalOperator root = plan.getRoots().get(0);
+            PhysicalOperator leaf = plan.getLeaves().get(0);
+            if (!(root instanceof POProject) || !(leaf instanceof POUserFunc)) {
+                return null;
+            }
+            POProject proj = (POProject) root;
+            if (proj.isStar() || proj.isProjectToEnd() || proj.getColumns().size() != 1) {
+                return null;
+            }
+            POUserFunc func = (POUserFunc) leaf;
+            aggs[i] = INTERMEDIATES.get(func.getFuncSpec().getClassName());
+            if (aggs[i] == null) {
+                return null;
+            }
+            columns[i] = proj.getColumn();
+        }
+        return new PrimitiveAggTable(aggs, columns, keyType, maxMemory);
+    }
+
+    private void allocate(int newCapacity) {
+        capacity = newCapacity;
+        threshold = (int) (newCapacity * LOAD_FACTOR);
+        used = new boolean[newCapacity + 1];
+        if (longKeys) {
+            keys = new long[newCapacity];
+        } else {
+            objectKeys = new Object[newCapacity];
+        }
+        longValues = new long[aggs.length][];
+        doubleValues = new double[aggs.length][];
+        counts = new long[aggs.length][];
+        seen = new boolean[aggs.length][newCapacity + 1];
+        for (int i = 0; i < aggs.length; i++) {
+            if (isDouble(aggs[i])) {
+                doubleValues[i] = new double[newCapacity + 1];
+            } else {
+                longValues[i] = new long[newCapacity + 1];
+            }
+            if (aggs[i] == Agg.AVG_LONG || aggs[i] == Agg.AVG_DOUBLE) {
+                counts[i] = new long[newCapacity + 1];
+            }
+        }
+    }
+
+    private static boolean isDouble(Agg agg) {
+        switch (agg) {
+        case SUM_DOUBLE:
+        case MIN_DOUBLE:
+        case MAX_DOUBLE:
+        case MIN_FLOAT:
+        case MAX_FLOAT:
+        case AVG_DOUBLE:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    private long getSlotMemory(int slots) {
+        // the used flag, and the long key or the reference to the key
+        long perSlot = 1 + 8;
+        for (Agg agg : aggs) {
+            perSlot += 9;
+            if (agg == Agg.AVG_LONG || agg == Agg.AVG_DOUBLE) {
+                perSlot += 8;
+            }
+        }
+        return perSlot * (slots + 1);
+    }
+
+    /**
+     * @return the memory used by the table, keys included
+     */
+    long getMemorySize() {
+        return getSlotMemory(capacity) + keyMemory;
+    }
+
+    /**
+     * @return true if the table can take no more keys without going over
+     * its memory
+     */
+    boolean isFull() {
+        return size >= threshold
+                && getSlotMemory(capacity * 2) + keyMemory > maxMemory;
+    }
+
+    /**
+     * @return the number of keys in the table
+     */
+    int size() {
+        return used[capacity] ? size + 1 : size;
+    }
+
+    private static int mix(long h) {
+        h *= 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * @return the slot of the key, after adding it if it is new
+     */
+    private int findSlot(Object key) {
+        if (key == null) {
+            used[capacity] = true;
+            return capacity;
+        }
+        if (size >= threshold) {
+            rehash(capacity * 2);
+        }
+        int mask = capacity - 1;
+        if (longKeys) {
+            long k = ((Number) key).longValue();
+            int slot = mix(k) & mask;
+            while (used[slot]) {
+                if (keys[slot] == k) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            used[slot] = true;
+            keys[slot] = k;
+            size++;
+            return slot;
+        } else {
+            int slot = mix(key.hashCode()) & mask;
+            while (used[slot]) {
+                if (objectKeys[slot].equals(key)) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            used[slot] = true;
+            objectKeys[slot] = key;
+            keyMemory += SizeUtil.getPigObjMemSize(key);
+            size++;
+            return slot;
+        }
+    }
+
+    private void rehash(int newCapacity) {
+        boolean[] oldUsed = used;
+        long[] oldKeys = keys;
+        Object[] oldObjectKeys = objectKeys;
+        long[][] oldLongValues = longValues;
+        double[][] oldDoubleValues = doubleValues;
+        long[][] oldCounts = counts;
+        boolean[][] oldSeen = seen;
+        int oldCapacity = capacity;
+
+        allocate(newCapacity);
+        int mask = newCapacity - 1;
+        for (int from = 0; from < oldCapacity; from++) {
+            if (!oldUsed[from]) {
+                continue;
+            }
+            int to = mix(longKeys ? oldKeys[from] : oldObjectKeys[from].hashCode()) & mask;
+            while (used[to]) {
+                to = (to + 1) & mask;
+            }
+            used[to] = true;
+            if (longKeys) {
+                keys[to] = oldKeys[from];
+            } else {
+                objectKeys[to] = oldObjectKeys[from];
+            }
+            copySlot(oldLongValues, oldDoubleValues, oldCounts, oldSeen, from, to);
+        }
+        if (oldUsed[oldCapacity]) {
+            used[newCapacity] = true;
+            copySlot(oldLongValues, oldDoubleValues, oldCounts, oldSeen, oldCapacity, newCapacity);
+        }
+    }
+
+    private void copySlot(long[][] oldLongValues, double[][] oldDoubleValues,
+            long[][] oldCounts, boolean[][] oldSeen, int from, int to) {
+        for (int i = 0; i < aggs.length; i++) {
+            if (doubleValues[i] != null) {
+                doubleValues[i][to] = oldDoubleValues[i][from];
+            } else {
+                longValues[i][to] = oldLongValues[i][from];
+            }
+            if (counts[i] != null) {
+                counts[i][to] = oldCounts[i][from];
+            }
+            seen[i][to] = oldSeen[i][from];
+        }
+    }
+
+    /**
+     * Adds an input of the POPartialAgg, of the form (key, output of
+     * Initial 1, output of Initial 2, ...) to the running values of its key.
+     */
+    void add(Object key, Tuple input) throws ExecException {
+        int slot = findSlot(key);
+        try {
+            for (int i = 0; i < aggs.length; i++) {
+                Tuple t = (Tuple) input.get(columns[i]);
+                Object v = t.get(0);
+                if (aggs[i] == Agg.COUNT) {
+                    longValues[i][slot] += (Long) v;
+                    continue;
+                }
+                if (aggs[i] == Agg.AVG_LONG || aggs[i] == Agg.AVG_DOUBLE) {
+                    // nulls count for 0 in AVG, see IntAvg.combine()
+                    counts[i][slot] += (Long) t.get(1);
+                }
+                if (v == null) {
+                    continue;
+                }
+                boolean first = !seen[i][slot];
+                seen[i][slot] = true;
+                switch (aggs[i]) {
+                case SUM_LONG:
+                case AVG_LONG:
+                    longValues[i][slot] += ((Number) v).longValue();
+                    break;
+                case MIN_LONG:
+                case MIN_INT: {
+                    long l = aggs[i] == Agg.MIN_INT ? ((Number) v).intValue() : ((Number) v).longValue();
+                    longValues[i][slot] = first ? l : Math.min(longValues[i][slot], l);
+                    break;
+                }
+                case MAX_LONG:
+                case MAX_INT: {
+                    long l = aggs[i] == Agg.MAX_INT ? ((Number) v).intValue() : ((Number) v).longValue();
+                    longValues[i][slot] = first ? l : Math.max(longValues[i][slot], l);
+                    break;
+                }
+                case SUM_DOUBLE:
+                case AVG_DOUBLE:
+                    doubleValues[i][slot] += ((Number) v).doubleValue();
+                    break;
+                case MIN_DOUBLE:
+                case MIN_FLOAT: {
+                    double d = aggs[i] == Agg.MIN_FLOAT ? ((Number) v).floatValue() : ((Number) v).doubleValue();
+                    doubleValues[i][slot] = first ? d : Math.min(doubleValues[i][slot], d);
+                    break;
+                }
+                case MAX_DOUBLE:
+                case MAX_FLOAT: {
+                    double d = aggs[i] == Agg.MAX_FLOAT ? ((Number) v).floatValue() : ((Number) v).doubleValue();
+                    doubleValues[i][slot] = first ? d : Math.max(doubleValues[i][slot], d);
+                    break;
+                }
+                default:
+                    break;
+                }
+            }
+        } catch (ClassCastException e) {
+            int errCode = 2106;
+            String msg = "Unexpected input of an Intermediate function in partial aggregation";
+            throw new ExecException(msg, errCode, PigException.BUG, e);
+        }
+    }
+
+    /**
+     * Returns the next key of the table and its values, as the tuple
+     * POPartialAgg outputs: (key, output of Intermediate 1, ...). Once all
+     * keys are returned, the table is emptied and null is returned; no key
+     * can be added until then.
+     */
+    Tuple emitNext() throws ExecException {
+        if (emitSlot < 0) {
+            emitSlot = 0;
+        }
+        while (emitSlot <= capacity && !used[emitSlot]) {
+            emitSlot++;
+        }
+        if (emitSlot > capacity) {
+            clear();
+            return null;
+        }
+        int slot = emitSlot++;
+        Tuple output = TF.newTuple(aggs.length + 1);
+        output.set(0, getKey(slot));
+        for (int i = 0; i < aggs.length; i++) {
+            output.set(i + 1, getValue(i, slot));
+        }
+        return output;
+    }
+
+    private Object getKey(int slot) {
+        if (slot == capacity) {
+            return null;
+        }
+        if (!longKeys) {
+            return objectKeys[slot];
+        }
+        return keyType == DataType.INTEGER ? (Object) Integer.valueOf((int) keys[slot])
+                : (Object) Long.valueOf(keys[slot]);
+    }
+
+    private Tuple getValue(int i, int slot) throws ExecException {
+        boolean isSeen = seen[i][slot];
+        switch (aggs[i]) {
+        case COUNT:
+            return TF.newTuple(Long.valueOf(longValues[i][slot]));
+        case SUM_LONG:
+        case MIN_LONG:
+        case MAX_LONG:
+            return TF.newTuple(isSeen ? Long.valueOf(longValues[i][slot]) : null);
+        case MIN_INT:
+        case MAX_INT:
+            return TF.newTuple(isSeen ? Integer.valueOf((int) longValues[i][slot]) : null);
+        case SUM_DOUBLE:
+        case MIN_DOUBLE:
+        case MAX_DOUBLE:
+            return TF.newTuple(isSeen ? Double.valueOf(doubleValues[i][slot]) : null);
+        case MIN_FLOAT:
+        case MAX_FLOAT:
+            return TF.newTuple(isSeen ? Float.valueOf((float) doubleValues[i][slot]) : null);
+        case AVG_LONG: {
+            Tuple t = TF.newTuple(2);
+            t.set(0, isSeen ? Long.valueOf(longValues[i][slot]) : null);
+            t.set(1, Long.valueOf(counts[i][slot]));
+            return t;
+        }
+        case AVG_DOUBLE: {
+            Tuple t = TF.newTuple(2);
+            t.set(0, isSeen ? Double.valueOf(doubleValues[i][slot]) : null);
+            t.set(1, Long.valueOf(counts[i][slot]));
+            return t;
+        }
+        default:
+            throw new ExecException("Unknown aggregate " + aggs[i], 2106, PigException.BUG);
+        }
+    }
+
+    private void clear() {
+        Arrays.fill(used, false);
+        if (objectKeys != null) {
+            Arrays.fill(objectKeys, null);
+        }
+        for (int i = 0; i < aggs.length; i++) {
+            if (doubleValues[i] != null) {
+                Arrays.fill(doubleValues[i], 0);
+            } else {
+                Arrays.fill(longValues[i], 0);
+            }
+            if (counts[i] != null) {
+                Arrays.fill(counts[i], 0);
+            }
+            Arrays.fill(seen[i], false);
+        }
+        size = 0;
+        keyMemory = 0;
+        emitSlot = -1;
+    }
+}
@@ -0,0 +1,343 @@
+package org.apache.pig.backend.hadoop.executionengine.spark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.SkewedRearrangeConverter.SkewedKey;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.SortConverter.SerializedKey;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.InterSedes;
+import org.apache.pig.data.InterSedesFactory;
+
+import scala.Tuple2;
+import scala.collection.Iterator;
+import scala.collection.JavaConversions;
+import scala.collection.mutable.ArrayBuffer;
+import spark.DeserializationStream;
+import spark.SerializationStream;
+import spark.Serializer;
+import spark.SerializerInstance;
+
+/**
+ * Spark serializer for the shuffled and cached Pig data. Pig values (tuples, including the
+ * generated SchemaTuples, bags, maps, byte arrays and the atomic types) are written by
+ * {@link InterSedes}, in the same compact type-tagged format as the MR intermediate data. The
+ * pairs and the group buffers Spark shuffles are written element by element, as are the keys
+ * of the sort and of the skewed join, and any other object falls back to Java serialization,
+ * which writes the description of its class with each object.
+ * <p>
+ * Set as spark.serializer by the SparkLauncher unless another serializer is configured.
+ */
+public class BinInterSedesSerializer implements Serializer {
+
+    private static final InterSedes SEDES = InterSedesFactory.getInterSedesInstance();
+
+    // the kind of each object in the stream
+    private static final byte PIG = 0;
+    private static final byte PAIR = 1;
+    private static final byte BUFFER = 2;
+    private static final byte JAVA = 3;
+    private static final byte SORT_KEY = 4;
+    private static final byte SKEWED_KEY = 5;
+
+    @Override
+    public SerializerInstance newInstance() {
+        return new Instance();
+    }
+
+    static void write(DataOutputStream out, Object o) throws IOException {
+        if (o instanceof Tuple2) {
+            Tuple2<?, ?> pair = (Tuple2<?, ?>) o;
+            out.writeByte(PAIR);
+            write(out, pair._1());
+            write(out, pair._2());
+        } else if (o instanceof ArrayBuffer) {
+            ArrayBuffer<?> buffer = (ArrayBuffer<?>) o;
+            out.writeByte(BUFFER);
+            out.writeInt(buffer.size());
+            for (int i = 0; i < buffer.size(); i++) {
+                write(out, buffer.apply(i));
+            }
+        } else if (o instanceof SerializedKey) {
+            byte[] bytes = ((SerializedKey) o).getBytes();
+            out.writeByte(SORT_KEY);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else if (o instanceof SkewedKey) {
+            SkewedKey key = (SkewedKey) o;
+            out.writeByte(SKEWED_KEY);
+            out.writeInt(key.getPartition());
+            write(out, key.getKey());
+        } else if (isPigDatum(o)) {
+            out.writeByte(PIG);
+            SEDES.writeDatum(out, o);
+        } else {
+            out.writeByte(JAVA);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream objectOut = new ObjectOutputStream(bytes);
+            objectOut.writeObject(o);
+            objectOut.close();
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+        }
+    }
+
+    /**
+     * @return whether InterSedes can write the object. A map is only a Pig map inside a tuple,
+     *         others may have keys that are not strings.
+     */
+    private static boolean isPigDatum(Object o) {
+        byte type = DataType.findType(o);
+        return type != DataType.ERROR && type != DataType.MAP;
+    }
+
+    static Object read(DataInputStream in, ClassLoader loader) throws IOException {
+        byte kind = in.readByte();
+        switch (kind) {
+        case PIG:
+            return SEDES.readDatum(in);
+        case PAIR:
+            Object first = read(in, loader);
+            return new Tuple2<Object, Object>(first, read(in, loader));
+        case BUFFER:
+            int size = in.readInt();
+            ArrayBuffer<Object> buffer = new ArrayBuffer<Object>(size);
+            for (int i = 0; i < size; i++) {
+                buffer.$plus$eq(read(in, loader));
+            }
+            return buffer;
+        case SORT_KEY:
+            byte[] key = new byte[in.readInt()];
+            in.readFully(key);
+            return new SerializedKey(key);
+        case SKEWED_KEY:
+            int partition = in.readInt();
+            return new SkewedKey(read(in, loader), partition);
+        case JAVA:
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            ObjectInputStream objectIn = new LoaderObjectInputStream(
+                    new ByteArrayInputStream(bytes), loader);
+            try {
+                return objectIn.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Could not deserialize an object", e);
+            } finally {
+                objectIn.close();
+            }
+        default:
+            throw new IOException("Unknown object kind found in stream: " + kind);
+        }
+    }
+
+    private static ClassLoader getDefaultClassLoader() {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        return loader == null ? BinInterSedesSerializer.class.getClassLoader() : loader;
+    }
+
+    private static ByteBuffer toByteBuffer(ByteArrayOutputStream bytes) {
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    private static InputStream toInputStream(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            return new ByteArrayInputStream(buffer.array(),
+                    buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return new ByteArrayInputStream(bytes);
+    }
+
+    private static class Instance implements SerializerInstance {
+
+        @Override
+        public <T> ByteBuffer serialize(T t) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            serializeStream(bytes).writeObject(t).close();
+            return toByteBuffer(bytes);
+        }
+
+        @Override
+        public <T> T deserialize(ByteBuffer bytes) {
+            return deserialize(bytes, getDefaultClassLoader());
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T deserialize(ByteBuffer bytes, ClassLoader loader) {
+            try {
+                return (T) read(new DataInputStream(toInputStream(bytes)), loader);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public SerializationStream serializeStream(OutputStream s) {
+            return new Output(s);
+        }
+
+        @Override
+        public DeserializationStream deserializeStream(InputStream s) {
+            return new Input(s, getDefaultClassLoader());
+        }
+
+        @Override
+        public <T> ByteBuffer serializeMany(Iterator<T> iterator) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            serializeStream(bytes).writeAll(iterator).close();
+            return toByteBuffer(bytes);
+        }
+
+        @Override
+        public Iterator<Object> deserializeMany(ByteBuffer buffer) {
+            return deserializeStream(toInputStream(buffer)).asIterator();
+        }
+    }
+
+    private static class Output implements SerializationStream {
+        private final DataOutputStream out;
+
+        private Output(OutputStream out) {
+            this.out = new DataOutputStream(out);
+        }
+
+        @Override
+        public <T> SerializationStream writeObject(T t) {
+            try {
+                write(out, t);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return this;
+        }
+
+        @Override
+        public <T> SerializationStream writeAll(Iterator<T> iter) {
+            while (iter.hasNext()) {
+                writeObject(iter.next());
+            }
+            return this;
+        }
+
+        @Override
+        public void flush() {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static class Input implements DeserializationStream {
+        private final DataInputStream in;
+        private final ClassLoader loader;
+
+        private Input(InputStream in, ClassLoader loader) {
+            this.in = new DataInputStream(in);
+            this.loader = loader;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T readObject() {
+            try {
+                return (T) read(in, loader);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * @return the objects until the end of the stream
+         */
+        @Override
+        public Iterator<Object> asIterator() {
+            return JavaConversions.asScalaIterator(new java.util.Iterator<Object>() {
+                private Object next;
+                private boolean hasNext;
+                private boolean finished;
+
+                @Override
+                public boolean hasNext() {
+                    if (!hasNext && !finished) {
+                        try {
+                            next = read(in, loader);
+                            hasNext = true;
+                        } catch (EOFException e) {
+                            finished = true;
+                            Input.this.close();
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                    return hasNext;
+                }
+
+                @Override
+                public Object next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    hasNext = false;
+                    return next;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            });
+        }
+
+        @Override
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static class LoaderObjectInputStream extends ObjectInputStream {
+        private final ClassLoader loader;
+
+        private LoaderObjectInputStream(InputStream in, ClassLoader loader) throws IOException {
+            super(in);
+            this.loader = loader;
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc)
+                throws IOException, ClassNotFoundException {
+            try {
+                return Class.forName(desc.getName(), false, loader);
+            } catch (ClassNotFoundException e) {
+                return super.resolveClass(desc);
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package org.apache.pig.backend.hadoop.executionengine.spark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.pig.backend.hadoop.datastorage.ConfigurationUtil;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.InputSizeReducerEstimator;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.JobControlCompiler;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MapReduceOper;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigReducerEstimator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLoad;
+import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.plan.NodeIdGenerator;
+import org.apache.pig.impl.plan.OperatorKey;
+
+/**
+ * Chooses the number of partitions of the shuffles, as the JobControlCompiler chooses the number
+ * of reducers: the PARALLEL of the operator, else the default parallel of the script, else an
+ * estimate from the size of its input. Only when nothing can be estimated is the default
+ * parallelism of Spark used.
+ * <p>
+ * The loads the shuffle reads from are given to the {@link PigReducerEstimator} set by
+ * pig.exec.reducer.estimator ({@link InputSizeReducerEstimator} by default), in the map plan of
+ * a MapReduceOper. When the shuffle reads a relation already computed by an earlier job of the
+ * script, the size measured then replaces the size of the loads below it; it is divided by
+ * pig.exec.reducers.bytes.per.reducer too, the total being capped by pig.exec.reducers.max.
+ */
+public class ParallelismEstimator {
+    private static final Log LOG = LogFactory.getLog(ParallelismEstimator.class);
+
+    // rough ratio of the size of the tuples in memory to the size of their files
+    private static final int MEMORY_EXPANSION = 4;
+
+    private final PhysicalPlan plan;
+    private final PigContext pigContext;
+    private final SparkCounters counters;
+    private final int defaultParallelism;
+    private final Map<OperatorKey, Integer> estimates = new HashMap<OperatorKey, Integer>();
+
+    /**
+     * @param counters the sizes measured by the jobs run so far, null if none runs
+     * @param defaultParallelism the default parallelism of Spark, -1 if unknown
+     */
+    public ParallelismEstimator(PhysicalPlan plan, PigContext pigContext, SparkCounters counters,
+            int defaultParallelism) {
+        this.plan = plan;
+        this.pigContext = pigContext;
+        this.counters = counters;
+        this.defaultParallelism = defaultParallelism;
+    }
+
+    /**
+     * @return the number of partitions of the shuffle done by the operator, -1 if it is the
+     *         default parallelism of Spark and it is unknown
+     */
+    public int getParallelism(PhysicalOperator physicalOperator) {
+        if (physicalOperator.getRequestedParallelism() > 0) {
+            return physicalOperator.getRequestedParallelism();
+        }
+        if (pigContext.defaultParallel > 0) {
+            return pigContext.defaultParallel;
+        }
+        // the estimate of an operator does not change once its shuffle is set up
+        Integer parallelism = estimates.get(physicalOperator.getOperatorKey());
+        if (parallelism == null) {
+            parallelism = estimate(physicalOperator);
+            estimates.put(physicalOperator.getOperatorKey(), parallelism);
+        }
+        return parallelism;
+    }
+
+    private int estimate(PhysicalOperator physicalOperator) {
+        Configuration conf = ConfigurationUtil.toConfiguration(pigContext.getProperties());
+        long bytesPerReducer = conf.getLong(PigReducerEstimator.BYTES_PER_REDUCER_PARAM,
+                PigReducerEstimator.DEFAULT_BYTES_PER_REDUCER);
+        int maxReducers = conf.getInt(PigReducerEstimator.MAX_REDUCER_COUNT_PARAM,
+                PigReducerEstimator.DEFAULT_MAX_REDUCER_COUNT_PARAM);
+
+        List<POLoad> loads = new ArrayList<POLoad>();
+        long observedBytes = collectInputs(physicalOperator, loads, new HashSet<OperatorKey>());
+
+        int reducers = 0;
+        boolean estimated = false;
+        if (!loads.isEmpty()) {
+            String scope = physicalOperator.getOperatorKey().getScope();
+            MapReduceOper mro = new MapReduceOper(new OperatorKey(scope,
+                    NodeIdGenerator.getGenerator().getNextNodeId(scope)));
+            for (POLoad load : loads) {
+                mro.mapPlan.add(load);
+            }
+            try {
+                int fromLoads = JobControlCompiler.estimateNumberOfReducers(new Job(conf), mro);
+                if (fromLoads > 0) {
+                    reducers += fromLoads;
+                    estimated = true;
+                }
+            } catch (IOException e) {
+                LOG.warn("Unable to estimate the parallelism of " + physicalOperator
+                        + " from its loads", e);
+            }
+        }
+        if (observedBytes > 0) {
+            reducers += (int) Math.ceil((double) observedBytes / MEMORY_EXPANSION / bytesPerReducer);
+            estimated = true;
+        }
+
+        if (!estimated) {
+            LOG.info("Could not estimate the parallelism of " + physicalOperator
+                    + ", using the default parallelism " + defaultParallelism);
+            return defaultParallelism;
+        }
+        reducers = Math.max(1, Math.min(maxReducers, reducers));
+        LOG.info("Estimated the parallelism of " + physicalOperator + " to " + reducers
+                + " from " + loads.size() + " loads and " + observedBytes
+                + " bytes of relations already computed");
+        return reducers;
+    }
+
+    /**
+     * Walks up the plan from the operator, down to the loads or to the relations whose size was
+     * measured by an earlier job.
+     *
+     * @return the size in memory of the relations measured
+     */
+    private long collectInputs(PhysicalOperator physicalOperator, List<POLoad> loads,
+            Set<OperatorKey> visited) {
+        long observedBytes = 0;
+        List<PhysicalOperator> predecessors = plan.getPredecessors(physicalOperator);
+        if (predecessors == null) {
+            return 0;
+        }
+        for (PhysicalOperator predecessor : predecessors) {
+            if (!visited.add(predecessor.getOperatorKey())) {
+                continue;
+            }
+            long bytes = counters == null ? 0 : counters.getBytes(predecessor);
+            if (bytes > 0) {
+                observedBytes += bytes;
+            } else if (predecessor instanceof POLoad) {
+                loads.add((POLoad) predecessor);
+            } else {
+                observedBytes += collectInputs(predecessor, loads, visited);
+            }
+        }
+        return observedBytes;
+    }
+}
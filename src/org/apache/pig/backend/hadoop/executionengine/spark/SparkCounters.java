@@ -0,0 +1,140 @@
+package org.apache.pig.backend.hadoop.executionengine.spark;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.plan.OperatorKey;
+
+import scala.collection.Iterator;
+import scala.collection.JavaConversions;
+import scala.runtime.AbstractFunction1;
+import spark.Accumulator;
+import spark.RDD;
+import spark.SparkContext;
+
+/**
+ * Counts the tuples going through operators of a Spark plan, and measures their size, with
+ * accumulators. The counts are only updated by the tasks that complete, so a partition
+ * recomputed after a failure is not counted twice.
+ */
+@SuppressWarnings({ "serial" })
+public class SparkCounters {
+
+    private final SparkContext sparkContext;
+    private final Map<OperatorKey, Accumulator<Long>> counters =
+            new HashMap<OperatorKey, Accumulator<Long>>();
+    private final Map<OperatorKey, Accumulator<Long>> sizes =
+            new HashMap<OperatorKey, Accumulator<Long>>();
+
+    public SparkCounters(SparkContext sparkContext) {
+        this.sparkContext = sparkContext;
+    }
+
+    /**
+     * @return the given RDD, counting its tuples as the records of the operator
+     */
+    public RDD<Tuple> count(PhysicalOperator physicalOperator, RDD<Tuple> rdd) {
+        return rdd.mapPartitions(new CountFunction(getAccumulator(counters, physicalOperator), false),
+                SparkUtil.getManifest(Tuple.class));
+    }
+
+    /**
+     * @return the given RDD, adding the size in memory of its tuples to the size of the operator
+     *         unless it is already measured
+     */
+    public RDD<Tuple> measure(PhysicalOperator physicalOperator, RDD<Tuple> rdd) {
+        if (sizes.containsKey(physicalOperator.getOperatorKey())) {
+            return rdd;
+        }
+        return rdd.mapPartitions(new CountFunction(getAccumulator(sizes, physicalOperator), true),
+                SparkUtil.getManifest(Tuple.class));
+    }
+
+    private Accumulator<Long> getAccumulator(Map<OperatorKey, Accumulator<Long>> accumulators,
+            PhysicalOperator physicalOperator) {
+        Accumulator<Long> accumulator = accumulators.get(physicalOperator.getOperatorKey());
+        if (accumulator == null) {
+            accumulator = SparkUtil.newLongAccumulator(sparkContext);
+            accumulators.put(physicalOperator.getOperatorKey(), accumulator);
+        }
+        return accumulator;
+    }
+
+    /**
+     * @return the number of records counted so far for the operator, 0 if it is not counted
+     */
+    public long getValue(PhysicalOperator physicalOperator) {
+        Accumulator<Long> counter = counters.get(physicalOperator.getOperatorKey());
+        return counter == null ? 0 : counter.value();
+    }
+
+    /**
+     * @return the size in memory of the output of the operator measured so far, 0 if it is not
+     *         measured
+     */
+    public long getBytes(PhysicalOperator physicalOperator) {
+        Accumulator<Long> size = sizes.get(physicalOperator.getOperatorKey());
+        return size == null ? 0 : size.value();
+    }
+
+    private static class CountFunction extends AbstractFunction1<Iterator<Tuple>, Iterator<Tuple>>
+            implements Serializable {
+
+        // a partition read only partly, under a limit, still reports most of its count
+        private static final long FLUSH_INTERVAL = 1000;
+
+        private final Accumulator<Long> counter;
+        // adds the size of the tuples instead of their number
+        private final boolean measure;
+
+        public CountFunction(Accumulator<Long> counter, boolean measure) {
+            this.counter = counter;
+            this.measure = measure;
+        }
+
+        @Override
+        public Iterator<Tuple> apply(Iterator<Tuple> i) {
+            final java.util.Iterator<Tuple> input = JavaConversions.asJavaIterator(i);
+
+            return JavaConversions.asScalaIterator(new java.util.Iterator<Tuple>() {
+                // added to the accumulator once the partition is read, or given up on
+                private long count = 0;
+                private long tuples = 0;
+
+                @Override
+                public boolean hasNext() {
+                    boolean hasNext = input.hasNext();
+                    if (!hasNext) {
+                        flush();
+                    }
+                    return hasNext;
+                }
+
+                @Override
+                public Tuple next() {
+                    Tuple tuple = input.next();
+                    count += measure ? tuple.getMemorySize() : 1;
+                    if (++tuples % FLUSH_INTERVAL == 0) {
+                        flush();
+                    }
+                    return tuple;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+
+                private void flush() {
+                    if (count > 0) {
+                        counter.$plus$eq(count);
+                        count = 0;
+                    }
+                }
+            });
+        }
+    }
+}
@@ -2,54 +2,89 @@ package org.apache.pig.backend.hadoop.executionengine.spark;
 
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.pig.PigConfiguration;
 import org.apache.pig.PigConstants;
-import org.apache.pig.PigException;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.InputSizeReducerEstimator;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.Launcher;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MRCompiler;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MapReduceOper;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.POPackageAnnotator;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POCache;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POCollectedGroup;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POCombinerPackage;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POCounter;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.PODistinct;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFRJoin;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFilter;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POGlobalRearrange;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLimit;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLoad;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLocalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POMergeCogroup;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POMergeJoin;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.PONative;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPackage;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPreCombinerLocalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.PORank;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POSort;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POSplit;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStream;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POUnion;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.util.PlanHelper;
 import org.apache.pig.backend.hadoop.executionengine.spark.converter.CacheConverter;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.CollectedGroupConverter;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.CounterConverter;
 import org.apache.pig.backend.hadoop.executionengine.spark.converter.DistinctConverter;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.FRJoinConverter;
 import org.apache.pig.backend.hadoop.executionengine.spark.converter.FilterConverter;
 import org.apache.pig.backend.hadoop.executionengine.spark.converter.ForEachConverter;
 import org.apache.pig.backend.hadoop.executionengine.spark.converter.GlobalRearrangeConverter;
 import org.apache.pig.backend.hadoop.executionengine.spark.converter.LimitConverter;
 import org.apache.pig.backend.hadoop.executionengine.spark.converter.LoadConverter;
 import org.apache.pig.backend.hadoop.executionengine.spark.converter.LocalRearrangeConverter;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.MergeCogroupConverter;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.MergeJoinConverter;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.NativeConverter;
 import org.apache.pig.backend.hadoop.executionengine.spark.converter.POConverter;
 import org.apache.pig.backend.hadoop.executionengine.spark.converter.PackageConverter;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.RankConverter;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.ReduceByConverter;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.SkewedRearrangeConverter;
 import org.apache.pig.backend.hadoop.executionengine.spark.converter.SortConverter;
 import org.apache.pig.backend.hadoop.executionengine.spark.converter.SplitConverter;
 import org.apache.pig.backend.hadoop.executionengine.spark.converter.StoreConverter;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.StreamConverter;
 import org.apache.pig.backend.hadoop.executionengine.spark.converter.UnionConverter;
+import org.apache.pig.backend.hadoop.executionengine.spark.operator.POReduceBySpark;
+import org.apache.pig.backend.hadoop.executionengine.spark.operator.POSkewedRearrangeSpark;
+import org.apache.pig.backend.hadoop.executionengine.spark.optimizer.CombinerOptimizer;
+import org.apache.pig.backend.hadoop.executionengine.spark.optimizer.SkewedJoinOptimizer;
+import org.apache.pig.backend.hadoop.executionengine.spark.plans.DotSparkPrinter;
+import org.apache.pig.backend.hadoop.executionengine.spark.plans.SparkPrinter;
 import org.apache.pig.data.SchemaTupleBackend;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.io.FileSpec;
 import org.apache.pig.impl.plan.OperatorKey;
+import org.apache.pig.tools.pigstats.JobStats;
 import org.apache.pig.tools.pigstats.PigStats;
 import org.apache.pig.tools.pigstats.SparkStats;
 
@@ -65,14 +100,6 @@ public class SparkLauncher extends Launcher {
 
     private static final Log LOG = LogFactory.getLog(SparkLauncher.class);
 
-    // Our connection to Spark. It needs to be static so that it can be reused across jobs, because a
-    // new SparkLauncher gets created for each job.
-    private static SparkContext sparkContext = null;
-
-    // An object that handle cache calls in the operator graph. This is again static because we want
-    // it to be shared across SparkLaunchers. It gets cleared whenever we close the SparkContext.
-    private static CacheConverter cacheConverter = null;
-
     @Override
     public PigStats launchPig(PhysicalPlan physicalPlan, String grpName, PigContext pigContext) throws Exception {
         LOG.info("!!!!!!!!!!  Launching Spark (woot) !!!!!!!!!!!!");
@@ -81,114 +108,197 @@ public class SparkLauncher extends Launcher {
         c.set(PigConstants.LOCAL_CODE_DIR,System.getProperty("java.io.tmpdir"));
 
         SchemaTupleBackend.initialize(c, pigContext);
-/////////
-// stolen from MapReduceLauncher
-        MRCompiler mrCompiler = new MRCompiler(physicalPlan, pigContext);
-        mrCompiler.compile();
-        MROperPlan plan = mrCompiler.getMRPlan();
-        POPackageAnnotator pkgAnnotator = new POPackageAnnotator(plan);
-        pkgAnnotator.visit();
-//        // this one: not sure
-//        KeyTypeDiscoveryVisitor kdv = new KeyTypeDiscoveryVisitor(plan);
-//        kdv.visit();
 
-/////////
+        Set<String> udfs = preparePlan(physicalPlan, pigContext);
 
-        startSparkIfNeeded();
+        SparkSession session = SparkSession.getSession(pigContext, udfs);
+        SparkContext sparkContext = session.getSparkContext();
+        CacheConverter cacheConverter = session.getCacheConverter();
 
-        // initialize the supported converters
+        SparkCounters counters = new SparkCounters(sparkContext);
+        ParallelismEstimator estimator = new ParallelismEstimator(physicalPlan, pigContext,
+                counters, sparkContext.defaultParallelism());
         Map<Class<? extends PhysicalOperator>, POConverter> convertMap =
-                new HashMap<Class<? extends PhysicalOperator>, POConverter>();
-
-        convertMap.put(POLoad.class,    new LoadConverter(pigContext, physicalPlan, sparkContext));
-        convertMap.put(POStore.class,   new StoreConverter(pigContext));
-        convertMap.put(POForEach.class, new ForEachConverter());
-        convertMap.put(POFilter.class,  new FilterConverter());
-        convertMap.put(POPackage.class, new PackageConverter());
-        convertMap.put(POCache.class,   cacheConverter);
-        convertMap.put(POLocalRearrange.class,  new LocalRearrangeConverter());
-        convertMap.put(POGlobalRearrange.class, new GlobalRearrangeConverter());
-        convertMap.put(POLimit.class, new LimitConverter());
-        convertMap.put(PODistinct.class, new DistinctConverter());
-        convertMap.put(POUnion.class, new UnionConverter(sparkContext));
-        convertMap.put(POSort.class, new SortConverter());
-        convertMap.put(POSplit.class, new SplitConverter());
+                getConverters(physicalPlan, pigContext, estimator, session);
 
         Map<OperatorKey, RDD<Tuple>> rdds = new HashMap<OperatorKey, RDD<Tuple>>();
 
         SparkStats stats = new SparkStats();
         LinkedList<POStore> stores = PlanHelper.getPhysicalOperators(physicalPlan, POStore.class);
+        stats.start(pigContext, stores.size());
+        // the cache outlives the script, only its use by this one is reported
+        long cacheHits = cacheConverter.getHits();
+        long cacheMisses = cacheConverter.getMisses();
+        long cacheEvictions = cacheConverter.getEvictions();
+        // loads already reported, they are not read again when the stores share a split
+        Set<POLoad> readLoads = new HashSet<POLoad>();
         for (POStore poStore : stores) {
-            physicalToRDD(physicalPlan, poStore, rdds, convertMap);
-            stats.addOutputInfo(poStore, 1, 1, true, c); // TODO: use real values
+            Set<POLoad> loads = new LinkedHashSet<POLoad>();
+            collectLoads(physicalPlan, poStore, loads);
+            Map<POLoad, Long> recordsBefore = new HashMap<POLoad, Long>();
+            for (POLoad load : loads) {
+                recordsBefore.put(load, counters.getValue(load));
+            }
+
+            // each store runs as a Spark job
+            JobStats jobStats = stats.addJobStats(poStore);
+            long start = System.currentTimeMillis();
+            try {
+                physicalToRDD(physicalPlan, poStore, rdds, convertMap, counters);
+            } catch (Exception e) {
+                stats.jobFailed(jobStats, System.currentTimeMillis() - start, e);
+                stats.setCacheStats(cacheConverter.getHits() - cacheHits,
+                        cacheConverter.getMisses() - cacheMisses,
+                        cacheConverter.getEvictions() - cacheEvictions,
+                        cacheConverter.getCachedBytes());
+                stats.stop();
+                throw e;
+            }
+            long duration = System.currentTimeMillis() - start;
+
+            for (POLoad load : loads) {
+                long records = counters.getValue(load) - recordsBefore.get(load);
+                if (records == 0 && readLoads.contains(load)) {
+                    continue;
+                }
+                long bytes = readLoads.add(load) ? getInputSize(load, c) : 0;
+                stats.addInputStats(jobStats, load.getLFile().getFileName(), bytes, records, c);
+            }
+            stats.addOutputStats(jobStats, poStore, counters.getValue(poStore), c);
+            stats.jobFinished(jobStats, duration);
         }
+        stats.setCacheStats(cacheConverter.getHits() - cacheHits,
+                cacheConverter.getMisses() - cacheMisses,
+                cacheConverter.getEvictions() - cacheEvictions,
+                cacheConverter.getCachedBytes());
+        stats.stop();
 
         return stats;
     }
 
-    private static void startSparkIfNeeded() throws PigException {
-        if (sparkContext == null) {
-            String master = System.getenv("SPARK_MASTER");
-            if (master == null) {
-                LOG.info("SPARK_MASTER not specified, using \"local\"");
-                master = "local";
+    private static void collectLoads(PhysicalPlan plan, PhysicalOperator physicalOperator,
+            Set<POLoad> loads) {
+        if (physicalOperator instanceof POLoad) {
+            loads.add((POLoad) physicalOperator);
+        }
+        List<PhysicalOperator> predecessors = plan.getPredecessors(physicalOperator);
+        if (predecessors != null) {
+            for (PhysicalOperator predecessor : predecessors) {
+                collectLoads(plan, predecessor, loads);
             }
+        }
+    }
 
-            String sparkHome = System.getenv("SPARK_HOME"); // It's okay if this is null for local mode
-            String sparkJarsSetting = System.getenv("SPARK_JARS");
-            String[] sparkJars = sparkJarsSetting == null ? new String[]{} : sparkJarsSetting.split(",");
-
-            // TODO: Don't hardcode this JAR
-            List<String> jars = Lists.asList("build/pig-0.12.0-SNAPSHOT-withdependencies.jar", sparkJars);
+    private static long getInputSize(POLoad load, Configuration conf) {
+        try {
+            return InputSizeReducerEstimator.getTotalInputFileSize(conf,
+                    Collections.singletonList(load), new Job(conf));
+        } catch (IOException e) {
+            LOG.warn("Unable to get the size of " + load.getLFile().getFileName(), e);
+            return -1;
+        }
+    }
 
-            if (!master.startsWith("local")) {
-                // Check that we have the Mesos native library and Spark home are set
-                if (sparkHome == null) {
-                    System.err.println("You need to set SPARK_HOME to run on a Mesos cluster!");
-                    throw new PigException("SPARK_HOME is not set");
-                }
-                if (System.getenv("MESOS_NATIVE_LIBRARY") == null) {
-                    System.err.println("You need to set MESOS_NATIVE_LIBRARY to run on a Mesos cluster!");
-                    throw new PigException("MESOS_NATIVE_LIBRARY is not set");
-                }
-            }
+    /**
+     * Compiles the plan to annotate its packages and applies the Spark specific optimizations.
+     *
+     * @return the functions used by the plan, whose jars are shipped to the executors
+     */
+    private static Set<String> preparePlan(PhysicalPlan physicalPlan, PigContext pigContext)
+            throws IOException {
+/////////
+// stolen from MapReduceLauncher
+        // the MRCompiler turns the loads of merge joins and merge cogroups into index jobs; the
+        // spark converters read the real data, so the original file specs are put back
+        Map<POLoad, FileSpec> lFiles = new HashMap<POLoad, FileSpec>();
+        for (POLoad load : PlanHelper.getPhysicalOperators(physicalPlan, POLoad.class)) {
+            lFiles.put(load, load.getLFile());
+        }
+        MRCompiler mrCompiler = new MRCompiler(physicalPlan, pigContext);
+        mrCompiler.compile();
+        for (Map.Entry<POLoad, FileSpec> lFile : lFiles.entrySet()) {
+            lFile.getKey().setLFile(lFile.getValue());
+        }
+        MROperPlan plan = mrCompiler.getMRPlan();
+        POPackageAnnotator pkgAnnotator = new POPackageAnnotator(plan);
+        pkgAnnotator.visit();
+        Set<String> udfs = new HashSet<String>();
+        for (MapReduceOper mro : plan) {
+            udfs.addAll(mro.UDFs);
+        }
+//        // this one: not sure
+//        KeyTypeDiscoveryVisitor kdv = new KeyTypeDiscoveryVisitor(plan);
+//        kdv.visit();
 
-            // Tell Spark to use Mesos in coarse-grained mode (only affects Spark 0.6+; no impact on others)
-            System.setProperty("spark.mesos.coarse", "true");
+/////////
 
-            // For coarse-grained Mesos mode, tell it an upper bound on how many cores to grab in total;
-            // we conservatively set this to 32 unless the user set the SPARK_MAX_CPUS environment variable.
-            int maxCores = 32;
-            if (System.getenv("SPARK_MAX_CPUS") != null) {
-                maxCores = Integer.parseInt(System.getenv("SPARK_MAX_CPUS"));
-            }
-            System.setProperty("spark.cores.max", "" + maxCores);
+        new SkewedJoinOptimizer(physicalPlan).visit();
 
-            sparkContext = new SparkContext(master, "Spork", sparkHome, SparkUtil.toScalaSeq(jars));
-            cacheConverter = new CacheConverter();
+        String noCombiner = pigContext.getProperties().getProperty(PigConfiguration.PROP_NO_COMBINER);
+        if (!pigContext.inIllustrator && !"true".equals(noCombiner)) {
+            CombinerOptimizer combinerOptimizer = new CombinerOptimizer(physicalPlan);
+            combinerOptimizer.visit();
         }
+        return udfs;
     }
 
-    // You can use this in unit tests to stop the SparkContext between tests.
-    static void stopSpark() {
-        if (sparkContext != null) {
-            sparkContext.stop();
-            sparkContext = null;
-            cacheConverter = null;
-        }
+    private static Map<Class<? extends PhysicalOperator>, POConverter> getConverters(
+            PhysicalPlan physicalPlan, PigContext pigContext, ParallelismEstimator estimator,
+            SparkSession session) {
+        // without a session, when explaining, the converters are only looked at
+        SparkContext sparkContext = session == null ? null : session.getSparkContext();
+        // initialize the supported converters
+        Map<Class<? extends PhysicalOperator>, POConverter> convertMap =
+                new HashMap<Class<? extends PhysicalOperator>, POConverter>();
+
+        convertMap.put(POLoad.class,    new LoadConverter(pigContext, physicalPlan, sparkContext));
+        convertMap.put(POStore.class,   new StoreConverter(pigContext));
+        convertMap.put(POForEach.class, new ForEachConverter(pigContext));
+        convertMap.put(POFilter.class,  new FilterConverter(pigContext));
+        convertMap.put(POPackage.class, new PackageConverter());
+        convertMap.put(POCombinerPackage.class, new PackageConverter());
+        CacheConverter cache = session != null ? session.getCacheConverter() : new CacheConverter(null);
+        cache.configure(pigContext.getProperties());
+        convertMap.put(POCache.class,   cache);
+        convertMap.put(POLocalRearrange.class,  new LocalRearrangeConverter());
+        convertMap.put(POPreCombinerLocalRearrange.class, new LocalRearrangeConverter());
+        convertMap.put(POGlobalRearrange.class, new GlobalRearrangeConverter(estimator));
+        convertMap.put(POReduceBySpark.class, new ReduceByConverter(estimator));
+        convertMap.put(POLimit.class, new LimitConverter());
+        convertMap.put(PODistinct.class, new DistinctConverter(estimator));
+        convertMap.put(POUnion.class, new UnionConverter(sparkContext));
+        convertMap.put(POSort.class, new SortConverter(estimator));
+        convertMap.put(POSplit.class, new SplitConverter(pigContext));
+        convertMap.put(POFRJoin.class, new FRJoinConverter(sparkContext));
+        convertMap.put(POSkewedRearrangeSpark.class, new SkewedRearrangeConverter(pigContext, estimator));
+        convertMap.put(POMergeJoin.class, new MergeJoinConverter());
+        convertMap.put(POMergeCogroup.class, new MergeCogroupConverter());
+        convertMap.put(POStream.class, new StreamConverter(pigContext));
+        convertMap.put(POCollectedGroup.class, new CollectedGroupConverter());
+        convertMap.put(POCounter.class, new CounterConverter(sparkContext));
+        convertMap.put(PORank.class, new RankConverter());
+        convertMap.put(PONative.class, new NativeConverter());
+        return convertMap;
     }
 
     private void physicalToRDD(PhysicalPlan plan, PhysicalOperator physicalOperator,
                                Map<OperatorKey, RDD<Tuple>> rdds,
-                               Map<Class<? extends PhysicalOperator>, POConverter> convertMap)
+                               Map<Class<? extends PhysicalOperator>, POConverter> convertMap,
+                               SparkCounters counters)
             throws IOException {
 
+        // an operator feeding several stores, through a split, is converted only once so that
+        // all the stores share the same RDD
+        if (rdds.containsKey(physicalOperator.getOperatorKey())) {
+            return;
+        }
+
         RDD<Tuple> nextRDD = null;
         List<PhysicalOperator> predecessors = plan.getPredecessors(physicalOperator);
         List<RDD<Tuple>> predecessorRdds = Lists.newArrayList();
         if (predecessors!=null) {
             for (PhysicalOperator predecessor : predecessors) {
-                physicalToRDD(plan, predecessor, rdds, convertMap);
+                physicalToRDD(plan, predecessor, rdds, convertMap, counters);
                 predecessorRdds.add(rdds.get(predecessor.getOperatorKey()));
             }
         }
@@ -198,13 +308,27 @@ public class SparkLauncher extends Launcher {
             throw new IllegalArgumentException("Spork unsupported PhysicalOperator: " + physicalOperator);
         }
 
+        if (POStore.class.equals(physicalOperator.getClass()) && !predecessorRdds.isEmpty()) {
+            // the size of what is stored tells the shuffles of the next jobs reading it again
+            // how many partitions they need
+            RDD<Tuple> measured = counters.measure(predecessors.get(0), predecessorRdds.get(0));
+            predecessorRdds.set(0, counters.count(physicalOperator, measured));
+        }
+
         LOG.info("Converting operator " + physicalOperator.getClass().getSimpleName()+" "+physicalOperator);
         nextRDD = converter.convert(predecessorRdds, physicalOperator);
 
         if (POStore.class.equals(physicalOperator.getClass())) {
+            // the store writing the input of a native job runs before it, it is not run again
+            // as the job of the store
+            rdds.put(physicalOperator.getOperatorKey(), predecessorRdds.get(0));
             return;
         }
 
+        if (POLoad.class.equals(physicalOperator.getClass())) {
+            nextRDD = counters.count(physicalOperator, nextRDD);
+        }
+
         if (nextRDD == null) {
             throw new IllegalArgumentException("RDD should not be null after PhysicalOperator: " + physicalOperator);
         }
@@ -214,5 +338,24 @@ public class SparkLauncher extends Launcher {
 
     @Override
     public void explain(PhysicalPlan pp, PigContext pc, PrintStream ps, String format, boolean verbose)
-            throws IOException { }
+            throws IOException {
+        preparePlan(pp, pc);
+        // without a running Spark the default parallelism is unknown
+        SparkSession session = SparkSession.getSession();
+        int defaultParallelism = session == null ? -1 : session.getDefaultParallelism();
+        ParallelismEstimator estimator = new ParallelismEstimator(pp, pc, null, defaultParallelism);
+        SparkPrinter printer = new SparkPrinter(pp, getConverters(pp, pc, estimator, session), estimator);
+        if (format.equals("text")) {
+            printer.print(ps, verbose);
+        } else {
+            ps.println("#--------------------------------------------------");
+            ps.println("# Spark Plan                                       ");
+            ps.println("#--------------------------------------------------");
+
+            DotSparkPrinter dotPrinter = new DotSparkPrinter(pp, ps, printer);
+            dotPrinter.setVerbose(verbose);
+            dotPrinter.dump();
+            ps.println("");
+        }
+    }
 }
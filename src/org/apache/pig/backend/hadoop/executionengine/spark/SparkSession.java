@@ -0,0 +1,280 @@
+package org.apache.pig.backend.hadoop.executionengine.spark;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.PigConfiguration;
+import org.apache.pig.PigException;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.CacheConverter;
+import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.util.JarManager;
+
+import spark.SparkContext;
+
+/**
+ * The connection of Pig to Spark, shared by the scripts run in the same JVM: the statements of
+ * a grunt shell and the batches of the PigServers reuse its executors and its cache instead of
+ * starting a SparkContext each time. It is started by the first script run in Spark mode, and
+ * started again only when a script asks for another master or other Spark settings.
+ * <p>
+ * The session is configured from the Pig properties, the environment being used when they are
+ * not set:
+ * <ul>
+ * <li>{@link PigConfiguration#PIG_SPARK_MASTER} (SPARK_MASTER), local by default</li>
+ * <li>{@link PigConfiguration#PIG_SPARK_HOME} (SPARK_HOME), needed for a cluster</li>
+ * <li>{@link PigConfiguration#PIG_SPARK_JARS} (SPARK_JARS), jars shipped when it starts</li>
+ * <li>spark.cores.max (SPARK_MAX_CPUS), 32 by default</li>
+ * <li>the other spark.* properties, which are given to Spark as system properties</li>
+ * </ul>
+ * The jar holding Pig is shipped when the session starts; the jars of the functions of each
+ * script, found as {@link JarManager} finds them for the job jar of the MR backend, are added
+ * to the session as the scripts use them, each one only once.
+ */
+public class SparkSession {
+    private static final Log LOG = LogFactory.getLog(SparkSession.class);
+
+    private static final String DEFAULT_MASTER = "local";
+    private static final String DEFAULT_MAX_CORES = "32";
+
+    private static SparkSession session = null;
+
+    private final SparkContext sparkContext;
+    private final CacheConverter cacheConverter;
+    private final String master;
+    private final long startTime;
+    // guarded by SparkSession.class, as getSession(PigContext, Collection) updates them
+    private final Set<String> shippedJars = new LinkedHashSet<String>();
+    private int launches = 0;
+
+    private SparkSession(Map<String, String> settings, List<String> jars) {
+        this.master = settings.get(PigConfiguration.PIG_SPARK_MASTER);
+        for (Map.Entry<String, String> setting : settings.entrySet()) {
+            if (setting.getKey().startsWith("spark.")) {
+                System.setProperty(setting.getKey(), setting.getValue());
+            }
+        }
+        sparkContext = new SparkContext(master, "Spork",
+                settings.get(PigConfiguration.PIG_SPARK_HOME), SparkUtil.toScalaSeq(jars));
+        cacheConverter = new CacheConverter(sparkContext);
+        shippedJars.addAll(jars);
+        startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the running session, null if none is running
+     */
+    public static synchronized SparkSession getSession() {
+        return session;
+    }
+
+    /**
+     * Returns the session a script runs in, starting it if needed, and ships the jars of the
+     * given functions.
+     *
+     * @param udfs the function specs used by the script
+     */
+    static synchronized SparkSession getSession(PigContext pigContext, Collection<String> udfs)
+            throws IOException {
+        Map<String, String> settings = getSettings(pigContext.getProperties());
+        if (session != null && session.isChangedBy(settings)) {
+            LOG.info("The Spark settings changed, restarting the Spark session");
+            stop();
+        }
+        if (session == null) {
+            session = new SparkSession(settings, getInitialJars(pigContext.getProperties()));
+            LOG.info("Started the Spark session on " + session.master + " with the jars "
+                    + session.shippedJars);
+        }
+        session.launches++;
+        session.shipJars(pigContext, udfs);
+        return session;
+    }
+
+    /**
+     * Stops the running session, if any, dropping its cache.
+     */
+    public static synchronized void stop() {
+        if (session != null) {
+            session.sparkContext.stop();
+            session = null;
+        }
+    }
+
+    private static Map<String, String> getSettings(Properties properties) throws PigException {
+        Map<String, String> settings = new TreeMap<String, String>();
+        for (String name : properties.stringPropertyNames()) {
+            if (name.startsWith("spark.")) {
+                settings.put(name, properties.getProperty(name));
+            }
+        }
+        putIfAbsent(settings, PigConfiguration.PIG_SPARK_MASTER, System.getenv("SPARK_MASTER"));
+        if (!settings.containsKey(PigConfiguration.PIG_SPARK_MASTER)) {
+            LOG.info(PigConfiguration.PIG_SPARK_MASTER + " not specified, using \""
+                    + DEFAULT_MASTER + "\"");
+            settings.put(PigConfiguration.PIG_SPARK_MASTER, DEFAULT_MASTER);
+        }
+        putIfAbsent(settings, PigConfiguration.PIG_SPARK_HOME, System.getenv("SPARK_HOME"));
+        putIfAbsent(settings, "spark.cores.max", System.getenv("SPARK_MAX_CPUS"));
+        putIfAbsent(settings, "spark.cores.max", DEFAULT_MAX_CORES);
+        // Tell Spark to use Mesos in coarse-grained mode (only affects Spark 0.6+; no impact on others)
+        putIfAbsent(settings, "spark.mesos.coarse", "true");
+        // shuffle and cache the Pig data in the binary format of the MR intermediate data
+        putIfAbsent(settings, "spark.serializer", System.getProperty("spark.serializer"));
+        putIfAbsent(settings, "spark.serializer", BinInterSedesSerializer.class.getName());
+
+        if (!settings.get(PigConfiguration.PIG_SPARK_MASTER).startsWith("local")) {
+            // Check that we have the Mesos native library and Spark home are set
+            if (!settings.containsKey(PigConfiguration.PIG_SPARK_HOME)) {
+                throw new PigException("You need to set " + PigConfiguration.PIG_SPARK_HOME
+                        + " or SPARK_HOME to run on a Mesos cluster");
+            }
+            if (System.getenv("MESOS_NATIVE_LIBRARY") == null) {
+                throw new PigException("You need to set MESOS_NATIVE_LIBRARY to run on a Mesos cluster");
+            }
+        }
+        return settings;
+    }
+
+    /**
+     * Spark sets system properties of its own once started, such as the port of the driver,
+     * which the Pig properties may copy: only the settings the running Spark does not have are
+     * changes.
+     */
+    private boolean isChangedBy(Map<String, String> newSettings) {
+        if (!newSettings.get(PigConfiguration.PIG_SPARK_MASTER).equals(master)) {
+            return true;
+        }
+        for (Map.Entry<String, String> setting : newSettings.entrySet()) {
+            if (!setting.getValue().equals(System.getProperty(setting.getKey()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void putIfAbsent(Map<String, String> settings, String key, String value) {
+        if (value != null && !settings.containsKey(key)) {
+            settings.put(key, value);
+        }
+    }
+
+    private static List<String> getInitialJars(Properties properties) {
+        List<String> jars = new ArrayList<String>();
+        // when Pig runs from its classes, as in the tests, there is no jar to ship
+        String pigJar = JarManager.findContainingJar(SparkSession.class);
+        if (pigJar != null) {
+            jars.add(pigJar);
+        }
+        String extraJars = properties.getProperty(PigConfiguration.PIG_SPARK_JARS,
+                System.getenv("SPARK_JARS"));
+        if (extraJars != null) {
+            for (String jar : extraJars.split(",")) {
+                if (!jar.trim().isEmpty()) {
+                    jars.add(jar.trim());
+                }
+            }
+        }
+        return jars;
+    }
+
+    /**
+     * Adds to the session the registered jars and the jars of the functions not shipped yet.
+     */
+    private void shipJars(PigContext pigContext, Collection<String> udfs) throws IOException {
+        Set<String> jars = new LinkedHashSet<String>();
+        for (URL jar : pigContext.extraJars) {
+            jars.add(jar.getPath());
+        }
+        jars.addAll(pigContext.scriptJars);
+        for (String udf : udfs) {
+            Class<?> clazz = pigContext.getClassForAlias(udf);
+            String jar = clazz == null ? null : JarManager.findContainingJar(clazz);
+            if (jar != null) {
+                jars.add(jar);
+            }
+        }
+        for (String jar : jars) {
+            if (shippedJars.add(jar)) {
+                LOG.info("Shipping " + jar + " to the Spark session");
+                sparkContext.addJar(jar);
+            }
+        }
+    }
+
+    public SparkContext getSparkContext() {
+        return sparkContext;
+    }
+
+    /**
+     * @return the cache of the relations cached with CACHE, kept as long as the session
+     */
+    public CacheConverter getCacheConverter() {
+        return cacheConverter;
+    }
+
+    public String getMaster() {
+        return master;
+    }
+
+    /**
+     * @return the number of cores the session runs its tasks on by default
+     */
+    public int getDefaultParallelism() {
+        return sparkContext.defaultParallelism();
+    }
+
+    /**
+     * @return the time the session started, in milliseconds
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return the number of scripts run in the session
+     */
+    public int getLaunches() {
+        synchronized (SparkSession.class) {
+            return launches;
+        }
+    }
+
+    /**
+     * @return the jars shipped to the executors, in the order they were shipped
+     */
+    public List<String> getShippedJars() {
+        synchronized (SparkSession.class) {
+            return Collections.unmodifiableList(new ArrayList<String>(shippedJars));
+        }
+    }
+
+    public long getCacheHits() {
+        return cacheConverter.getHits();
+    }
+
+    public long getCacheMisses() {
+        return cacheConverter.getMisses();
+    }
+
+    public long getCacheEvictions() {
+        return cacheConverter.getEvictions();
+    }
+
+    /**
+     * @return the size in memory of the relations cached
+     */
+    public long getCachedBytes() {
+        return cacheConverter.getCachedBytes();
+    }
+}
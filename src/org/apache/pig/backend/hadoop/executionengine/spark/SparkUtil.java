@@ -1,5 +1,7 @@
 package org.apache.pig.backend.hadoop.executionengine.spark;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.pig.backend.hadoop.datastorage.ConfigurationUtil;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
@@ -14,16 +16,28 @@ import scala.collection.JavaConversions;
 import scala.collection.Seq;
 import scala.reflect.ClassManifest;
 import scala.reflect.ClassManifest$;
+import spark.Accumulator;
+import spark.AccumulatorParam;
 import spark.RDD;
+import spark.SparkContext;
+import spark.storage.StorageLevel;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * @author billg
  */
 public class SparkUtil {
 
+    private static final Log LOG = LogFactory.getLog(SparkUtil.class);
+
+    private static final Pattern STORAGE_LEVEL =
+            Pattern.compile("(NONE|DISK_ONLY|MEMORY_ONLY|MEMORY_AND_DISK)(_SER)?(_2)?");
+
     public static <T> ClassManifest<T> getManifest(Class<T> clazz) {
         return ClassManifest$.MODULE$.fromClass(clazz);
     }
@@ -61,13 +75,67 @@ public class SparkUtil {
         }
     }
 
-    public static  int getParallelism(List<RDD<Tuple>> predecessors, PhysicalOperator physicalOperator) {
-        int parallelism = physicalOperator.getRequestedParallelism();
-        if (parallelism <= 0) {
-            // Parallelism wasn't set in Pig, so set it to whatever Spark thinks is reasonable.
-            parallelism = predecessors.get(0).context().defaultParallelism();
+    /**
+     * @return the name of the storage level set by the property, or the default one if the
+     *         property is not set or does not name a level
+     */
+    public static String getStorageLevelName(Properties properties, String key,
+            String defaultLevel) {
+        String level = properties.getProperty(key, defaultLevel).trim().toUpperCase();
+        if (toStorageLevel(level) == null) {
+            LOG.warn("Invalid " + key + ": " + level + ", using " + defaultLevel);
+            return defaultLevel;
+        }
+        return level;
+    }
+
+    /**
+     * @return the level named like the constants of StorageLevel, or null if the name is unknown
+     */
+    public static StorageLevel toStorageLevel(String name) {
+        Matcher matcher = STORAGE_LEVEL.matcher(name);
+        if (!matcher.matches()) {
+            return null;
+        }
+        String base = matcher.group(1);
+        boolean serialized = matcher.group(2) != null;
+        int replication = matcher.group(3) != null ? 2 : 1;
+        if (base.equals("NONE")) {
+            return serialized || replication > 1 ? null : new StorageLevel(false, false, false, 1);
+        }
+        if (base.equals("DISK_ONLY")) {
+            // on disk the data is always serialized
+            return serialized ? null : new StorageLevel(true, false, false, replication);
+        }
+        boolean useDisk = base.equals("MEMORY_AND_DISK");
+        return new StorageLevel(useDisk, true, !serialized, replication);
+    }
+
+    /**
+     * @return an accumulator of longs starting at 0
+     */
+    public static Accumulator<Long> newLongAccumulator(SparkContext sparkContext) {
+        return sparkContext.accumulator(0L, LongAccumulatorParam.INSTANCE);
+    }
+
+    @SuppressWarnings("serial")
+    private static class LongAccumulatorParam implements AccumulatorParam<Long> {
+        static final LongAccumulatorParam INSTANCE = new LongAccumulatorParam();
+
+        @Override
+        public Long addAccumulator(Long t1, Long t2) {
+            return t1 + t2;
+        }
+
+        @Override
+        public Long addInPlace(Long t1, Long t2) {
+            return t1 + t2;
+        }
+
+        @Override
+        public Long zero(Long initialValue) {
+            return 0L;
         }
-        return parallelism;
     }
 
 }
@@ -0,0 +1,90 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.converter;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+
+import org.apache.pig.PigConfiguration;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.VectorBatch;
+import org.apache.pig.data.Tuple;
+
+/**
+ * Reads its input by batches of tuples, which an operator processes at once, see
+ * {@link PigConfiguration#PROP_EXEC_BATCH}, and returns the tuples it outputs.
+ */
+abstract class BatchIterator implements Iterator<Tuple> {
+
+    private static final int DEFAULT_BATCH_SIZE = 1024;
+
+    private final Iterator<Tuple> input;
+    private final VectorBatch batch;
+    private final List<Tuple> output = new ArrayList<Tuple>();
+    private int position = 0;
+
+    BatchIterator(Iterator<Tuple> input, int batchSize) {
+        this.input = input;
+        batch = new VectorBatch(batchSize);
+    }
+
+    /**
+     * @return the number of tuples of the batches, 0 when the operators process their
+     * input tuple by tuple
+     */
+    static int getBatchSize(Properties properties) {
+        if (!Boolean.parseBoolean(properties.getProperty(PigConfiguration.PROP_EXEC_BATCH,
+                "false"))) {
+            return 0;
+        }
+        String size = properties.getProperty(PigConfiguration.PROP_EXEC_BATCH_SIZE);
+        return size == null ? DEFAULT_BATCH_SIZE : Math.max(Integer.parseInt(size), 0);
+    }
+
+    /**
+     * Processes the selected tuples of a batch.
+     * @param output receives the output tuples
+     */
+    abstract protected void process(VectorBatch batch, List<Tuple> output)
+            throws ExecException;
+
+    private void readNext() {
+        while (position == output.size() && input.hasNext()) {
+            output.clear();
+            position = 0;
+            while (!batch.isFull() && input.hasNext()) {
+                batch.add(input.next());
+            }
+            try {
+                process(batch, output);
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        readNext();
+        return position < output.size();
+    }
+
+    @Override
+    public Tuple next() {
+        readNext();
+        if (position == output.size()) {
+            throw new NoSuchElementException();
+        }
+        Tuple next = output.get(position);
+        output.set(position++, null);
+        return next;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -1,37 +1,277 @@
 package org.apache.pig.backend.hadoop.executionengine.spark.converter;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.pig.PigConfiguration;
+import org.apache.pig.backend.hadoop.datastorage.ConfigurationUtil;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.InputSizeReducerEstimator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POCache;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLoad;
+import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
 import org.apache.pig.data.Tuple;
 
+import scala.collection.Iterator;
+import scala.collection.JavaConversions;
+import scala.runtime.AbstractFunction1;
+import spark.Accumulator;
 import spark.RDD;
+import spark.SparkContext;
 
+/**
+ * Converts a POCache. The RDDs of the cached relations are kept across the scripts run on the
+ * same SparkContext, keyed by the fingerprint of their plan ({@link POCache#computeCacheKey()}).
+ * Their size is measured the first time all their partitions are computed, and the least
+ * recently used of the measured ones are dropped to keep the total under
+ * {@link PigConfiguration#PIG_SPARK_CACHE_MAX_BYTES}.
+ * <p>
+ * This only caps what is reused, not the memory used: Spark 0.6 cannot unpersist an RDD, so the
+ * blocks of a dropped RDD stay in the block managers until they need the memory for other
+ * blocks. Nothing reads them anymore, so they are the least recently used ones evicted first.
+ */
+@SuppressWarnings({ "serial" })
 public class CacheConverter implements POConverter<Tuple, Tuple, POCache> {
 
     private static final Log LOG = LogFactory.getLog(CacheConverter.class);
 
-    private Map<String, RDD<Tuple>> cachedRdds = new HashMap<String, RDD<Tuple>>();
+    private static final long DEFAULT_MAX_BYTES = 512L * 1024 * 1024;
+
+    private static final String DESERIALIZED_LEVEL = "MEMORY_ONLY";
+    private static final String SERIALIZED_LEVEL = "MEMORY_AND_DISK_SER";
+
+    // rough ratio of the size of the tuples in memory to the size of the files they come from
+    private static final int DESERIALIZED_EXPANSION = 4;
+
+    private final SparkContext sparkContext;
+
+    // in access order, the least recently used first
+    private final Map<String, CachedRDD> cachedRdds =
+            new LinkedHashMap<String, CachedRDD>(16, 0.75f, true);
+
+    private Configuration conf = new Configuration();
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    // null when it is chosen for each RDD
+    private String storageLevelName;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public CacheConverter(SparkContext sparkContext) {
+        this.sparkContext = sparkContext;
+    }
+
+    /**
+     * Reads the settings of the cache, called for each script.
+     */
+    public void configure(Properties properties) {
+        conf = ConfigurationUtil.toConfiguration(properties);
+        String max = properties.getProperty(PigConfiguration.PIG_SPARK_CACHE_MAX_BYTES);
+        maxBytes = DEFAULT_MAX_BYTES;
+        if (max != null) {
+            try {
+                maxBytes = Long.parseLong(max.trim());
+            } catch (NumberFormatException e) {
+                LOG.warn("Invalid " + PigConfiguration.PIG_SPARK_CACHE_MAX_BYTES + ": " + max
+                        + ", using " + DEFAULT_MAX_BYTES);
+            }
+        }
+        storageLevelName = properties.getProperty(PigConfiguration.PIG_SPARK_CACHE_STORAGE_LEVEL) == null
+                ? null
+                : SparkUtil.getStorageLevelName(properties,
+                        PigConfiguration.PIG_SPARK_CACHE_STORAGE_LEVEL, SERIALIZED_LEVEL);
+    }
 
     @Override
     public RDD<Tuple> convert(List<RDD<Tuple>> predecessors, POCache physicalOperator) throws IOException {
+        SparkUtil.assertPredecessorSize(predecessors, physicalOperator, 1);
         String key = physicalOperator.computeCacheKey();
-        if (key != null) {
-            if (cachedRdds.get(key) != null) {
-                return cachedRdds.get(key);
-            } else {
-                RDD<Tuple> rdd = predecessors.get(0);
-                rdd.cache();
-                cachedRdds.put(key, rdd);
-                return rdd;
-            }
-        } else {
+        if (key == null) {
             return predecessors.get(0);
         }
+        CachedRDD cached = cachedRdds.get(key);
+        if (cached != null) {
+            ++hits;
+            long bytes = cached.getBytes();
+            LOG.info("Cache hit for " + physicalOperator.getAlias() + ", "
+                    + (bytes < 0 ? "not computed yet" : bytes + " bytes") + " in "
+                    + cached.storageLevelName);
+            return cached.rdd;
+        }
+        ++misses;
+        evict();
+
+        String level = storageLevelName != null ? storageLevelName : chooseStorageLevel(physicalOperator);
+        Accumulator<Long> bytes = SparkUtil.newLongAccumulator(sparkContext);
+        Accumulator<Long> partitions = SparkUtil.newLongAccumulator(sparkContext);
+        RDD<Tuple> rdd = predecessors.get(0).mapPartitions(new MeasureFunction(bytes, partitions),
+                SparkUtil.getManifest(Tuple.class));
+        rdd.persist(SparkUtil.toStorageLevel(level));
+        cachedRdds.put(key, new CachedRDD(rdd, bytes, partitions, level));
+        LOG.info("Caching " + physicalOperator.getAlias() + " in " + level);
+        return rdd;
+    }
+
+    /**
+     * Drops the least recently used RDDs until the measured ones fit in the memory budget. The
+     * RDDs not computed yet are kept: nothing tells yet how much they take.
+     */
+    private void evict() {
+        long total = getCachedBytes();
+        java.util.Iterator<CachedRDD> it = cachedRdds.values().iterator();
+        while (total > maxBytes && it.hasNext()) {
+            CachedRDD eldest = it.next();
+            if (eldest.getBytes() < 0) {
+                continue;
+            }
+            total -= eldest.getBytes();
+            it.remove();
+            ++evictions;
+            LOG.info("Dropping a cached RDD of " + eldest.getBytes() + " bytes, "
+                    + total + " bytes still cached");
+        }
+    }
+
+    /**
+     * Keeps the tuples deserialized, which is faster to read, only when they should fit in what
+     * is left of the memory budget.
+     */
+    private String chooseStorageLevel(POCache poCache) {
+        List<POLoad> loads = new ArrayList<POLoad>();
+        collectLoads(poCache, loads);
+        long inputSize = -1;
+        try {
+            inputSize = InputSizeReducerEstimator.getTotalInputFileSize(conf, loads, new Job(conf));
+        } catch (IOException e) {
+            LOG.warn("Unable to get the input size of " + poCache.getAlias(), e);
+        }
+        if (inputSize >= 0 && inputSize * DESERIALIZED_EXPANSION <= maxBytes - getCachedBytes()) {
+            return DESERIALIZED_LEVEL;
+        }
+        return SERIALIZED_LEVEL;
+    }
+
+    private static void collectLoads(PhysicalOperator physicalOperator, List<POLoad> loads) {
+        if (physicalOperator instanceof POLoad) {
+            loads.add((POLoad) physicalOperator);
+        }
+        if (physicalOperator.getInputs() != null) {
+            for (PhysicalOperator input : physicalOperator.getInputs()) {
+                collectLoads(input, loads);
+            }
+        }
+    }
+
+    /**
+     * @return the name of the storage level of the cached RDDs, null if it depends on their input
+     */
+    public String getStorageLevelName() {
+        return storageLevelName;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the size in memory of the cached RDDs computed so far
+     */
+    public long getCachedBytes() {
+        long total = 0;
+        for (CachedRDD cached : cachedRdds.values()) {
+            total += Math.max(cached.getBytes(), 0);
+        }
+        return total;
+    }
+
+    private static class CachedRDD {
+        private final RDD<Tuple> rdd;
+        private final Accumulator<Long> bytes;
+        private final Accumulator<Long> partitions;
+        private final String storageLevelName;
+        private long measuredBytes = -1;
+
+        private CachedRDD(RDD<Tuple> rdd, Accumulator<Long> bytes, Accumulator<Long> partitions,
+                String storageLevelName) {
+            this.rdd = rdd;
+            this.bytes = bytes;
+            this.partitions = partitions;
+            this.storageLevelName = storageLevelName;
+        }
+
+        /**
+         * @return the size of the tuples in memory, -1 until all the partitions are computed;
+         *         serialized they take less. It is not measured again when the block managers
+         *         drop partitions which are then computed again.
+         */
+        private long getBytes() {
+            if (measuredBytes < 0 && partitions.value() >= rdd.splits().length) {
+                measuredBytes = bytes.value();
+            }
+            return measuredBytes;
+        }
+    }
+
+    private static class MeasureFunction extends AbstractFunction1<Iterator<Tuple>, Iterator<Tuple>>
+            implements Serializable {
+
+        private final Accumulator<Long> bytes;
+        private final Accumulator<Long> partitions;
+
+        public MeasureFunction(Accumulator<Long> bytes, Accumulator<Long> partitions) {
+            this.bytes = bytes;
+            this.partitions = partitions;
+        }
+
+        @Override
+        public Iterator<Tuple> apply(Iterator<Tuple> i) {
+            final java.util.Iterator<Tuple> tuples = JavaConversions.asJavaIterator(i);
+
+            return JavaConversions.asScalaIterator(new java.util.Iterator<Tuple>() {
+                private long size = 0;
+                private boolean measured = false;
+
+                @Override
+                public boolean hasNext() {
+                    boolean hasNext = tuples.hasNext();
+                    if (!hasNext && !measured) {
+                        measured = true;
+                        bytes.$plus$eq(size);
+                        partitions.$plus$eq(1L);
+                    }
+                    return hasNext;
+                }
+
+                @Override
+                public Tuple next() {
+                    Tuple tuple = tuples.next();
+                    size += tuple.getMemorySize();
+                    return tuple;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            });
+        }
     }
 }
@@ -0,0 +1,66 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.converter;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.List;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POCollectedGroup;
+import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
+import org.apache.pig.data.Tuple;
+
+import scala.collection.Iterator;
+import scala.collection.JavaConversions;
+import scala.runtime.AbstractFunction1;
+import spark.RDD;
+
+/**
+ * Converts a POCollectedGroup: the loader keeps all the rows of a key in the same split, so the
+ * groups are built within each partition, without a shuffle. The group of the last key is
+ * output once the partition is read.
+ */
+@SuppressWarnings({ "serial" })
+public class CollectedGroupConverter implements POConverter<Tuple, Tuple, POCollectedGroup> {
+
+    @Override
+    public RDD<Tuple> convert(List<RDD<Tuple>> predecessors, POCollectedGroup poCollectedGroup)
+            throws IOException {
+        SparkUtil.assertPredecessorSize(predecessors, poCollectedGroup, 1);
+        RDD<Tuple> rdd = predecessors.get(0);
+        return rdd.mapPartitions(new CollectedGroupFunction(poCollectedGroup),
+                SparkUtil.getManifest(Tuple.class));
+    }
+
+    private static class CollectedGroupFunction
+            extends AbstractFunction1<Iterator<Tuple>, Iterator<Tuple>> implements Serializable {
+
+        private final POCollectedGroup poCollectedGroup;
+
+        private CollectedGroupFunction(POCollectedGroup poCollectedGroup) {
+            this.poCollectedGroup = poCollectedGroup;
+        }
+
+        public Iterator<Tuple> apply(Iterator<Tuple> i) {
+            final java.util.Iterator<Tuple> input = JavaConversions.asJavaIterator(i);
+            final PhysicalPlan parentPlan = new PhysicalPlan();
+            poCollectedGroup.setParentPlan(parentPlan);
+            return JavaConversions.asScalaIterator(new POOutputConsumerIterator(input) {
+                protected void attach(Tuple tuple) {
+                    poCollectedGroup.setInputs(null);
+                    poCollectedGroup.attachInput(tuple);
+                }
+
+                protected Result getNextResult() throws ExecException {
+                    return poCollectedGroup.getNext((Tuple) null);
+                }
+
+                protected boolean endOfInput() {
+                    parentPlan.endOfAllInput = true;
+                    return true;
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.converter;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POCounter;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.PORank;
+import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+
+import scala.collection.Iterator;
+import scala.collection.JavaConversions;
+import scala.runtime.AbstractFunction1;
+import scala.runtime.AbstractFunction2;
+import spark.RDD;
+import spark.SparkContext;
+import spark.broadcast.Broadcast;
+
+/**
+ * Converts a POCounter, in two passes over its input instead of the MR counters job. The first
+ * one runs the counter over each partition and collects how much it counted; the offset of each
+ * partition, the sum of the counts of the partitions before it, is broadcast to the second one,
+ * which starts the counter of each partition at its offset. The counter values are then the
+ * global ranks, which {@link PORank} only has to move in front of the tuples.
+ * <p>
+ * The input is read twice: when it comes from a shuffle (RANK BY), the second pass reads the
+ * shuffle output again rather than recomputing it.
+ */
+@SuppressWarnings({ "serial" })
+public class CounterConverter implements POConverter<Tuple, Tuple, POCounter> {
+    private static final Log LOG = LogFactory.getLog(CounterConverter.class);
+
+    private final SparkContext sc;
+
+    public CounterConverter(SparkContext sc) {
+        this.sc = sc;
+    }
+
+    @Override
+    public RDD<Tuple> convert(List<RDD<Tuple>> predecessors, POCounter poCounter)
+            throws IOException {
+        SparkUtil.assertPredecessorSize(predecessors, poCounter, 1);
+        RDD<Tuple> rdd = predecessors.get(0);
+
+        long start = System.currentTimeMillis();
+        Object[] counts = (Object[]) rdd.mapPartitions(new CountFunction(poCounter),
+                SparkUtil.getManifest(Tuple.class)).collect();
+        long[] offsets = new long[counts.length];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            offsets[i] = total;
+            total += (Long) ((Tuple) counts[i]).get(0);
+        }
+        LOG.info("Counted " + total + " for " + poCounter + " over " + counts.length
+                + " partitions in " + (System.currentTimeMillis() - start) + " ms");
+
+        return rdd.mapPartitionsWithSplit(new CounterFunction(poCounter, sc.broadcast(offsets)),
+                SparkUtil.getManifest(Tuple.class));
+    }
+
+    private static java.util.Iterator<Tuple> count(final POCounter poCounter, int index,
+            long offset, java.util.Iterator<Tuple> input) {
+        poCounter.setTaskId(String.valueOf(index));
+        poCounter.setLocalCounter(offset + 1);
+        return new POOutputConsumerIterator(input) {
+            protected void attach(Tuple tuple) {
+                poCounter.setInputs(null);
+                poCounter.attachInput(tuple);
+            }
+
+            protected Result getNextResult() throws ExecException {
+                return poCounter.getNext((Tuple) null);
+            }
+        };
+    }
+
+    /**
+     * Outputs one tuple per partition, holding what the counter counted in it.
+     */
+    private static class CountFunction extends AbstractFunction1<Iterator<Tuple>, Iterator<Tuple>>
+            implements Serializable {
+
+        private final POCounter poCounter;
+
+        private CountFunction(POCounter poCounter) {
+            this.poCounter = poCounter;
+        }
+
+        @Override
+        public Iterator<Tuple> apply(Iterator<Tuple> i) {
+            java.util.Iterator<Tuple> counted = count(poCounter, -1, 0,
+                    JavaConversions.asJavaIterator(i));
+            while (counted.hasNext()) {
+                counted.next();
+            }
+            Tuple count = TupleFactory.getInstance().newTuple(
+                    (Object) (poCounter.getLocalCounter() - 1));
+            return JavaConversions.asScalaIterator(Collections.singletonList(count).iterator());
+        }
+    }
+
+    /**
+     * Counts a partition from its offset, which it gets from the index of the partition.
+     */
+    private static class CounterFunction
+            extends AbstractFunction2<Object, Iterator<Tuple>, Iterator<Tuple>>
+            implements Serializable {
+        private final POCounter poCounter;
+        private final Broadcast<long[]> offsets;
+
+        private CounterFunction(POCounter poCounter, Broadcast<long[]> offsets) {
+            this.poCounter = poCounter;
+            this.offsets = offsets;
+        }
+
+        @Override
+        public Iterator<Tuple> apply(Object split, Iterator<Tuple> i) {
+            int index = (Integer) split;
+            return JavaConversions.asScalaIterator(count(poCounter, index, offsets.value()[index],
+                    JavaConversions.asJavaIterator(i)));
+        }
+    }
+}
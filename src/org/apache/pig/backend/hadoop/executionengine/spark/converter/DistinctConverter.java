@@ -7,6 +7,7 @@ import java.util.List;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.PODistinct;
+import org.apache.pig.backend.hadoop.executionengine.spark.ParallelismEstimator;
 import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
 import org.apache.pig.data.Tuple;
 
@@ -27,6 +28,12 @@ public class DistinctConverter implements POConverter<Tuple, Tuple, PODistinct>
     private static final Function2<Object, Object, Object> MERGE_VALUES_FUNCTION = new MergeValuesFunction();
     private static final Function1<Tuple2<Tuple, Object>, Tuple> TO_VALUE_FUNCTION = new ToValueFunction();
 
+    private final ParallelismEstimator estimator;
+
+    public DistinctConverter(ParallelismEstimator estimator) {
+        this.estimator = estimator;
+    }
+
     @Override
     public RDD<Tuple> convert(List<RDD<Tuple>> predecessors, PODistinct poDistinct)
             throws IOException {
@@ -38,7 +45,7 @@ public class DistinctConverter implements POConverter<Tuple, Tuple, PODistinct>
         RDD<Tuple2<Tuple, Object>> rddPairs = rdd.map(TO_KEY_VALUE_FUNCTION, tuple2ClassManifest);
         PairRDDFunctions<Tuple, Object> pairRDDFunctions =
                 new PairRDDFunctions<Tuple, Object>(rddPairs, SparkUtil.getManifest(Tuple.class), SparkUtil.getManifest(Object.class));
-        int parallelism = SparkUtil.getParallelism(predecessors, poDistinct);
+        int parallelism = estimator.getParallelism(poDistinct);
         return pairRDDFunctions.reduceByKey(MERGE_VALUES_FUNCTION, parallelism).map(TO_VALUE_FUNCTION, SparkUtil.getManifest(Tuple.class));
     }
 
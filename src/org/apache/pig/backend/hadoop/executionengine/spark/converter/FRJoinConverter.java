@@ -0,0 +1,101 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.converter;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFRJoin;
+import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
+import org.apache.pig.data.Tuple;
+
+import scala.collection.Iterator;
+import scala.collection.JavaConversions;
+import scala.runtime.AbstractFunction1;
+import spark.RDD;
+import spark.SparkContext;
+import spark.broadcast.Broadcast;
+
+/**
+ * Converts a POFRJoin (replicated join). The replicated inputs are collected to the driver,
+ * turned into hash tables by the join operator and broadcast, so each executor gets them once
+ * instead of every task reading the replicated files from the DFS; the tasks of an executor
+ * all look up the same broadcast tables. The fragmented input then streams through the join
+ * without a shuffle.
+ */
+@SuppressWarnings({ "serial"})
+public class FRJoinConverter implements POConverter<Tuple, Tuple, POFRJoin> {
+    private static final Log LOG = LogFactory.getLog(FRJoinConverter.class);
+
+    private final SparkContext sc;
+
+    public FRJoinConverter(SparkContext sc) {
+        this.sc = sc;
+    }
+
+    @Override
+    public RDD<Tuple> convert(List<RDD<Tuple>> predecessors, POFRJoin poFRJoin)
+            throws IOException {
+        SparkUtil.assertPredecessorSizeGreaterThan(predecessors, poFRJoin, 1);
+        int fragment = poFRJoin.getFragment();
+
+        List<HashMap<Tuple, List<Tuple>>> replicates = new ArrayList<HashMap<Tuple, List<Tuple>>>();
+        for (int i = 0; i < predecessors.size(); i++) {
+            if (i == fragment) {
+                replicates.add(null);
+                continue;
+            }
+            long start = System.currentTimeMillis();
+            Object[] tuples = (Object[]) predecessors.get(i).collect();
+            HashMap<Tuple, List<Tuple>> replicate = poFRJoin.buildReplicate(i,
+                    new IteratorTransform<Object, Tuple>(Arrays.asList(tuples).iterator()) {
+                        @Override
+                        protected Tuple transform(Object next) {
+                            return (Tuple) next;
+                        }
+                    });
+            LOG.info("Built hash table for replicated input " + i + " of " + poFRJoin + " with "
+                    + tuples.length + " tuples and " + replicate.size() + " keys in "
+                    + (System.currentTimeMillis() - start) + " ms");
+            replicates.add(replicate);
+        }
+
+        Broadcast<List<HashMap<Tuple, List<Tuple>>>> broadcast = sc.broadcast(replicates);
+        return predecessors.get(fragment).mapPartitions(new FRJoinFunction(poFRJoin, broadcast),
+                SparkUtil.getManifest(Tuple.class));
+    }
+
+    private static class FRJoinFunction extends AbstractFunction1<Iterator<Tuple>, Iterator<Tuple>>
+            implements Serializable {
+
+        private final POFRJoin poFRJoin;
+        private final Broadcast<List<HashMap<Tuple, List<Tuple>>>> replicates;
+
+        private FRJoinFunction(POFRJoin poFRJoin, Broadcast<List<HashMap<Tuple, List<Tuple>>>> replicates) {
+            this.poFRJoin = poFRJoin;
+            this.replicates = replicates;
+        }
+
+        @Override
+        public Iterator<Tuple> apply(Iterator<Tuple> i) {
+            poFRJoin.setPrebuiltReplicates(replicates.value());
+            final java.util.Iterator<Tuple> input = JavaConversions.asJavaIterator(i);
+            return JavaConversions.asScalaIterator(new POOutputConsumerIterator(input) {
+                protected void attach(Tuple tuple) {
+                    poFRJoin.setInputs(null);
+                    poFRJoin.attachInput(tuple);
+                }
+
+                protected Result getNextResult() throws ExecException {
+                    return poFRJoin.getNext((Tuple) null);
+                }
+            });
+        }
+    }
+}
@@ -6,10 +6,14 @@ import java.util.List;
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.VectorBatch;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFilter;
 import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
 import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.PigContext;
 
+import scala.collection.Iterator;
+import scala.collection.JavaConversions;
 import scala.runtime.AbstractFunction1;
 import spark.RDD;
 
@@ -20,14 +24,62 @@ import spark.RDD;
 @SuppressWarnings({ "serial"})
 public class FilterConverter implements POConverter<Tuple, Tuple, POFilter> {
 
+    // the number of tuples filtered at once, 0 to filter them one by one
+    private final int batchSize;
+
+    public FilterConverter(PigContext pigContext) {
+        batchSize = BatchIterator.getBatchSize(pigContext.getProperties());
+    }
+
     @Override
     public RDD<Tuple> convert(List<RDD<Tuple>> predecessors, POFilter physicalOperator) {
         SparkUtil.assertPredecessorSize(predecessors, physicalOperator, 1);
         RDD<Tuple> rdd = predecessors.get(0);
+        if (batchSize > 0) {
+            return rdd.mapPartitions(new FilterBatchFunction(physicalOperator, batchSize),
+                    SparkUtil.getManifest(Tuple.class));
+        }
         FilterFunction filterFunction = new FilterFunction(physicalOperator);
         return rdd.filter(filterFunction);
     }
 
+    /**
+     * Filters the tuples by batches, when the expression of the filter can be evaluated on
+     * batches, see {@link POFilter#canProcessBatch(int)}, and one by one otherwise.
+     */
+    private static class FilterBatchFunction
+            extends AbstractFunction1<Iterator<Tuple>, Iterator<Tuple>> implements Serializable {
+
+        private final POFilter poFilter;
+        private final int batchSize;
+
+        private FilterBatchFunction(POFilter poFilter, int batchSize) {
+            this.poFilter = poFilter;
+            this.batchSize = batchSize;
+        }
+
+        public Iterator<Tuple> apply(Iterator<Tuple> i) {
+            try {
+                if (!poFilter.canProcessBatch(batchSize)) {
+                    return i.filter(new FilterFunction(poFilter));
+                }
+            } catch (ExecException e) {
+                throw new RuntimeException("Couldn't filter tuple", e);
+            }
+            java.util.Iterator<Tuple> input = JavaConversions.asJavaIterator(i);
+            return JavaConversions.asScalaIterator(new BatchIterator(input, batchSize) {
+                protected void process(VectorBatch batch, List<Tuple> output)
+                        throws ExecException {
+                    poFilter.filterBatch(batch);
+                    int[] selected = batch.getSelected();
+                    for (int j = 0; j < batch.getSelectedCount(); j++) {
+                        output.add(batch.getRow(selected[j]));
+                    }
+                }
+            });
+        }
+    }
+
     private static class FilterFunction extends AbstractFunction1<Tuple, Object>
             implements Serializable {
 
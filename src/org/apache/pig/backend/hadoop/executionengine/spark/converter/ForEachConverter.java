@@ -5,9 +5,11 @@ import java.util.List;
 
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.VectorBatch;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
 import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
 import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.PigContext;
 
 import scala.collection.Iterator;
 import scala.collection.JavaConversions;
@@ -21,11 +23,18 @@ import spark.RDD;
 @SuppressWarnings({ "serial"})
 public class ForEachConverter implements POConverter<Tuple, Tuple, POForEach> {
 
+    // the number of tuples processed at once, 0 to process them one by one
+    private final int batchSize;
+
+    public ForEachConverter(PigContext pigContext) {
+        batchSize = BatchIterator.getBatchSize(pigContext.getProperties());
+    }
+
     @Override
     public RDD<Tuple> convert(List<RDD<Tuple>> predecessors, POForEach physicalOperator) {
         SparkUtil.assertPredecessorSize(predecessors, physicalOperator, 1);
         RDD<Tuple> rdd = predecessors.get(0);
-        ForEachFunction forEachFunction = new ForEachFunction(physicalOperator);
+        ForEachFunction forEachFunction = new ForEachFunction(physicalOperator, batchSize);
         return rdd.mapPartitions(forEachFunction, SparkUtil.getManifest(Tuple.class));
     }
 
@@ -33,13 +42,27 @@ public class ForEachConverter implements POConverter<Tuple, Tuple, POForEach> {
             implements Serializable {
 
         private POForEach poForEach;
+        private final int batchSize;
 
-        private ForEachFunction(POForEach poForEach) {
+        private ForEachFunction(POForEach poForEach, int batchSize) {
             this.poForEach = poForEach;
+            this.batchSize = batchSize;
         }
 
         public Iterator<Tuple> apply(Iterator<Tuple> i) {
             final java.util.Iterator<Tuple> input = JavaConversions.asJavaIterator(i);
+            try {
+                if (batchSize > 0 && poForEach.canProcessBatch(batchSize)) {
+                    return JavaConversions.asScalaIterator(new BatchIterator(input, batchSize) {
+                        protected void process(VectorBatch batch, List<Tuple> output)
+                                throws ExecException {
+                            poForEach.processBatch(batch, output);
+                        }
+                    });
+                }
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
+            }
             Iterator<Tuple> output = JavaConversions.asScalaIterator(new POOutputConsumerIterator(input) {
                 protected void attach(Tuple tuple) {
                     poForEach.setInputs(null);
@@ -9,96 +9,152 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POGlobalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.spark.ParallelismEstimator;
 import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.data.TupleFactory;
 
 import scala.Tuple2;
 import scala.collection.JavaConversions;
 import scala.collection.Seq;
-import scala.reflect.ClassManifest;
 import scala.runtime.AbstractFunction1;
-import spark.CoGroupedRDD;
+import scala.runtime.AbstractFunction2;
 import spark.HashPartitioner;
+import spark.PairRDDFunctions;
 import spark.RDD;
 
 import com.google.common.collect.Lists;
 
+/**
+ * Converts a POGlobalRearrange. The values of each key are gathered in spillable bags, one per
+ * input, instead of the in-memory buffers of Spark's groupBy and cogroup, so that a group larger
+ * than the memory of the executor goes to disk like it does in the MR reduce. The result is the
+ * (key, iterator of (index, key, value)) tuple the PackageConverter expects, the values of the
+ * first input first, read from the bags as they are consumed.
+ */
 @SuppressWarnings({ "serial"})
 public class GlobalRearrangeConverter implements POConverter<Tuple, Tuple, POGlobalRearrange> {
     private static final Log LOG = LogFactory.getLog(GlobalRearrangeConverter.class);
 
     private static final TupleFactory tf = TupleFactory.getInstance();
 
-    // GROUP FUNCTIONS
-    private static final ToKeyValueFunction TO_KEY_VALUE_FUNCTION = new ToKeyValueFunction();
-    private static final GetKeyFunction GET_KEY_FUNCTION = new GetKeyFunction();
-    // COGROUP FUNCTIONS
-    private static final GroupTupleFunction GROUP_TUPLE_FUNCTION = new GroupTupleFunction();
-    private static final ToGroupKeyValueFunction TO_GROUP_KEY_VALUE_FUNCTION = new ToGroupKeyValueFunction();
+    private static final MergeBagsFunction MERGE_BAGS_FUNCTION = new MergeBagsFunction();
+    private static final ToGroupTupleFunction TO_GROUP_TUPLE_FUNCTION = new ToGroupTupleFunction();
+
+    private final ParallelismEstimator estimator;
+
+    public GlobalRearrangeConverter(ParallelismEstimator estimator) {
+        this.estimator = estimator;
+    }
 
     @Override
     public RDD<Tuple> convert(List<RDD<Tuple>> predecessors,
             POGlobalRearrange physicalOperator) throws IOException {
         SparkUtil.assertPredecessorSizeGreaterThan(predecessors, physicalOperator, 0);
-        int parallelism = SparkUtil.getParallelism(predecessors, physicalOperator);
+        int parallelism = estimator.getParallelism(physicalOperator);
         if (LOG.isDebugEnabled())
             LOG.info("Parallelism for Spark groupBy: " + parallelism);
-        if (predecessors.size() == 1) {
-            //GROUP
-            return predecessors.get(0)
-                // group by key
-                .groupBy(GET_KEY_FUNCTION, parallelism, SparkUtil.getManifest(Object.class))
+        int numInputs = predecessors.size();
+        // each pred returns (index, key, value)
+        RDD<Tuple2<Object, Tuple>> rddPairs = null;
+        for (int i = 0; i < numInputs; i++) {
+            RDD<Tuple2<Object, Tuple>> rddPair = predecessors.get(i).map(
+                    new ToKeyValueFunction(numInputs == 1 ? -1 : i),
+                    SparkUtil.<Object, Tuple>getTuple2Manifest());
+            rddPairs = rddPairs == null ? rddPair : rddPairs.union(rddPair);
+        }
+        PairRDDFunctions<Object, Tuple> pairRDDFunctions = new PairRDDFunctions<Object, Tuple>(rddPairs,
+                SparkUtil.getManifest(Object.class), SparkUtil.getManifest(Tuple.class));
+        return pairRDDFunctions
+                // group by key in spillable bags, on the reduce side only: the bags do not
+                // shrink the values, building them in the map tasks would only add to their
+                // memory and to the shuffle
+                .combineByKey(new CreateBagsFunction(numInputs), new AddToBagsFunction(numInputs),
+                        MERGE_BAGS_FUNCTION, new HashPartitioner(parallelism), false)
                 // convert result to a tuple (key, { values })
-                .map(GROUP_TUPLE_FUNCTION, SparkUtil.getManifest(Tuple.class));
-        } else {
-            //COGROUP
-            // each pred returns (index, key, value)
-            ClassManifest<Tuple2<Object, Tuple>> tuple2ClassManifest = SparkUtil.<Object, Tuple>getTuple2Manifest();
-
-            List<RDD<Tuple2<Object, Tuple>>> rddPairs = Lists.newArrayList();
-            for (RDD<Tuple> rdd : predecessors) {
-                RDD<Tuple2<Object, Tuple>> rddPair = rdd.map(TO_KEY_VALUE_FUNCTION, tuple2ClassManifest);
-                rddPairs.add(rddPair);
+                .map(TO_GROUP_TUPLE_FUNCTION, SparkUtil.getManifest(Tuple.class));
+    }
+
+    /**
+     * @return the bag of the value in the tuple of bags of its key
+     */
+    private static int getBagIndex(Tuple t, int numInputs) throws ExecException {
+        // with a single input, the index can be the one of a merged multi-query plan
+        return numInputs == 1 ? 0 : ((Number) t.get(0)).intValue();
+    }
+
+    private static class CreateBagsFunction extends AbstractFunction1<Tuple, Tuple> implements Serializable {
+        private final int numInputs;
+
+        public CreateBagsFunction(int numInputs) {
+            this.numInputs = numInputs;
+        }
+
+        @Override
+        public Tuple apply(Tuple t) {
+            try {
+                // the bags register with the SpillableMemoryManager
+                Tuple bags = tf.newTuple(numInputs);
+                for (int i = 0; i < numInputs; i++) {
+                    bags.set(i, BagFactory.getInstance().newDefaultBag());
+                }
+                ((DataBag) bags.get(getBagIndex(t, numInputs))).add(t);
+                return bags;
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
             }
+        }
+    }
+
+    private static class AddToBagsFunction extends AbstractFunction2<Tuple, Tuple, Tuple> implements Serializable {
+        private final int numInputs;
 
-            // Something's wrong with the type parameters of CoGroupedRDD
-            // key and value are the same type ???
-            CoGroupedRDD<Object> coGroupedRDD = new CoGroupedRDD<Object>(
-                    (Seq<RDD<Tuple2<?, ?>>>)(Object)JavaConversions.asScalaBuffer(rddPairs),
-                    new HashPartitioner(parallelism));
+        public AddToBagsFunction(int numInputs) {
+            this.numInputs = numInputs;
+        }
 
-            RDD<Tuple2<Object,Seq<Seq<Tuple>>>> rdd = (RDD<Tuple2<Object,Seq<Seq<Tuple>>>>)(Object)coGroupedRDD;
-            return rdd.map(TO_GROUP_KEY_VALUE_FUNCTION,  SparkUtil.getManifest(Tuple.class));
+        @Override
+        public Tuple apply(Tuple bags, Tuple t) {
+            try {
+                ((DataBag) bags.get(getBagIndex(t, numInputs))).add(t);
+                return bags;
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
+            }
         }
     }
 
-    private static class GetKeyFunction extends AbstractFunction1<Tuple, Object> implements Serializable {
+    private static class MergeBagsFunction extends AbstractFunction2<Tuple, Tuple, Tuple> implements Serializable {
 
         @Override
-        public Object apply(Tuple t) {
+        public Tuple apply(Tuple bags1, Tuple bags2) {
             try {
-                LOG.debug("GetKeyFunction in "+t);
-                // see PigGenericMapReduce For the key
-                Object key = t.get(1);
-                LOG.debug("GetKeyFunction out "+key);
-                return key;
+                for (int i = 0; i < bags1.size(); i++) {
+                    ((DataBag) bags1.get(i)).addAll((DataBag) bags2.get(i));
+                }
+                return bags1;
             } catch (ExecException e) {
                 throw new RuntimeException(e);
             }
         }
     }
 
-    private static class GroupTupleFunction extends AbstractFunction1<Tuple2<Object, Seq<Tuple>>, Tuple> implements Serializable {
+    private static class ToGroupTupleFunction extends AbstractFunction1<Tuple2<Object, Tuple>, Tuple> implements Serializable {
 
         @Override
-        public Tuple apply(Tuple2<Object, Seq<Tuple>> v1) {
+        public Tuple apply(Tuple2<Object, Tuple> v1) {
             try {
-                LOG.debug("GroupTupleFunction in "+v1);
+                LOG.debug("ToGroupTupleFunction in "+v1);
+                List<Iterator<Tuple>> tupleIterators = Lists.newArrayList();
+                for (Object bag : v1._2().getAll()) {
+                    tupleIterators.add(((DataBag) bag).iterator());
+                }
                 Tuple tuple = tf.newTuple(2);
-                tuple.set(0, v1._1()); // the (index, key) tuple
-                tuple.set(1, JavaConversions.asJavaCollection(v1._2()).iterator()); // the Seq<Tuple> aka bag of values
-                LOG.debug("GroupTupleFunction out "+tuple);
+                tuple.set(0, v1._1()); // the key
+                tuple.set(1, new IteratorUnion<Tuple>(tupleIterators.iterator())); // the values, read from the bags
+                LOG.debug("ToGroupTupleFunction out "+tuple);
                 return tuple;
             } catch (ExecException e) {
                 throw new RuntimeException(e);
@@ -108,15 +164,28 @@ public class GlobalRearrangeConverter implements POConverter<Tuple, Tuple, POGlo
 
     private static class ToKeyValueFunction extends AbstractFunction1<Tuple,Tuple2<Object, Tuple>> implements Serializable {
 
+        // the index of the input in a cogroup, -1 for a group
+        private final int index;
+
+        public ToKeyValueFunction(int index) {
+            this.index = index;
+        }
+
         @Override
         public Tuple2<Object, Tuple> apply(Tuple t) {
             try {
                 // (index, key, value)
                 LOG.debug("ToKeyValueFunction in "+t);
                 Object key = t.get(1);
-                Tuple value = (Tuple)t.get(2); //value
-                // (key, value)
-                Tuple2<Object, Tuple> out = new Tuple2<Object, Tuple>(key, value);
+                if (index >= 0 && ((Number) t.get(0)).intValue() != index) {
+                    Tuple indexed = tf.newTuple(3);
+                    indexed.set(0, index);
+                    indexed.set(1, key);
+                    indexed.set(2, t.get(2));
+                    t = indexed;
+                }
+                // (key, (index, key, value))
+                Tuple2<Object, Tuple> out = new Tuple2<Object, Tuple>(key, t);
                 LOG.debug("ToKeyValueFunction out "+out);
                 return out;
             } catch (ExecException e) {
@@ -125,7 +194,7 @@ public class GlobalRearrangeConverter implements POConverter<Tuple, Tuple, POGlo
         }
     }
 
-    private static class ToGroupKeyValueFunction extends AbstractFunction1<Tuple2<Object,Seq<Seq<Tuple>>>,Tuple> implements Serializable {
+    static class ToGroupKeyValueFunction extends AbstractFunction1<Tuple2<Object,Seq<Seq<Tuple>>>,Tuple> implements Serializable {
 
         @Override
         public Tuple apply(Tuple2<Object, Seq<Seq<Tuple>>> input) {
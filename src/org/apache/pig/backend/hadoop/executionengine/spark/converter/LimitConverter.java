@@ -2,8 +2,11 @@ package org.apache.pig.backend.hadoop.executionengine.spark.converter;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.List;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLimit;
@@ -13,10 +16,24 @@ import org.apache.pig.data.Tuple;
 import scala.collection.Iterator;
 import scala.collection.JavaConversions;
 import scala.runtime.AbstractFunction1;
+import spark.CoalescedRDD;
 import spark.RDD;
 
+/**
+ * Converts a POLimit. Each partition is limited first, then the partitions are read one after
+ * the other until the limit is reached, so a small limit over a big input only reads what it
+ * needs. Limits too big to go through the driver, and limits given by an expression, are
+ * applied again after coalescing the partitions into one.
+ * <p>
+ * A limit right after a load is also pushed into the loader by the LimitOptimizer, which stops
+ * reading each split once it has enough tuples.
+ */
 @SuppressWarnings({ "serial"})
 public class LimitConverter implements POConverter<Tuple, Tuple, POLimit> {
+    private static final Log LOG = LogFactory.getLog(LimitConverter.class);
+
+    // above this, the rows are not collected to the driver, nor kept in memory by a sort
+    static final long MAX_COLLECTED_LIMIT = 100000;
 
     @Override
     public RDD<Tuple> convert(List<RDD<Tuple>> predecessors, POLimit poLimit)
@@ -24,7 +41,37 @@ public class LimitConverter implements POConverter<Tuple, Tuple, POLimit> {
         SparkUtil.assertPredecessorSize(predecessors, poLimit, 1);
         RDD<Tuple> rdd = predecessors.get(0);
         LimitFunction limitFunction = new LimitFunction(poLimit);
-        return rdd.mapPartitions(limitFunction, SparkUtil.getManifest(Tuple.class));
+        RDD<Tuple> limited = rdd.mapPartitions(limitFunction, SparkUtil.getManifest(Tuple.class));
+        if (poLimit.getLimitPlan() != null) {
+            // the limit is only known once the expression is evaluated on the backend
+            return new CoalescedRDD<Tuple>(limited, 1, SparkUtil.getManifest(Tuple.class))
+                    .mapPartitions(limitFunction, SparkUtil.getManifest(Tuple.class));
+        }
+        return globalLimit(limited, poLimit.getLimit());
+    }
+
+    /**
+     * Keeps the first limit tuples of an RDD, best used on partitions already limited.
+     */
+    static RDD<Tuple> globalLimit(RDD<Tuple> rdd, long limit) {
+        if (rdd.splits().length <= 1) {
+            return rdd.mapPartitions(new TakeFunction(limit), SparkUtil.getManifest(Tuple.class));
+        }
+        if (limit > MAX_COLLECTED_LIMIT) {
+            return new CoalescedRDD<Tuple>(rdd, 1, SparkUtil.getManifest(Tuple.class))
+                    .mapPartitions(new TakeFunction(limit), SparkUtil.getManifest(Tuple.class));
+        }
+        long start = System.currentTimeMillis();
+        // take() runs on one partition, then on more only if it needs to
+        Object[] taken = (Object[]) rdd.take((int) limit);
+        List<Tuple> tuples = new ArrayList<Tuple>(taken.length);
+        for (Object tuple : taken) {
+            tuples.add((Tuple) tuple);
+        }
+        LOG.info("Took " + tuples.size() + " tuples out of a limit of " + limit + " in "
+                + (System.currentTimeMillis() - start) + " ms");
+        return rdd.context().parallelize(JavaConversions.asScalaBuffer(tuples), 1,
+                SparkUtil.getManifest(Tuple.class));
     }
 
     private static class LimitFunction extends AbstractFunction1<Iterator<Tuple>, Iterator<Tuple>> implements Serializable {
@@ -54,4 +101,39 @@ public class LimitConverter implements POConverter<Tuple, Tuple, POLimit> {
 
     }
 
+    private static class TakeFunction extends AbstractFunction1<Iterator<Tuple>, Iterator<Tuple>> implements Serializable {
+
+        private final long limit;
+
+        public TakeFunction(long limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public Iterator<Tuple> apply(Iterator<Tuple> i) {
+            final java.util.Iterator<Tuple> tuples = JavaConversions.asJavaIterator(i);
+
+            return JavaConversions.asScalaIterator(new java.util.Iterator<Tuple>() {
+                private long taken = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return taken < limit && tuples.hasNext();
+                }
+
+                @Override
+                public Tuple next() {
+                    ++taken;
+                    return tuples.next();
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            });
+        }
+
+    }
+
 }
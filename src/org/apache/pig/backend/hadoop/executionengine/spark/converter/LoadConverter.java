@@ -3,28 +3,47 @@ package org.apache.pig.backend.hadoop.executionengine.spark.converter;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.pig.LoadFunc;
+import org.apache.pig.PigConfiguration;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigInputFormat;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POCollectedGroup;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.PODistinct;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POGlobalRearrange;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLoad;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POMergeCogroup;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POMergeJoin;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POSort;
 import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
+import org.apache.pig.backend.hadoop.executionengine.spark.operator.POReduceBySpark;
+import org.apache.pig.backend.hadoop.executionengine.spark.operator.POSkewedRearrangeSpark;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.impl.PigContext;
 import org.apache.pig.impl.io.FileSpec;
 import org.apache.pig.impl.plan.OperatorKey;
 import org.apache.pig.impl.util.ObjectSerializer;
+import org.apache.pig.impl.util.UDFContext;
 
 import scala.Function1;
 import scala.Tuple2;
 import scala.runtime.AbstractFunction1;
 import spark.RDD;
 import spark.SparkContext;
+import spark.storage.StorageLevel;
 
 import com.google.common.collect.Lists;
 
@@ -32,22 +51,44 @@ import com.google.common.collect.Lists;
  * Converter that loads data via POLoad and converts it to RRD&lt;Tuple>. Abuses the interface a bit
  * in that there is no inoput RRD to convert in this case. Instead input is the source path of the
  * POLoad.
+ * <p>
+ * The splits are planned by PigInputFormat as for a map task: small splits are combined up to
+ * pig.maxCombinedSplitSize (the block size by default) unless pig.splitCombination is false, and
+ * the record readers stop at the limit pushed into the load. As in the JobControlCompiler, the
+ * splits are not combined when the data goes without a shuffle to an operator relying on the
+ * order of its input, such as a merge join, since combined splits are not kept in order. The
+ * Spark partitions of a load keep the locations of their splits.
+ * <p>
+ * The loads of a plan reading the same path in the same way share one RDD, so its splits are
+ * only planned once; the shared RDD is persisted with
+ * {@link PigConfiguration#PIG_SPARK_SHARED_LOAD_STORAGE_LEVEL} so the input is only scanned once.
  *
  * @author billg
  */
 @SuppressWarnings({ "serial"})
 public class LoadConverter implements POConverter<Tuple, Tuple, POLoad> {
+    private static final Log LOG = LogFactory.getLog(LoadConverter.class);
 
     private static final ToTupleFunction TO_TUPLE_FUNCTION = new ToTupleFunction();
 
+    private static final String DEFAULT_STORAGE_LEVEL = "MEMORY_AND_DISK";
+
     private PigContext pigContext;
     private PhysicalPlan physicalPlan;
     private SparkContext sparkContext;
+    private final String sharedStorageLevelName;
+    private final StorageLevel sharedStorageLevel;
+    // the RDDs of the loads converted so far, by what they read
+    private final Map<List<Object>, RDD<Tuple>> loaded = new HashMap<List<Object>, RDD<Tuple>>();
+    private final Set<RDD<Tuple>> persisted = new HashSet<RDD<Tuple>>();
 
     public LoadConverter(PigContext pigContext, PhysicalPlan physicalPlan, SparkContext sparkContext) {
         this.pigContext = pigContext;
         this.physicalPlan = physicalPlan;
         this.sparkContext = sparkContext;
+        sharedStorageLevelName = SparkUtil.getStorageLevelName(pigContext.getProperties(),
+                PigConfiguration.PIG_SPARK_SHARED_LOAD_STORAGE_LEVEL, DEFAULT_STORAGE_LEVEL);
+        sharedStorageLevel = SparkUtil.toStorageLevel(sharedStorageLevelName);
     }
 
     @Override
@@ -56,16 +97,92 @@ public class LoadConverter implements POConverter<Tuple, Tuple, POLoad> {
 //            throw new RuntimeException("Should not have predecessors for Load. Got : "+predecessors);
 //        }
 
+        boolean combinable = isCombinable(poLoad);
+        List<Object> key = getLoadKey(poLoad, combinable);
+        RDD<Tuple> rdd = loaded.get(key);
+        if (rdd != null) {
+            if ((sharedStorageLevel.useMemory() || sharedStorageLevel.useDisk())
+                    && persisted.add(rdd)) {
+                LOG.info("Persisting " + poLoad.getLFile().getFileName() + ", read by several loads, with "
+                        + sharedStorageLevelName);
+                rdd.persist(sharedStorageLevel);
+            }
+            return rdd;
+        }
+
         JobConf loadJobConf = SparkUtil.newJobConf(pigContext);
         configureLoader(physicalPlan, poLoad, loadJobConf);
+        if (!combinable) {
+            loadJobConf.setBoolean("pig.noSplitCombination", true);
+        }
 
         // don't know why but just doing this cast for now
         RDD<Tuple2<Text, Tuple>> hadoopRDD = sparkContext.newAPIHadoopFile(
                 poLoad.getLFile().getFileName(), PigInputFormat.class,
                 Text.class, Tuple.class, loadJobConf);
+        LOG.info("Loading " + poLoad.getLFile().getFileName() + " in " + hadoopRDD.splits().length
+                + (combinable ? " combined" : "") + " splits");
 
         // map to get just RDD<Tuple>
-        return hadoopRDD.map(TO_TUPLE_FUNCTION, SparkUtil.getManifest(Tuple.class));
+        rdd = hadoopRDD.map(TO_TUPLE_FUNCTION, SparkUtil.getManifest(Tuple.class));
+        loaded.put(key, rdd);
+        return rdd;
+    }
+
+    /**
+     * @return what makes two loads read the same tuples: their location, their loader, their
+     *         limit, how their splits are planned, and what the front end told the loader, such
+     *         as the fields to project
+     */
+    private static List<Object> getLoadKey(POLoad poLoad, boolean combinable) {
+        Properties udfProperties = UDFContext.getUDFContext().getUDFProperties(
+                poLoad.getLoadFunc().getClass(), new String[] { poLoad.getSignature() });
+        return Arrays.asList(poLoad.getLFile().getFileName(),
+                String.valueOf(poLoad.getLFile().getFuncSpec()), poLoad.getLimit(), combinable,
+                copy(udfProperties));
+    }
+
+    private static Properties copy(Properties properties) {
+        Properties copy = new Properties();
+        copy.putAll(properties);
+        return copy;
+    }
+
+    /**
+     * @return false if split combination is disabled, or if the load feeds without a shuffle an
+     *         operator that needs its partitions in the order of the files
+     */
+    private boolean isCombinable(POLoad poLoad) {
+        if (pigContext.getProperties().getProperty("pig.splitCombination", "true").equals("false")) {
+            return false;
+        }
+        return !readsInOrder(poLoad, new HashSet<OperatorKey>());
+    }
+
+    private boolean readsInOrder(PhysicalOperator physicalOperator, Set<OperatorKey> visited) {
+        List<PhysicalOperator> successors = physicalPlan.getSuccessors(physicalOperator);
+        if (successors == null) {
+            return false;
+        }
+        for (PhysicalOperator successor : successors) {
+            if (!visited.add(successor.getOperatorKey())) {
+                continue;
+            }
+            if (successor instanceof POMergeJoin || successor instanceof POMergeCogroup
+                    || successor instanceof POCollectedGroup) {
+                return true;
+            }
+            if (successor instanceof POGlobalRearrange || successor instanceof POReduceBySpark
+                    || successor instanceof POSkewedRearrangeSpark || successor instanceof POSort
+                    || successor instanceof PODistinct) {
+                // the shuffle orders the data again
+                continue;
+            }
+            if (readsInOrder(successor, visited)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private static class ToTupleFunction extends AbstractFunction1<Tuple2<Text, Tuple>, Tuple>
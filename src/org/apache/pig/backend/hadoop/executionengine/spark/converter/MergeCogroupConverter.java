@@ -0,0 +1,155 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.converter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POMergeCogroup;
+import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.InternalCachedBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+
+import spark.RDD;
+
+/**
+ * Converts a POMergeCogroup: all the inputs are sorted on the group key and the loader of the
+ * first one keeps all the rows of a key in the same split, so each of its partitions is grouped
+ * with the rows of the other inputs in the same key range, without a shuffle.
+ *
+ * @see SortedMergeRDD
+ */
+@SuppressWarnings({ "serial" })
+public class MergeCogroupConverter implements POConverter<Tuple, Tuple, POMergeCogroup> {
+
+    @Override
+    public RDD<Tuple> convert(List<RDD<Tuple>> predecessors, POMergeCogroup poMergeCogroup)
+            throws IOException {
+        SparkUtil.assertPredecessorSizeGreaterThan(predecessors, poMergeCogroup, 1);
+        return new MergeCogroupRDD(predecessors.get(0),
+                predecessors.subList(1, predecessors.size()),
+                new GroupKeyFunction(poMergeCogroup));
+    }
+
+    private static class GroupKeyFunction implements SortedMergeRDD.KeyFunction {
+        private final POMergeCogroup poMergeCogroup;
+
+        private GroupKeyFunction(POMergeCogroup poMergeCogroup) {
+            this.poMergeCogroup = poMergeCogroup;
+        }
+
+        @Override
+        public Object getKey(Tuple tuple, int input) throws ExecException {
+            return poMergeCogroup.getGroupKey(tuple, input);
+        }
+    }
+
+    private static class MergeCogroupRDD extends SortedMergeRDD {
+
+        private MergeCogroupRDD(RDD<Tuple> base, List<RDD<Tuple>> sides,
+                GroupKeyFunction keyFunction) {
+            super(base, new ArrayList<RDD<Tuple>>(sides), keyFunction, false);
+        }
+
+        @Override
+        protected java.util.Iterator<Tuple> merge(java.util.Iterator<Tuple> base,
+                List<java.util.Iterator<Tuple>> sides) {
+            try {
+                List<SortedInput> inputs = new ArrayList<SortedInput>();
+                inputs.add(new SortedInput(base, keyFunction, 0));
+                for (int i = 0; i < sides.size(); i++) {
+                    inputs.add(new SortedInput(sides.get(i), keyFunction, i + 1));
+                }
+                return new MergeCogroupIterator(inputs);
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Produces (key, bag of input 0, ..., bag of input n) for each key, smallest first. As in
+     * the reduce side cogroup, the null keys of different inputs do not match: each input with
+     * null keys gets its own group.
+     */
+    private static class MergeCogroupIterator implements java.util.Iterator<Tuple> {
+        private final List<SortedMergeRDD.SortedInput> inputs;
+
+        private MergeCogroupIterator(List<SortedMergeRDD.SortedInput> inputs) {
+            this.inputs = inputs;
+        }
+
+        @Override
+        public boolean hasNext() {
+            for (SortedMergeRDD.SortedInput input : inputs) {
+                if (input.hasNext()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Tuple next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                // nulls sort first
+                for (int i = 0; i < inputs.size(); i++) {
+                    SortedMergeRDD.SortedInput input = inputs.get(i);
+                    if (input.hasNext() && input.peekKey() == null) {
+                        DataBag[] bags = newBags();
+                        while (input.hasNext() && input.peekKey() == null) {
+                            bags[i].add(input.next());
+                        }
+                        return group(null, bags);
+                    }
+                }
+                Object key = null;
+                for (SortedMergeRDD.SortedInput input : inputs) {
+                    if (input.hasNext()
+                            && (key == null || DataType.compare(input.peekKey(), key) < 0)) {
+                        key = input.peekKey();
+                    }
+                }
+                DataBag[] bags = newBags();
+                for (int i = 0; i < inputs.size(); i++) {
+                    SortedMergeRDD.SortedInput input = inputs.get(i);
+                    while (input.hasNext() && DataType.compare(input.peekKey(), key) == 0) {
+                        bags[i].add(input.next());
+                    }
+                }
+                return group(key, bags);
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private DataBag[] newBags() {
+            DataBag[] bags = new DataBag[inputs.size()];
+            for (int i = 0; i < bags.length; i++) {
+                bags[i] = new InternalCachedBag(bags.length);
+            }
+            return bags;
+        }
+
+        private static Tuple group(Object key, DataBag[] bags) throws ExecException {
+            Tuple out = TupleFactory.getInstance().newTuple(bags.length + 1);
+            out.set(0, key);
+            for (int i = 0; i < bags.length; i++) {
+                out.set(i + 1, bags[i]);
+            }
+            return out;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.converter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POMergeJoin;
+import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+
+import spark.RDD;
+
+/**
+ * Converts a POMergeJoin: both inputs are sorted on the join key, so each partition of the left
+ * input is joined with the partitions of the right input holding the same key range, without a
+ * shuffle.
+ *
+ * @see SortedMergeRDD
+ */
+@SuppressWarnings({ "serial" })
+public class MergeJoinConverter implements POConverter<Tuple, Tuple, POMergeJoin> {
+
+    @Override
+    public RDD<Tuple> convert(List<RDD<Tuple>> predecessors, POMergeJoin poMergeJoin)
+            throws IOException {
+        SparkUtil.assertPredecessorSize(predecessors, poMergeJoin, 2);
+        return new MergeJoinRDD(predecessors.get(0), predecessors.get(1),
+                new JoinKeyFunction(poMergeJoin));
+    }
+
+    private static class JoinKeyFunction implements SortedMergeRDD.KeyFunction {
+        private final POMergeJoin poMergeJoin;
+
+        private JoinKeyFunction(POMergeJoin poMergeJoin) {
+            this.poMergeJoin = poMergeJoin;
+        }
+
+        @Override
+        public Object getKey(Tuple tuple, int input) throws ExecException {
+            return poMergeJoin.getJoinKey(tuple, input);
+        }
+    }
+
+    private static class MergeJoinRDD extends SortedMergeRDD {
+
+        private MergeJoinRDD(RDD<Tuple> left, RDD<Tuple> right, JoinKeyFunction keyFunction) {
+            super(left, Collections.singletonList(right), keyFunction, true);
+        }
+
+        @Override
+        protected java.util.Iterator<Tuple> merge(java.util.Iterator<Tuple> left,
+                List<java.util.Iterator<Tuple>> right) {
+            try {
+                return new MergeJoinIterator(new SortedInput(left, keyFunction, 0),
+                        new SortedInput(right.get(0), keyFunction, 1));
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Inner join of two sorted inputs: the left rows of the current key are kept in memory and
+     * the right rows of the same key stream through. Null keys never match.
+     */
+    private static class MergeJoinIterator implements java.util.Iterator<Tuple> {
+        private final SortedMergeRDD.SortedInput left;
+        private final SortedMergeRDD.SortedInput right;
+        private final List<Tuple> leftGroup = new ArrayList<Tuple>();
+        private Object groupKey;
+        private Tuple rightTuple;
+        private int position;
+        private Tuple next;
+
+        private MergeJoinIterator(SortedMergeRDD.SortedInput left,
+                SortedMergeRDD.SortedInput right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                if (next == null) {
+                    next = readNext();
+                }
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
+            }
+            return next != null;
+        }
+
+        @Override
+        public Tuple next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple result = next;
+            next = null;
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private Tuple readNext() throws ExecException {
+            while (true) {
+                if (rightTuple != null && position < leftGroup.size()) {
+                    return join(leftGroup.get(position++), rightTuple);
+                }
+                rightTuple = null;
+                if (!right.hasNext()) {
+                    return null;
+                }
+                Object rightKey = right.peekKey();
+                if (rightKey == null) {
+                    right.next();
+                    continue;
+                }
+                int c = groupKey == null ? 1 : DataType.compare(rightKey, groupKey);
+                if (c < 0) {
+                    right.next();
+                } else if (c == 0) {
+                    rightTuple = right.next();
+                    position = 0;
+                } else if (!readLeftGroup(rightKey)) {
+                    return null;
+                }
+            }
+        }
+
+        /**
+         * Reads the next group of left rows whose key is not below the given one.
+         *
+         * @return false if the left input is exhausted
+         */
+        private boolean readLeftGroup(Object minKey) throws ExecException {
+            leftGroup.clear();
+            groupKey = null;
+            while (left.hasNext()
+                    && (left.peekKey() == null || DataType.compare(left.peekKey(), minKey) < 0)) {
+                left.next();
+            }
+            if (!left.hasNext()) {
+                return false;
+            }
+            groupKey = left.peekKey();
+            while (left.hasNext() && DataType.compare(left.peekKey(), groupKey) == 0) {
+                leftGroup.add(left.next());
+            }
+            return true;
+        }
+
+        private static Tuple join(Tuple leftTuple, Tuple rightTuple) throws ExecException {
+            Tuple joined = TupleFactory.getInstance().newTuple(leftTuple.size() + rightTuple.size());
+            for (int i = 0; i < leftTuple.size(); i++) {
+                joined.set(i, leftTuple.get(i));
+            }
+            for (int i = 0; i < rightTuple.size(); i++) {
+                joined.set(i + leftTuple.size(), rightTuple.get(i));
+            }
+            return joined;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.converter;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.util.RunJar;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.JobCreationException;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.RunJarSecurityManager;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.PONative;
+import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
+import org.apache.pig.data.Tuple;
+
+import spark.RDD;
+
+/**
+ * Converts a PONative, the MAPREDUCE operator: its input is the store writing the input of the
+ * native job, which has run once its predecessor is converted. The native job is run from the
+ * driver, like "hadoop jar" does, and the load following this operator reads its output.
+ * <p>
+ * The RDD returned is the one of the store, which the load does not read.
+ */
+public class NativeConverter implements POConverter<Tuple, Tuple, PONative> {
+    private static final Log LOG = LogFactory.getLog(NativeConverter.class);
+
+    @Override
+    public RDD<Tuple> convert(List<RDD<Tuple>> predecessors, PONative poNative)
+            throws IOException {
+        SparkUtil.assertPredecessorSize(predecessors, poNative, 1);
+        String[] params = poNative.getParams();
+        String[] args = new String[params.length + 1];
+        args[0] = poNative.getNativeMRjar();
+        System.arraycopy(params, 0, args, 1, params.length);
+
+        long start = System.currentTimeMillis();
+        RunJarSecurityManager secMan = new RunJarSecurityManager();
+        try {
+            RunJar.main(args);
+        } catch (SecurityException se) {
+            // the job called System.exit()
+            if (secMan.getExitInvoked() && secMan.getExitCode() != 0) {
+                throw new JobCreationException("Native job returned with non-zero return code "
+                        + secMan.getExitCode());
+            }
+        } catch (Throwable t) {
+            throw new JobCreationException("Cannot run native mapreduce job " + t.getMessage(), t);
+        } finally {
+            secMan.retire();
+        }
+        LOG.info("Ran native mapreduce job " + poNative.getNativeMRjar() + " in "
+                + (System.currentTimeMillis() - start) + " ms");
+        return predecessors.get(0);
+    }
+}
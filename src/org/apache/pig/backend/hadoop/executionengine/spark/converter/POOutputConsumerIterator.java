@@ -11,6 +11,7 @@ abstract class POOutputConsumerIterator implements
     private Result result = null;
     private boolean returned = true;
     private boolean finished = false;
+    private boolean endOfInput = false;
 
     POOutputConsumerIterator(java.util.Iterator<Tuple> input) {
         this.input = input;
@@ -20,6 +21,15 @@ abstract class POOutputConsumerIterator implements
 
     abstract protected Result getNextResult() throws ExecException;
 
+    /**
+     * Called once all the input is attached. Operators buffering their output (see
+     * PhysicalPlan.endOfAllInput) return true to be asked for their remaining results, with no
+     * input attached, until they return EOP.
+     */
+    protected boolean endOfInput() {
+        return false;
+    }
+
     private void readNext() {
         try {
             if (result != null && !returned) {
@@ -28,11 +38,15 @@ abstract class POOutputConsumerIterator implements
             // see PigGenericMapBase
             if (result == null) {
                 if (!input.hasNext()) {
-                    finished = true;
-                    return;
+                    if (endOfInput || !endOfInput()) {
+                        finished = true;
+                        return;
+                    }
+                    endOfInput = true;
+                } else {
+                    Tuple v1 = input.next();
+                    attach(v1);
                 }
-                Tuple v1 = input.next();
-                attach(v1);
             }
             result = getNextResult();
             returned = false;
@@ -45,7 +59,7 @@ abstract class POOutputConsumerIterator implements
                 readNext();
                 break;
             case POStatus.STATUS_EOP:
-                finished = !input.hasNext();
+                finished = !input.hasNext() && endOfInput;
                 if (!finished) {
                     result = null;
                     readNext();
@@ -60,6 +60,9 @@ public class PackageConverter implements POConverter<Tuple, Tuple, POPackage> {
                 };
                 final Iterator<Tuple> bagIterator = (Iterator<Tuple>)t.get(1);
                 Iterator<NullableTuple> iterator = new Iterator<NullableTuple>() {
+                    // POPackage copies the value out, as Hadoop also reuses the value it passes
+                    private final ReusableNullableTuple nullableTuple = new ReusableNullableTuple();
+
                     public boolean hasNext() {
                         return bagIterator.hasNext();
                     }
@@ -67,7 +70,7 @@ public class PackageConverter implements POConverter<Tuple, Tuple, POPackage> {
                         try {
                             // we want the value and index only
                             Tuple next = bagIterator.next();
-                            NullableTuple nullableTuple = new NullableTuple((Tuple)next.get(2));
+                            nullableTuple.set((Tuple)next.get(2));
                             nullableTuple.setIndex(((Number)next.get(0)).byteValue());
                             return nullableTuple;
                         } catch (ExecException e) {
@@ -109,4 +112,11 @@ public class PackageConverter implements POConverter<Tuple, Tuple, POPackage> {
 
     }
 
+    private static class ReusableNullableTuple extends NullableTuple {
+
+        private void set(Tuple t) {
+            mValue = t;
+        }
+    }
+
 }
@@ -0,0 +1,50 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.converter;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.List;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.PORank;
+import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+
+import scala.runtime.AbstractFunction1;
+import spark.RDD;
+
+/**
+ * Converts a PORank. Its input comes from the {@link CounterConverter}, whose counter values
+ * already include the offset of their partition: the rank is the counter value, which replaces
+ * the task id and the counter in front of the tuple (the MR backend adds the offset of the task
+ * here, read from the job conf).
+ */
+@SuppressWarnings({ "serial" })
+public class RankConverter implements POConverter<Tuple, Tuple, PORank> {
+
+    @Override
+    public RDD<Tuple> convert(List<RDD<Tuple>> predecessors, PORank poRank) throws IOException {
+        SparkUtil.assertPredecessorSize(predecessors, poRank, 1);
+        return predecessors.get(0).map(new RankFunction(), SparkUtil.getManifest(Tuple.class));
+    }
+
+    private static class RankFunction extends AbstractFunction1<Tuple, Tuple>
+            implements Serializable {
+
+        private static final TupleFactory TUPLE_FACTORY = TupleFactory.getInstance();
+
+        @Override
+        public Tuple apply(Tuple in) {
+            try {
+                Tuple out = TUPLE_FACTORY.newTuple(in.size() - 1);
+                out.set(0, in.get(1));
+                for (int i = 2; i < in.size(); i++) {
+                    out.set(i - 1, in.get(i));
+                }
+                return out;
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
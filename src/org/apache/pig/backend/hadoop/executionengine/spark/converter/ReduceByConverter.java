@@ -0,0 +1,147 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.converter;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.spark.ParallelismEstimator;
+import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
+import org.apache.pig.backend.hadoop.executionengine.spark.operator.POReduceBySpark;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.io.NullableTuple;
+import org.apache.pig.impl.io.PigNullableWritable;
+
+import scala.Tuple2;
+import scala.runtime.AbstractFunction1;
+import scala.runtime.AbstractFunction2;
+import spark.PairRDDFunctions;
+import spark.RDD;
+
+/**
+ * Converts a POReduceBySpark to a reduceByKey. The values are the (index, key, value) tuples
+ * produced by the map side local rearrange; two of them are merged by running the combine plan
+ * (the Intermediate form of the algebraic functions) on them. Spark applies the same function
+ * on the map side, so only partial aggregates go through the shuffle.
+ */
+@SuppressWarnings({ "serial"})
+public class ReduceByConverter implements POConverter<Tuple, Tuple, POReduceBySpark> {
+    private static final Log LOG = LogFactory.getLog(ReduceByConverter.class);
+
+    private static final TupleFactory tf = TupleFactory.getInstance();
+
+    private static final ToKeyValueFunction TO_KEY_VALUE_FUNCTION = new ToKeyValueFunction();
+    private static final ToGroupTupleFunction TO_GROUP_TUPLE_FUNCTION = new ToGroupTupleFunction();
+
+    private final ParallelismEstimator estimator;
+
+    public ReduceByConverter(ParallelismEstimator estimator) {
+        this.estimator = estimator;
+    }
+
+    @Override
+    public RDD<Tuple> convert(List<RDD<Tuple>> predecessors, POReduceBySpark physicalOperator)
+            throws IOException {
+        SparkUtil.assertPredecessorSize(predecessors, physicalOperator, 1);
+        int parallelism = estimator.getParallelism(physicalOperator);
+        RDD<Tuple> rdd = predecessors.get(0);
+
+        RDD<Tuple2<Object, Tuple>> rddPairs = rdd.map(TO_KEY_VALUE_FUNCTION, SparkUtil.<Object, Tuple>getTuple2Manifest());
+        PairRDDFunctions<Object, Tuple> pairRDDFunctions = new PairRDDFunctions<Object, Tuple>(rddPairs,
+                SparkUtil.getManifest(Object.class), SparkUtil.getManifest(Tuple.class));
+        return pairRDDFunctions.reduceByKey(new MergeValuesFunction(physicalOperator), parallelism)
+                // convert result to a tuple (key, { values }) as expected by the package converter
+                .map(TO_GROUP_TUPLE_FUNCTION, SparkUtil.getManifest(Tuple.class));
+    }
+
+    private static class ToKeyValueFunction extends AbstractFunction1<Tuple, Tuple2<Object, Tuple>> implements Serializable {
+
+        @Override
+        public Tuple2<Object, Tuple> apply(Tuple t) {
+            try {
+                // (index, key, value) keyed by key
+                return new Tuple2<Object, Tuple>(t.get(1), t);
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static class ToGroupTupleFunction extends AbstractFunction1<Tuple2<Object, Tuple>, Tuple> implements Serializable {
+
+        @Override
+        public Tuple apply(Tuple2<Object, Tuple> v1) {
+            try {
+                Tuple tuple = tf.newTuple(2);
+                tuple.set(0, v1._1());
+                tuple.set(1, Arrays.asList(v1._2()).iterator());
+                return tuple;
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static class MergeValuesFunction extends AbstractFunction2<Tuple, Tuple, Tuple> implements Serializable {
+
+        private final POReduceBySpark reduceBy;
+
+        public MergeValuesFunction(POReduceBySpark reduceBy) {
+            this.reduceBy = reduceBy;
+        }
+
+        @Override
+        public Tuple apply(Tuple v1, Tuple v2) {
+            try {
+                final Object key = v1.get(1);
+                PigNullableWritable keyWritable = new PigNullableWritable() {
+                    public Object getValueAsPigType() {
+                        return key;
+                    }
+                };
+                Iterator<NullableTuple> values = Arrays.asList(toNullableTuple(v1), toNullableTuple(v2)).iterator();
+
+                reduceBy.getCombinePackage().setInputs(null);
+                reduceBy.getCombinePackage().attachInput(keyWritable, values);
+                Tuple packaged = getOutput(reduceBy.getCombinePackage().getNext((Tuple) null), v1);
+
+                reduceBy.getCombineForEach().setInputs(null);
+                reduceBy.getCombineForEach().attachInput(packaged);
+                Tuple combined = getOutput(reduceBy.getCombineForEach().getNext((Tuple) null), v1);
+                // let the foreach finish with this input so that it's ready for the next one
+                while (reduceBy.getCombineForEach().getNext((Tuple) null).returnStatus != POStatus.STATUS_EOP) {
+                }
+
+                reduceBy.getCombineRearrange().setInputs(null);
+                reduceBy.getCombineRearrange().attachInput(combined);
+                Tuple out = getOutput(reduceBy.getCombineRearrange().getNext((Tuple) null), v1);
+                if (LOG.isDebugEnabled())
+                    LOG.debug("MergeValuesFunction out " + out);
+                return out;
+            } catch (ExecException e) {
+                throw new RuntimeException("Couldn't combine tuples: " + v1 + ", " + v2, e);
+            }
+        }
+
+        private static NullableTuple toNullableTuple(Tuple t) throws ExecException {
+            NullableTuple nullableTuple = new NullableTuple((Tuple) t.get(2));
+            nullableTuple.setIndex(((Number) t.get(0)).byteValue());
+            return nullableTuple;
+        }
+
+        private Tuple getOutput(Result result, Tuple in) {
+            if (result == null || result.returnStatus != POStatus.STATUS_OK) {
+                throw new RuntimeException("Unexpected response code from combine plan of "
+                        + reduceBy + " on tuple " + in + ": " + result);
+            }
+            return (Tuple) result.result;
+        }
+    }
+}
@@ -0,0 +1,441 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.converter;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.pig.LoadFunc;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigSplit;
+import org.apache.pig.backend.hadoop.executionengine.spark.ParallelismEstimator;
+import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
+import org.apache.pig.backend.hadoop.executionengine.spark.operator.POSkewedRearrangeSpark;
+import org.apache.pig.backend.hadoop.executionengine.util.MapRedUtil;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.builtin.GetMemNumRows;
+import org.apache.pig.impl.builtin.PartitionSkewedKeys;
+import org.apache.pig.impl.builtin.PoissonSampleLoader;
+import org.apache.pig.impl.util.Pair;
+
+import scala.Tuple2;
+import scala.collection.Iterator;
+import scala.collection.JavaConversions;
+import scala.collection.Seq;
+import scala.runtime.AbstractFunction1;
+import spark.CoGroupedRDD;
+import spark.Partitioner;
+import spark.RDD;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Converts the global rearrange of a skewed join. The first input is sampled with the
+ * PoissonSampleLoader and the samples are handed to PartitionSkewedKeys, exactly like the
+ * sampling job of the MR backend does. Each key found to be skewed gets a range of partitions:
+ * its rows from the first input are spread over that range in a round robin fashion and its rows
+ * from the second input are copied to every partition of the range. The other keys are hash
+ * partitioned. The result has the same (key, {(index, key, value)}) format as the one of a
+ * cogroup so that it can be packaged the usual way.
+ */
+@SuppressWarnings({ "serial"})
+public class SkewedRearrangeConverter implements POConverter<Tuple, Tuple, POSkewedRearrangeSpark> {
+    private static final Log LOG = LogFactory.getLog(SkewedRearrangeConverter.class);
+
+    private static final String SAMPLE_RATE = "pig.sksampler.samplerate";
+    private static final String PERC_MEM_AVAIL = "pig.skewedjoin.reduce.memusage";
+    private static final String MAX_TUPLE = "pig.skewedjoin.reduce.maxtuple";
+    private static final int DEFAULT_SAMPLE_RATE = 17;
+
+    private static final TupleFactory tf = TupleFactory.getInstance();
+
+    private static final FromSkewedKeyFunction FROM_SKEWED_KEY_FUNCTION = new FromSkewedKeyFunction();
+    private static final GlobalRearrangeConverter.ToGroupKeyValueFunction TO_GROUP_KEY_VALUE_FUNCTION =
+            new GlobalRearrangeConverter.ToGroupKeyValueFunction();
+
+    private final int sampleRate;
+    private final String heapPercentage;
+    private final String maxTuple;
+    private final ParallelismEstimator estimator;
+
+    public SkewedRearrangeConverter(PigContext pigContext, ParallelismEstimator estimator) {
+        this.estimator = estimator;
+        this.sampleRate = Integer.valueOf(pigContext.getProperties().getProperty(SAMPLE_RATE,
+                String.valueOf(DEFAULT_SAMPLE_RATE)));
+        this.heapPercentage = pigContext.getProperties().getProperty(PERC_MEM_AVAIL,
+                String.valueOf(PartitionSkewedKeys.DEFAULT_PERCENT_MEMUSAGE));
+        this.maxTuple = pigContext.getProperties().getProperty(MAX_TUPLE, "0");
+    }
+
+    @Override
+    public RDD<Tuple> convert(List<RDD<Tuple>> predecessors, POSkewedRearrangeSpark physicalOperator)
+            throws IOException {
+        SparkUtil.assertPredecessorSize(predecessors, physicalOperator, 2);
+        int parallelism = estimator.getParallelism(physicalOperator);
+
+        Integer[] totalReducers = new Integer[1];
+        Map<Object, Pair<Integer, Integer>> reducerMap = getKeyDistribution(predecessors.get(0),
+                physicalOperator, parallelism, totalReducers);
+        int numPartitions = (totalReducers[0] != null && totalReducers[0] > 0) ? totalReducers[0] : parallelism;
+        LOG.info("Skewed keys of " + physicalOperator + " over " + numPartitions + " partitions: " + reducerMap);
+
+        List<RDD<Tuple2<Object, Tuple>>> rddPairs = Lists.newArrayList();
+        rddPairs.add(predecessors.get(0).mapPartitions(
+                new PartitionFunction(reducerMap, numPartitions, false), SparkUtil.<Object, Tuple>getTuple2Manifest()));
+        rddPairs.add(predecessors.get(1).mapPartitions(
+                new PartitionFunction(reducerMap, numPartitions, true), SparkUtil.<Object, Tuple>getTuple2Manifest()));
+
+        CoGroupedRDD<Object> coGroupedRDD = new CoGroupedRDD<Object>(
+                (Seq<RDD<Tuple2<?, ?>>>)(Object)JavaConversions.asScalaBuffer(rddPairs),
+                new SkewedPartitioner(numPartitions));
+
+        RDD<Tuple2<Object,Seq<Seq<Tuple>>>> rdd = (RDD<Tuple2<Object,Seq<Seq<Tuple>>>>)(Object)coGroupedRDD;
+        return rdd.map(FROM_SKEWED_KEY_FUNCTION, SparkUtil.<Object, Seq<Seq<Tuple>>>getTuple2Manifest())
+                .map(TO_GROUP_KEY_VALUE_FUNCTION, SparkUtil.getManifest(Tuple.class));
+    }
+
+    /**
+     * Samples the (index, key, value) tuples of the first input and runs PartitionSkewedKeys
+     * on the samples sorted by key.
+     */
+    private Map<Object, Pair<Integer, Integer>> getKeyDistribution(RDD<Tuple> rdd,
+            POSkewedRearrangeSpark physicalOperator, int parallelism, Integer[] totalReducers)
+            throws IOException {
+        Object[] collected = (Object[]) rdd.mapPartitions(
+                new SampleFunction(sampleRate, Float.valueOf(heapPercentage), physicalOperator.getKeyType()),
+                SparkUtil.getManifest(Tuple.class)).collect();
+        List<Tuple> samples = new ArrayList<Tuple>(collected.length);
+        for (Object sample : collected) {
+            samples.add((Tuple) sample);
+        }
+        Collections.sort(samples, new Comparator<Tuple>() {
+            @Override
+            public int compare(Tuple o1, Tuple o2) {
+                // the last two fields are the memory size and the number of rows
+                try {
+                    int size = Math.min(o1.size(), o2.size()) - 2;
+                    for (int i = 0; i < size; i++) {
+                        int c = DataType.compare(o1.get(i), o2.get(i));
+                        if (c != 0) {
+                            return c;
+                        }
+                    }
+                    return o1.size() - o2.size();
+                } catch (ExecException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+
+        PartitionSkewedKeys partitionSkewedKeys = new PartitionSkewedKeys(
+                new String[] { heapPercentage, maxTuple, String.valueOf(physicalOperator.getAlias()) });
+        Tuple in = tf.newTuple(2);
+        in.set(0, parallelism);
+        in.set(1, BagFactory.getInstance().newDefaultBag(samples));
+        Map<String, Object> distMap = partitionSkewedKeys.exec(in);
+        return MapRedUtil.<Object>getReducerMap(distMap, totalReducers, physicalOperator.getKeyType());
+    }
+
+    /**
+     * Runs the PoissonSampleLoader on a partition and turns each sample into
+     * (key fields..., memory size, number of rows) like the transform plans of the MR sampling job.
+     */
+    private static class SampleFunction extends AbstractFunction1<Iterator<Tuple>, Iterator<Tuple>>
+            implements Serializable {
+
+        private final int sampleRate;
+        private final float heapPercentage;
+        private final byte keyType;
+
+        private SampleFunction(int sampleRate, float heapPercentage, byte keyType) {
+            this.sampleRate = sampleRate;
+            this.heapPercentage = heapPercentage;
+            this.keyType = keyType;
+        }
+
+        @Override
+        public Iterator<Tuple> apply(Iterator<Tuple> input) {
+            try {
+                Configuration conf = new Configuration(false);
+                conf.setInt(SAMPLE_RATE, sampleRate);
+                conf.setFloat(PERC_MEM_AVAIL, heapPercentage);
+                PigSplit split = new PigSplit();
+                split.setConf(conf);
+
+                PoissonSampleLoader sampler = new PoissonSampleLoader(TupleIteratorLoader.class.getName(), "100");
+                sampler.prepareToRead(new TupleIteratorRecordReader(JavaConversions.asJavaIterator(input)), split);
+
+                GetMemNumRows getMemNumRows = new GetMemNumRows();
+                List<Tuple> samples = new ArrayList<Tuple>();
+                Tuple sample;
+                while ((sample = sampler.getNext()) != null) {
+                    Tuple memNumRows = getMemNumRows.exec(sample);
+                    Tuple out = tf.newTuple();
+                    // the last sample of the partition carries a marker and the number of rows
+                    if (sample.size() > 2) {
+                        Object key = sample.get(1);
+                        if (keyType == DataType.TUPLE && key != null) {
+                            for (Object field : ((Tuple) key).getAll()) {
+                                out.append(field);
+                            }
+                        } else {
+                            out.append(key);
+                        }
+                    } else {
+                        out.append(null);
+                    }
+                    out.append(memNumRows.get(0));
+                    out.append(memNumRows.get(1));
+                    samples.add(out);
+                }
+                return JavaConversions.asScalaIterator(samples.iterator());
+            } catch (IOException e) {
+                throw new RuntimeException("Couldn't sample the input of the skewed join", e);
+            }
+        }
+    }
+
+    /**
+     * Keys the (index, key, value) tuples by partition. Rows of a skewed key from the first input
+     * go to the partitions of the key in turn, rows from the second input go to all of them.
+     */
+    private static class PartitionFunction extends
+            AbstractFunction1<Iterator<Tuple>, Iterator<Tuple2<Object, Tuple>>> implements Serializable {
+
+        private final Map<Object, Pair<Integer, Integer>> reducerMap;
+        private final int numPartitions;
+        private final boolean replicate;
+
+        private PartitionFunction(Map<Object, Pair<Integer, Integer>> reducerMap, int numPartitions,
+                boolean replicate) {
+            this.reducerMap = reducerMap;
+            this.numPartitions = numPartitions;
+            this.replicate = replicate;
+        }
+
+        @Override
+        public Iterator<Tuple2<Object, Tuple>> apply(Iterator<Tuple> i) {
+            final java.util.Iterator<Tuple> input = JavaConversions.asJavaIterator(i);
+            final Map<Object, Integer> currentIndexMap = new HashMap<Object, Integer>();
+            return JavaConversions.asScalaIterator(new java.util.Iterator<Tuple2<Object, Tuple>>() {
+
+                private final LinkedList<Tuple2<Object, Tuple>> buffer = new LinkedList<Tuple2<Object, Tuple>>();
+
+                @Override
+                public boolean hasNext() {
+                    while (buffer.isEmpty() && input.hasNext()) {
+                        partition(input.next());
+                    }
+                    return !buffer.isEmpty();
+                }
+
+                @Override
+                public Tuple2<Object, Tuple> next() {
+                    hasNext();
+                    return buffer.removeFirst();
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+
+                private void partition(Tuple t) {
+                    try {
+                        // (index, key, value)
+                        Object key = t.get(1);
+                        Tuple value = (Tuple) t.get(2);
+                        Pair<Integer, Integer> indexes = reducerMap.get(key);
+                        if (indexes == null) {
+                            int partition = key == null ? 0 : key.hashCode() % numPartitions;
+                            if (partition < 0) {
+                                partition += numPartitions;
+                            }
+                            buffer.add(new Tuple2<Object, Tuple>(new SkewedKey(key, partition), value));
+                        } else if (replicate) {
+                            for (int index = indexes.first; index <= indexes.first + indexes.second; index++) {
+                                buffer.add(new Tuple2<Object, Tuple>(
+                                        new SkewedKey(key, index % numPartitions), value));
+                            }
+                        } else {
+                            Integer current = currentIndexMap.get(key);
+                            if (current == null || current >= indexes.first + indexes.second) {
+                                current = indexes.first;
+                            } else {
+                                current++;
+                            }
+                            currentIndexMap.put(key, current);
+                            buffer.add(new Tuple2<Object, Tuple>(
+                                    new SkewedKey(key, current % numPartitions), value));
+                        }
+                    } catch (ExecException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
+    }
+
+    private static class FromSkewedKeyFunction extends
+            AbstractFunction1<Tuple2<Object, Seq<Seq<Tuple>>>, Tuple2<Object, Seq<Seq<Tuple>>>>
+            implements Serializable {
+
+        @Override
+        public Tuple2<Object, Seq<Seq<Tuple>>> apply(Tuple2<Object, Seq<Seq<Tuple>>> v1) {
+            return new Tuple2<Object, Seq<Seq<Tuple>>>(((SkewedKey) v1._1()).key, v1._2());
+        }
+    }
+
+    /**
+     * A join key along with the partition it was sent to. A skewed key gets grouped separately
+     * in each of its partitions. The BinInterSedesSerializer writes its fields.
+     */
+    public static class SkewedKey implements Serializable {
+
+        private final Object key;
+        private final int partition;
+
+        public SkewedKey(Object key, int partition) {
+            this.key = key;
+            this.partition = partition;
+        }
+
+        public Object getKey() {
+            return key;
+        }
+
+        public int getPartition() {
+            return partition;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * partition + (key == null ? 0 : key.hashCode());
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof SkewedKey)) {
+                return false;
+            }
+            SkewedKey other = (SkewedKey) obj;
+            return partition == other.partition
+                    && (key == null ? other.key == null : key.equals(other.key));
+        }
+
+        @Override
+        public String toString() {
+            return key + "@" + partition;
+        }
+    }
+
+    private static class SkewedPartitioner extends Partitioner {
+
+        private final int numPartitions;
+
+        private SkewedPartitioner(int numPartitions) {
+            this.numPartitions = numPartitions;
+        }
+
+        @Override
+        public int numPartitions() {
+            return numPartitions;
+        }
+
+        @Override
+        public int getPartition(Object key) {
+            return ((SkewedKey) key).partition;
+        }
+    }
+
+    /**
+     * The loader the PoissonSampleLoader delegates to. It just hands out the tuples of the
+     * TupleIteratorRecordReader it is given.
+     */
+    public static class TupleIteratorLoader extends LoadFunc {
+
+        private RecordReader<?, ?> reader;
+
+        @Override
+        public void setLocation(String location, Job job) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public InputFormat getInputFormat() throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public void prepareToRead(RecordReader reader, PigSplit split) throws IOException {
+            this.reader = reader;
+        }
+
+        @Override
+        public Tuple getNext() throws IOException {
+            try {
+                return reader.nextKeyValue() ? (Tuple) reader.getCurrentValue() : null;
+            } catch (InterruptedException e) {
+                throw new IOException("Error getting input", e);
+            }
+        }
+    }
+
+    private static class TupleIteratorRecordReader extends RecordReader<Object, Tuple> {
+
+        private final java.util.Iterator<Tuple> input;
+        private Tuple current;
+
+        private TupleIteratorRecordReader(java.util.Iterator<Tuple> input) {
+            this.input = input;
+        }
+
+        @Override
+        public void initialize(InputSplit split, TaskAttemptContext context) {
+        }
+
+        @Override
+        public boolean nextKeyValue() {
+            current = input.hasNext() ? input.next() : null;
+            return current != null;
+        }
+
+        @Override
+        public Object getCurrentKey() {
+            return null;
+        }
+
+        @Override
+        public Tuple getCurrentValue() {
+            return current;
+        }
+
+        @Override
+        public float getProgress() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -1,37 +1,204 @@
 package org.apache.pig.backend.hadoop.executionengine.spark.converter;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.pig.PigException;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.HDataType;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.JobControlCompiler;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.partitioners.DiscreteProbabilitySampleGenerator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLocalRearrange;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POSort;
+import org.apache.pig.backend.hadoop.executionengine.spark.ParallelismEstimator;
 import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.InternalMap;
 import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.builtin.FindQuantiles;
+import org.apache.pig.impl.io.PigNullableWritable;
+import org.apache.pig.impl.plan.NodeIdGenerator;
+import org.apache.pig.impl.plan.OperatorKey;
+import org.apache.pig.impl.util.ObjectSerializer;
 
 import scala.Tuple2;
 import scala.collection.Iterator;
 import scala.collection.JavaConversions;
+import scala.collection.Seq;
 import scala.math.Ordered;
 import scala.runtime.AbstractFunction1;
+import spark.CoGroupedRDD;
 import spark.OrderedRDDFunctions;
+import spark.Partitioner;
 import spark.RDD;
 
+/**
+ * Converts a POSort the way the MR backend does a global sort: the input is sampled, the sample
+ * goes through FindQuantiles to get the partition boundaries (keys which are frequent enough to
+ * span several partitions get spread over them) and the rows are range partitioned on those.
+ * Keys are serialized once and compared as bytes by the raw comparators of the MR backend, both
+ * when partitioning and when sorting each partition.
+ * <p>
+ * When a LIMIT was merged into the sort, each partition only keeps its first rows and those are
+ * sorted in a single partition, without sampling.
+ * <p>
+ * Sorts using a user comparison function keep using Spark's sortByKey.
+ */
 @SuppressWarnings("serial")
 public class SortConverter implements POConverter<Tuple, Tuple, POSort> {
     private static final Log LOG = LogFactory.getLog(SortConverter.class);
 
     private static final ToValueFuction TO_VALUE_FUCTION = new ToValueFuction();
 
+    // same as the RandomSampleLoader of the MRCompiler
+    private static final int SAMPLES_PER_PARTITION = 100;
+
+    private static final TupleFactory tf = TupleFactory.getInstance();
+
+    private final ParallelismEstimator estimator;
+
+    public SortConverter(ParallelismEstimator estimator) {
+        this.estimator = estimator;
+    }
+
     @Override
     public RDD<Tuple> convert(List<RDD<Tuple>> predecessors, POSort sortOperator)
             throws IOException {
         SparkUtil.assertPredecessorSize(predecessors, sortOperator, 1);
         RDD<Tuple> rdd = predecessors.get(0);
+
+        if (sortOperator.isUDFComparatorUsed) {
+            return sortByKey(rdd, sortOperator);
+        }
+        SortKey sortKey = new SortKey(sortOperator);
+        if (JobControlCompiler.getSortComparatorClass(sortKey.keyType) == null) {
+            LOG.info("No raw comparator for sort keys of type "
+                    + DataType.findTypeName(sortKey.keyType) + ", using sortByKey");
+            return sortByKey(rdd, sortOperator);
+        }
+        KeyComparator comparator = new KeyComparator(sortKey);
+
+        if (isTopRows(sortOperator)) {
+            // a LIMIT merged into the sort: only the first rows of each partition can make it,
+            // which is little enough to be sorted in a single partition. A bigger limit would
+            // keep too many rows in memory, the whole input is sorted then limited.
+            long limit = sortOperator.getLimit();
+            RDD<Tuple2<Object, Tuple>> topRows = rdd
+                    .map(new ToKeyValueFunction(sortKey), SparkUtil.<Object, Tuple>getTuple2Manifest())
+                    .mapPartitions(new TopFunction(comparator, limit),
+                            SparkUtil.<Object, Tuple>getTuple2Manifest());
+            return sortPartitions(topRows, new WeightedRangePartitioner(1, new SerializedKey[0],
+                    new HashMap<SerializedKey, DiscreteProbabilitySampleGenerator>(), comparator),
+                    comparator, limit);
+        }
+
+        // sample
+        long start = System.currentTimeMillis();
+        Object[] samples = (Object[]) rdd.mapPartitions(new SampleFunction(sortKey),
+                SparkUtil.getManifest(Tuple.class)).collect();
+        if (samples.length == 0) {
+            // nothing to sort
+            return rdd;
+        }
+        List<SerializedKey> sampleKeys = new ArrayList<SerializedKey>(samples.length);
+        for (Object sample : samples) {
+            sampleKeys.add(sortKey.serialize(sortKey.fromSample((Tuple) sample)));
+        }
+        Collections.sort(sampleKeys, comparator);
+        DataBag sampleBag = BagFactory.getInstance().newDefaultBag();
+        for (SerializedKey sampleKey : sampleKeys) {
+            sampleBag.add(sortKey.toSample(sampleKey.key));
+        }
+
+        // find the quantiles
+        int parallelism = estimator.getParallelism(sortOperator);
+        Tuple in = tf.newTuple(2);
+        in.set(0, parallelism);
+        in.set(1, sampleBag);
+        Map<String, Object> quantileMap = new FindQuantiles(sortKey.getAscFlags()).exec(in);
+        List<SerializedKey> quantiles = new ArrayList<SerializedKey>();
+        for (Tuple quantile : (DataBag) quantileMap.get(FindQuantiles.QUANTILES_LIST)) {
+            quantiles.add(sortKey.serialize(sortKey.fromSample(quantile)));
+        }
+        Map<SerializedKey, DiscreteProbabilitySampleGenerator> weightedParts =
+                new HashMap<SerializedKey, DiscreteProbabilitySampleGenerator>();
+        InternalMap weightedPartsData = (InternalMap) quantileMap.get(FindQuantiles.WEIGHTED_PARTS);
+        for (Map.Entry<Object, Object> entry : weightedPartsData.entrySet()) {
+            Tuple probs = (Tuple) entry.getValue();
+            float[] probVec = new float[probs.size()];
+            for (int i = 0; i < probVec.length; i++) {
+                probVec[i] = (Float) probs.get(i);
+            }
+            weightedParts.put(sortKey.serialize(sortKey.fromSample((Tuple) entry.getKey())),
+                    new DiscreteProbabilitySampleGenerator(probVec));
+        }
+        LOG.info("Found " + quantiles.size() + " quantiles and " + weightedParts.size()
+                + " keys spanning partitions from " + samples.length + " samples in "
+                + (System.currentTimeMillis() - start) + " ms");
+
+        // range partition and sort each partition
+        RDD<Tuple2<Object, Tuple>> rddPair = rdd.map(new ToKeyValueFunction(sortKey),
+                SparkUtil.<Object, Tuple>getTuple2Manifest());
+        RDD<Tuple> sorted = sortPartitions(rddPair, new WeightedRangePartitioner(parallelism,
+                quantiles.toArray(new SerializedKey[quantiles.size()]), weightedParts, comparator),
+                comparator, -1);
+        if (sortOperator.isLimited()) {
+            return LimitConverter.globalLimit(sorted, sortOperator.getLimit());
+        }
+        return sorted;
+    }
+
+    /**
+     * @return whether a sort with a LIMIT merged into it only keeps the top rows of each
+     * partition, and sorts them in a single partition
+     */
+    public static boolean isTopRows(POSort sortOperator) {
+        return sortOperator.isLimited()
+                && sortOperator.getLimit() <= LimitConverter.MAX_COLLECTED_LIMIT;
+    }
+
+    /**
+     * Partitions (serialized key, row) pairs and sorts each partition on the keys.
+     */
+    private RDD<Tuple> sortPartitions(RDD<Tuple2<Object, Tuple>> rddPair, Partitioner partitioner,
+            KeyComparator comparator, long limit) {
+        List<RDD<Tuple2<Object, Tuple>>> rddPairs = new ArrayList<RDD<Tuple2<Object, Tuple>>>();
+        rddPairs.add(rddPair);
+        CoGroupedRDD<Object> coGroupedRDD = new CoGroupedRDD<Object>(
+                (Seq<RDD<Tuple2<?, ?>>>) (Object) JavaConversions.asScalaBuffer(rddPairs),
+                partitioner);
+        RDD<Tuple2<Object, Seq<Seq<Tuple>>>> grouped =
+                (RDD<Tuple2<Object, Seq<Seq<Tuple>>>>) (Object) coGroupedRDD;
+        return grouped.mapPartitions(new SortPartitionFunction(comparator, limit),
+                SparkUtil.getManifest(Tuple.class));
+    }
+
+    private RDD<Tuple> sortByKey(RDD<Tuple> rdd, POSort sortOperator) {
         RDD<Tuple2<Tuple, Object>> rddPair =
-                rdd.map(new ToKeyValueFunction(),
+                rdd.map(new ToTupleKeyValueFunction(),
                         SparkUtil.<Tuple, Object>getTuple2Manifest());
         RDD<Tuple2<Tuple, Object>> sorted =
                 new OrderedRDDFunctions<Tuple, Object>(
@@ -40,7 +207,317 @@ public class SortConverter implements POConverter<Tuple, Tuple, POSort> {
                         SparkUtil.getManifest(Tuple.class),
                         SparkUtil.getManifest(Object.class)
                 ).sortByKey(true);
-        return sorted.mapPartitions(TO_VALUE_FUCTION, SparkUtil.getManifest(Tuple.class));
+        RDD<Tuple> values = sorted.mapPartitions(TO_VALUE_FUCTION, SparkUtil.getManifest(Tuple.class));
+        if (sortOperator.isLimited()) {
+            return LimitConverter.globalLimit(values, sortOperator.getLimit());
+        }
+        return values;
+    }
+
+    /**
+     * Computes the sort key of a tuple with a POLocalRearrange, as the map plan of the MR sort
+     * job does, and serializes it the way it is sent to the reducers.
+     */
+    private static class SortKey implements Serializable {
+        private final POLocalRearrange lr;
+        private final byte keyType;
+        private final boolean[] asc;
+        // the key is a tuple of the sort columns
+        private final boolean multiColumn;
+
+        private SortKey(POSort sortOperator) throws IOException {
+            List<PhysicalPlan> sortPlans = sortOperator.getSortPlans();
+            multiColumn = sortPlans.size() > 1;
+            keyType = multiColumn ? DataType.TUPLE
+                    : sortPlans.get(0).getLeaves().get(0).getResultType();
+            List<Boolean> ascCols = sortOperator.getMAscCols();
+            asc = new boolean[ascCols.size()];
+            for (int i = 0; i < asc.length; i++) {
+                asc[i] = ascCols.get(i);
+            }
+            String scope = sortOperator.getOperatorKey().scope;
+            lr = new POLocalRearrange(new OperatorKey(scope,
+                    NodeIdGenerator.getGenerator().getNextNodeId(scope)));
+            lr.setIndex(0);
+            lr.setKeyType(keyType);
+            lr.setPlans(sortPlans);
+            lr.setResultType(DataType.TUPLE);
+        }
+
+        private String[] getAscFlags() {
+            String[] flags = new String[asc.length];
+            for (int i = 0; i < asc.length; i++) {
+                flags[i] = Boolean.toString(asc[i]);
+            }
+            return flags;
+        }
+
+        private Object getKey(Tuple t) throws ExecException {
+            lr.attachInput(t);
+            Result result = lr.getNext((Tuple) null);
+            lr.detachInput();
+            if (result.returnStatus != POStatus.STATUS_OK) {
+                int errCode = 2167;
+                String errMsg = "LocalRearrange used to extract keys from tuple isn't configured correctly";
+                throw new ExecException(errMsg, errCode, PigException.BUG);
+            }
+            return ((Tuple) result.result).get(1);
+        }
+
+        private SerializedKey serialize(Object key) throws IOException {
+            PigNullableWritable writable = HDataType.getWritableComparableTypes(key, keyType);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            writable.write(new DataOutputStream(bytes));
+            return new SerializedKey(bytes.toByteArray(), key);
+        }
+
+        /**
+         * FindQuantiles works on tuples of the sort columns.
+         */
+        private Tuple toSample(Object key) {
+            return multiColumn ? (Tuple) key : tf.newTuple(key);
+        }
+
+        private Object fromSample(Tuple sample) throws ExecException {
+            return multiColumn ? sample : sample.get(0);
+        }
+
+        @SuppressWarnings("rawtypes")
+        private RawComparator newRawComparator() throws IOException {
+            JobConf conf = new JobConf(false);
+            conf.set("pig.sortOrder", ObjectSerializer.serialize(asc));
+            return ReflectionUtils.newInstance(JobControlCompiler.getSortComparatorClass(keyType),
+                    conf);
+        }
+    }
+
+    /**
+     * A serialized sort key. The key itself is only kept on the side which serialized it.
+     * The BinInterSedesSerializer writes its bytes.
+     */
+    public static class SerializedKey implements Serializable {
+        private final byte[] bytes;
+        private final transient Object key;
+
+        public SerializedKey(byte[] bytes) {
+            this(bytes, null);
+        }
+
+        private SerializedKey(byte[] bytes, Object key) {
+            this.bytes = bytes;
+            this.key = key;
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public int hashCode() {
+            return WritableComparator.hashBytes(bytes, bytes.length);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof SerializedKey && Arrays.equals(bytes, ((SerializedKey) obj).bytes);
+        }
+    }
+
+    private static class KeyComparator implements Comparator<SerializedKey>, Serializable {
+        private final SortKey sortKey;
+        @SuppressWarnings("rawtypes")
+        private transient RawComparator rawComparator;
+
+        private KeyComparator(SortKey sortKey) {
+            this.sortKey = sortKey;
+        }
+
+        @Override
+        public int compare(SerializedKey o1, SerializedKey o2) {
+            if (rawComparator == null) {
+                try {
+                    rawComparator = sortKey.newRawComparator();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return rawComparator.compare(o1.bytes, 0, o1.bytes.length, o2.bytes, 0, o2.bytes.length);
+        }
+    }
+
+    /**
+     * The Spark counterpart of the WeightedRangePartitioner of the MR backend.
+     */
+    private static class WeightedRangePartitioner extends Partitioner {
+        private final int numPartitions;
+        private final SerializedKey[] quantiles;
+        private final Map<SerializedKey, DiscreteProbabilitySampleGenerator> weightedParts;
+        private final KeyComparator comparator;
+
+        private WeightedRangePartitioner(int numPartitions, SerializedKey[] quantiles,
+                Map<SerializedKey, DiscreteProbabilitySampleGenerator> weightedParts,
+                KeyComparator comparator) {
+            this.numPartitions = numPartitions;
+            this.quantiles = quantiles;
+            this.weightedParts = weightedParts;
+            this.comparator = comparator;
+        }
+
+        @Override
+        public int numPartitions() {
+            return numPartitions;
+        }
+
+        @Override
+        public int getPartition(Object key) {
+            SerializedKey serializedKey = (SerializedKey) key;
+            DiscreteProbabilitySampleGenerator gen = weightedParts.get(serializedKey);
+            if (gen != null) {
+                return gen.getNext();
+            }
+            int index = Arrays.binarySearch(quantiles, serializedKey, comparator);
+            if (index < 0) {
+                index = -index - 1;
+            } else {
+                index = index + 1;
+            }
+            return Math.min(index, numPartitions - 1);
+        }
+    }
+
+    /**
+     * Reservoir sampling of the sort keys of each partition, like the RandomSampleLoader.
+     */
+    private static class SampleFunction extends AbstractFunction1<Iterator<Tuple>, Iterator<Tuple>>
+            implements Serializable {
+        private final SortKey sortKey;
+
+        private SampleFunction(SortKey sortKey) {
+            this.sortKey = sortKey;
+        }
+
+        @Override
+        public Iterator<Tuple> apply(Iterator<Tuple> input) {
+            Random random = new Random();
+            List<Tuple> reservoir = new ArrayList<Tuple>(SAMPLES_PER_PARTITION);
+            long rowNum = 0;
+            while (input.hasNext()) {
+                Tuple t = input.next();
+                if (reservoir.size() < SAMPLES_PER_PARTITION) {
+                    reservoir.add(t);
+                } else {
+                    long r = (long) (random.nextDouble() * (rowNum + 1));
+                    if (r < SAMPLES_PER_PARTITION) {
+                        reservoir.set((int) r, t);
+                    }
+                }
+                rowNum++;
+            }
+            try {
+                // only the sampled rows get their key computed
+                List<Tuple> samples = new ArrayList<Tuple>(reservoir.size());
+                for (Tuple t : reservoir) {
+                    samples.add(sortKey.toSample(sortKey.getKey(t)));
+                }
+                return JavaConversions.asScalaIterator(samples.iterator());
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static class ToKeyValueFunction extends AbstractFunction1<Tuple, Tuple2<Object, Tuple>>
+            implements Serializable {
+        private final SortKey sortKey;
+
+        private ToKeyValueFunction(SortKey sortKey) {
+            this.sortKey = sortKey;
+        }
+
+        @Override
+        public Tuple2<Object, Tuple> apply(Tuple t) {
+            try {
+                return new Tuple2<Object, Tuple>(sortKey.serialize(sortKey.getKey(t)), t);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Keeps the (key, row) pairs of a partition with the limit smallest keys.
+     */
+    private static class TopFunction extends
+            AbstractFunction1<Iterator<Tuple2<Object, Tuple>>, Iterator<Tuple2<Object, Tuple>>>
+            implements Serializable {
+        private final KeyComparator comparator;
+        private final long limit;
+
+        private TopFunction(KeyComparator comparator, long limit) {
+            this.comparator = comparator;
+            this.limit = limit;
+        }
+
+        @Override
+        public Iterator<Tuple2<Object, Tuple>> apply(Iterator<Tuple2<Object, Tuple>> input) {
+            // the largest key at the head, to be dropped first
+            PriorityQueue<Tuple2<Object, Tuple>> top = new PriorityQueue<Tuple2<Object, Tuple>>(
+                    11, new Comparator<Tuple2<Object, Tuple>>() {
+                        @Override
+                        public int compare(Tuple2<Object, Tuple> o1, Tuple2<Object, Tuple> o2) {
+                            return comparator.compare((SerializedKey) o2._1(),
+                                    (SerializedKey) o1._1());
+                        }
+                    });
+            while (input.hasNext()) {
+                top.add(input.next());
+                if (top.size() > limit) {
+                    top.poll();
+                }
+            }
+            return JavaConversions.asScalaIterator(top.iterator());
+        }
+    }
+
+    /**
+     * Sorts the keys of a partition and outputs their rows, up to limit rows if it is not -1.
+     */
+    private static class SortPartitionFunction extends
+            AbstractFunction1<Iterator<Tuple2<Object, Seq<Seq<Tuple>>>>, Iterator<Tuple>>
+            implements Serializable {
+        private final KeyComparator comparator;
+        private final long limit;
+
+        private SortPartitionFunction(KeyComparator comparator, long limit) {
+            this.comparator = comparator;
+            this.limit = limit;
+        }
+
+        @Override
+        public Iterator<Tuple> apply(Iterator<Tuple2<Object, Seq<Seq<Tuple>>>> input) {
+            final List<Tuple2<Object, Seq<Seq<Tuple>>>> groups =
+                    new ArrayList<Tuple2<Object, Seq<Seq<Tuple>>>>();
+            while (input.hasNext()) {
+                groups.add(input.next());
+            }
+            Collections.sort(groups, new Comparator<Tuple2<Object, Seq<Seq<Tuple>>>>() {
+                @Override
+                public int compare(Tuple2<Object, Seq<Seq<Tuple>>> o1,
+                        Tuple2<Object, Seq<Seq<Tuple>>> o2) {
+                    return comparator.compare((SerializedKey) o1._1(), (SerializedKey) o2._1());
+                }
+            });
+            List<Tuple> sorted = new ArrayList<Tuple>();
+            for (Tuple2<Object, Seq<Seq<Tuple>>> group : groups) {
+                for (Seq<Tuple> rows : JavaConversions.asJavaIterable(group._2())) {
+                    sorted.addAll(JavaConversions.asJavaCollection(rows));
+                }
+            }
+            if (limit != -1 && sorted.size() > limit) {
+                sorted = sorted.subList(0, (int) limit);
+            }
+            return JavaConversions.asScalaIterator(sorted.iterator());
+        }
     }
 
     private static class SortFunction extends AbstractFunction1<Tuple, Ordered<Tuple>> implements Serializable {
@@ -110,7 +587,7 @@ public class SortConverter implements POConverter<Tuple, Tuple, POSort> {
 
     }
 
-    private static class ToKeyValueFunction extends AbstractFunction1<Tuple,Tuple2<Tuple, Object>> implements Serializable {
+    private static class ToTupleKeyValueFunction extends AbstractFunction1<Tuple,Tuple2<Tuple, Object>> implements Serializable {
 
         @Override
         public Tuple2<Tuple, Object> apply(Tuple t) {
@@ -0,0 +1,448 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.converter;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+
+import scala.collection.JavaConversions;
+import scala.collection.Seq;
+import scala.runtime.AbstractFunction1;
+import spark.Dependency;
+import spark.NarrowDependency;
+import spark.OneToOneDependency;
+import spark.RDD;
+import spark.Split;
+
+/**
+ * Merges a base RDD with side RDDs, all of them sorted on the key, without shuffling any of them.
+ * <p>
+ * The first key of every partition is collected to the driver. Since the inputs are sorted, this
+ * tells which key range each partition holds, so each partition of the base RDD is zipped with
+ * the partitions of the side RDDs whose range overlaps its own. This replaces the index file the
+ * MR backend builds with an extra job for merge join and merge cogroup.
+ * <p>
+ * The side rows given to a task are restricted to the key range of its base partition: from its
+ * first key to the first key of the next non empty base partition, inclusive when
+ * {@code closedRanges} is set (merge join, where the rows of a key can span two base partitions)
+ * and exclusive otherwise (merge cogroup, whose loader keeps all the rows of a key in one split).
+ * The first base partition takes everything below it, the last one everything above it. Null
+ * keys sort first; the rows with a null key of the side inputs go to the first task.
+ */
+@SuppressWarnings({ "serial" })
+abstract class SortedMergeRDD extends RDD<Tuple> {
+    private static final Log LOG = LogFactory.getLog(SortedMergeRDD.class);
+
+    /**
+     * Extracts the key of a tuple of the given input (0 being the base input).
+     */
+    interface KeyFunction extends Serializable {
+        Object getKey(Tuple tuple, int input) throws ExecException;
+    }
+
+    private final RDD<Tuple> base;
+    private final List<RDD<Tuple>> sides;
+    protected final KeyFunction keyFunction;
+    private final MergeSplit[] splits;
+    private transient scala.collection.immutable.List<Dependency<?>> dependencies;
+
+    SortedMergeRDD(RDD<Tuple> base, List<RDD<Tuple>> sides, KeyFunction keyFunction,
+            boolean closedRanges) {
+        super(base.context(), SparkUtil.getManifest(Tuple.class));
+        this.base = base;
+        this.sides = sides;
+        this.keyFunction = keyFunction;
+
+        Object[] baseKeys = firstKeys(base, 0);
+        Object[][] sideKeys = new Object[sides.size()][];
+        for (int i = 0; i < sides.size(); i++) {
+            sideKeys[i] = firstKeys(sides.get(i), i + 1);
+        }
+
+        Split[] baseSplits = base.splits();
+        Split[][] sideSplits = new Split[sides.size()][];
+        for (int i = 0; i < sides.size(); i++) {
+            sideSplits[i] = sides.get(i).splits();
+        }
+        splits = new MergeSplit[baseSplits.length];
+        boolean first = true;
+        for (int b = 0; b < baseSplits.length; b++) {
+            MergeSplit split = new MergeSplit(b, baseSplits[b], sides.size());
+            splits[b] = split;
+            if (!hasKey(baseKeys[b])) {
+                // no non null key in there: the side inputs have nothing to merge with it
+                continue;
+            }
+            split.lower = first ? null : keyOf(baseKeys[b]);
+            split.upper = null;
+            split.includeNulls = first;
+            split.closedUpper = closedRanges;
+            first = false;
+            for (int n = b + 1; n < baseKeys.length; n++) {
+                if (hasKey(baseKeys[n])) {
+                    split.upper = keyOf(baseKeys[n]);
+                    break;
+                }
+            }
+            for (int i = 0; i < sides.size(); i++) {
+                split.sideSplits[i] = overlappingSplits(split, sideKeys[i], sideSplits[i]);
+            }
+        }
+
+        List<Dependency<?>> deps = new ArrayList<Dependency<?>>();
+        deps.add(new OneToOneDependency<Tuple>(base));
+        for (int i = 0; i < sides.size(); i++) {
+            deps.add(new SideDependency(sides.get(i), splits, i));
+        }
+        dependencies = JavaConversions.asScalaBuffer(deps).toList();
+    }
+
+    /**
+     * Merges the rows of the base input with the rows of the side inputs which are in the range
+     * of the base partition.
+     */
+    protected abstract java.util.Iterator<Tuple> merge(java.util.Iterator<Tuple> base,
+            List<java.util.Iterator<Tuple>> sides);
+
+    @Override
+    public Split[] splits() {
+        return splits;
+    }
+
+    @Override
+    public scala.collection.immutable.List<Dependency<?>> dependencies() {
+        return dependencies;
+    }
+
+    @Override
+    public Seq<String> preferredLocations(Split split) {
+        return base.preferredLocations(((MergeSplit) split).baseSplit);
+    }
+
+    @Override
+    public scala.collection.Iterator<Tuple> compute(Split split) {
+        MergeSplit mergeSplit = (MergeSplit) split;
+        List<java.util.Iterator<Tuple>> sideInputs = new ArrayList<java.util.Iterator<Tuple>>();
+        for (int i = 0; i < sides.size(); i++) {
+            RDD<Tuple> side = sides.get(i);
+            List<java.util.Iterator<Tuple>> inRange = new ArrayList<java.util.Iterator<Tuple>>();
+            for (Split s : mergeSplit.sideSplits[i]) {
+                inRange.add(new RangeIterator(JavaConversions.asJavaIterator(side.iterator(s)),
+                        mergeSplit, keyFunction, i + 1));
+            }
+            sideInputs.add(new ConcatIterator(inRange));
+        }
+        return JavaConversions.asScalaIterator(merge(
+                JavaConversions.asJavaIterator(base.iterator(mergeSplit.baseSplit)), sideInputs));
+    }
+
+    /**
+     * @return one tuple per partition, holding whether the partition starts with null keys and
+     *         its first non null key, if it has one
+     */
+    private Object[] firstKeys(RDD<Tuple> rdd, int input) {
+        long start = System.currentTimeMillis();
+        Object[] keys = (Object[]) rdd.mapPartitions(new FirstKeyFunction(keyFunction, input),
+                SparkUtil.getManifest(Tuple.class)).collect();
+        LOG.info("Collected the first keys of the " + keys.length + " partitions of input " + input
+                + " in " + (System.currentTimeMillis() - start) + " ms");
+        return keys;
+    }
+
+    private static boolean hasLeadingNulls(Object firstKey) {
+        try {
+            return (Boolean) ((Tuple) firstKey).get(0);
+        } catch (ExecException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static boolean hasKey(Object firstKey) {
+        return ((Tuple) firstKey).size() > 1;
+    }
+
+    private static Object keyOf(Object firstKey) {
+        try {
+            return ((Tuple) firstKey).get(1);
+        } catch (ExecException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * A side partition holds the keys from its first key to the first key of the next non empty
+     * side partition (inclusive, a key can span partitions), after its leading null keys.
+     */
+    private static Split[] overlappingSplits(MergeSplit split, Object[] sideKeys,
+            Split[] sideSplits) {
+        List<Split> overlapping = new ArrayList<Split>();
+        for (int s = 0; s < sideKeys.length; s++) {
+            if (split.includeNulls && hasLeadingNulls(sideKeys[s])) {
+                overlapping.add(sideSplits[s]);
+                continue;
+            }
+            if (!hasKey(sideKeys[s])) {
+                continue;
+            }
+            Object sideLower = keyOf(sideKeys[s]);
+            Object sideUpper = null;
+            for (int n = s + 1; n < sideKeys.length; n++) {
+                if (hasKey(sideKeys[n])) {
+                    sideUpper = keyOf(sideKeys[n]);
+                    break;
+                }
+            }
+            boolean belowUpper = split.upper == null
+                    || (split.closedUpper ? DataType.compare(sideLower, split.upper) <= 0
+                            : DataType.compare(sideLower, split.upper) < 0);
+            boolean aboveLower = split.lower == null || sideUpper == null
+                    || DataType.compare(sideUpper, split.lower) >= 0;
+            if (belowUpper && aboveLower) {
+                overlapping.add(sideSplits[s]);
+            }
+        }
+        return overlapping.toArray(new Split[overlapping.size()]);
+    }
+
+    /**
+     * Holds the splits of the parents themselves, as CoGroupSplit does: the splits of an RDD
+     * are not serialized with it, they are only known to the tasks through the split they run.
+     */
+    private static class MergeSplit implements Split, Serializable {
+        private final int index;
+        private final Split baseSplit;
+        private final Split[][] sideSplits;
+        // null means unbounded
+        private Object lower;
+        private Object upper;
+        private boolean closedUpper;
+        private boolean includeNulls;
+
+        private MergeSplit(int index, Split baseSplit, int sideCount) {
+            this.index = index;
+            this.baseSplit = baseSplit;
+            this.sideSplits = new Split[sideCount][];
+            Arrays.fill(sideSplits, new Split[0]);
+        }
+
+        @Override
+        public int index() {
+            return index;
+        }
+
+        private boolean inRange(Object key) {
+            if (key == null) {
+                return includeNulls;
+            }
+            if (lower != null && DataType.compare(key, lower) < 0) {
+                return false;
+            }
+            return !pastUpper(key);
+        }
+
+        private boolean pastUpper(Object key) {
+            if (key == null || upper == null) {
+                return false;
+            }
+            int c = DataType.compare(key, upper);
+            return closedUpper ? c > 0 : c >= 0;
+        }
+    }
+
+    private static class SideDependency extends NarrowDependency<Tuple> {
+        private final MergeSplit[] splits;
+        private final int side;
+
+        private SideDependency(RDD<Tuple> rdd, MergeSplit[] splits, int side) {
+            super(rdd);
+            this.splits = splits;
+            this.side = side;
+        }
+
+        @Override
+        public Seq<Object> getParents(int outputPartition) {
+            List<Object> parents = new ArrayList<Object>();
+            for (Split s : splits[outputPartition].sideSplits[side]) {
+                parents.add(s.index());
+            }
+            return JavaConversions.asScalaBuffer(parents);
+        }
+    }
+
+    private static class FirstKeyFunction extends
+            AbstractFunction1<scala.collection.Iterator<Tuple>, scala.collection.Iterator<Tuple>>
+            implements Serializable {
+        private final KeyFunction keyFunction;
+        private final int input;
+
+        private FirstKeyFunction(KeyFunction keyFunction, int input) {
+            this.keyFunction = keyFunction;
+            this.input = input;
+        }
+
+        @Override
+        public scala.collection.Iterator<Tuple> apply(scala.collection.Iterator<Tuple> i) {
+            Tuple first = TupleFactory.getInstance().newTuple();
+            boolean leadingNulls = false;
+            try {
+                Object key = null;
+                while (key == null && i.hasNext()) {
+                    key = keyFunction.getKey(i.next(), input);
+                    leadingNulls |= key == null;
+                }
+                first.append(leadingNulls);
+                if (key != null) {
+                    first.append(key);
+                }
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
+            }
+            return JavaConversions.asScalaIterator(Arrays.asList(first).iterator());
+        }
+    }
+
+    /**
+     * Rows of one side partition which are in the range of the task. As the partition is sorted,
+     * it is not read further once a key goes past the upper bound.
+     */
+    private static class RangeIterator implements java.util.Iterator<Tuple> {
+        private final java.util.Iterator<Tuple> input;
+        private final MergeSplit split;
+        private final KeyFunction keyFunction;
+        private final int inputIndex;
+        private Tuple next;
+        private boolean done;
+
+        private RangeIterator(java.util.Iterator<Tuple> input, MergeSplit split,
+                KeyFunction keyFunction, int inputIndex) {
+            this.input = input;
+            this.split = split;
+            this.keyFunction = keyFunction;
+            this.inputIndex = inputIndex;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (next == null && !done && input.hasNext()) {
+                    Tuple tuple = input.next();
+                    Object key = keyFunction.getKey(tuple, inputIndex);
+                    if (split.pastUpper(key)) {
+                        done = true;
+                    } else if (split.inRange(key)) {
+                        next = tuple;
+                    }
+                }
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
+            }
+            return next != null;
+        }
+
+        @Override
+        public Tuple next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple result = next;
+            next = null;
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static class ConcatIterator implements java.util.Iterator<Tuple> {
+        private final java.util.Iterator<java.util.Iterator<Tuple>> iterators;
+        private java.util.Iterator<Tuple> current;
+
+        private ConcatIterator(List<java.util.Iterator<Tuple>> iterators) {
+            this.iterators = iterators.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            while ((current == null || !current.hasNext()) && iterators.hasNext()) {
+                current = iterators.next();
+            }
+            return current != null && current.hasNext();
+        }
+
+        @Override
+        public Tuple next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Reads a sorted input one key at a time, checking it is actually sorted.
+     */
+    static class SortedInput {
+        private final java.util.Iterator<Tuple> input;
+        private final KeyFunction keyFunction;
+        private final int inputIndex;
+        private Tuple head;
+        private Object headKey;
+        private Tuple previous;
+
+        SortedInput(java.util.Iterator<Tuple> input, KeyFunction keyFunction, int inputIndex)
+                throws ExecException {
+            this.input = input;
+            this.keyFunction = keyFunction;
+            this.inputIndex = inputIndex;
+            advance();
+        }
+
+        boolean hasNext() {
+            return head != null;
+        }
+
+        Object peekKey() {
+            return headKey;
+        }
+
+        Tuple next() throws ExecException {
+            Tuple result = head;
+            advance();
+            return result;
+        }
+
+        private void advance() throws ExecException {
+            Object previousKey = headKey;
+            previous = head;
+            if (!input.hasNext()) {
+                head = null;
+                headKey = null;
+                return;
+            }
+            head = input.next();
+            headKey = keyFunction.getKey(head, inputIndex);
+            if (previous != null && DataType.compare(headKey, previousKey) < 0) {
+                int errCode = 1102;
+                String errMsg = "Data is not sorted on input " + inputIndex
+                        + ". Last two tuples encountered were: \n" + previous + "\n" + head;
+                throw new ExecException(errMsg, errCode);
+            }
+        }
+    }
+}
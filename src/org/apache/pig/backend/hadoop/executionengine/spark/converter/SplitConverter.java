@@ -3,20 +3,61 @@ package org.apache.pig.backend.hadoop.executionengine.spark.converter;
 import java.io.IOException;
 import java.util.List;
 
-import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.PigConfiguration;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POSplit;
 import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
 import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.PigContext;
 
 import spark.RDD;
+import spark.storage.StorageLevel;
 
+/**
+ * Converts a POSplit. All the branches of the split read the same RDD, which is persisted so
+ * that the first store to run computes it once and the other ones read the stored partitions
+ * instead of going back to the input. The storage level is set by
+ * {@link PigConfiguration#PIG_SPARK_SPLIT_STORAGE_LEVEL}.
+ */
 public class SplitConverter implements POConverter<Tuple, Tuple, POSplit> {
+    private static final Log LOG = LogFactory.getLog(SplitConverter.class);
+
+    private static final String DEFAULT_STORAGE_LEVEL = "MEMORY_AND_DISK";
+
+    private final String storageLevelName;
+    private final StorageLevel storageLevel;
+
+    public SplitConverter(PigContext pigContext) {
+        storageLevelName = SparkUtil.getStorageLevelName(pigContext.getProperties(),
+                PigConfiguration.PIG_SPARK_SPLIT_STORAGE_LEVEL, DEFAULT_STORAGE_LEVEL);
+        storageLevel = SparkUtil.toStorageLevel(storageLevelName);
+    }
+
+    /**
+     * @return the name of the level the split input is persisted with, NONE if it is not
+     */
+    public String getStorageLevelName() {
+        return storageLevelName;
+    }
 
     @Override
     public RDD<Tuple> convert(List<RDD<Tuple>> predecessors, POSplit poSplit)
             throws IOException {
         SparkUtil.assertPredecessorSize(predecessors, poSplit, 1);
-        return predecessors.get(0);
+        RDD<Tuple> rdd = predecessors.get(0);
+        if (!storageLevel.useMemory() && !storageLevel.useDisk()) {
+            return rdd;
+        }
+        // an RDD already persisted, by a CACHE or a shared load, keeps its level: Spark does
+        // not allow changing it
+        if (StorageLevel.NONE().equals(rdd.getStorageLevel())) {
+            LOG.info("Persisting the input of " + poSplit.getOperatorKey() + " with " + storageLevelName);
+            rdd.persist(storageLevel);
+        } else {
+            LOG.info("The input of " + poSplit.getOperatorKey() + " is already persisted with "
+                    + rdd.getStorageLevel());
+        }
+        return rdd;
     }
-
 }
@@ -0,0 +1,123 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.converter;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.TaskAttemptID;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.datastorage.ConfigurationUtil;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.JobControlCompiler;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigMapReduce;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStream;
+import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.io.FileLocalizer;
+import org.apache.pig.impl.util.UDFContext;
+
+import scala.collection.Iterator;
+import scala.collection.JavaConversions;
+import scala.runtime.AbstractFunction2;
+import spark.RDD;
+
+/**
+ * Converts a POStream: each partition is piped through its own instance of the streaming
+ * binary. The binary gets the job conf an MR task would give it, with a task id made from the
+ * partition index; its secondary outputs and its logs go to a temporary directory.
+ */
+@SuppressWarnings({ "serial" })
+public class StreamConverter implements POConverter<Tuple, Tuple, POStream> {
+
+    private final PigContext pigContext;
+
+    public StreamConverter(PigContext pigContext) {
+        this.pigContext = pigContext;
+    }
+
+    @Override
+    public RDD<Tuple> convert(List<RDD<Tuple>> predecessors, POStream poStream)
+            throws IOException {
+        SparkUtil.assertPredecessorSize(predecessors, poStream, 1);
+        JobConf jobConf = SparkUtil.newJobConf(pigContext);
+        Path outputDir = FileLocalizer.getTemporaryPath(pigContext);
+        jobConf.set("pig.streaming.task.output.dir", outputDir.toString());
+        jobConf.set("pig.streaming.log.dir",
+                new Path(outputDir, JobControlCompiler.LOG_DIR).toString());
+        return predecessors.get(0).mapPartitionsWithSplit(
+                new StreamFunction(poStream, ConfigurationUtil.toProperties(jobConf)),
+                SparkUtil.getManifest(Tuple.class));
+    }
+
+    /**
+     * Pipes a partition through the binary; it is given the index of the partition.
+     */
+    private static class StreamFunction
+            extends AbstractFunction2<Object, Iterator<Tuple>, Iterator<Tuple>>
+            implements Serializable {
+        private final POStream poStream;
+        private final Properties jobConf;
+
+        private StreamFunction(POStream poStream, Properties jobConf) {
+            this.poStream = poStream;
+            this.jobConf = jobConf;
+        }
+
+        @Override
+        public Iterator<Tuple> apply(Object split, Iterator<Tuple> i) {
+            int index = (Integer) split;
+            java.util.Iterator<Tuple> input = JavaConversions.asJavaIterator(i);
+            final Configuration taskConf = new JobConf(ConfigurationUtil.toConfiguration(jobConf));
+            taskConf.set("mapred.task.id",
+                    new TaskAttemptID("spark", 0, false, index, 0).toString());
+            taskConf.setInt("mapred.task.partition", index);
+            taskConf.setBoolean("mapred.task.is.map", false);
+            final PhysicalPlan parentPlan = new PhysicalPlan();
+            poStream.setParentPlan(parentPlan);
+
+            return JavaConversions.asScalaIterator(new POOutputConsumerIterator(input) {
+                private boolean endOfInput = false;
+
+                @Override
+                protected void attach(Tuple tuple) {
+                    poStream.setInputs(null);
+                    poStream.attachInput(tuple);
+                }
+
+                @Override
+                protected Result getNextResult() throws ExecException {
+                    // the binary reads the job conf when it starts, with the first tuple, and
+                    // when it stops; it is only set for these calls since the thread is shared
+                    // with the other tasks of the executor
+                    if (poStream.getInitialized() && !endOfInput) {
+                        return poStream.getNext((Tuple) null);
+                    }
+                    Configuration previousConf = PigMapReduce.sJobConfInternal.get();
+                    Configuration previousUdfConf = UDFContext.getUDFContext().getJobConf();
+                    PigMapReduce.sJobConfInternal.set(taskConf);
+                    UDFContext.getUDFContext().addJobConf(taskConf);
+                    try {
+                        return poStream.getNext((Tuple) null);
+                    } finally {
+                        PigMapReduce.sJobConfInternal.set(previousConf);
+                        UDFContext.getUDFContext().addJobConf(previousUdfConf);
+                    }
+                }
+
+                @Override
+                protected boolean endOfInput() {
+                    // flushes what the binary still has to output
+                    endOfInput = true;
+                    parentPlan.endOfAllInput = true;
+                    return true;
+                }
+            });
+        }
+    }
+}
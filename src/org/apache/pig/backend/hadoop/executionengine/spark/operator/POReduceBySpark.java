@@ -0,0 +1,52 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.operator;
+
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POCombinerPackage;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POGlobalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLocalRearrange;
+import org.apache.pig.data.DataType;
+import org.apache.pig.impl.plan.OperatorKey;
+
+/**
+ * A global rearrange whose values can be merged before they are shuffled. It carries the
+ * combine plan that the MR backend would run in the combiner (POCombinerPackage, a foreach
+ * calling the Intermediate form of the algebraic functions and a local rearrange projecting
+ * the key) so that the Spark backend can run it as the merge function of a reduceByKey.
+ *
+ * @see org.apache.pig.backend.hadoop.executionengine.spark.optimizer.CombinerOptimizer
+ */
+public class POReduceBySpark extends POGlobalRearrange {
+
+    private static final long serialVersionUID = 1L;
+
+    private final POCombinerPackage combinePackage;
+    private final POForEach combineForEach;
+    private final POLocalRearrange combineRearrange;
+
+    public POReduceBySpark(OperatorKey k, int rp, POCombinerPackage combinePackage,
+            POForEach combineForEach, POLocalRearrange combineRearrange) {
+        super(k, rp);
+        this.combinePackage = combinePackage;
+        this.combineForEach = combineForEach;
+        this.combineRearrange = combineRearrange;
+    }
+
+    public POCombinerPackage getCombinePackage() {
+        return combinePackage;
+    }
+
+    public POForEach getCombineForEach() {
+        return combineForEach;
+    }
+
+    public POLocalRearrange getCombineRearrange() {
+        return combineRearrange;
+    }
+
+    @Override
+    public String name() {
+        return getAliasString() + "Reduce By" + "["
+                + DataType.findTypeName(resultType) + "]" + " - "
+                + mKey.toString();
+    }
+}
@@ -0,0 +1,36 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.operator;
+
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POGlobalRearrange;
+import org.apache.pig.data.DataType;
+import org.apache.pig.impl.plan.OperatorKey;
+
+/**
+ * The global rearrange of a skewed join. Its first input is sampled to find the keys too big
+ * for a single partition; the rows of those keys are spread over several partitions and the
+ * matching rows of the second input are copied to each of them, like the SkewedPartitioner
+ * and POPartitionRearrange do in the MR backend.
+ *
+ * @see org.apache.pig.backend.hadoop.executionengine.spark.optimizer.SkewedJoinOptimizer
+ */
+public class POSkewedRearrangeSpark extends POGlobalRearrange {
+
+    private static final long serialVersionUID = 1L;
+
+    private final byte keyType;
+
+    public POSkewedRearrangeSpark(OperatorKey k, int rp, byte keyType) {
+        super(k, rp);
+        this.keyType = keyType;
+    }
+
+    public byte getKeyType() {
+        return keyType;
+    }
+
+    @Override
+    public String name() {
+        return getAliasString() + "Skewed Rearrange" + "["
+                + DataType.findTypeName(resultType) + "]" + " - "
+                + mKey.toString();
+    }
+}
@@ -0,0 +1,209 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.optimizer;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.PigException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POUserFunc;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POCombinerPackage;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.PODistinct;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POGlobalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLocalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPackage;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPreCombinerLocalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.util.PlanHelper;
+import org.apache.pig.backend.hadoop.executionengine.spark.operator.POReduceBySpark;
+import org.apache.pig.backend.hadoop.executionengine.util.CombinerOptimizerUtil;
+import org.apache.pig.impl.plan.NodeIdGenerator;
+import org.apache.pig.impl.plan.OperatorKey;
+import org.apache.pig.impl.plan.PlanException;
+import org.apache.pig.impl.plan.VisitorException;
+import org.apache.pig.impl.plan.optimizer.OptimizerException;
+import org.apache.pig.impl.util.Pair;
+
+/**
+ * Spark counterpart of the map reduce CombinerOptimizer. Looks for a group-by followed by a
+ * foreach of algebraic functions, i.e.
+ *
+ * <pre>
+ * LocalRearrange -> GlobalRearrange -> Package -> ForEach
+ * </pre>
+ *
+ * and rewrites it into
+ *
+ * <pre>
+ * PreCombinerLocalRearrange -> ForEach(Initial) -> LocalRearrange
+ *     -> ReduceBy(CombinerPackage -> ForEach(Intermediate) -> LocalRearrange)
+ *     -> CombinerPackage -> ForEach(Final)
+ * </pre>
+ *
+ * so that only partial aggregates are shuffled. The plans are built with the same helpers
+ * the map reduce combiner uses.
+ */
+public class CombinerOptimizer {
+
+    private static final Log LOG = LogFactory.getLog(CombinerOptimizer.class);
+
+    private final PhysicalPlan plan;
+
+    public CombinerOptimizer(PhysicalPlan plan) {
+        this.plan = plan;
+    }
+
+    public void visit() throws VisitorException {
+        // collect the candidates first, the plan is modified as we go
+        List<POPackage> packages = PlanHelper.getPhysicalOperators(plan, POPackage.class);
+        for (POPackage pack : packages) {
+            if (pack.getClass() == POPackage.class && plan.getPredecessors(pack) != null) {
+                addCombiner(pack);
+            }
+        }
+    }
+
+    private void addCombiner(POPackage pack) throws VisitorException {
+        if (pack.isDistinct()) {
+            return;
+        }
+        List<PhysicalOperator> packPredecessors = plan.getPredecessors(pack);
+        if (packPredecessors.size() != 1 || !(packPredecessors.get(0) instanceof POGlobalRearrange)
+                || packPredecessors.get(0) instanceof POReduceBySpark) {
+            return;
+        }
+        POGlobalRearrange globalRearrange = (POGlobalRearrange) packPredecessors.get(0);
+
+        // only GROUP is combinable, not COGROUP
+        List<PhysicalOperator> grPredecessors = plan.getPredecessors(globalRearrange);
+        if (grPredecessors == null || grPredecessors.size() != 1
+                || grPredecessors.get(0).getClass() != POLocalRearrange.class) {
+            return;
+        }
+        POLocalRearrange rearrange = (POLocalRearrange) grPredecessors.get(0);
+        List<PhysicalOperator> lrSuccessors = plan.getSuccessors(rearrange);
+        if (lrSuccessors == null || lrSuccessors.size() != 1) {
+            return;
+        }
+
+        List<PhysicalOperator> packSuccessors = plan.getSuccessors(pack);
+        if (packSuccessors == null || packSuccessors.size() != 1
+                || !(packSuccessors.get(0) instanceof POForEach)) {
+            return;
+        }
+        POForEach foreach = (POForEach) packSuccessors.get(0);
+
+        // find algebraic operators and also check if the foreach statement
+        // is suitable for combiner use
+        List<Pair<PhysicalOperator, PhysicalPlan>> algebraicOps =
+                CombinerOptimizerUtil.findAlgebraicOps(foreach.getInputPlans());
+        if (algebraicOps == null || algebraicOps.size() == 0) {
+            return;
+        }
+
+        LOG.info("Choosing to move algebraic foreach to the map side of " + globalRearrange);
+
+        try {
+            // replace PODistinct->Project[*] with distinct udf (which is Algebraic)
+            for (Pair<PhysicalOperator, PhysicalPlan> op2plan : algebraicOps) {
+                if (!(op2plan.first instanceof PODistinct)) {
+                    continue;
+                }
+                CombinerOptimizerUtil.DistinctPatcher distinctPatcher =
+                        new CombinerOptimizerUtil.DistinctPatcher(op2plan.second);
+                distinctPatcher.visit();
+                if (distinctPatcher.getDistinct() == null) {
+                    int errCode = 2073;
+                    String msg = "Problem with replacing distinct operator with distinct built-in function.";
+                    throw new PlanException(msg, errCode, PigException.BUG);
+                }
+                op2plan.first = distinctPatcher.getDistinct();
+            }
+
+            // map side foreach calling the Initial functions
+            POForEach mfe = CombinerOptimizerUtil.createForEachWithGrpProj(foreach, rearrange.getKeyType());
+            Map<PhysicalOperator, Integer> op2newpos = new HashMap<PhysicalOperator, Integer>();
+            Integer pos = 1;
+            for (Pair<PhysicalOperator, PhysicalPlan> op2plan : algebraicOps) {
+                PhysicalPlan udfPlan = CombinerOptimizerUtil.createPlanWithPredecessors(op2plan.first, op2plan.second);
+                mfe.addInputPlan(udfPlan, false);
+                op2newpos.put(op2plan.first, pos++);
+            }
+            CombinerOptimizerUtil.changeFunc(mfe, POUserFunc.INITIAL);
+            for (PhysicalPlan mpl : mfe.getInputPlans()) {
+                new CombinerOptimizerUtil.fixMapProjects(mpl).visit();
+            }
+
+            // combine foreach calling the Intermediate functions
+            POForEach cfe = CombinerOptimizerUtil.createForEachWithGrpProj(foreach, rearrange.getKeyType());
+            CombinerOptimizerUtil.addAlgebraicFuncToCombineFE(cfe, op2newpos);
+            CombinerOptimizerUtil.changeFunc(cfe, POUserFunc.INTERMEDIATE);
+
+            // the original foreach now calls the Final functions
+            for (Pair<PhysicalOperator, PhysicalPlan> op2plan : algebraicOps) {
+                CombinerOptimizerUtil.setProjectInput(op2plan.first, op2plan.second, op2newpos.get(op2plan.first));
+                ((POUserFunc) op2plan.first).setAlgebraicFunction(POUserFunc.FINAL);
+            }
+
+            // see the map reduce CombinerOptimizer for why the plans have to be set again
+            mfe.setInputPlans(mfe.getInputPlans());
+            cfe.setInputPlans(cfe.getInputPlans());
+            foreach.setInputPlans(foreach.getInputPlans());
+
+            // the group key is projected, the partial results go into bags
+            int numFields = algebraicOps.size() + 1;
+            boolean[] bags = new boolean[numFields];
+            bags[0] = false;
+            for (int i = 1; i < numFields; i++) {
+                bags[i] = true;
+            }
+
+            POLocalRearrange mlr = CombinerOptimizerUtil.getNewRearrange(rearrange);
+            POLocalRearrange clr = CombinerOptimizerUtil.getNewRearrange(rearrange);
+            POCombinerPackage combinePack = new POCombinerPackage(pack, bags);
+            setKeyInfo(combinePack, clr);
+            POCombinerPackage reducePack = new POCombinerPackage(pack, bags);
+            setKeyInfo(reducePack, mlr);
+
+            String scope = globalRearrange.getOperatorKey().scope;
+            POReduceBySpark reduceBy = new POReduceBySpark(
+                    new OperatorKey(scope, NodeIdGenerator.getGenerator().getNextNodeId(scope)),
+                    globalRearrange.getRequestedParallelism(), combinePack, cfe, clr);
+            reduceBy.addOriginalLocation(globalRearrange.getAlias(), globalRearrange.getOriginalLocations());
+            reduceBy.setCustomPartitioner(globalRearrange.getCustomPartitioner());
+
+            POPreCombinerLocalRearrange preCombinerLR = CombinerOptimizerUtil.getPreCombinerLR(rearrange);
+            plan.replace(rearrange, preCombinerLR);
+            plan.replace(globalRearrange, reduceBy);
+            plan.replace(pack, reducePack);
+
+            plan.disconnect(preCombinerLR, reduceBy);
+            plan.add(mfe);
+            plan.add(mlr);
+            plan.connect(preCombinerLR, mfe);
+            plan.connect(mfe, mlr);
+            plan.connect(mlr, reduceBy);
+        } catch (Exception e) {
+            int errCode = 2018;
+            String msg = "Internal error. Unable to introduce the combiner for optimization.";
+            throw new OptimizerException(msg, errCode, PigException.BUG, e);
+        }
+    }
+
+    /**
+     * Same information POPackageAnnotator would have derived from the rearrange feeding the
+     * package.
+     */
+    private static void setKeyInfo(POCombinerPackage pack, POLocalRearrange rearrange) {
+        Map<Integer, Pair<Boolean, Map<Integer, Integer>>> keyInfo =
+                new HashMap<Integer, Pair<Boolean, Map<Integer, Integer>>>();
+        keyInfo.put(Integer.valueOf(rearrange.getIndex()), new Pair<Boolean, Map<Integer, Integer>>(
+                rearrange.isProjectStar(), rearrange.getProjectedColsMap()));
+        pack.setKeyInfo(keyInfo);
+        pack.setKeyTuple(rearrange.isKeyTuple());
+        pack.setKeyCompound(rearrange.isKeyCompound());
+    }
+}
@@ -0,0 +1,154 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.optimizer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.PigException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POProject;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLocalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPackage;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POSkewedJoin;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.util.PlanHelper;
+import org.apache.pig.backend.hadoop.executionengine.spark.operator.POSkewedRearrangeSpark;
+import org.apache.pig.data.DataType;
+import org.apache.pig.impl.plan.NodeIdGenerator;
+import org.apache.pig.impl.plan.OperatorKey;
+import org.apache.pig.impl.plan.VisitorException;
+import org.apache.pig.impl.plan.optimizer.OptimizerException;
+import org.apache.pig.impl.util.CompilerUtils;
+import org.apache.pig.impl.util.MultiMap;
+import org.apache.pig.impl.util.Pair;
+
+/**
+ * Expands each POSkewedJoin of the plan the same way the MRCompiler does, i.e.
+ *
+ * <pre>
+ * LocalRearrange(0), LocalRearrange(1) -> SkewedRearrange -> Package -> ForEach(flatten)
+ * </pre>
+ *
+ * The sampling of the first input and the partitioning of the skewed keys are done by the
+ * converter of the POSkewedRearrangeSpark.
+ */
+public class SkewedJoinOptimizer {
+
+    private static final Log LOG = LogFactory.getLog(SkewedJoinOptimizer.class);
+
+    private final PhysicalPlan plan;
+
+    public SkewedJoinOptimizer(PhysicalPlan plan) {
+        this.plan = plan;
+    }
+
+    public void visit() throws VisitorException {
+        List<POSkewedJoin> joins = PlanHelper.getPhysicalOperators(plan, POSkewedJoin.class);
+        for (POSkewedJoin join : joins) {
+            expand(join);
+        }
+    }
+
+    private void expand(POSkewedJoin op) throws VisitorException {
+        List<PhysicalOperator> inputs = plan.getPredecessors(op);
+        if (inputs == null || inputs.size() != 2) {
+            int errCode = 2255;
+            throw new VisitorException("POSkewedJoin operator has " + (inputs == null ? 0 : inputs.size())
+                    + " inputs. It should have 2.", errCode);
+        }
+        // the list is modified when the plan is
+        inputs = new ArrayList<PhysicalOperator>(inputs);
+
+        LOG.info("Expanding skewed join " + op);
+
+        try {
+            String scope = op.getOperatorKey().scope;
+            int rp = op.getRequestedParallelism();
+            MultiMap<PhysicalOperator, PhysicalPlan> joinPlans = op.getJoinPlans();
+
+            // check the type of group keys, if there are more than one field, the key is TUPLE.
+            List<PhysicalPlan> groups = joinPlans.get(inputs.get(0));
+            byte type = DataType.TUPLE;
+            if (groups.size() == 1) {
+                type = groups.get(0).getLeaves().get(0).getResultType();
+            }
+
+            POSkewedRearrangeSpark sr = new POSkewedRearrangeSpark(newKey(scope), rp, type);
+            sr.addOriginalLocation(op.getAlias(), op.getOriginalLocations());
+            sr.setResultType(DataType.TUPLE);
+
+            POPackage pkg = new POPackage(newKey(scope), rp);
+            pkg.addOriginalLocation(op.getAlias(), op.getOriginalLocations());
+            pkg.setKeyType(type);
+            pkg.setResultType(DataType.TUPLE);
+            pkg.setNumInps(2);
+            boolean[] inner = op.getInnerFlags();
+            pkg.setInner(inner);
+
+            List<POLocalRearrange> rearranges = new ArrayList<POLocalRearrange>();
+            Map<Integer, Pair<Boolean, Map<Integer, Integer>>> keyInfo =
+                    new HashMap<Integer, Pair<Boolean, Map<Integer, Integer>>>();
+            for (int i = 0; i < 2; i++) {
+                POLocalRearrange lr = new POLocalRearrange(newKey(scope), rp);
+                lr.addOriginalLocation(op.getAlias(), op.getOriginalLocations());
+                lr.setIndex(i);
+                lr.setKeyType(type);
+                lr.setPlans(joinPlans.get(inputs.get(i)));
+                lr.setResultType(DataType.TUPLE);
+                rearranges.add(lr);
+                // what POPackageAnnotator would have set
+                keyInfo.put(Integer.valueOf(lr.getIndex()), new Pair<Boolean, Map<Integer, Integer>>(
+                        lr.isProjectStar(), lr.getProjectedColsMap()));
+                pkg.setKeyTuple(lr.isKeyTuple());
+                pkg.setKeyCompound(lr.isKeyCompound());
+            }
+            pkg.setKeyInfo(keyInfo);
+
+            // flatten the two bags of the package
+            List<PhysicalPlan> eps = new ArrayList<PhysicalPlan>();
+            List<Boolean> flat = new ArrayList<Boolean>();
+            for (int i = 0; i < 2; i++) {
+                PhysicalPlan ep = new PhysicalPlan();
+                POProject prj = new POProject(newKey(scope));
+                prj.setColumn(i + 1);
+                prj.setOverloaded(false);
+                prj.setResultType(DataType.BAG);
+                ep.add(prj);
+                eps.add(ep);
+                if (!inner[i]) {
+                    // Add an empty bag for outer join
+                    CompilerUtils.addEmptyBagOuterJoin(ep, op.getSchema(i));
+                }
+                flat.add(true);
+            }
+            POForEach fe = new POForEach(newKey(scope), -1, eps, flat);
+            fe.addOriginalLocation(op.getAlias(), op.getOriginalLocations());
+            fe.setResultType(DataType.TUPLE);
+
+            // the foreach takes the place of the join, the rest is inserted in front of it
+            plan.replace(op, fe);
+            plan.add(sr);
+            plan.add(pkg);
+            for (int i = 0; i < 2; i++) {
+                plan.disconnect(inputs.get(i), fe);
+                plan.add(rearranges.get(i));
+                plan.connect(inputs.get(i), rearranges.get(i));
+                plan.connect(rearranges.get(i), sr);
+            }
+            plan.connect(sr, pkg);
+            plan.connect(pkg, fe);
+        } catch (Exception e) {
+            int errCode = 2034;
+            String msg = "Error compiling operator " + op.getClass().getSimpleName();
+            throw new OptimizerException(msg, errCode, PigException.BUG, e);
+        }
+    }
+
+    private static OperatorKey newKey(String scope) {
+        return new OperatorKey(scope, NodeIdGenerator.getGenerator().getNextNodeId(scope));
+    }
+}
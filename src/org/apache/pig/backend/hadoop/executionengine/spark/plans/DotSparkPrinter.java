@@ -0,0 +1,56 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.plans;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.DotPOPrinter;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
+
+/**
+ * Prints the Spark plan in the DOT format: the physical plan, each operator labelled with its
+ * RDD as in {@link SparkPrinter}. The operators that shuffle are filled, the persisted ones get
+ * a double border.
+ */
+public class DotSparkPrinter extends DotPOPrinter {
+
+    private final SparkPrinter sparkPrinter;
+
+    public DotSparkPrinter(PhysicalPlan plan, PrintStream ps, SparkPrinter sparkPrinter) {
+        super(plan, ps);
+        this.sparkPrinter = sparkPrinter;
+    }
+
+    @Override
+    protected String[] getAttributes(PhysicalOperator op) {
+        StringBuilder label = new StringBuilder(getName(op));
+        label.append("\\n").append(sparkPrinter.getConverterName(op));
+        if (!(op instanceof POStore)) {
+            label.append("\\npartitions: ").append(sparkPrinter.getPartitionsDescription(op));
+        }
+        String shuffle = sparkPrinter.getShuffle(op);
+        if (shuffle != null) {
+            label.append("\\nshuffle: ").append(shuffle);
+        }
+        String persistence = sparkPrinter.getPersistence(op);
+        if (persistence != null) {
+            label.append("\\npersisted: ").append(persistence);
+        }
+
+        List<String> attributes = new ArrayList<String>();
+        attributes.add("label=\"" + label + "\"");
+        if (shuffle != null) {
+            attributes.add("style=\"filled\"");
+            attributes.add("fillcolor=\"lightblue\"");
+        } else if (op instanceof POStore) {
+            attributes.add("style=\"filled\"");
+            attributes.add("fillcolor=\"gray\"");
+        }
+        if (persistence != null) {
+            attributes.add("peripheries=2");
+        }
+        return attributes.toArray(new String[attributes.size()]);
+    }
+}
@@ -0,0 +1,240 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.plans;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PlanPrinter;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.PODistinct;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFilter;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POGlobalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLimit;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLoad;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLocalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POSort;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POSplit;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POUnion;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.util.PlanHelper;
+import org.apache.pig.backend.hadoop.executionengine.spark.ParallelismEstimator;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.CacheConverter;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.POConverter;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.SortConverter;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.SplitConverter;
+import org.apache.pig.backend.hadoop.executionengine.spark.operator.POReduceBySpark;
+import org.apache.pig.backend.hadoop.executionengine.spark.operator.POSkewedRearrangeSpark;
+import org.apache.pig.impl.plan.VisitorException;
+
+/**
+ * Prints how a physical plan runs on Spark: the RDD each operator becomes, in the order the
+ * SparkLauncher converts them, with its converter, its number of partitions, the shuffles and
+ * the RDDs kept in memory. Nothing is run: the partitions of a load depend on its input splits
+ * and are not computed.
+ */
+public class SparkPrinter {
+
+    private final PhysicalPlan plan;
+    private final Map<Class<? extends PhysicalOperator>, POConverter> convertMap;
+    private final ParallelismEstimator estimator;
+
+    // the operators in conversion order, with their RDD ids and partition counts
+    private final List<PhysicalOperator> operators = new ArrayList<PhysicalOperator>();
+    private final Map<PhysicalOperator, Integer> rddIds = new HashMap<PhysicalOperator, Integer>();
+    private final Map<PhysicalOperator, Integer> partitions =
+            new HashMap<PhysicalOperator, Integer>();
+    private int rddCount = 0;
+
+    public SparkPrinter(PhysicalPlan plan,
+            Map<Class<? extends PhysicalOperator>, POConverter> convertMap,
+            ParallelismEstimator estimator) {
+        this.plan = plan;
+        this.convertMap = convertMap;
+        this.estimator = estimator;
+        for (POStore store : PlanHelper.getPhysicalOperators(plan, POStore.class)) {
+            walk(store);
+        }
+    }
+
+    private void walk(PhysicalOperator physicalOperator) {
+        if (partitions.containsKey(physicalOperator)) {
+            return;
+        }
+        for (PhysicalOperator predecessor : getPredecessors(physicalOperator)) {
+            walk(predecessor);
+        }
+        operators.add(physicalOperator);
+        if (!(physicalOperator instanceof POStore)) {
+            rddIds.put(physicalOperator, ++rddCount);
+        }
+        partitions.put(physicalOperator, computePartitions(physicalOperator));
+    }
+
+    public void print(PrintStream ps, boolean verbose) throws VisitorException {
+        ps.println("#--------------------------------------------------");
+        ps.println("# Spark Plan                                       ");
+        ps.println("#--------------------------------------------------");
+        for (PhysicalOperator physicalOperator : operators) {
+            ps.println(getTitle(physicalOperator));
+            ps.println("Converter: " + getConverterName(physicalOperator));
+            if (!(physicalOperator instanceof POStore)) {
+                ps.println("Partitions: " + getPartitionsDescription(physicalOperator));
+            }
+            String shuffle = getShuffle(physicalOperator);
+            if (shuffle != null) {
+                ps.println("Shuffle: " + shuffle);
+            }
+            String persistence = getPersistence(physicalOperator);
+            if (persistence != null) {
+                ps.println("Persisted: " + persistence);
+            }
+            if (verbose) {
+                for (PhysicalPlan nested : getNestedPlans(physicalOperator)) {
+                    PlanPrinter<PhysicalOperator, PhysicalPlan> printer =
+                            new PlanPrinter<PhysicalOperator, PhysicalPlan>(nested, ps);
+                    printer.setVerbose(verbose);
+                    printer.visit();
+                }
+            }
+            ps.println("--------");
+        }
+        ps.println("");
+    }
+
+    List<PhysicalOperator> getPredecessors(PhysicalOperator physicalOperator) {
+        List<PhysicalOperator> predecessors = plan.getPredecessors(physicalOperator);
+        return predecessors == null ? new ArrayList<PhysicalOperator>() : predecessors;
+    }
+
+    /**
+     * @return "RDD n <- RDD i, RDD j: operator", each store being the action running a job
+     */
+    String getTitle(PhysicalOperator physicalOperator) {
+        StringBuilder sb = new StringBuilder();
+        if (physicalOperator instanceof POStore) {
+            sb.append("Store");
+        } else {
+            sb.append("RDD ").append(rddIds.get(physicalOperator));
+        }
+        List<PhysicalOperator> predecessors = getPredecessors(physicalOperator);
+        for (int i = 0; i < predecessors.size(); i++) {
+            sb.append(i == 0 ? " <- " : ", ").append("RDD ").append(rddIds.get(predecessors.get(i)));
+        }
+        sb.append(": ").append(physicalOperator.name());
+        return sb.toString();
+    }
+
+    String getConverterName(PhysicalOperator physicalOperator) {
+        POConverter converter = convertMap.get(physicalOperator.getClass());
+        return converter == null ? "unsupported" : converter.getClass().getSimpleName();
+    }
+
+    String getPartitionsDescription(PhysicalOperator physicalOperator) {
+        int n = partitions.get(physicalOperator);
+        if (n > 0) {
+            return String.valueOf(n);
+        }
+        if (physicalOperator instanceof POLoad) {
+            return "one per input split";
+        }
+        if (isShuffle(physicalOperator)) {
+            return "Spark default parallelism";
+        }
+        List<PhysicalOperator> predecessors = getPredecessors(physicalOperator);
+        if (physicalOperator instanceof POUnion || predecessors.isEmpty()) {
+            return "unknown";
+        }
+        return "as RDD " + rddIds.get(predecessors.get(0));
+    }
+
+    /**
+     * @return the partitioner of the shuffle done by the operator, null if there is none
+     */
+    String getShuffle(PhysicalOperator physicalOperator) {
+        // both extend POGlobalRearrange
+        if (physicalOperator instanceof POReduceBySpark) {
+            return "hash partitioner, combined on the map side";
+        } else if (physicalOperator instanceof POSkewedRearrangeSpark) {
+            return "skewed partitioner on the sampled key distribution";
+        } else if (physicalOperator instanceof POGlobalRearrange) {
+            return "hash partitioner, grouped in spillable bags";
+        } else if (physicalOperator instanceof PODistinct) {
+            return "hash partitioner";
+        } else if (physicalOperator instanceof POSort) {
+            return SortConverter.isTopRows((POSort) physicalOperator)
+                    ? "top rows of each partition to a single partition"
+                    : "range partitioner on sampled quantiles";
+        }
+        return null;
+    }
+
+    boolean isShuffle(PhysicalOperator physicalOperator) {
+        return getShuffle(physicalOperator) != null;
+    }
+
+    /**
+     * @return how the RDD of the operator is kept, null if it is not
+     */
+    String getPersistence(PhysicalOperator physicalOperator) {
+        POConverter converter = convertMap.get(physicalOperator.getClass());
+        if (converter instanceof CacheConverter) {
+            String level = ((CacheConverter) converter).getStorageLevelName();
+            return "cached, " + (level == null
+                    ? "MEMORY_ONLY if its input fits in memory, MEMORY_AND_DISK_SER otherwise"
+                    : level);
+        }
+        if (converter instanceof SplitConverter) {
+            String level = ((SplitConverter) converter).getStorageLevelName();
+            return level.equals("NONE") ? null : level;
+        }
+        return null;
+    }
+
+    private int computePartitions(PhysicalOperator physicalOperator) {
+        List<PhysicalOperator> predecessors = getPredecessors(physicalOperator);
+        if (physicalOperator instanceof POLoad) {
+            return -1;
+        } else if (physicalOperator instanceof POLimit) {
+            return 1;
+        } else if (physicalOperator instanceof POSort
+                && SortConverter.isTopRows((POSort) physicalOperator)) {
+            return 1;
+        } else if (isShuffle(physicalOperator)) {
+            return estimator.getParallelism(physicalOperator);
+        } else if (physicalOperator instanceof POUnion) {
+            int sum = 0;
+            for (PhysicalOperator predecessor : predecessors) {
+                int n = partitions.get(predecessor);
+                if (n <= 0) {
+                    return -1;
+                }
+                sum += n;
+            }
+            return sum;
+        } else if (!predecessors.isEmpty()) {
+            // narrow dependency on the first input
+            return partitions.get(predecessors.get(0));
+        }
+        return -1;
+    }
+
+    private static List<PhysicalPlan> getNestedPlans(PhysicalOperator physicalOperator) {
+        List<PhysicalPlan> plans = new ArrayList<PhysicalPlan>();
+        if (physicalOperator instanceof POFilter) {
+            plans.add(((POFilter) physicalOperator).getPlan());
+        } else if (physicalOperator instanceof POForEach) {
+            plans.addAll(((POForEach) physicalOperator).getInputPlans());
+        } else if (physicalOperator instanceof POLocalRearrange) {
+            plans.addAll(((POLocalRearrange) physicalOperator).getPlans());
+        } else if (physicalOperator instanceof POSort) {
+            plans.addAll(((POSort) physicalOperator).getSortPlans());
+        } else if (physicalOperator instanceof POSplit) {
+            plans.addAll(((POSplit) physicalOperator).getPlans());
+        }
+        return plans;
+    }
+}
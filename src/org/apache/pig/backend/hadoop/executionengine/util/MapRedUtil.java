@@ -104,17 +104,31 @@ public class MapRedUtil {
 
         ReadToEndLoader loader = new ReadToEndLoader(Utils.getTmpFileStorageObject(PigMapReduce.sJobConfInternal.get()), conf, 
                 keyDistFile, 0);
-        DataBag partitionList;
         Tuple t = loader.getNext();
         if (t == null) {
             // this could happen if the input directory for sampling is empty
             log.warn("Empty dist file: " + keyDistFile);
             return reducerMap;
         }
+        return getReducerMap((Map<String, Object>) t.get(0), totalReducers, keyType);
+    }
+
+    /**
+     * Builds the reducer map out of the output of {@link PartitionSkewedKeys}
+     *
+     * @param distMap the key distribution as returned by PartitionSkewedKeys
+     * @param totalReducers gets set to the total number of reducers as found in the dist map
+     * @param keyType Type of the key to be stored in the return map. It currently treats Tuple as a special case.
+     */
+    @SuppressWarnings("unchecked")
+    public static <E> Map<E, Pair<Integer, Integer>> getReducerMap(
+            Map<String, Object> distMap, Integer[] totalReducers, byte keyType)
+            throws ExecException {
+
+        Map<E, Pair<Integer, Integer>> reducerMap = new HashMap<E, Pair<Integer, Integer>>();
         // The keydist file is structured as (key, min, max)
         // min, max being the index of the reducers
-        Map<String, Object > distMap = (Map<String, Object>) t.get (0);
-        partitionList = (DataBag) distMap.get(PartitionSkewedKeys.PARTITION_LIST);
+        DataBag partitionList = (DataBag) distMap.get(PartitionSkewedKeys.PARTITION_LIST);
         totalReducers[0] = Integer.valueOf(""+distMap.get(PartitionSkewedKeys.TOTAL_REDUCERS));
         Iterator<Tuple> it = partitionList.iterator();
         while (it.hasNext()) {
@@ -63,6 +63,7 @@ import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigTextInput
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigTextOutputFormat;
 import org.apache.pig.bzip2r.Bzip2TextInputFormat;
 import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataType;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.data.TupleFactory;
 import org.apache.pig.impl.logicalLayer.FrontendException;
@@ -155,6 +156,11 @@ LoadPushDown, LoadMetadata, StoreMetadata {
     private static final String TAG_SOURCE_PATH = "tagPath";
     private Path sourcePath = null;
 
+    // Whether the lines are parsed by getNextTyped(), see canParseTyped()
+    private boolean mTypedParse = false;
+    private boolean mTypedParseChecked = false;
+    private int mTypedFieldCount = -1;
+
     private void populateValidOptions() {
         validOptions.addOption("schema", false, "Loads / Stores the schema of the relation using a hidden JSON file.");
         validOptions.addOption("noschema", false, "Disable attempting to load data schema from the filesystem.");
@@ -220,7 +226,6 @@ LoadPushDown, LoadMetadata, StoreMetadata {
 
     @Override
     public Tuple getNext() throws IOException {
-        mProtoTuple = new ArrayList<Object>();
         if (!mRequiredColumnsInitialized) {
             if (signature!=null) {
                 Properties p = UDFContext.getUDFContext().getUDFProperties(this.getClass());
@@ -228,6 +233,14 @@ LoadPushDown, LoadMetadata, StoreMetadata {
             }
             mRequiredColumnsInitialized = true;
         }
+        if (!mTypedParseChecked) {
+            mTypedParse = canParseTyped();
+            mTypedParseChecked = true;
+        }
+        if (mTypedParse) {
+            return getNextTyped();
+        }
+        mProtoTuple = new ArrayList<Object>();
         //Prepend input source path if source tagging is enabled
         if(tagFile) {
             mProtoTuple.add(new DataByteArray(sourcePath.getName()));
@@ -247,14 +260,14 @@ LoadPushDown, LoadMetadata, StoreMetadata {
             int fieldID = 0;
             for (int i = 0; i < len; i++) {
                 if (buf[i] == fieldDel) {
-                    if (mRequiredColumns==null || (mRequiredColumns.length>fieldID && mRequiredColumns[fieldID]))
+                    if (isRequired(fieldID))
                         addTupleValue(mProtoTuple, buf, start, i);
                     start = i + 1;
                     fieldID++;
                 }
             }
             // pick up the last field
-            if (start <= len && (mRequiredColumns==null || (mRequiredColumns.length>fieldID && mRequiredColumns[fieldID]))) {
+            if (start <= len && isRequired(fieldID)) {
                 addTupleValue(mProtoTuple, buf, start, len);
             }
             Tuple t =  mTupleFactory.newTupleNoCopy(mProtoTuple);
@@ -268,7 +281,15 @@ LoadPushDown, LoadMetadata, StoreMetadata {
         }
     }
 
-    private Tuple applySchema(Tuple tup) throws IOException {
+    private boolean isRequired(int fieldID) {
+        return mRequiredColumns==null || (mRequiredColumns.length>fieldID && mRequiredColumns[fieldID]);
+    }
+
+    /**
+     * Loads the schema stored with the input, if any.
+     * @return false if there is none
+     */
+    private boolean loadSchema() throws IOException {
         if ( caster == null) {
             caster = getLoadCaster();
         }
@@ -276,24 +297,31 @@ LoadPushDown, LoadMetadata, StoreMetadata {
             Properties p = UDFContext.getUDFContext().getUDFProperties(this.getClass(),
                     new String[] {signature});
             String serializedSchema = p.getProperty(signature+".schema");
-            if (serializedSchema == null) return tup;
+            if (serializedSchema == null) return false;
             try {
                 schema = new ResourceSchema(Utils.getSchemaFromString(serializedSchema));
             } catch (ParserException e) {
                 mLog.error("Unable to parse serialized schema " + serializedSchema, e);
             }
         }
+        return schema != null;
+    }
 
-        if (schema != null) {
+    private Tuple applySchema(Tuple tup) throws IOException {
+        if (loadSchema()) {
 
             ResourceFieldSchema[] fieldSchemas = schema.getFields();
             int tupleIdx = 0;
             // If some fields have been projected out, the tuple
             // only contains required fields.
             // We walk the requiredColumns array to find required fields,
-            // and cast those.
-            for (int i = 0; i < Math.min(fieldSchemas.length, tup.size()); i++) {
-                if (mRequiredColumns == null || (mRequiredColumns.length>i && mRequiredColumns[i])) {
+            // and cast those. The required fields missing from the line
+            // are null.
+            for (int i = 0; i < fieldSchemas.length; i++) {
+                if (isRequired(i)) {
+                    if (tupleIdx >= tup.size()) {
+                        tup.append(null);
+                    }
                     Object val = null;
                     if(tup.get(tupleIdx) != null){
                         byte[] bytes = ((DataByteArray) tup.get(tupleIdx)).get();
@@ -304,13 +332,115 @@ LoadPushDown, LoadMetadata, StoreMetadata {
                     tupleIdx++;
                 }
             }
-            for (int i = tup.size(); i < fieldSchemas.length; i++) {
-                tup.append(null);
-            }
         }
         return tup;
     }
 
+    /**
+     * The fields of a line can be parsed straight to the types of the stored schema, without
+     * going through a DataByteArray, if the schema is known, no source tag is prepended and
+     * neither the caster nor {@link #readField(byte[], int, int)} is changed by a subclass.
+     */
+    private boolean canParseTyped() throws IOException {
+        if (dontLoadSchema || tagFile || tagPath || !loadSchema()
+                || caster.getClass() != Utf8StorageConverter.class) {
+            return false;
+        }
+        for (Class<?> c = getClass(); c != PigStorage.class; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod("readField", byte[].class, int.class, int.class);
+                return false;
+            } catch (NoSuchMethodException e) {
+                // not overridden here
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads a line as {@link #getNext()} then {@link #applySchema(Tuple)} would, but parses the
+     * required fields from the buffer of the line directly to their types. Only the bytearray
+     * fields and the fields beyond the schema are copied into a DataByteArray, and the fields
+     * not required are skipped.
+     */
+    private Tuple getNextTyped() throws IOException {
+        Text value;
+        try {
+            if (!in.nextKeyValue()) {
+                return null;
+            }
+            value = (Text) in.getCurrentValue();
+        } catch (InterruptedException e) {
+            int errCode = 6018;
+            String errMsg = "Error while reading input";
+            throw new ExecException(errMsg, errCode,
+                    PigException.REMOTE_ENVIRONMENT, e);
+        }
+        ResourceFieldSchema[] fieldSchemas = schema.getFields();
+        if (mTypedFieldCount < 0) {
+            mTypedFieldCount = 0;
+            for (int i = 0; i < fieldSchemas.length; i++) {
+                if (isRequired(i)) {
+                    mTypedFieldCount++;
+                }
+            }
+        }
+        byte[] buf = value.getBytes();
+        int len = value.getLength();
+        Tuple t = mTupleFactory.newTuple(mTypedFieldCount);
+        int tupleIdx = 0;
+        int start = 0;
+        int fieldID = 0;
+        for (int i = 0; i <= len; i++) {
+            if (i == len || buf[i] == fieldDel) {
+                if (isRequired(fieldID)) {
+                    if (fieldID < fieldSchemas.length) {
+                        t.set(tupleIdx++, readTypedField(buf, start, i, fieldSchemas[fieldID]));
+                    } else {
+                        t.append(readField(buf, start, i));
+                    }
+                }
+                start = i + 1;
+                fieldID++;
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Parses a field to the type of its schema with the methods of {@link Utf8StorageConverter}
+     * which read a range of bytes. The types without such a method are left to the caster.
+     */
+    private Object readTypedField(byte[] buf, int start, int end, ResourceFieldSchema fieldSchema)
+            throws IOException {
+        if (start == end) {
+            return null;
+        }
+        Utf8StorageConverter converter = (Utf8StorageConverter) caster;
+        byte type = fieldSchema.getType();
+        switch (type) {
+        case DataType.BYTEARRAY:
+            return readField(buf, start, end);
+        case DataType.CHARARRAY:
+            return new String(buf, start, end - start, "UTF-8");
+        case DataType.INTEGER:
+            return converter.bytesToInteger(buf, start, end);
+        case DataType.LONG:
+            return converter.bytesToLong(buf, start, end);
+        case DataType.FLOAT:
+            return converter.bytesToFloat(buf, start, end);
+        case DataType.DOUBLE:
+            return converter.bytesToDouble(buf, start, end);
+        case DataType.BOOLEAN:
+            return converter.bytesToBoolean(buf, start, end);
+        case DataType.DATETIME:
+            return converter.bytesToDateTime(buf, start, end);
+        default:
+            return CastUtils.convertToType(caster, Arrays.copyOfRange(buf, start, end),
+                    fieldSchema, type);
+        }
+    }
+
     @Override
     public void putNext(Tuple f) throws IOException {
         try {
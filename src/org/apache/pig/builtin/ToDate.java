@@ -113,9 +113,11 @@ public class ToDate extends EvalFunc<DateTime> {
         return funcList;
     }
     
+    private static final Pattern TIME_ZONE_PATTERN =
+            Pattern.compile("(Z|((\\+|-)\\d{2}(:?\\d{2})?))$");
+
     public static DateTimeZone extractDateTimeZone(String dtStr) {
-        Pattern pattern = Pattern.compile("(Z|((\\+|-)\\d{2}(:?\\d{2})?))$");
-        Matcher matcher = pattern.matcher(dtStr);
+        Matcher matcher = TIME_ZONE_PATTERN.matcher(dtStr);
         if (matcher.find()) {
             String dtzStr = matcher.group();
             if (dtzStr.equals("Z")) {
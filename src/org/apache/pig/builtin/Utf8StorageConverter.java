@@ -62,6 +62,25 @@ public class Utf8StorageConverter implements LoadStoreCaster {
     private static final Long mMinLong = Long.valueOf(Long.MIN_VALUE);
     private static final int BUFFER_SIZE = 1024;
 
+    private static final long NOT_PARSED = Long.MIN_VALUE;
+    // the longs are all below this, in magnitude
+    private static final double LONG_DOUBLE_BOUND = 0x1p63;
+    private static final byte[] TRUE_BYTES = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE_BYTES = {'f', 'a', 'l', 's', 'e'};
+    // the powers of ten exact in a float and in a double
+    private static final float[] FLOAT_POWERS_OF_TEN = new float[11];
+    private static final double[] DOUBLE_POWERS_OF_TEN = new double[23];
+    static {
+        FLOAT_POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < FLOAT_POWERS_OF_TEN.length; i++) {
+            FLOAT_POWERS_OF_TEN[i] = FLOAT_POWERS_OF_TEN[i - 1] * 10;
+        }
+        DOUBLE_POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < DOUBLE_POWERS_OF_TEN.length; i++) {
+            DOUBLE_POWERS_OF_TEN[i] = DOUBLE_POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
     public Utf8StorageConverter() {
     }
 
@@ -353,14 +372,29 @@ public class Utf8StorageConverter implements LoadStoreCaster {
 
     @Override
     public Double bytesToDouble(byte[] b) {
-        if(b == null || b.length == 0) {
+        if(b == null) {
             return null;
         }
-        
+        return bytesToDouble(b, 0, b.length);
+    }
+
+    /**
+     * Converts the bytes of b between start and end as {@link #bytesToDouble(byte[])} does.
+     * A plain decimal number is parsed in place, without building a String.
+     */
+    public Double bytesToDouble(byte[] b, int start, int end) {
+        if(start == end) {
+            return null;
+        }
+        double d = parsePlainDecimal(b, start, end, false);
+        if (!Double.isNaN(d)) {
+            return Double.valueOf(d);
+        }
+
         try {
-            return Double.valueOf(new String(b));
+            return Double.valueOf(new String(b, start, end - start));
         } catch (NumberFormatException nfe) {
-            LogUtils.warn(this, "Unable to interpret value " + Arrays.toString(b) + " in field being " +
+            LogUtils.warn(this, "Unable to interpret value " + toString(b, start, end) + " in field being " +
                     "converted to double, caught NumberFormatException <" +
                     nfe.getMessage() + "> field discarded",
                     PigWarning.FIELD_DISCARDED_TYPE_CONVERSION_FAILED, mLog);
@@ -370,21 +404,36 @@ public class Utf8StorageConverter implements LoadStoreCaster {
 
     @Override
     public Float bytesToFloat(byte[] b) throws IOException {
-        if(b == null || b.length == 0) {
+        if(b == null) {
             return null;
         }
-        
+        return bytesToFloat(b, 0, b.length);
+    }
+
+    /**
+     * Converts the bytes of b between start and end as {@link #bytesToFloat(byte[])} does.
+     * A plain decimal number is parsed in place, without building a String.
+     */
+    public Float bytesToFloat(byte[] b, int start, int end) throws IOException {
+        if(start == end) {
+            return null;
+        }
+        double d = parsePlainDecimal(b, start, end, true);
+        if (!Double.isNaN(d)) {
+            return Float.valueOf((float)d);
+        }
+
         String s;
-        if (b.length > 0 && (b[b.length - 1] == 'F' || b[b.length - 1] == 'f')) {
-            s = new String(b, 0, b.length - 1);
+        if (b[end - 1] == 'F' || b[end - 1] == 'f') {
+            s = new String(b, start, end - start - 1);
         } else {
-            s = new String(b);
+            s = new String(b, start, end - start);
         }
 
         try {
             return Float.valueOf(s);
         } catch (NumberFormatException nfe) {
-            LogUtils.warn(this, "Unable to interpret value " + Arrays.toString(b) + " in field being " +
+            LogUtils.warn(this, "Unable to interpret value " + toString(b, start, end) + " in field being " +
                     "converted to float, caught NumberFormatException <" +
                     nfe.getMessage() + "> field discarded",
                     PigWarning.FIELD_DISCARDED_TYPE_CONVERSION_FAILED, mLog);
@@ -397,14 +446,32 @@ public class Utf8StorageConverter implements LoadStoreCaster {
     public Boolean bytesToBoolean(byte[] b) throws IOException {
         if(b == null)
             return null;
-        String s = new String(b);
-        if (s.equalsIgnoreCase("true")) {
+        return bytesToBoolean(b, 0, b.length);
+    }
+
+    /**
+     * Converts the bytes of b between start and end as {@link #bytesToBoolean(byte[])} does,
+     * without building a String.
+     */
+    public Boolean bytesToBoolean(byte[] b, int start, int end) throws IOException {
+        if (equalsIgnoreCase(b, start, end, TRUE_BYTES)) {
             return Boolean.TRUE;
-        } else if (s.equalsIgnoreCase("false")) {
+        } else if (equalsIgnoreCase(b, start, end, FALSE_BYTES)) {
             return Boolean.FALSE;
-        } else {
-            return null;
         }
+        for (int i = start; i < end; i++) {
+            if (b[i] < 0) {
+                // String.equalsIgnoreCase() matches some letters outside of ASCII too
+                String s = new String(b, start, end - start);
+                if (s.equalsIgnoreCase("true")) {
+                    return Boolean.TRUE;
+                } else if (s.equalsIgnoreCase("false")) {
+                    return Boolean.FALSE;
+                }
+                break;
+            }
+        }
+        return null;
     }
 
     /**
@@ -427,11 +494,33 @@ public class Utf8StorageConverter implements LoadStoreCaster {
 
     @Override
     public Integer bytesToInteger(byte[] b) throws IOException {
-        if(b == null || b.length == 0) {
+        if(b == null) {
             return null;
         }
-        
-        String s = new String(b);
+        return bytesToInteger(b, 0, b.length);
+    }
+
+    /**
+     * Converts the bytes of b between start and end as {@link #bytesToInteger(byte[])} does.
+     * A plain integer or decimal number is parsed in place, without building a String.
+     */
+    public Integer bytesToInteger(byte[] b, int start, int end) throws IOException {
+        if(start == end) {
+            return null;
+        }
+        long l = parsePlainLong(b, start, end, false);
+        if (l != NOT_PARSED) {
+            if (l >= Integer.MIN_VALUE && l <= Integer.MAX_VALUE) {
+                return Integer.valueOf((int)l);
+            }
+        } else {
+            double d = parsePlainDecimal(b, start, end, false);
+            if (d < mMaxInt.doubleValue() + 1 && d > mMinInt.doubleValue() - 1) {
+                return Integer.valueOf((int)d);
+            }
+        }
+
+        String s = new String(b, start, end - start);
         s = s.trim();
         Integer ret = null;
 
@@ -459,7 +548,7 @@ public class Utf8StorageConverter implements LoadStoreCaster {
                 }
                 return Integer.valueOf(d.intValue());
             } catch (NumberFormatException nfe2) {
-                LogUtils.warn(this, "Unable to interpret value " + Arrays.toString(b) + " in field being " +
+                LogUtils.warn(this, "Unable to interpret value " + toString(b, start, end) + " in field being " +
                         "converted to int, caught NumberFormatException <" +
                         nfe2.getMessage() + "> field discarded",
                         PigWarning.FIELD_DISCARDED_TYPE_CONVERSION_FAILED, mLog);
@@ -471,11 +560,30 @@ public class Utf8StorageConverter implements LoadStoreCaster {
 
     @Override
     public Long bytesToLong(byte[] b) throws IOException {
-        if (b == null || b.length == 0) {
+        if (b == null) {
+            return null;
+        }
+        return bytesToLong(b, 0, b.length);
+    }
+
+    /**
+     * Converts the bytes of b between start and end as {@link #bytesToLong(byte[])} does.
+     * A plain integer or decimal number is parsed in place, without building a String.
+     */
+    public Long bytesToLong(byte[] b, int start, int end) throws IOException {
+        if (start == end) {
             return null;
         }
-        
-        String s = new String(b).trim();
+        long l = parsePlainLong(b, start, end, true);
+        if (l != NOT_PARSED) {
+            return Long.valueOf(l);
+        }
+        double d = parsePlainDecimal(b, start, end, false);
+        if (Math.abs(d) < LONG_DOUBLE_BOUND) {
+            return Long.valueOf((long)d);
+        }
+
+        String s = new String(b, start, end - start).trim();
         if(s.endsWith("l") || s.endsWith("L")) {
             s = s.substring(0, s.length()-1);
         }
@@ -496,17 +604,17 @@ public class Utf8StorageConverter implements LoadStoreCaster {
             // we need to try to convert it to a double and if that works then
             // go to an long.
             try {
-                Double d = Double.valueOf(s);
+                Double dd = Double.valueOf(s);
                 // Need to check for an overflow error
-                if (Double.compare(d.doubleValue(), mMaxLong.doubleValue() + 1) > 0 ||
-                        Double.compare(d.doubleValue(), mMinLong.doubleValue() - 1) < 0) {
-                	LogUtils.warn(this, "Value " + d + " too large for long",
+                if (Double.compare(dd.doubleValue(), mMaxLong.doubleValue() + 1) > 0 ||
+                        Double.compare(dd.doubleValue(), mMinLong.doubleValue() - 1) < 0) {
+                	LogUtils.warn(this, "Value " + dd + " too large for long",
                 	            PigWarning.TOO_LARGE_FOR_INT, mLog);
                     return null;
                 }
-                return Long.valueOf(d.longValue());
+                return Long.valueOf(dd.longValue());
             } catch (NumberFormatException nfe2) {
-                LogUtils.warn(this, "Unable to interpret value " + Arrays.toString(b) + " in field being " +
+                LogUtils.warn(this, "Unable to interpret value " + toString(b, start, end) + " in field being " +
                             "converted to long, caught NumberFormatException <" +
                             nfe2.getMessage() + "> field discarded",
                             PigWarning.FIELD_DISCARDED_TYPE_CONVERSION_FAILED, mLog);
@@ -521,8 +629,20 @@ public class Utf8StorageConverter implements LoadStoreCaster {
         if (b == null) {
             return null;
         }
+        return bytesToDateTime(b, 0, b.length);
+    }
+
+    /**
+     * Converts the bytes of b between start and end as {@link #bytesToDateTime(byte[])} does.
+     * The form DateTime.toString() writes is parsed in place, without building a String.
+     */
+    public DateTime bytesToDateTime(byte[] b, int start, int end) throws IOException {
+        DateTime dt = parsePlainDateTime(b, start, end);
+        if (dt != null) {
+            return dt;
+        }
         try {
-            String dtStr = new String(b);
+            String dtStr = new String(b, start, end - start);
             DateTimeZone dtz = ToDate.extractDateTimeZone(dtStr);
             if (dtz == null) {
                 return new DateTime(dtStr);
@@ -530,7 +650,7 @@ public class Utf8StorageConverter implements LoadStoreCaster {
                 return new DateTime(dtStr, dtz);
             }
         } catch (IllegalArgumentException e) {
-            LogUtils.warn(this, "Unable to interpret value " + Arrays.toString(b) + " in field being " +
+            LogUtils.warn(this, "Unable to interpret value " + toString(b, start, end) + " in field being " +
                     "converted to datetime, caught IllegalArgumentException <" +
                     e.getMessage() + "> field discarded",
                     PigWarning.FIELD_DISCARDED_TYPE_CONVERSION_FAILED, mLog);
@@ -538,6 +658,225 @@ public class Utf8StorageConverter implements LoadStoreCaster {
         }
     }
 
+    private static String toString(byte[] b, int start, int end) {
+        return Arrays.toString(Arrays.copyOfRange(b, start, end));
+    }
+
+    private static boolean isSpace(byte b) {
+        // the characters String.trim() removes
+        return (b & 0xff) <= ' ';
+    }
+
+    private static boolean equalsIgnoreCase(byte[] b, int start, int end, byte[] lowerCase) {
+        if (end - start != lowerCase.length) {
+            return false;
+        }
+        for (int i = 0; i < lowerCase.length; i++) {
+            byte c = b[start + i];
+            if (c != lowerCase[i] && c + ('a' - 'A') != lowerCase[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses an integer made of an optional minus sign and digits, with spaces around it and, if
+     * longSuffix, an optional 'l' or 'L' after it.
+     * @return the integer, NOT_PARSED if the bytes have any other form or do not fit in a long
+     */
+    private static long parsePlainLong(byte[] b, int start, int end, boolean longSuffix) {
+        while (start < end && isSpace(b[start])) {
+            start++;
+        }
+        while (end > start && isSpace(b[end - 1])) {
+            end--;
+        }
+        if (longSuffix && end > start && (b[end - 1] == 'l' || b[end - 1] == 'L')) {
+            end--;
+        }
+        // a '+' makes the full parser go through a double, which may round a long
+        boolean negative = start < end && b[start] == '-';
+        if (negative) {
+            start++;
+        }
+        if (start == end) {
+            return NOT_PARSED;
+        }
+        long l = 0;
+        for (int i = start; i < end; i++) {
+            int digit = b[i] - '0';
+            if (digit < 0 || digit > 9 || l > (Long.MAX_VALUE - digit) / 10) {
+                return NOT_PARSED;
+            }
+            l = l * 10 + digit;
+        }
+        return negative ? -l : l;
+    }
+
+    /**
+     * Parses a decimal number made of an optional sign, digits with an optional decimal point
+     * and an optional exponent, with spaces around it, when its digits and its power of ten are
+     * both exact in a double, or in a float if asFloat: a single multiplication or division then
+     * gives the correctly rounded value Double.valueOf() or Float.valueOf() would.
+     * @return the number, a float widened to a double if asFloat, or NaN if the bytes have any
+     * other form or the number needs the full parser
+     */
+    private static double parsePlainDecimal(byte[] b, int start, int end, boolean asFloat) {
+        long maxMantissa = asFloat ? 1L << 24 : 1L << 53;
+        int maxExponent = asFloat ? FLOAT_POWERS_OF_TEN.length - 1 : DOUBLE_POWERS_OF_TEN.length - 1;
+        while (start < end && isSpace(b[start])) {
+            start++;
+        }
+        while (end > start && isSpace(b[end - 1])) {
+            end--;
+        }
+        boolean negative = false;
+        if (start < end && (b[start] == '-' || b[start] == '+')) {
+            negative = b[start] == '-';
+            start++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean point = false;
+        int i = start;
+        for (; i < end; i++) {
+            int digit = b[i] - '0';
+            if (digit >= 0 && digit <= 9) {
+                mantissa = mantissa * 10 + digit;
+                if (mantissa > maxMantissa) {
+                    return Double.NaN;
+                }
+                digits++;
+                if (point) {
+                    exponent--;
+                }
+            } else if (b[i] == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (digits == 0) {
+            return Double.NaN;
+        }
+        if (i < end) {
+            if (b[i] != 'e' && b[i] != 'E') {
+                return Double.NaN;
+            }
+            long l = parseExponent(b, i + 1, end);
+            if (l == NOT_PARSED) {
+                return Double.NaN;
+            }
+            exponent += l;
+        }
+        if (exponent > maxExponent || exponent < -maxExponent) {
+            return Double.NaN;
+        }
+        if (asFloat) {
+            float f = exponent >= 0 ? mantissa * FLOAT_POWERS_OF_TEN[exponent]
+                    : mantissa / FLOAT_POWERS_OF_TEN[-exponent];
+            return negative ? -f : f;
+        }
+        double d = exponent >= 0 ? mantissa * DOUBLE_POWERS_OF_TEN[exponent]
+                : mantissa / DOUBLE_POWERS_OF_TEN[-exponent];
+        return negative ? -d : d;
+    }
+
+    /**
+     * @return the exponent of a decimal number, an optional sign and at most 3 digits, or
+     * NOT_PARSED
+     */
+    private static long parseExponent(byte[] b, int start, int end) {
+        boolean negative = false;
+        if (start < end && (b[start] == '-' || b[start] == '+')) {
+            negative = b[start] == '-';
+            start++;
+        }
+        if (start == end || end - start > 3) {
+            return NOT_PARSED;
+        }
+        long l = 0;
+        for (int i = start; i < end; i++) {
+            int digit = b[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return NOT_PARSED;
+            }
+            l = l * 10 + digit;
+        }
+        return negative ? -l : l;
+    }
+
+    /**
+     * Parses the form DateTime.toString() writes, yyyy-MM-ddTHH:mm:ss[.SSS] followed by Z, by
+     * +HH:mm or -HH:mm, or by nothing for the default time zone. The time zone is the one
+     * {@link ToDate#extractDateTimeZone(String)} finds, the fixed offset of the date.
+     * @return the date, or null if the bytes have any other form or are not a valid date
+     */
+    private static DateTime parsePlainDateTime(byte[] b, int start, int end) {
+        int length = end - start;
+        if (length < 19 || b[start + 4] != '-' || b[start + 7] != '-' || b[start + 10] != 'T'
+                || b[start + 13] != ':' || b[start + 16] != ':') {
+            return null;
+        }
+        int year = parseDigits(b, start, 4);
+        int month = parseDigits(b, start + 5, 2);
+        int day = parseDigits(b, start + 8, 2);
+        int hour = parseDigits(b, start + 11, 2);
+        int minute = parseDigits(b, start + 14, 2);
+        int second = parseDigits(b, start + 17, 2);
+        int millis = 0;
+        int i = start + 19;
+        if (i < end && b[i] == '.') {
+            if (end - i < 4) {
+                return null;
+            }
+            millis = parseDigits(b, i + 1, 3);
+            i += 4;
+        }
+        DateTimeZone zone;
+        if (i == end) {
+            zone = DateTimeZone.getDefault();
+        } else if (end - i == 1 && b[i] == 'Z') {
+            zone = DateTimeZone.UTC;
+        } else if (end - i == 6 && (b[i] == '+' || b[i] == '-') && b[i + 3] == ':') {
+            int offsetHours = parseDigits(b, i + 1, 2);
+            int offsetMinutes = parseDigits(b, i + 4, 2);
+            if (offsetHours < 0 || offsetHours > 23 || offsetMinutes < 0 || offsetMinutes > 59) {
+                return null;
+            }
+            int offset = (offsetHours * 60 + offsetMinutes) * 60000;
+            zone = DateTimeZone.forOffsetMillis(b[i] == '-' ? -offset : offset);
+        } else {
+            return null;
+        }
+        if ((year | month | day | hour | minute | second | millis) < 0) {
+            return null;
+        }
+        try {
+            return new DateTime(year, month, day, hour, minute, second, millis, zone);
+        } catch (IllegalArgumentException e) {
+            // left to the full parser, which reports it
+            return null;
+        }
+    }
+
+    /**
+     * @return the number written with count digits from start, or -1 if there is another byte
+     */
+    private static int parseDigits(byte[] b, int start, int count) {
+        int n = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = b[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            n = n * 10 + digit;
+        }
+        return n;
+    }
+
     @Override
     public Map<String, Object> bytesToMap(byte[] b, ResourceFieldSchema fieldSchema) throws IOException {
         if(b == null)
@@ -71,6 +71,14 @@ public abstract class DefaultAbstractBag implements DataBag {
 
     private boolean spillableRegistered = false;
 
+    // The memory of a registered bag is told to the SpillableMemoryManager
+    // each time this many tuples have been added.
+    private static final int ACCOUNTING_INTERVAL = 100;
+
+    private transient SpillableMemoryManager.Account memoryAccount;
+
+    private int addedSinceAccounted = 0;
+
     /**
      * Get the number of elements in the bag, both in memory and on disk.
      */
@@ -97,12 +105,28 @@ public abstract class DefaultAbstractBag implements DataBag {
      * should call this method after every time they add an element.
      */
     protected void markSpillableIfNecessary() {
-        if (!spillableRegistered && getMemorySize() >= SPILL_REGISTER_THRESHOLD) {
-            SpillableMemoryManager.getInstance().registerSpillable(this);
-            spillableRegistered = true;
+        if (!spillableRegistered) {
+            if (getMemorySize() >= SPILL_REGISTER_THRESHOLD) {
+                memoryAccount = SpillableMemoryManager.getInstance().track(this);
+                spillableRegistered = true;
+                if (memoryAccount != null) {
+                    accountMemory();
+                }
+            }
+        } else if (memoryAccount != null && ++addedSinceAccounted >= ACCOUNTING_INTERVAL) {
+            accountMemory();
         }
     }
 
+    /**
+     * Tells the SpillableMemoryManager how much memory the bag uses, which
+     * may spill it, or other bags, if they use too much.
+     */
+    private void accountMemory() {
+        addedSinceAccounted = 0;
+        SpillableMemoryManager.getInstance().account(memoryAccount, getMemorySize());
+    }
+
     @Override
     public void addAll(DataBag b) {
         addAll((Iterable<Tuple>) b);
@@ -228,6 +252,9 @@ public abstract class DefaultAbstractBag implements DataBag {
             }
             mSize = 0;
         }
+        if (memoryAccount != null) {
+            accountMemory();
+        }
     }
 
     /**
@@ -29,8 +29,6 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.ListIterator;
 import java.util.PriorityQueue;
 
 import org.apache.commons.logging.Log;
@@ -56,11 +54,10 @@ public class InternalSortedBag extends SortedSpillBag{
      */
     private static final long serialVersionUID = 2L;
 
-    private static TupleFactory gTupleFactory = TupleFactory.getInstance();
-
     private static final Log log = LogFactory.getLog(InternalSortedBag.class);
 
     private transient Comparator<Tuple> mComp;
+    private transient SortedSpillMerger mMerger;
     private transient boolean mReadStarted = false;
 
     static private class DefaultComparator implements Comparator<Tuple> {
@@ -104,6 +101,7 @@ public class InternalSortedBag extends SortedSpillBag{
      */
     private void init(int bagCount, double percent, Comparator<Tuple> comp) {
         mComp = (comp == null) ? new DefaultComparator() : comp;
+        mMerger = new SortedSpillMerger(comp);
     	mContents = new ArrayList<Tuple>();             
      
     }
@@ -133,6 +131,20 @@ public class InternalSortedBag extends SortedSpillBag{
     	}
     }
     
+    /**
+     * Abandons the merge of the spill files running, if any, before the
+     * spill files are deleted.
+     */
+    @Override
+    public void clear() {
+        synchronized (mContents) {
+            if (mMerger != null) {
+                mMerger.abandon();
+            }
+            super.clear();
+        }
+    }
+
     @Override
     public boolean isSorted() {
         return true;
@@ -197,7 +209,9 @@ public class InternalSortedBag extends SortedSpillBag{
             // If this is the first read, we need to sort the data.
         	synchronized(mContents) {
 	        	if (!mReadStarted) {
-	                preMerge();
+	        	    if (mSpillFiles != null) {
+	        	        mMerger.finish(mSpillFiles);
+	        	    }
 	                Collections.sort((ArrayList<Tuple>)mContents, mComp);
 	                mReadStarted = true;
 	            }            
@@ -308,9 +322,8 @@ public class InternalSortedBag extends SortedSpillBag{
             DataInputStream in = mStreams.get(fileNum);
             if (in != null) {
                 // There's still data in this file
-                c.tuple = gTupleFactory.newTuple();
                 try {
-                    c.tuple.readFields(in);
+                    c.tuple = SortedSpillMerger.read(in);
                     mMergeQ.add(c);
                 } catch (EOFException eof) {
                     // Out of tuples in this file.  Set our slot in the
@@ -342,100 +355,6 @@ public class InternalSortedBag extends SortedSpillBag{
                 return null;
             }
         }
-
-        /**
-         * Pre-merge if there are too many spill files.  This avoids the issue
-         * of having too large a fan out in our merge.  Experimentation by
-         * the hadoop team has shown that 100 is about the optimal number
-         * of spill files.  This function modifies the mSpillFiles array
-         * and assumes the write lock is already held. It will not unlock it.
-         *
-         * Tuples are reconstituted as tuples, evaluated, and rewritten as
-         * tuples.  This is expensive, but I need to do this in order to
-         * use the sort spec that was provided to me.
-         */
-        private void preMerge() {
-            if (mSpillFiles == null ||
-                    mSpillFiles.size() <= MAX_SPILL_FILES) {
-                return;
-            }
-
-            // While there are more than max spill files, gather max spill
-            // files together and merge them into one file.  Then remove the others
-            // from mSpillFiles.  The new spill files are attached at the
-            // end of the list, so I can just keep going until I get a
-            // small enough number without too much concern over uneven
-            // size merges.  Convert mSpillFiles to a linked list since
-            // we'll be removing pieces from the middle and we want to do
-            // it efficiently.
-            try {
-                LinkedList<File> ll = new LinkedList<File>(mSpillFiles);
-                LinkedList<File> filesToDelete = new LinkedList<File>();
-                while (ll.size() > MAX_SPILL_FILES) {
-                    ListIterator<File> i = ll.listIterator();
-                    mStreams =
-                        new ArrayList<DataInputStream>(MAX_SPILL_FILES);
-                    mMergeQ = new PriorityQueue<PQContainer>(MAX_SPILL_FILES);
-
-                    for (int j = 0; j < MAX_SPILL_FILES; j++) {
-                        try {
-                            File f = i.next();
-                            DataInputStream in =
-                                new DataInputStream(new BufferedInputStream(
-                                    new FileInputStream(f)));
-                            mStreams.add(in);
-                            addToQueue(null, mStreams.size() - 1);
-                            i.remove();
-                            filesToDelete.add(f);
-                            
-                        } catch (FileNotFoundException fnfe) {
-                            // We can't find our own spill file?  That should
-                            // neer happen.
-                            String msg = "Unable to find our spill file.";
-                            log.fatal(msg, fnfe);
-                            throw new RuntimeException(msg, fnfe);
-                        }
-                    }
-
-                    // Get a new spill file.  This adds one to the end of
-                    // the spill files list.  So I need to append it to my
-                    // linked list as well so that it's still there when I
-                    // move my linked list back to the spill files.
-                    try {
-                        DataOutputStream out = getSpillFile();
-                        ll.add(mSpillFiles.get(mSpillFiles.size() - 1));
-                        Tuple t;
-                        while ((t = readFromPriorityQ()) != null) {
-                            t.write(out);
-                        }
-                        out.flush();
-                        out.close();
-                    } catch (IOException ioe) {
-                        String msg = "Unable to find our spill file.";
-                        log.fatal(msg, ioe);
-                        throw new RuntimeException(msg, ioe);
-                    }
-                }
-                // delete files that have been merged into new files
-                for(File f : filesToDelete){
-                    if( f.delete() == false){
-                        log.warn("Failed to delete spill file: " + f.getPath());
-                    }
-                }
-                
-                // clear the list, so that finalize does not delete any files,
-                // when mSpillFiles is assigned a new value
-                mSpillFiles.clear();
-
-                // Now, move our new list back to the spill files array.
-                mSpillFiles = new FileList(ll);
-            } finally {
-                // Reset mStreams and mMerge so that they'll be allocated
-                // properly for regular merging.
-                mStreams = null;
-                mMergeQ = null;
-            }
-        }
     }
 
     @Override
@@ -449,8 +368,17 @@ public class InternalSortedBag extends SortedSpillBag{
 	    	if (this.mReadStarted) {
 	    		return 0L;
 	    	}
-	    	return super.proactive_spill(comp);
+	    	long spilled = super.proactive_spill(comp);
+	    	if (spilled > 0) {
+	    		mMerger.spilled(mSpillFiles);
+	    	}
+	    	return spilled;
 		}
 	}
 
+	@Override
+	protected void writeSpilledTuple(DataOutputStream out, Tuple t) throws IOException {
+		mMerger.write(out, t);
+	}
+
 }
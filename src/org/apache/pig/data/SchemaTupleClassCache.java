@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.pig.PigConfiguration;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+/**
+ * A cache on the local disk of the compiled SchemaTuple classes, shared by the scripts run on
+ * the same machine. A class is found by the digest of its generated code, which holds its
+ * name, its schema, its appendability and its contexts, and of the build of Pig and the Java
+ * version it was compiled with: a script generating the same code as an earlier one does not
+ * compile it again. The serialized schema in the code is left out of the digest, as it holds the
+ * canonical names of the fields, which change from a script to the next.
+ * <p>
+ * Each class is kept in a directory named after its digest, with its inner classes. The
+ * directories are written under a temporary name then renamed, so that the scripts sharing the
+ * cache never see a partial entry.
+ * <p>
+ * The classes of the cache are loaded by the scripts and shipped with their jobs, so the cache
+ * directory must be owned by the user and only accessible to them: a directory Pig creates is
+ * made so, and any other one is refused.
+ */
+class SchemaTupleClassCache {
+    private static final Log LOG = LogFactory.getLog(SchemaTupleClassCache.class);
+
+    private static final String FINGERPRINT = getFingerprint();
+
+    private static final FsPermission PRIVATE = new FsPermission((short)0700);
+
+    private static final Pattern SERIALIZED_SCHEMA =
+        Pattern.compile("staticSchemaGen\\(\"[^\"]*\"\\)");
+
+    private final File dir;
+
+    private SchemaTupleClassCache(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * @return the cache configured by {@link PigConfiguration#SCHEMA_TUPLE_CACHE} and
+     * {@link PigConfiguration#SCHEMA_TUPLE_CACHE_DIR}, null if it is turned off, cannot be
+     * used or is not private to the user
+     */
+    static SchemaTupleClassCache get(Configuration conf) {
+        if (!conf.getBoolean(PigConfiguration.SCHEMA_TUPLE_CACHE, true)) {
+            return null;
+        }
+        String path = conf.get(PigConfiguration.SCHEMA_TUPLE_CACHE_DIR);
+        if (path == null) {
+            path = new File(System.getProperty("java.io.tmpdir"),
+                    "pig-schematuple-" + System.getProperty("user.name")).getAbsolutePath();
+        }
+        File dir = new File(path);
+        boolean created = false;
+        if (!dir.isDirectory()) {
+            created = dir.mkdirs();
+            if (!created && !dir.isDirectory()) {
+                LOG.warn("Unable to create the SchemaTuple class cache " + path
+                        + ", the classes will not be cached");
+                return null;
+            }
+        }
+        if (!isPrivate(dir, created)) {
+            LOG.warn("The SchemaTuple class cache " + path + " is not owned by "
+                    + System.getProperty("user.name") + " with permissions " + PRIVATE
+                    + ", the classes will not be cached");
+            return null;
+        }
+        return new SchemaTupleClassCache(dir);
+    }
+
+    /**
+     * @param created whether the directory was just created, it is then restricted to the user
+     * @return whether the directory is owned by the user and only accessible to them
+     */
+    private static boolean isPrivate(File dir, boolean created) {
+        try {
+            // the configuration of the script is not loaded with the defaults, which name the
+            // implementation of the local file system
+            FileSystem fs = FileSystem.getLocal(new Configuration()).getRaw();
+            Path p = new Path(dir.getAbsolutePath());
+            if (created) {
+                fs.setPermission(p, PRIVATE);
+            }
+            FileStatus status = fs.getFileStatus(p);
+            return System.getProperty("user.name").equals(status.getOwner())
+                && PRIVATE.equals(status.getPermission());
+        } catch (IOException e) {
+            LOG.warn("Unable to check the permissions of " + dir, e);
+            return false;
+        }
+    }
+
+    /**
+     * Copies the files of a class from the cache.
+     * @return false if the class is not in the cache
+     */
+    boolean copyTo(String className, String code, File codeDir) {
+        File entry = new File(dir, getKey(code));
+        File[] files = entry.listFiles();
+        if (files == null || files.length == 0) {
+            return false;
+        }
+        try {
+            for (File f : files) {
+                Files.copy(f, new File(codeDir, f.getName()));
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to read class " + className + " from the cache " + entry, e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adds to the cache a class just compiled.
+     */
+    void put(String className, String code, File codeDir) {
+        File entry = new File(dir, getKey(code));
+        if (entry.exists()) {
+            return;
+        }
+        File temp = new File(dir, entry.getName() + "." + System.nanoTime() + ".tmp");
+        try {
+            if (!temp.mkdir()) {
+                throw new IOException("Unable to create " + temp);
+            }
+            for (File f : getClassFiles(className, codeDir)) {
+                Files.copy(f, new File(temp, f.getName()));
+            }
+            // another script may have added it meanwhile, which is fine
+            if (!temp.renameTo(entry) && !entry.exists()) {
+                throw new IOException("Unable to rename " + temp + " to " + entry);
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to add class " + className + " to the cache " + dir, e);
+        } finally {
+            delete(temp);
+        }
+    }
+
+    /**
+     * @return the files javac writes for a class: its own and those of its inner classes
+     */
+    private static List<File> getClassFiles(String className, File codeDir) {
+        List<File> files = Lists.newArrayList();
+        for (File f : codeDir.listFiles()) {
+            String name = f.getName();
+            if (name.equals(className + ".class") || name.startsWith(className + "$")) {
+                files.add(f);
+            }
+        }
+        return files;
+    }
+
+    private static String getKey(String code) {
+        // the schema is also in the code as text, without the canonical names of its fields
+        String stable = SERIALIZED_SCHEMA.matcher(code).replaceFirst("");
+        return DigestUtils.sha256Hex(FINGERPRINT + "\n" + stable);
+    }
+
+    private static void delete(File f) {
+        File[] files = f.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                child.delete();
+            }
+        }
+        f.delete();
+    }
+
+    /**
+     * The generated classes extend the classes of Pig, a class compiled against another build
+     * of Pig is not reused.
+     */
+    private static String getFingerprint() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(System.getProperty("java.specification.version"));
+        URL base = SchemaTuple.class.getResource("SchemaTuple.class");
+        if (base != null) {
+            sb.append(' ').append(base);
+            try {
+                sb.append(' ').append(base.openConnection().getLastModified());
+            } catch (IOException e) {
+                LOG.debug("Unable to get the date of " + base, e);
+            }
+        }
+        return sb.toString();
+    }
+}
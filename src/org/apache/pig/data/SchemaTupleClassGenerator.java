@@ -32,6 +32,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.pig.PigConfiguration;
 import org.apache.pig.classification.InterfaceAudience;
 import org.apache.pig.classification.InterfaceStability;
+import org.apache.pig.data.utils.StructuresHelper.Pair;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 import org.apache.pig.impl.util.JavaCompilerHelper;
 import org.apache.pig.impl.util.ObjectSerializer;
@@ -181,9 +182,9 @@ public class SchemaTupleClassGenerator {
 
         String name = "SchemaTuple_" + id;
 
-        LOG.info("Compiling class " + name + " for Schema: " + s + ", and appendability: " + appendable);
+        LOG.info("Generating class " + name + " for Schema: " + s + ", and appendability: " + appendable);
 
-        compileCodeString(name, codeString, codeDir);
+        pendingClasses.add(Pair.make(name, codeString));
     }
 
     private static int generateSchemaTuple(Schema s, boolean appendable, File codeDir, GenContext... contexts) {
@@ -216,22 +217,62 @@ public class SchemaTupleClassGenerator {
     }
 
     /**
-     * This method takes generated code, and compiles it down to a class file. It will output
-     * the generated class file to the static temporary directory for generated code. Note
+     * The classes generated and not compiled yet, by name, with their code.
+     */
+    private static List<Pair<String, String>> pendingClasses = Lists.newArrayList();
+
+    /**
+     * This method compiles the classes generated since it was last called to the given
+     * directory. The classes found in the cache are copied from it, and the others are
+     * compiled in a single run of the compiler, then added to it.
+     *
+     * @param codeDir the directory the classes were generated for
+     * @param cache the cache of compiled classes, null for none
+     */
+    protected static void compileGenerated(File codeDir, SchemaTupleClassCache cache) {
+        List<Pair<String, String>> toCompile = Lists.newArrayList();
+        for (Pair<String, String> pending : pendingClasses) {
+            if (cache != null && cache.copyTo(pending.getFirst(), pending.getSecond(), codeDir)) {
+                LOG.info("Found class " + pending.getFirst() + " in the SchemaTuple class cache");
+            } else {
+                toCompile.add(pending);
+            }
+        }
+        pendingClasses.clear();
+        if (toCompile.isEmpty()) {
+            return;
+        }
+        compileCodeStrings(toCompile, codeDir);
+        if (cache != null) {
+            for (Pair<String, String> compiled : toCompile) {
+                cache.put(compiled.getFirst(), compiled.getSecond(), codeDir);
+            }
+        }
+    }
+
+    /**
+     * This method takes generated code, and compiles it down to class files. It will output
+     * the generated class files to the static temporary directory for generated code. Note
      * that the compiler will use the classpath that Pig is instantiated with, as well as the
      * generated directory.
      *
-     * @param String of generated code
-     * @param name of class
+     * @param classes names of the classes, with their generated code
+     * @param codeDir the directory the classes are compiled to
      */
     //TODO in the future, we can use ASM to generate the bytecode directly.
-    private static void compileCodeString(String className, String generatedCodeString, File codeDir) {
-        JavaCompilerHelper compiler = new JavaCompilerHelper(); 
+    private static void compileCodeStrings(List<Pair<String, String>> classes, File codeDir) {
+        JavaCompilerHelper compiler = new JavaCompilerHelper();
         String tempDir = codeDir.getAbsolutePath();
         compiler.addToClassPath(tempDir);
         LOG.debug("Compiling SchemaTuple code with classpath: " + compiler.getClassPath());
-        compiler.compile(tempDir, new JavaCompilerHelper.JavaSourceFromString(className, generatedCodeString));
-        LOG.info("Successfully compiled class: " + className);
+        JavaCompilerHelper.JavaSourceFromString[] sources =
+            new JavaCompilerHelper.JavaSourceFromString[classes.size()];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = new JavaCompilerHelper.JavaSourceFromString(
+                    classes.get(i).getFirst(), classes.get(i).getSecond());
+        }
+        compiler.compile(tempDir, sources);
+        LOG.info("Successfully compiled " + classes.size() + " classes");
     }
 
     static class CompareToSpecificString extends TypeInFunctionStringOut {
@@ -330,6 +371,9 @@ public class SchemaTupleClassGenerator {
             } catch (IOException e) {
                 throw new RuntimeException("Unable to serialize schema: " + schema, e);
             }
+            // the serialized schema holds canonical names, which differ from a script to the
+            // next: the cache of the classes goes by this form of it
+            add("// " + schema);
             add("private static Schema schema = staticSchemaGen(\"" + s + "\");");
         }
 
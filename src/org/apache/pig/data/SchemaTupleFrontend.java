@@ -26,6 +26,7 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
@@ -44,6 +45,7 @@ import org.apache.pig.impl.PigContext;
 import org.apache.pig.impl.io.FileLocalizer;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.io.Files;
@@ -106,23 +108,20 @@ public class SchemaTupleFrontend {
          * This method copies all class files present in the local temp directory to the distributed cache.
          * All copied files will have a symlink of their name. No files will be copied if the current
          * job is being run from local mode.
-         * @param pigContext
-         * @param conf
+         * @param schemas the Schemas the classes were generated for
+         * @return the files copied, to be added to the distributed cache of the jobs
          */
-        private void internalCopyAllGeneratedToDistributedCache() {
+        private ShippedClasses internalCopyAllGeneratedToDistributedCache(
+                Map<Pair<SchemaKey, Boolean>, Pair<Integer, Set<GenContext>>> schemas) {
             LOG.info("Starting process to move generated code to distributed cacche");
+            ShippedClasses shipped = new ShippedClasses(schemas, pigContext);
+            // This let's us avoid NPE in some of the non-traditional pipelines
+            shipped.localCodeDir = codeDir.getAbsolutePath();
             if (pigContext.getExecType() == ExecType.LOCAL) {
-                String codePath = codeDir.getAbsolutePath();
                 LOG.info("Distributed cache not supported or needed in local mode. Setting key ["
-                        + LOCAL_CODE_DIR + "] with code temp directory: " + codePath);
-                    conf.set(LOCAL_CODE_DIR, codePath);
-                return;
-            } else {
-                // This let's us avoid NPE in some of the non-traditional pipelines
-                String codePath = codeDir.getAbsolutePath();
-                conf.set(LOCAL_CODE_DIR, codePath);
+                        + LOCAL_CODE_DIR + "] with code temp directory: " + shipped.localCodeDir);
+                return shipped;
             }
-            DistributedCache.createSymlink(conf); // we will read using symlinks
             StringBuilder serialized = new StringBuilder();
             boolean first = true;
             // We attempt to copy over every file in the generated code temp directory
@@ -157,16 +156,15 @@ public class SchemaTupleFrontend {
                 String destination = dst.toString() + "#" + symlink;
 
                 try {
-                    DistributedCache.addCacheFile(new URI(destination), conf);
+                    shipped.cacheFiles.add(new URI(destination));
                 } catch (URISyntaxException e) {
                     throw new RuntimeException("Unable to add file to distributed cache: " + destination, e);
                 }
-                LOG.info("File successfully added to the distributed cache: " + symlink);
+                shipped.paths.add(dst);
+                LOG.info("File successfully copied for the distributed cache: " + symlink);
             }
-            String toSer = serialized.toString();
-            LOG.info("Setting key [" + GENERATED_CLASSES_KEY + "] with classes to deserialize [" + toSer + "]");
-            // we must set a key in the job conf so individual jobs know to resolve the shipped classes
-            conf.set(GENERATED_CLASSES_KEY, toSer);
+            shipped.generatedClasses = serialized.toString();
+            return shipped;
         }
 
         /**
@@ -203,10 +201,82 @@ public class SchemaTupleFrontend {
                 SchemaTupleClassGenerator.generateSchemaTuple(s, isAppendable, id, codeDir, contextsToInclude.toArray(new GenContext[0]));
                 filesToShip = true;
             }
+            if (filesToShip) {
+                // all the classes, nested ones included, are compiled at once
+                SchemaTupleClassGenerator.compileGenerated(codeDir, SchemaTupleClassCache.get(conf));
+            }
             return filesToShip;
         }
     }
 
+    /**
+     * The generated classes of the last job, which the next jobs reuse as long as no Schema
+     * is registered in between: they are not generated nor copied to the cluster again.
+     */
+    private static class ShippedClasses {
+        private final Map<Pair<SchemaKey, Boolean>, Pair<Integer, Set<GenContext>>> schemas;
+        private final PigContext pigContext;
+        private String localCodeDir;
+        private String generatedClasses = null;
+        private List<URI> cacheFiles = Lists.newArrayList();
+        private List<Path> paths = Lists.newArrayList();
+
+        private ShippedClasses(Map<Pair<SchemaKey, Boolean>, Pair<Integer, Set<GenContext>>> schemas,
+                PigContext pigContext) {
+            this.schemas = schemas;
+            this.pigContext = pigContext;
+        }
+
+        /**
+         * @return whether the classes were generated for these Schemas, and are still in the
+         * temporary files of the script
+         */
+        private boolean isFor(Map<Pair<SchemaKey, Boolean>, Pair<Integer, Set<GenContext>>> schemas,
+                PigContext pigContext, Configuration conf) {
+            if (this.pigContext != pigContext || !this.schemas.equals(schemas)
+                    || !new File(localCodeDir).isDirectory()) {
+                return false;
+            }
+            try {
+                for (Path path : paths) {
+                    if (!path.getFileSystem(conf).exists(path)) {
+                        return false;
+                    }
+                }
+            } catch (IOException e) {
+                LOG.warn("Unable to check the generated classes shipped", e);
+                return false;
+            }
+            return true;
+        }
+
+        private void addTo(Configuration conf) {
+            conf.set(LOCAL_CODE_DIR, localCodeDir);
+            if (generatedClasses == null) {
+                return;
+            }
+            DistributedCache.createSymlink(conf); // we will read using symlinks
+            for (URI uri : cacheFiles) {
+                DistributedCache.addCacheFile(uri, conf);
+            }
+            LOG.info("Setting key [" + GENERATED_CLASSES_KEY + "] with classes to deserialize [" + generatedClasses + "]");
+            // we must set a key in the job conf so individual jobs know to resolve the shipped classes
+            conf.set(GENERATED_CLASSES_KEY, generatedClasses);
+        }
+    }
+
+    private static ShippedClasses shipped = null;
+
+    private static Map<Pair<SchemaKey, Boolean>, Pair<Integer, Set<GenContext>>> copyOfSchemasToGenerate() {
+        Map<Pair<SchemaKey, Boolean>, Pair<Integer, Set<GenContext>>> copy = Maps.newHashMap();
+        for (Map.Entry<Pair<SchemaKey, Boolean>, Pair<Integer, Set<GenContext>>> entry : schemasToGenerate.entrySet()) {
+            Pair<Integer, Set<GenContext>> value = entry.getValue();
+            copy.put(entry.getKey(), Pair.make(value.getFirst(),
+                    (Set<GenContext>)Sets.newHashSet(value.getSecond())));
+        }
+        return copy;
+    }
+
     /**
      * This allows the frontend/backend process to be repeated if on the same
      * JVM (as in testing).
@@ -214,6 +284,7 @@ public class SchemaTupleFrontend {
     public static void reset() {
         stf = null;
         schemasToGenerate.clear();
+        shipped = null;
     }
 
     /**
@@ -274,9 +345,15 @@ public class SchemaTupleFrontend {
             LOG.debug("Nothing registered to generate.");
             return;
         }
-        SchemaTupleFrontendGenHelper stfgh = new SchemaTupleFrontendGenHelper(pigContext, conf);
-        stfgh.generateAll(stf.getSchemasToGenerate());
-        stfgh.internalCopyAllGeneratedToDistributedCache();
+        Map<Pair<SchemaKey, Boolean>, Pair<Integer, Set<GenContext>>> schemas = copyOfSchemasToGenerate();
+        if (shipped != null && shipped.isFor(schemas, pigContext, conf)) {
+            LOG.info("Reusing the generated code of the previous job, no Schema was registered since");
+        } else {
+            SchemaTupleFrontendGenHelper stfgh = new SchemaTupleFrontendGenHelper(pigContext, conf);
+            stfgh.generateAll(stf.getSchemasToGenerate());
+            shipped = stfgh.internalCopyAllGeneratedToDistributedCache(schemas);
+        }
+        shipped.addTo(conf);
 
         Properties prop = pigContext.getProperties();
         String value = conf.get(GENERATED_CLASSES_KEY);
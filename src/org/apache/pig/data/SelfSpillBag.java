@@ -120,6 +120,13 @@ public abstract class SelfSpillBag extends DefaultAbstractBag {
         public long getNumObjectsSizeAdded() {
             return numObjsSizeChecked;
         }
+
+        /**
+         * @return the memory the object may use, in bytes
+         */
+        public long getMaxMemUsage() {
+            return maxMemUsage;
+        }
     }
 
 }
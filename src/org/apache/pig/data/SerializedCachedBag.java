@@ -0,0 +1,416 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.data;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.PigCounters;
+import org.apache.pig.classification.InterfaceAudience;
+import org.apache.pig.classification.InterfaceStability;
+
+/**
+ * A bag like {@link InternalCachedBag}, used instead of it when pig.cachedbag.type is
+ * serialized, which keeps its tuples serialized by {@link BinInterSedes} in direct byte
+ * buffers rather than as objects on the heap: a tuple takes the size of its bytes instead of
+ * several times more, and the garbage collector does not have to walk it.
+ * <p>
+ * The tuples are written one after the other in pages of {@link #PAGE_SIZE} bytes, taken from a
+ * pool shared by the bags of the JVM. The packages make a bag for each key and leave it to the
+ * garbage collector, so a bag starts on a page of {@link #FIRST_PAGE_SIZE} bytes on the heap,
+ * and most keys never take a page of the pool. Once the bag holds more pages than its share of
+ * pig.cachedbag.memusage, its full pages are written as they are to its spill file and go back
+ * to the pool. The tuples are only deserialized when they are iterated over, from the spill
+ * file first then from the pages, in the order they were added. As for InternalCachedBag,
+ * no tuple can be added once the bag has been iterated over, until it is cleared.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class SerializedCachedBag extends SelfSpillBag {
+    private static final long serialVersionUID = 1L;
+
+    private static final Log log = LogFactory.getLog(SerializedCachedBag.class);
+
+    static final int PAGE_SIZE = 64 * 1024;
+
+    static final int FIRST_PAGE_SIZE = 4 * 1024;
+
+    // the pages kept for the next bags, 16MB at most
+    private static final int MAX_POOLED_PAGES = 256;
+    private static final Queue<ByteBuffer> POOL = new ConcurrentLinkedQueue<ByteBuffer>();
+    private static final AtomicInteger POOLED = new AtomicInteger();
+
+    private static final InterSedes SEDES = InterSedesFactory.getInterSedesInstance();
+
+    // the pages in memory, all full but the last one which is written to
+    private transient List<ByteBuffer> pages;
+    private transient long maxPages;
+    private transient TupleBuffer tupleBuffer;
+    private transient DataOutputStream tupleOut;
+    private transient DataOutputStream spillOut;
+    private transient boolean addDone;
+
+    // tuples in the pages, used to count the tuples spilled
+    private transient long numTuplesInPages = 0;
+
+    public SerializedCachedBag() {
+        this(1, -1f);
+    }
+
+    public SerializedCachedBag(int bagCount) {
+        this(bagCount, -1f);
+    }
+
+    public SerializedCachedBag(int bagCount, float percent) {
+        super(bagCount, percent);
+        init();
+    }
+
+    private void init() {
+        // the tuples are not kept as objects, but the bag synchronizes on its contents
+        mContents = new ArrayList<Tuple>(0);
+        pages = new ArrayList<ByteBuffer>();
+        maxPages = memLimit.getMaxMemUsage() / PAGE_SIZE;
+        tupleBuffer = new TupleBuffer();
+        tupleOut = new DataOutputStream(tupleBuffer);
+        addDone = false;
+    }
+
+    @Override
+    public void add(Tuple t) {
+        if (addDone) {
+            throw new IllegalStateException("SerializedCachedBag is closed for adding new tuples");
+        }
+        synchronized (mContents) {
+            try {
+                tupleBuffer.reset();
+                SEDES.writeDatum(tupleOut, t, DataType.TUPLE);
+                tupleBuffer.writeTo(this);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            numTuplesInPages++;
+            mSize++;
+        }
+    }
+
+    /**
+     * Appends bytes to the pages, taking new pages as they fill up.
+     */
+    private void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            ByteBuffer page = pages.isEmpty() ? null : pages.get(pages.size() - 1);
+            if (page == null || !page.hasRemaining()) {
+                if (!pages.isEmpty() && pages.size() >= maxPages) {
+                    spillPages(false);
+                }
+                page = pages.isEmpty() ? ByteBuffer.allocate(FIRST_PAGE_SIZE) : takePage();
+                pages.add(page);
+            }
+            int written = Math.min(length, page.remaining());
+            page.put(bytes, offset, written);
+            offset += written;
+            length -= written;
+        }
+    }
+
+    /**
+     * Writes the pages to the spill file and gives them back to the pool. Unless all of them
+     * are spilled, the last page, if it is not full, stays in memory to be written to: the
+     * spill file and the pages hold the bytes of the tuples one after the other, a tuple may
+     * start in one and end in the other.
+     */
+    private void spillPages(boolean all) throws IOException {
+        if (spillOut == null) {
+            spillOut = getSpillFile();
+            incSpillCount(PigCounters.PROACTIVE_SPILL_COUNT_BAGS);
+            if (log.isDebugEnabled()) {
+                log.debug("Memory can hold " + pages.size() + " pages, put the rest in spill file.");
+            }
+        }
+        int full = pages.size();
+        if (!all && full > 0 && pages.get(full - 1).hasRemaining()) {
+            full--;
+        }
+        for (int i = 0; i < full; i++) {
+            ByteBuffer page = pages.get(i);
+            page.flip();
+            byte[] bytes = tupleBuffer.getCopyBuffer();
+            while (page.hasRemaining()) {
+                int length = Math.min(bytes.length, page.remaining());
+                page.get(bytes, 0, length);
+                spillOut.write(bytes, 0, length);
+            }
+            releasePage(page);
+        }
+        pages.subList(0, full).clear();
+        incSpillCount(PigCounters.PROACTIVE_SPILL_COUNT_RECS, numTuplesInPages);
+        numTuplesInPages = 0;
+    }
+
+    private static ByteBuffer takePage() {
+        ByteBuffer page = POOL.poll();
+        if (page == null) {
+            return ByteBuffer.allocateDirect(PAGE_SIZE);
+        }
+        POOLED.decrementAndGet();
+        page.clear();
+        return page;
+    }
+
+    private static void releasePage(ByteBuffer page) {
+        // the pages not pooled are freed with their buffer by the garbage collector
+        if (!page.isDirect()) {
+            return;
+        }
+        if (POOLED.incrementAndGet() <= MAX_POOLED_PAGES) {
+            POOL.offer(page);
+        } else {
+            POOLED.decrementAndGet();
+        }
+    }
+
+    private void addDone() {
+        if (spillOut != null) {
+            try {
+                spillOut.flush();
+                spillOut.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        addDone = true;
+    }
+
+    @Override
+    public void clear() {
+        synchronized (mContents) {
+            if (!addDone) {
+                addDone();
+            }
+            for (ByteBuffer page : pages) {
+                releasePage(page);
+            }
+            pages.clear();
+            numTuplesInPages = 0;
+            super.clear();
+            addDone = false;
+            spillOut = null;
+        }
+    }
+
+    /**
+     * @return the memory used by the bag, on the heap and in its direct pages
+     */
+    @Override
+    public long getMemorySize() {
+        synchronized (mContents) {
+            long size = 64 + tupleBuffer.getCapacity();
+            for (ByteBuffer page : pages) {
+                size += 64 + page.capacity();
+            }
+            return size;
+        }
+    }
+
+    @Override
+    public boolean isDistinct() {
+        return false;
+    }
+
+    @Override
+    public boolean isSorted() {
+        return false;
+    }
+
+    @Override
+    public Iterator<Tuple> iterator() {
+        synchronized (mContents) {
+            if (!addDone) {
+                // close the spill file and mark adding is done
+                // so further adding is disallowed.
+                addDone();
+            }
+            return new SerializedBagIterator();
+        }
+    }
+
+    /**
+     * Spills the pages, the bag being too big for the memory. The tuples added next are kept
+     * in memory again until the pages fill up.
+     */
+    @Override
+    public long spill() {
+        synchronized (mContents) {
+            if (addDone || pages.isEmpty()) {
+                return 0;
+            }
+            long spilled = numTuplesInPages;
+            try {
+                spillPages(true);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return spilled;
+        }
+    }
+
+    /**
+     * The serialized tuple being added, and a buffer to copy the pages to the spill file.
+     */
+    private static class TupleBuffer extends ByteArrayOutputStream {
+        private byte[] copyBuffer;
+
+        void writeTo(SerializedCachedBag bag) throws IOException {
+            bag.write(buf, 0, count);
+        }
+
+        byte[] getCopyBuffer() {
+            if (copyBuffer == null) {
+                copyBuffer = new byte[8192];
+            }
+            return copyBuffer;
+        }
+
+        int getCapacity() {
+            return buf.length + (copyBuffer == null ? 0 : copyBuffer.length);
+        }
+    }
+
+    /**
+     * Reads the pages in memory, without changing them.
+     */
+    private static class PagesInputStream extends InputStream {
+        private final Iterator<ByteBuffer> pages;
+        private ByteBuffer page;
+
+        PagesInputStream(List<ByteBuffer> pages) {
+            List<ByteBuffer> readers = new ArrayList<ByteBuffer>(pages.size());
+            for (ByteBuffer page : pages) {
+                ByteBuffer reader = page.duplicate();
+                reader.flip();
+                readers.add(reader);
+            }
+            this.pages = readers.iterator();
+        }
+
+        private boolean nextPage() {
+            while (page == null || !page.hasRemaining()) {
+                if (!pages.hasNext()) {
+                    return false;
+                }
+                page = pages.next();
+            }
+            return true;
+        }
+
+        @Override
+        public int read() {
+            return nextPage() ? page.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!nextPage()) {
+                return -1;
+            }
+            int read = Math.min(len, page.remaining());
+            page.get(b, off, read);
+            return read;
+        }
+    }
+
+    private class SerializedBagIterator implements Iterator<Tuple> {
+        private final DataInputStream in;
+        private final long size;
+        private long numTuplesRead = 0;
+
+        SerializedBagIterator() {
+            size = mSize;
+            InputStream inPages = new PagesInputStream(pages);
+            if (mSpillFiles != null && mSpillFiles.size() > 0) {
+                File file = mSpillFiles.get(0);
+                try {
+                    inPages = new SequenceInputStream(
+                            new BufferedInputStream(new FileInputStream(file)), inPages);
+                } catch (FileNotFoundException fnfe) {
+                    String msg = "Unable to find our spill file.";
+                    throw new RuntimeException(msg, fnfe);
+                }
+            }
+            in = new DataInputStream(inPages);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (numTuplesRead < size) {
+                return true;
+            }
+            try {
+                in.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            return false;
+        }
+
+        @Override
+        public Tuple next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No more elements from iterator");
+            }
+            Tuple t;
+            try {
+                t = (Tuple) SEDES.readDatum(in);
+            } catch (IOException e) {
+                String msg = "Unable to read our serialized tuples.";
+                throw new RuntimeException(msg, e);
+            }
+            numTuplesRead++;
+            // This will report progress every 16383 records.
+            if ((numTuplesRead & 0x3fff) == 0) reportProgress();
+            return t;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("remove is not supported for SerializedBagIterator");
+        }
+    }
+}
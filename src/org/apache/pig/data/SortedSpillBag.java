@@ -82,7 +82,7 @@ public abstract class SortedSpillBag extends SelfSpillBag {
 
             //dump the array
             for (Tuple t : array) {
-                t.write(out);
+                writeSpilledTuple(out, t);
                 spilled++;
                 // This will spill every 16383 records.
                 if ((spilled & 0x3fff) == 0) reportProgress();
@@ -111,5 +111,13 @@ public abstract class SortedSpillBag extends SelfSpillBag {
         
         return spilled;
     }
-    
+
+    /**
+     * Write a tuple to a spill file.  Bags reading their spill files with
+     * something else than {@link Tuple#readFields} override it.
+     */
+    protected void writeSpilledTuple(DataOutputStream out, Tuple t) throws IOException {
+        t.write(out);
+    }
+
 }
@@ -0,0 +1,428 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.pig.data.BinInterSedes.BinInterSedesTupleRawComparator;
+
+/**
+ * Merges the sorted spill files of a bag into fewer, larger files, so that
+ * the bag is never read through more files than its memory can buffer.
+ *
+ * While the bag is being filled, each time it has spilled a fan-in of
+ * files the oldest of them are merged on a background thread, the bag
+ * going on adding and spilling meanwhile.  When the bag is read, the merge
+ * running is waited for, and the files left over a fan-in, of at most
+ * {@link #MAX_READ_FAN_IN}, are merged on the reading thread.  The fan-in is sized from the free memory, each
+ * file merged taking a read buffer of {@link #BUFFER_SIZE} bytes.  When
+ * the bag is cleared, the merge running is abandoned and its output
+ * deleted.
+ *
+ * The tuples of the spill files are written after their length, so that
+ * the merges copy them without deserializing them.  In the natural order
+ * of the tuples, the merges compare them as raw bytes with the
+ * comparator of the MR shuffle,
+ * {@link BinInterSedesTupleRawComparator}; tuples of other encodings and
+ * other orders are deserialized to be compared.
+ */
+class SortedSpillMerger {
+
+    private static final Log log = LogFactory.getLog(SortedSpillMerger.class);
+
+    private static final InterSedes SEDES = InterSedesFactory.getInterSedesInstance();
+
+    static final int MIN_FAN_IN = 10;
+    static final int MAX_FAN_IN = 1000;
+    // files the bag is read through at once, each a stream open for the whole read
+    static final int MAX_READ_FAN_IN = 100;
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    // share of the free memory the read buffers of a merge may take
+    private static final double MEMORY_FRACTION = 0.1;
+
+    private static final ExecutorService MERGERS =
+        Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "SortedSpillMerger-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+    private final Comparator<Tuple> mComp;
+    private final ByteArrayOutputStream mBuffer = new ByteArrayOutputStream();
+    private final DataOutputStream mBufferOut = new DataOutputStream(mBuffer);
+    private PendingMerge mPending = null;
+
+    /**
+     * @param comp the order of the spill files, null for the natural order
+     * of the tuples
+     */
+    SortedSpillMerger(Comparator<Tuple> comp) {
+        mComp = comp;
+    }
+
+    /**
+     * @return the number of files a merge reads at once, from the free memory
+     */
+    static int getFanIn() {
+        Runtime rt = Runtime.getRuntime();
+        long free = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+        long fanIn = (long)(free * MEMORY_FRACTION) / BUFFER_SIZE;
+        return (int)Math.max(MIN_FAN_IN, Math.min(MAX_FAN_IN, fanIn));
+    }
+
+    /**
+     * Write a tuple to a spill file.  Not thread safe, it is called by the
+     * bag while it spills.
+     */
+    void write(DataOutputStream out, Tuple t) throws IOException {
+        mBuffer.reset();
+        SEDES.writeDatum(mBufferOut, t, DataType.TUPLE);
+        out.writeInt(mBuffer.size());
+        mBuffer.writeTo(out);
+    }
+
+    /**
+     * Read the next tuple of a spill file.
+     * @throws EOFException at the end of the file
+     */
+    static Tuple read(DataInputStream in) throws IOException {
+        in.readInt();
+        return (Tuple)SEDES.readDatum(in);
+    }
+
+    /**
+     * Called by the bag, under its lock, once it has spilled.  Replaces the
+     * files of the last merge by their merge if it is done, and starts
+     * merging the oldest files if there is a fan-in of them.
+     * @param spillFiles spill files of the bag
+     */
+    void spilled(List<File> spillFiles) {
+        if (mPending != null) {
+            if (!mPending.future.isDone()) {
+                return;
+            }
+            collect(spillFiles);
+        }
+        int fanIn = getFanIn();
+        if (spillFiles.size() >= fanIn) {
+            mPending = new PendingMerge(new ArrayList<File>(spillFiles.subList(0, fanIn)));
+            mPending.future = MERGERS.submit(mPending);
+        }
+    }
+
+    /**
+     * Called by the bag, under its lock, when it is cleared.  The merge
+     * running is stopped, and its output deleted whether it is done or
+     * not; the files it reads are the bag's to delete.
+     */
+    void abandon() {
+        if (mPending != null) {
+            mPending.abandon();
+            mPending = null;
+        }
+    }
+
+    /**
+     * Called by the bag, under its lock, before it is read.  Waits for the
+     * merge running, then merges the oldest files until no more than a
+     * fan-in of them is left.  The first merge takes just enough files for
+     * the last one, the read of the bag, to have a full fan-in.
+     * @param spillFiles spill files of the bag
+     */
+    void finish(List<File> spillFiles) {
+        if (mPending != null) {
+            collect(spillFiles);
+        }
+        int fanIn = Math.min(getFanIn(), MAX_READ_FAN_IN);
+        while (spillFiles.size() > fanIn) {
+            int count = Math.min(fanIn, spillFiles.size() - fanIn + 1);
+            List<File> inputs = new ArrayList<File>(spillFiles.subList(0, count));
+            File merged;
+            try {
+                merged = merge(inputs, null);
+            } catch (IOException ioe) {
+                String msg = "Unable to merge spill files.";
+                log.fatal(msg, ioe);
+                throw new RuntimeException(msg, ioe);
+            }
+            spillFiles.subList(0, count).clear();
+            spillFiles.add(merged);
+            delete(inputs);
+        }
+    }
+
+    private void collect(List<File> spillFiles) {
+        try {
+            File merged = mPending.take();
+            spillFiles.removeAll(mPending.inputs);
+            spillFiles.add(merged);
+            delete(mPending.inputs);
+        } catch (ExecutionException ee) {
+            // The files are left as they are, to be merged again
+            log.warn("Unable to merge spill files.", ee.getCause());
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            String msg = "Interrupted while merging spill files.";
+            throw new RuntimeException(msg, ie);
+        } finally {
+            mPending = null;
+        }
+    }
+
+    private static void delete(List<File> files) {
+        for (File f : files) {
+            if (f.delete() == false) {
+                log.warn("Failed to delete spill file: " + f.getPath());
+            }
+        }
+    }
+
+    /**
+     * @param pending the background merge this is, null for a merge on the
+     * reading thread
+     */
+    private File merge(List<File> inputs, PendingMerge pending) throws IOException {
+        File merged = File.createTempFile("pigbag", null);
+        merged.deleteOnExit();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(merged), BUFFER_SIZE));
+        List<Run> runs = new ArrayList<Run>(inputs.size());
+        boolean done = false;
+        try {
+            // The raw comparator keeps state, each merge has its own
+            BinInterSedesTupleRawComparator raw = null;
+            if (mComp == null) {
+                raw = new BinInterSedesTupleRawComparator();
+                // ascending order of the whole tuple
+                raw.setConf(new JobConf(false));
+            }
+            PriorityQueue<Run> queue = new PriorityQueue<Run>(inputs.size());
+            for (File f : inputs) {
+                Run run = new Run(f, raw);
+                runs.add(run);
+                if (run.next()) {
+                    queue.add(run);
+                }
+            }
+            long records = 0;
+            Run run;
+            while ((run = queue.poll()) != null) {
+                run.writeTo(out);
+                if (run.next()) {
+                    queue.add(run);
+                }
+                if ((++records & 0x3fff) == 0) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new IOException("Interrupted while merging spill files");
+                    }
+                    if (pending != null && pending.isAbandoned()) {
+                        throw new IOException("Merge of spill files abandoned");
+                    }
+                }
+            }
+            out.flush();
+            done = true;
+        } finally {
+            for (Run run : runs) {
+                run.close();
+            }
+            out.close();
+            if (!done) {
+                merged.delete();
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * A merge on a background thread.  Its output is kept in a
+     * {@link FileList} until the bag takes it, so that it is deleted if the
+     * bag is garbage collected first.  Whichever of the merge and
+     * {@link #abandon()} comes last deletes the output of an abandoned merge.
+     */
+    private class PendingMerge implements Callable<File> {
+        private final List<File> inputs;
+        private final FileList output = new FileList(1);
+        private Future<File> future;
+        private boolean abandoned = false;
+
+        PendingMerge(List<File> inputs) {
+            this.inputs = inputs;
+        }
+
+        @Override
+        public File call() throws IOException {
+            File merged = merge(inputs, this);
+            synchronized (this) {
+                if (abandoned) {
+                    delete(Collections.singletonList(merged));
+                } else {
+                    output.add(merged);
+                }
+            }
+            return merged;
+        }
+
+        synchronized boolean isAbandoned() {
+            return abandoned;
+        }
+
+        /**
+         * Waits for the merge.
+         * @return its output, which the bag owns from now on
+         */
+        File take() throws InterruptedException, ExecutionException {
+            File merged = future.get();
+            synchronized (this) {
+                output.clear();
+            }
+            return merged;
+        }
+
+        synchronized void abandon() {
+            abandoned = true;
+            delete(output);
+            output.clear();
+        }
+    }
+
+    private static boolean isRawComparable(byte type) {
+        switch (type) {
+        case BinInterSedes.TUPLE:
+        case BinInterSedes.SMALLTUPLE:
+        case BinInterSedes.TINYTUPLE:
+        case BinInterSedes.TUPLE_0:
+        case BinInterSedes.TUPLE_1:
+        case BinInterSedes.TUPLE_2:
+        case BinInterSedes.TUPLE_3:
+        case BinInterSedes.TUPLE_4:
+        case BinInterSedes.TUPLE_5:
+        case BinInterSedes.TUPLE_6:
+        case BinInterSedes.TUPLE_7:
+        case BinInterSedes.TUPLE_8:
+        case BinInterSedes.TUPLE_9:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * A spill file being merged, positioned on its current tuple, which is
+     * only deserialized if it cannot be compared raw.
+     */
+    private class Run implements Comparable<Run> {
+        private final DataInputStream in;
+        private final BinInterSedesTupleRawComparator raw;
+        private byte[] record = new byte[1024];
+        private int length;
+        private boolean rawComparable;
+        private Tuple tuple;
+
+        Run(File f, BinInterSedesTupleRawComparator raw) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(f), BUFFER_SIZE));
+            this.raw = raw;
+        }
+
+        boolean next() throws IOException {
+            try {
+                length = in.readInt();
+            } catch (EOFException eof) {
+                return false;
+            }
+            if (length > record.length) {
+                record = new byte[Math.max(length, record.length * 2)];
+            }
+            in.readFully(record, 0, length);
+            rawComparable = raw != null && isRawComparable(record[0]);
+            tuple = null;
+            return true;
+        }
+
+        Tuple getTuple() {
+            if (tuple == null) {
+                try {
+                    tuple = (Tuple)SEDES.readDatum(new DataInputStream(
+                        new ByteArrayInputStream(record, 0, length)));
+                } catch (IOException ioe) {
+                    String msg = "Unable to read spill file.";
+                    log.fatal(msg, ioe);
+                    throw new RuntimeException(msg, ioe);
+                }
+            }
+            return tuple;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public int compareTo(Run other) {
+            if (rawComparable && other.rawComparable) {
+                return raw.compare(record, 0, length, other.record, 0, other.length);
+            }
+            if (mComp == null) {
+                return getTuple().compareTo(other.getTuple());
+            }
+            return mComp.compare(getTuple(), other.getTuple());
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(length);
+            out.write(record, 0, length);
+        }
+
+        void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                log.warn("Failed to close spill file.", e);
+            }
+        }
+    }
+}
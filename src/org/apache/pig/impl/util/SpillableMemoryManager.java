@@ -22,12 +22,14 @@ import java.lang.management.MemoryNotificationInfo;
 import java.lang.management.MemoryPoolMXBean;
 import java.lang.management.MemoryType;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.management.Notification;
 import javax.management.NotificationEmitter;
@@ -36,6 +38,9 @@ import javax.management.openmbean.CompositeData;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.pig.PigConfiguration;
+import org.apache.pig.PigCounters;
+import org.apache.pig.tools.pigstats.PigStatusReporter;
 
 /**
  * This class Tracks the tenured pool and a list of Spillable objects. When memory gets low, this
@@ -44,7 +49,18 @@ import org.apache.commons.logging.LogFactory;
  * Low memory is defined as more than 50% of the tenured pool being allocated. Spillable objects are
  * tracked using WeakReferences so that the objects can be GCed even though this class has a reference
  * to them. 
- *
+ * <p>
+ * The notifications only come once the heap is nearly full, and each one sorts all the
+ * spillables by their size. The spillables that can tell how much memory they use, such as the
+ * bags, also open an {@link Account} with {@link #track(Spillable)} and update it as they grow.
+ * When the memory of all the accounts goes over the budget, a fraction of the heap set by
+ * {@link PigConfiguration#PROP_SPILL_MEMUSAGE}, the biggest ones are spilled right away by the
+ * thread adding to them, without waiting for the GC, until the accounts are back to
+ * {@link #LOW_WATER_MARK} of the budget: the spills are few and big rather than many small ones
+ * under memory pressure.
+ * <p>
+ * The spills are counted, with the memory they freed and the time they took, in the
+ * {@link PigCounters} of the task.
  */
 public class SpillableMemoryManager implements NotificationListener {
     
@@ -85,6 +101,40 @@ public class SpillableMemoryManager implements NotificationListener {
     
     private static volatile SpillableMemoryManager manager;
 
+    // fraction of the heap the accounted spillables may use before they are spilled
+    private static double accountedMemoryFraction = 0.3;
+
+    // the accounted spillables are spilled down to this fraction of the budget
+    static final double LOW_WATER_MARK = 0.7;
+
+    private final long maxHeap = Runtime.getRuntime().maxMemory();
+
+    private final LinkedList<Account> accounts = new LinkedList<Account>();
+    // guarded by accounts
+    private long memoryBudget;
+    private long accountedSize = 0L;
+    // the accounts are only checked again once they have grown past this
+    private long nextCheckSize;
+    private boolean spilling = false;
+
+    private static final AtomicLong spillCount = new AtomicLong();
+    private static final AtomicLong spilledSize = new AtomicLong();
+    private static final AtomicLong spillPauseMillis = new AtomicLong();
+
+    /**
+     * The memory used by a spillable, as it last told it.
+     */
+    public static final class Account {
+        private final WeakReference<Spillable> spillable;
+        private long size = 0L;
+        // false once dropped by a reconfiguration of the budget
+        private boolean tracked = true;
+
+        private Account(Spillable spillable) {
+            this.spillable = new WeakReference<Spillable>(spillable);
+        }
+    }
+
     private SpillableMemoryManager() {
         ((NotificationEmitter)ManagementFactory.getMemoryMXBean()).addNotificationListener(this, null, null);
         List<MemoryPoolMXBean> mpbeans = ManagementFactory.getMemoryPoolMXBeans();
@@ -128,6 +178,22 @@ public class SpillableMemoryManager implements NotificationListener {
         // since this is more likely to be effective sooner and we do not
         // want to be spilling too soon
         biggestHeap.setUsageThreshold((long)(biggestSize * memoryThresholdFraction));
+
+        setMemoryBudget();
+    }
+
+    private void setMemoryBudget() {
+        synchronized (accounts) {
+            memoryBudget = (long) (maxHeap * accountedMemoryFraction);
+            nextCheckSize = memoryBudget;
+            // a new budget starts with no accounts, the spillables tracked until now are
+            // still spilled on the notifications of the heap
+            for (Account account : accounts) {
+                account.tracked = false;
+            }
+            accounts.clear();
+            accountedSize = 0L;
+        }
     }
     
     public static SpillableMemoryManager getInstance() {
@@ -151,6 +217,19 @@ public class SpillableMemoryManager implements NotificationListener {
             throw new RuntimeException("Error while converting system configurations" +
             		"spill.size.threshold, spill.gc.activation.size", nfe) ;
         }
+
+        String memUsage = properties.getProperty(PigConfiguration.PROP_SPILL_MEMUSAGE);
+        if (memUsage != null) {
+            try {
+                accountedMemoryFraction = Double.parseDouble(memUsage);
+            } catch (NumberFormatException nfe) {
+                throw new RuntimeException("Error while converting system configuration "
+                        + PigConfiguration.PROP_SPILL_MEMUSAGE, nfe);
+            }
+        }
+        if (manager != null) {
+            manager.setMemoryBudget();
+        }
     }
     
     @Override
@@ -229,6 +308,7 @@ public class SpillableMemoryManager implements NotificationListener {
                     return -1;
                 }
             });
+            long start = System.currentTimeMillis();
             long estimatedFreed = 0;
             int numObjSpilled = 0;
             boolean invokeGC = false;
@@ -298,6 +378,7 @@ public class SpillableMemoryManager implements NotificationListener {
                 " bytes from " + numObjSpilled + " objects. " + info.getUsage();;
                 log.info(msg);
             }
+            recordSpills(numObjSpilled, estimatedFreed, System.currentTimeMillis() - start);
 
         }
     }
@@ -315,6 +396,200 @@ public class SpillableMemoryManager implements NotificationListener {
             }
         }
     }
+    /**
+     * Registers a spillable to be tracked, like {@link #registerSpillable(Spillable)}, and opens
+     * the account it tells its memory to with {@link #account(Account, long)}.
+     * @param s the spillable to track.
+     * @return the account of the spillable, null when there is no budget to account for,
+     * see {@link PigConfiguration#PROP_SPILL_MEMUSAGE}
+     */
+    public Account track(Spillable s) {
+        registerSpillable(s);
+        synchronized (accounts) {
+            if (memoryBudget <= 0) {
+                return null;
+            }
+            // like registerSpillable, just trim off the dead accounts at the front
+            Account first = accounts.peek();
+            while (first != null && first.spillable.get() == null) {
+                accountedSize -= first.size;
+                accounts.remove();
+                first = accounts.peek();
+            }
+            Account account = new Account(s);
+            accounts.add(account);
+            return account;
+        }
+    }
+
+    /**
+     * Sets the memory used by the spillable of an account, spilling the biggest spillables
+     * when all the accounts use more than the budget.
+     * @param account the account of the spillable
+     * @param size the memory the spillable uses now
+     */
+    public void account(Account account, long size) {
+        synchronized (accounts) {
+            if (!account.tracked) {
+                return;
+            }
+            accountedSize += size - account.size;
+            account.size = size;
+            if (accountedSize <= memoryBudget) {
+                nextCheckSize = memoryBudget;
+                return;
+            }
+            if (accountedSize <= nextCheckSize || spilling || memoryBudget <= 0) {
+                return;
+            }
+            // a single thread spills, the others go on adding
+            spilling = true;
+        }
+        try {
+            spillAccounts();
+        } finally {
+            synchronized (accounts) {
+                spilling = false;
+            }
+        }
+    }
+
+    private void spillAccounts() {
+        long start = System.currentTimeMillis();
+        List<Account> tracked;
+        synchronized (accounts) {
+            for (Iterator<Account> i = accounts.iterator(); i.hasNext();) {
+                Account account = i.next();
+                if (account.spillable.get() == null) {
+                    accountedSize -= account.size;
+                    i.remove();
+                }
+            }
+            tracked = new ArrayList<Account>(accounts);
+        }
+        // the accounts of the spillables spilled on a notification or emptied since they last
+        // told are out of date. The spillables are asked without holding the accounts, as they
+        // may be adding to themselves and accounting for it.
+        long[] sizes = new long[tracked.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            Spillable s = tracked.get(i).spillable.get();
+            sizes[i] = s == null ? 0 : s.getMemorySize();
+        }
+        List<Account> candidates = new ArrayList<Account>();
+        long target;
+        synchronized (accounts) {
+            for (int i = 0; i < sizes.length; i++) {
+                Account account = tracked.get(i);
+                if (!account.tracked) {
+                    continue;
+                }
+                accountedSize += sizes[i] - account.size;
+                account.size = sizes[i];
+                if (account.size >= spillFileSizeThreshold) {
+                    candidates.add(account);
+                }
+            }
+            if (accountedSize <= memoryBudget) {
+                nextCheckSize = memoryBudget;
+                return;
+            }
+            target = accountedSize - (long) (memoryBudget * LOW_WATER_MARK);
+            Collections.sort(candidates, new Comparator<Account>() {
+                @Override
+                public int compare(Account o1, Account o2) {
+                    return o1.size == o2.size ? 0 : (o1.size < o2.size ? 1 : -1);
+                }
+            });
+        }
+
+        long freed = 0;
+        int numObjSpilled = 0;
+        for (Account account : candidates) {
+            if (freed >= target) {
+                break;
+            }
+            Spillable s = account.spillable.get();
+            if (s == null) {
+                continue;
+            }
+            long before = s.getMemorySize();
+            s.spill();
+            long after = s.getMemorySize();
+            numObjSpilled++;
+            freed += before - after;
+            synchronized (accounts) {
+                if (account.tracked) {
+                    accountedSize += after - account.size;
+                    account.size = after;
+                }
+            }
+        }
+        synchronized (accounts) {
+            // what is left is too small to be spilled, wait for a tenth of the budget more
+            nextCheckSize = Math.max(memoryBudget, accountedSize + memoryBudget / 10);
+        }
+        long pause = System.currentTimeMillis() - start;
+        if (numObjSpilled > 0) {
+            log.info("Spilled " + freed + " bytes from " + numObjSpilled
+                    + " objects over the budget of " + memoryBudget + " bytes in " + pause + " ms");
+        }
+        recordSpills(numObjSpilled, freed, pause);
+    }
+
+    private void recordSpills(int numObjSpilled, long freed, long pause) {
+        if (numObjSpilled == 0) {
+            return;
+        }
+        spillCount.addAndGet(numObjSpilled);
+        spilledSize.addAndGet(freed);
+        spillPauseMillis.addAndGet(pause);
+        PigStatusReporter reporter = PigStatusReporter.getInstance();
+        if (reporter != null && reporter.getCounter(PigCounters.SPILLABLE_MEMORY_MANAGER_SPILL_BYTES) != null) {
+            reporter.getCounter(PigCounters.SPILLABLE_MEMORY_MANAGER_SPILL_BYTES).increment(freed);
+            reporter.getCounter(PigCounters.SPILLABLE_MEMORY_MANAGER_SPILL_PAUSE_MS).increment(pause);
+        }
+    }
+
+    /**
+     * @return the number of spills asked by the manager in this JVM
+     */
+    public static long getSpillCount() {
+        return spillCount.get();
+    }
+
+    /**
+     * @return an estimate of the memory freed by the spills asked by the manager in this JVM
+     */
+    public static long getSpilledSize() {
+        return spilledSize.get();
+    }
+
+    /**
+     * @return the time spent spilling, and collecting the garbage before and after, in
+     *         milliseconds
+     */
+    public static long getSpillPauseMillis() {
+        return spillPauseMillis.get();
+    }
+
+    /**
+     * @return the memory of all the accounts, as last told by their spillables
+     */
+    public long getAccountedSize() {
+        synchronized (accounts) {
+            return accountedSize;
+        }
+    }
+
+    /**
+     * @return the memory the accounts may use before their spillables are spilled
+     */
+    public long getMemoryBudget() {
+        synchronized (accounts) {
+            return memoryBudget;
+        }
+    }
+
     /**
      * Register a spillable to be tracked. No need to unregister, the tracking will stop
      * when the spillable is GCed.
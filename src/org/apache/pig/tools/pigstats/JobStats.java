@@ -123,6 +123,8 @@ public final class JobStats extends Operator {
     private long spillCount = 0;
     private long activeSpillCountObj = 0;
     private long activeSpillCountRecs = 0;
+    private long smmSpillBytes = 0;
+    private long smmSpillPauseMillis = 0;
     
     private HashMap<String, Long> multiStoreCounters 
             = new HashMap<String, Long>();
@@ -180,6 +182,10 @@ public final class JobStats extends Operator {
     public long getProactiveSpillCountObjects() { return activeSpillCountObj; }
     
     public long getProactiveSpillCountRecs() { return activeSpillCountRecs; }
+
+    public long getSMMSpillBytes() { return smmSpillBytes; }
+
+    public long getSMMSpillPauseMillis() { return smmSpillPauseMillis; }
     
     public long getHdfsBytesWritten() { return hdfsBytesWritten; }
     
@@ -285,6 +291,14 @@ public final class JobStats extends Operator {
         }                    
     }
     
+    void addOutputStats(OutputStats output) {
+        outputs.add(output);
+    }
+
+    void addInputStats(InputStats input) {
+        inputs.add(input);
+    }
+
     void setMapStat(int size, long max, long min, long avg, long median) {
         numberMaps = size;
         maxMapTime = max;
@@ -379,6 +393,10 @@ public final class JobStats extends Operator {
                     PigCounters.PROACTIVE_SPILL_COUNT_BAGS).getCounter();
             activeSpillCountRecs = counters.findCounter(
                     PigCounters.PROACTIVE_SPILL_COUNT_RECS).getCounter();
+            smmSpillBytes = counters.findCounter(
+                    PigCounters.SPILLABLE_MEMORY_MANAGER_SPILL_BYTES).getCounter();
+            smmSpillPauseMillis = counters.findCounter(
+                    PigCounters.SPILLABLE_MEMORY_MANAGER_SPILL_PAUSE_MS).getCounter();
 
             Iterator<Counter> iter = multistoregroup.iterator();
             while (iter.hasNext()) {
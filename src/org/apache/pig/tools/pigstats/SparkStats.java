@@ -1,31 +1,196 @@
 package org.apache.pig.tools.pigstats;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobID;
+import org.apache.pig.PigRunner.ReturnCode;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
+import org.apache.pig.impl.PigContext;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
+/**
+ * Statistics of a script run in Spark mode. Each store is written by its own Spark job, which
+ * gets a {@link JobStats} holding the records read from its loads and written to its store.
+ */
 public class SparkStats extends PigStats {
-    private List<OutputStats> outputStatsList = new ArrayList<OutputStats>();
+    private static final Log LOG = LogFactory.getLog(SparkStats.class);
+
+    private static final String JOB_ID_PREFIX = "spark";
+
     private JobGraph jobGraph = new JobGraph();
+    private Map<JobStats, Long> jobDurations = new HashMap<JobStats, Long>();
+    private PigContext pigContext;
+    private int numJobsToLaunch;
+    private long startTime = -1;
+    private long endTime = -1;
+
+    private long cacheHits = 0;
+    private long cacheMisses = 0;
+    private long cacheEvictions = 0;
+    private long cachedBytes = 0;
+
+    /**
+     * Makes these stats the current ones and notifies the listeners that the launch started.
+     */
+    public void start(PigContext pigContext, int numJobsToLaunch) {
+        this.pigContext = pigContext;
+        this.numJobsToLaunch = numJobsToLaunch;
+        startTime = System.currentTimeMillis();
+        PigStats.set(this);
+        ScriptState.get().emitLaunchStartedNotification(numJobsToLaunch);
+    }
+
+    /**
+     * Adds the job writing the given store, before it is submitted.
+     */
+    @SuppressWarnings("deprecation")
+    public JobStats addJobStats(POStore poStore) {
+        JobStats js = new JobStats(poStore.getOperatorKey().toString(), jobGraph);
+        js.setId(new JobID(JOB_ID_PREFIX, jobGraph.size() + 1));
+        js.annotate(JobStats.ALIAS, poStore.getAlias());
+        js.annotate(JobStats.FEATURE, "");
+        jobGraph.add(js);
+        ScriptState.get().emitJobsSubmittedNotification(1);
+        ScriptState.get().emitJobStartedNotification(js.getJobId());
+        return js;
+    }
+
+    public void addInputStats(JobStats js, String location, long bytes, long records,
+            Configuration conf) {
+        if (PigStatsUtil.isTempFile(location)) {
+            return;
+        }
+        InputStats is = new InputStats(location, bytes, records, true);
+        is.setConf(conf);
+        js.addInputStats(is);
+    }
+
+    public void addOutputStats(JobStats js, POStore poStore, long records, Configuration conf) {
+        long bytes = JobStats.getOutputSize(poStore, conf);
+        OutputStats os = new OutputStats(poStore.getSFile().getFileName(), bytes, records, true);
+        os.setPOStore(poStore);
+        os.setConf(conf);
+        js.addOutputStats(os);
+        ScriptState.get().emitOutputCompletedNotification(os);
+    }
+
+    public void jobFinished(JobStats js, long duration) {
+        js.setSuccessful(true);
+        jobDurations.put(js, duration);
+        ScriptState.get().emitjobFinishedNotification(js);
+        if (numJobsToLaunch > 0) {
+            ScriptState.get().emitProgressUpdatedNotification(
+                    jobDurations.size() * 100 / numJobsToLaunch);
+        }
+    }
 
-    public void addOutputInfo(POStore poStore, long totalBytes, long totalRecords, boolean success, Configuration conf) {
-        OutputStats outputStats = new OutputStats(poStore.getSFile().getFileName(), totalBytes, totalRecords, success);
-        outputStats.setPOStore(poStore);
-        outputStats.setConf(conf);
-        outputStatsList.add(outputStats);
+    public void jobFailed(JobStats js, long duration, Exception e) {
+        js.setSuccessful(false);
+        js.setErrorMsg(e.getMessage());
+        js.setBackendException(e);
+        jobDurations.put(js, duration);
+        ScriptState.get().emitJobFailedNotification(js);
+    }
+
+    /**
+     * Sets how the CACHE operators of the script used the cached relations.
+     *
+     * @param cachedBytes the size in memory of all the relations cached once the script ran
+     */
+    public void setCacheStats(long hits, long misses, long evictions, long cachedBytes) {
+        this.cacheHits = hits;
+        this.cacheMisses = misses;
+        this.cacheEvictions = evictions;
+        this.cachedBytes = cachedBytes;
+    }
+
+    public long getCacheHits() {
+        return cacheHits;
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses;
+    }
+
+    public long getCacheEvictions() {
+        return cacheEvictions;
+    }
+
+    public long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    /**
+     * Sets the return code, notifies the listeners that the launch completed and logs the stats.
+     */
+    public void stop() {
+        endTime = System.currentTimeMillis();
+        int succeeded = jobGraph.getSuccessfulJobs().size();
+        int failed = jobGraph.getFailedJobs().size();
+        if (failed == 0) {
+            returnCode = ReturnCode.SUCCESS;
+        } else if (succeeded > 0) {
+            returnCode = ReturnCode.PARTIAL_FAILURE;
+        } else {
+            returnCode = ReturnCode.FAILURE;
+        }
+        ScriptState.get().emitLaunchCompletedNotification(succeeded);
+        display();
+    }
+
+    /**
+     * @return the wall time of the job in ms, or -1 if it did not run
+     */
+    public long getJobDuration(JobStats js) {
+        Long duration = jobDurations.get(js);
+        return duration == null ? -1 : duration;
+    }
+
+    private void display() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Job Stats (time in seconds):\n");
+        sb.append("JobId\tTime\tAlias\tOutputs\n");
+        for (JobStats js : jobGraph.getJobList()) {
+            sb.append(js.getJobId()).append("\t")
+                .append(getJobDuration(js) / 1000).append("\t")
+                .append(js.getAlias()).append("\t");
+            for (OutputStats os : js.getOutputs()) {
+                sb.append(os.getLocation()).append(",");
+            }
+            sb.append(js.isSuccessful() ? "" : "\tFailed: " + js.getErrorMessage()).append("\n");
+        }
+        sb.append("\nInput(s):\n");
+        for (InputStats is : getInputStats()) {
+            sb.append(is.getDisplayString(false));
+        }
+        sb.append("\nOutput(s):\n");
+        for (OutputStats os : getOutputStats()) {
+            sb.append(os.getDisplayString(false));
+        }
+        sb.append("\nTotal records written : ").append(getRecordWritten()).append("\n");
+        sb.append("Total bytes written : ").append(getBytesWritten()).append("\n");
+        if (cacheHits + cacheMisses > 0) {
+            sb.append("\nCache hits : ").append(cacheHits).append("\n");
+            sb.append("Cache misses : ").append(cacheMisses).append("\n");
+            sb.append("Cache evictions : ").append(cacheEvictions).append("\n");
+            sb.append("Total bytes cached : ").append(cachedBytes).append("\n");
+        }
+        LOG.info("Script Statistics: \n" + sb.toString());
     }
 
     @Override
     public boolean isSuccessful() {
-        for (OutputStats output : outputStatsList) {
-            if (!output.isSuccessful()) { return false; }
-        }
-        return true;
+        return returnCode == ReturnCode.SUCCESS
+                || (returnCode == ReturnCode.UNKNOWN && jobGraph.getFailedJobs().isEmpty());
     }
 
     @Override
@@ -50,7 +215,7 @@ public class SparkStats extends PigStats {
 
     @Override
     public Properties getPigProperties() {
-        return null;
+        return pigContext == null ? null : pigContext.getProperties();
     }
 
     @Override
@@ -60,86 +225,143 @@ public class SparkStats extends PigStats {
 
     @Override
     public List<String> getOutputLocations() {
-        return null;
+        List<String> locations = new ArrayList<String>();
+        for (OutputStats output : getOutputStats()) {
+            locations.add(output.getLocation());
+        }
+        return Collections.unmodifiableList(locations);
     }
 
     @Override
     public List<String> getOutputNames() {
-        return null;
+        List<String> names = new ArrayList<String>();
+        for (OutputStats output : getOutputStats()) {
+            names.add(output.getName());
+        }
+        return Collections.unmodifiableList(names);
     }
 
     @Override
     public long getNumberBytes(String location) {
-        return 0;
+        OutputStats output = getOutput(location);
+        return output == null ? -1 : output.getBytes();
     }
 
     @Override
     public long getNumberRecords(String location) {
-        return 0;
+        OutputStats output = getOutput(location);
+        return output == null ? -1 : output.getNumberRecords();
     }
 
     @Override
     public String getOutputAlias(String location) {
+        OutputStats output = getOutput(location);
+        return output == null ? null : output.getAlias();
+    }
+
+    private OutputStats getOutput(String location) {
+        if (location == null) {
+            return null;
+        }
+        String name = new Path(location).getName();
+        for (OutputStats output : getOutputStats()) {
+            if (name.equals(output.getName())) {
+                return output;
+            }
+        }
         return null;
     }
 
     @Override
     public long getSMMSpillCount() {
-        return 0;
+        long count = 0;
+        for (JobStats js : jobGraph) {
+            count += js.getSMMSpillCount();
+        }
+        return count;
     }
 
     @Override
     public long getProactiveSpillCountObjects() {
-        return 0;
+        long count = 0;
+        for (JobStats js : jobGraph) {
+            count += js.getProactiveSpillCountObjects();
+        }
+        return count;
     }
 
     @Override
     public long getProactiveSpillCountRecords() {
-        return 0;
+        long count = 0;
+        for (JobStats js : jobGraph) {
+            count += js.getProactiveSpillCountRecs();
+        }
+        return count;
     }
 
     @Override
     public long getBytesWritten() {
-        return 0;
+        long count = 0;
+        for (JobStats js : jobGraph) {
+            count += js.getBytesWritten();
+        }
+        return count;
     }
 
     @Override
     public long getRecordWritten() {
-        return 0;
+        long count = 0;
+        for (JobStats js : jobGraph) {
+            count += js.getRecordWrittern();
+        }
+        return count;
     }
 
     @Override
     public String getScriptId() {
-        return null;
+        return ScriptState.get().getId();
     }
 
     @Override
     public String getFeatures() {
-        return null;
+        return ScriptState.get().getScriptFeatures();
     }
 
     @Override
     public long getDuration() {
-        return 0;
+        return (startTime > 0 && endTime > 0) ? (endTime - startTime) : -1;
     }
 
     @Override
     public int getNumberJobs() {
-        return 0;
+        return jobGraph.size();
     }
 
     @Override
     public List<OutputStats> getOutputStats() {
-        return outputStatsList;
+        List<OutputStats> outputs = new ArrayList<OutputStats>();
+        for (JobStats js : jobGraph) {
+            outputs.addAll(js.getOutputs());
+        }
+        return Collections.unmodifiableList(outputs);
     }
 
     @Override
     public OutputStats result(String alias) {
+        for (OutputStats output : getOutputStats()) {
+            if (alias != null && alias.equals(output.getAlias())) {
+                return output;
+            }
+        }
         return null;
     }
 
     @Override
     public List<InputStats> getInputStats() {
-        return null;
+        List<InputStats> inputs = new ArrayList<InputStats>();
+        for (JobStats js : jobGraph) {
+            inputs.addAll(js.getInputs());
+        }
+        return Collections.unmodifiableList(inputs);
     }
 }
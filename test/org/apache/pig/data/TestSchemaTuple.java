@@ -49,6 +49,7 @@ import org.apache.hadoop.mapreduce.TaskAttemptID;
 import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 import org.apache.pig.ExecType;
 import org.apache.pig.PigConfiguration;
+import org.apache.pig.PigConstants;
 import org.apache.pig.PigServer;
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.backend.hadoop.datastorage.ConfigurationUtil;
@@ -580,6 +581,59 @@ public class TestSchemaTuple {
         fis.close();
     }
 
+    @Test
+    public void testClassCache() throws Exception {
+        // created by Pig, private to the user
+        File cacheDir = new File(com.google.common.io.Files.createTempDir(), "cache");
+        conf.set(PigConfiguration.SCHEMA_TUPLE_CACHE_DIR, cacheDir.getAbsolutePath());
+        Schema udfSchema = Utils.getSchemaFromString("a:int, b:(x:long, y:chararray)");
+
+        SchemaTupleBackend.reset();
+        SchemaTupleFrontend.reset();
+        SchemaTupleFrontend.registerToGenerateIfPossible(udfSchema, false, GenContext.UDF);
+        SchemaTupleFrontend.copyAllGeneratedToDistributedCache(pigContext, conf);
+        // the tuple and its nested tuple
+        File[] entries = cacheDir.listFiles();
+        assertEquals(2, entries.length);
+
+        // the same script again finds its classes in the cache
+        SchemaTupleBackend.reset();
+        SchemaTupleFrontend.reset();
+        Configuration conf2 = new Configuration(conf);
+        SchemaTupleFrontend.registerToGenerateIfPossible(udfSchema, false, GenContext.UDF);
+        SchemaTupleFrontend.copyAllGeneratedToDistributedCache(pigContext, conf2);
+        assertEquals(2, cacheDir.listFiles().length);
+        File codeDir = new File(conf2.get(PigConstants.LOCAL_CODE_DIR));
+        for (File entry : entries) {
+            for (File f : entry.listFiles()) {
+                assertTrue(com.google.common.io.Files.equal(f, new File(codeDir, f.getName())));
+            }
+        }
+
+        SchemaTupleBackend.initialize(conf2, pigContext);
+        SchemaTupleFactory tf = SchemaTupleFactory.getInstance(udfSchema, false, GenContext.UDF);
+        assertNotNull(tf);
+        putThroughPaces(tf, udfSchema, false);
+    }
+
+    @Test
+    public void testClassCacheNotPrivate() throws Exception {
+        // another user could have written in there
+        File cacheDir = com.google.common.io.Files.createTempDir();
+        assertTrue(cacheDir.setWritable(true, false));
+        conf.set(PigConfiguration.SCHEMA_TUPLE_CACHE_DIR, cacheDir.getAbsolutePath());
+        Schema udfSchema = Utils.getSchemaFromString("a:int, b:chararray");
+
+        SchemaTupleBackend.reset();
+        SchemaTupleFrontend.reset();
+        SchemaTupleFrontend.registerToGenerateIfPossible(udfSchema, false, GenContext.UDF);
+        SchemaTupleFrontend.copyAllGeneratedToDistributedCache(pigContext, conf);
+        assertEquals(0, cacheDir.listFiles().length);
+
+        SchemaTupleBackend.initialize(conf, pigContext);
+        assertNotNull(SchemaTupleFactory.getInstance(udfSchema, false, GenContext.UDF));
+    }
+
     @Test
     public void testFRJoinWithSchemaTuple() throws Exception {
         testJoinType("replicated", false);
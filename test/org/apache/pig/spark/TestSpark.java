@@ -4,28 +4,57 @@ import static org.apache.pig.builtin.mock.Storage.bag;
 import static org.apache.pig.builtin.mock.Storage.tuple;
 import static org.junit.Assert.assertEquals;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.log4j.Level;
+import org.apache.pig.CollectableLoadFunc;
+import org.apache.pig.EvalFunc;
 import org.apache.pig.ExecType;
+import org.apache.pig.IndexableLoadFunc;
 import org.apache.pig.PigServer;
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.backend.executionengine.ExecJob;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigSplit;
+import org.apache.pig.backend.hadoop.executionengine.spark.BinInterSedesSerializer;
+import org.apache.pig.backend.hadoop.executionengine.spark.SparkSession;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.SkewedRearrangeConverter.SkewedKey;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.SortConverter.SerializedKey;
+import org.apache.pig.builtin.PigStorage;
 import org.apache.pig.builtin.mock.Storage;
 import org.apache.pig.builtin.mock.Storage.Data;
+import org.apache.pig.data.DataByteArray;
 import org.apache.pig.data.Tuple;
+import org.apache.pig.test.Util;
+import org.apache.pig.tools.pigstats.PigStats;
+import org.apache.pig.tools.pigstats.SparkStats;
 import org.junit.Assert;
 import org.junit.Test;
 
+import scala.Tuple2;
+import scala.collection.JavaConversions;
+import scala.collection.mutable.ArrayBuffer;
+import spark.SerializerInstance;
+
 public class TestSpark {
 
     private static final ExecType MODE = ExecType.SPARK;
@@ -197,6 +226,54 @@ public class TestSpark {
                 data.get("output"));
     }
 
+    @Test
+    public void testGroupByAlgebraic() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input",
+                tuple("key1", 1),
+                tuple("key1", 3),
+                tuple("key2", 5),
+                tuple("key1", 3));
+
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage() as (k:chararray, v:int);");
+        pigServer.registerQuery("B = GROUP A BY k;");
+        pigServer.registerQuery("C = FOREACH B { D = DISTINCT A.v; GENERATE group, COUNT(A), SUM(A.v), AVG(A.v), COUNT(D); };");
+        pigServer.registerQuery("STORE C INTO 'output' using mock.Storage;");
+
+        assertEquals(
+                Arrays.asList(
+                        tuple("key1", 3l, 7l, 7.0 / 3, 2l),
+                        tuple("key2", 1l, 5l, 5.0, 1l)),
+                sortByIndex(data.get("output"), 0));
+    }
+
+    @Test
+    public void testLargeCoGroup() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        List<Tuple> input = new ArrayList<Tuple>();
+        for (int i = 0; i < 50000; i++) {
+            input.add(tuple("key" + (i % 2), i));
+        }
+        data.set("input1", input);
+        data.set("input2", tuple("key0", -1), tuple("key2", -2));
+
+        pigServer.registerQuery("A = LOAD 'input1' using mock.Storage;");
+        pigServer.registerQuery("B = LOAD 'input2' using mock.Storage;");
+        // SIZE is not algebraic, the groups go through the package
+        pigServer.registerQuery("C = COGROUP A BY $0, B BY $0;");
+        pigServer.registerQuery("D = FOREACH C GENERATE group, SIZE(A), SIZE(B);");
+        pigServer.registerQuery("STORE D INTO 'output' using mock.Storage;");
+
+        assertEquals(
+                Arrays.asList(
+                        tuple("key0", 25000l, 1l),
+                        tuple("key1", 25000l, 0l),
+                        tuple("key2", 0l, 1l)),
+                sortByIndex(data.get("output"), 0));
+    }
+
     @Test
     public void testForEach() throws Exception {
         PigServer pigServer = newPigServer();
@@ -386,6 +463,256 @@ public class TestSpark {
                 sortByIndex(data.get("output2"), 0));
     }
 
+    @Test
+    public void testSPLITSharedScan() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input",
+                tuple("1", 2, "foo"),
+                tuple("2", 3, "bar"),
+                tuple("2", 1, "bar"),
+                tuple("1", 4, "foo"));
+        CountCalls.calls.set(0);
+
+        pigServer.setBatchOn();
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage;");
+        pigServer.registerQuery("B = FOREACH A GENERATE " + CountCalls.class.getName() + "($0), $1;");
+        pigServer.registerQuery("C = FILTER B BY $0 == '1';");
+        pigServer.registerQuery("D = FILTER B BY $0 == '2';");
+        pigServer.registerQuery("E = FILTER B BY $1 > 2;");
+        pigServer.registerQuery("STORE C INTO 'output1' using mock.Storage;");
+        pigServer.registerQuery("STORE D INTO 'output2' using mock.Storage;");
+        pigServer.registerQuery("STORE E INTO 'output3' using mock.Storage;");
+        pigServer.executeBatch();
+
+        assertEquals(
+                Arrays.asList(
+                        tuple("1", 2),
+                        tuple("1", 4)
+                        ),
+                sortByIndex(data.get("output1"), 1));
+        assertEquals(
+                Arrays.asList(
+                        tuple("2", 1),
+                        tuple("2", 3)
+                        ),
+                sortByIndex(data.get("output2"), 1));
+        assertEquals(
+                Arrays.asList(
+                        tuple("2", 3),
+                        tuple("1", 4)
+                        ),
+                sortByIndex(data.get("output3"), 1));
+        // the three stores share one scan of the input
+        assertEquals(4, CountCalls.calls.get());
+    }
+
+    public static class CountCalls extends EvalFunc<String> {
+        static final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public String exec(Tuple input) throws IOException {
+            calls.incrementAndGet();
+            return (String) input.get(0);
+        }
+    }
+
+    @Test
+    public void testStats() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input",
+                tuple("1", 2, "foo"),
+                tuple("2", 3, "bar"),
+                tuple("2", 1, "bar"),
+                tuple("1", 4, "foo"));
+
+        pigServer.setBatchOn();
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage;");
+        pigServer.registerQuery("B = FILTER A BY $1 > 1;");
+        pigServer.registerQuery("C = FILTER A BY $1 > 3;");
+        pigServer.registerQuery("STORE B INTO 'output1' using mock.Storage;");
+        pigServer.registerQuery("STORE C INTO 'output2' using mock.Storage;");
+        pigServer.executeBatch();
+
+        PigStats stats = PigStats.get();
+        assertEquals(2, stats.getNumberJobs());
+        assertEquals(4, stats.getRecordWritten());
+        assertEquals(3, stats.getNumberRecords("output1"));
+        assertEquals(1, stats.getNumberRecords("output2"));
+        // the input is read once, the second store reads the persisted split
+        assertEquals(1, stats.getInputStats().size());
+        assertEquals(4, stats.getInputStats().get(0).getNumberRecords());
+    }
+
+    @Test
+    public void testExplain() throws Exception {
+        PigServer pigServer = newPigServer();
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage;");
+        pigServer.registerQuery("B = GROUP A BY $0 PARALLEL 5;");
+        pigServer.registerQuery("C = FOREACH B GENERATE group, A;");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream ps = new PrintStream(bytes);
+        pigServer.explain("C", "text", false, false, ps, ps, ps);
+        String explain = bytes.toString();
+
+        Assert.assertTrue(explain, explain.contains("# Spark Plan"));
+        Assert.assertTrue(explain, explain.contains("Converter: GlobalRearrangeConverter"));
+        Assert.assertTrue(explain, explain.contains("Shuffle: hash partitioner"));
+        Assert.assertTrue(explain, explain.contains("Partitions: 5"));
+    }
+
+    @Test
+    public void testParallelismEstimate() throws Exception {
+        PigServer pigServer = newPigServer();
+        // 5 lines of 4 bytes
+        File input = Util.createFile(new String[] { "1\ta", "2\tb", "3\tc", "4\td", "5\te" });
+        Properties properties = pigServer.getPigContext().getProperties();
+        properties.setProperty("pig.exec.reducers.bytes.per.reducer", "10");
+        pigServer.registerQuery("A = LOAD '" + Util.encodeEscape(input.getAbsolutePath())
+                + "' AS (k:int, v:chararray);");
+        pigServer.registerQuery("B = GROUP A BY k;");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream ps = new PrintStream(bytes);
+        pigServer.explain("B", "text", false, false, ps, ps, ps);
+        String explain = bytes.toString();
+        Assert.assertTrue(explain, explain.contains("Partitions: 2"));
+
+        properties.setProperty("pig.exec.reducers.bytes.per.reducer", "1");
+        properties.setProperty("pig.exec.reducers.max", "3");
+        bytes.reset();
+        pigServer.explain("B", "text", false, false, ps, ps, ps);
+        explain = bytes.toString();
+        Assert.assertTrue(explain, explain.contains("Partitions: 3"));
+    }
+
+    /**
+     * @return a directory holding a file per array of lines
+     */
+    private File createDir(String[][] lines) throws IOException {
+        File dir = Util.createFile(new String[0]);
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        for (int i = 0; i < lines.length; i++) {
+            File part = Util.createFile(lines[i]);
+            File moved = new File(dir, "part-" + i);
+            Assert.assertTrue(part.renameTo(moved));
+            moved.deleteOnExit();
+        }
+        return dir;
+    }
+
+    @Test
+    public void testLoadSmallFiles() throws Exception {
+        File dir = createDir(new String[][] { { "1\ta" }, { "2\tb" }, { "3\tc", "1\td" } });
+        List<Tuple> expected = Arrays.asList(
+                tuple(1, "a", 1, "a"), tuple(1, "a", 1, "d"), tuple(1, "d", 1, "a"),
+                tuple(1, "d", 1, "d"), tuple(2, "b", 2, "b"), tuple(3, "c", 3, "c"));
+
+        // the small files are combined, the two loads of the directory share their splits
+        for (String splitCombination : new String[] { "true", "false" }) {
+            PigServer pigServer = newPigServer();
+            pigServer.getPigContext().getProperties().setProperty("pig.splitCombination",
+                    splitCombination);
+            Data data = Storage.resetData(pigServer);
+            SplitCountingLoader.splits.clear();
+            pigServer.setBatchOn();
+            String path = Util.encodeEscape(dir.getAbsolutePath());
+            String loader = SplitCountingLoader.class.getName();
+            pigServer.registerQuery("A = LOAD '" + path + "' USING " + loader
+                    + "() AS (k:int, v:chararray);");
+            pigServer.registerQuery("B = LOAD '" + path + "' USING " + loader
+                    + "() AS (k:int, v:chararray);");
+            pigServer.registerQuery("C = JOIN A BY k, B BY k;");
+            pigServer.registerQuery("STORE C INTO 'output' using mock.Storage;");
+            pigServer.executeBatch();
+
+            List<Tuple> output = data.get("output");
+            Collections.sort(output);
+            assertEquals(splitCombination, expected, output);
+            if (splitCombination.equals("true")) {
+                Assert.assertTrue(SplitCountingLoader.splits.toString(),
+                        SplitCountingLoader.splits.size() < 3);
+            } else {
+                assertEquals(3, SplitCountingLoader.splits.size());
+            }
+        }
+    }
+
+    /**
+     * Records the splits it reads, in local mode.
+     */
+    public static class SplitCountingLoader extends PigStorage {
+        static final Set<Integer> splits = Collections.synchronizedSet(new HashSet<Integer>());
+
+        @Override
+        public void prepareToRead(RecordReader reader, PigSplit split) {
+            splits.add(split.getSplitIndex());
+            super.prepareToRead(reader, split);
+        }
+    }
+
+    @Test
+    public void testSessionReused() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input", tuple("test1"), tuple("test2"));
+        pigServer.setBatchOn();
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage;");
+        pigServer.registerQuery("STORE A INTO 'output1' using mock.Storage;");
+        pigServer.executeBatch();
+        SparkSession session = SparkSession.getSession();
+        Assert.assertNotNull(session);
+        int launches = session.getLaunches();
+        List<String> jars = session.getShippedJars();
+
+        // another batch, from another PigServer, runs in the same session
+        pigServer = newPigServer();
+        pigServer.setBatchOn();
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage;");
+        pigServer.registerQuery("STORE A INTO 'output2' using mock.Storage;");
+        pigServer.executeBatch();
+        Assert.assertSame(session, SparkSession.getSession());
+        assertEquals(launches + 1, session.getLaunches());
+        assertEquals(jars, session.getShippedJars());
+        assertEquals(data.get("output1"), data.get("output2"));
+
+        // other Spark settings start another session
+        pigServer = newPigServer();
+        pigServer.getPigContext().getProperties().setProperty("spark.test.setting", "1");
+        pigServer.setBatchOn();
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage;");
+        pigServer.registerQuery("STORE A INTO 'output3' using mock.Storage;");
+        pigServer.executeBatch();
+        Assert.assertNotSame(session, SparkSession.getSession());
+        assertEquals(1, SparkSession.getSession().getLaunches());
+    }
+
+    @Test
+    public void testSerializer() throws Exception {
+        SerializerInstance serializer = new BinInterSedesSerializer().newInstance();
+        Tuple value = tuple("1", 2, 3L, bag(tuple("foo"), tuple("bar")), new DataByteArray("baz"));
+        ArrayBuffer<Object> group = new ArrayBuffer<Object>();
+        group.$plus$eq(value);
+        group.$plus$eq(null);
+        List<Object> objects = Arrays.<Object>asList(
+                new Tuple2<Object, Object>("1", value),
+                group,
+                new SkewedKey(value, 3),
+                new SerializedKey(new byte[] { 1, 2, 3 }),
+                new Date(42));
+
+        ByteBuffer bytes = serializer.serializeMany(JavaConversions.asScalaIterator(objects.iterator()));
+        List<Object> read = new ArrayList<Object>(
+                JavaConversions.asJavaCollection(serializer.deserializeMany(bytes).toList()));
+        assertEquals(objects, read);
+
+        assertEquals(value, serializer.deserialize(serializer.serialize(value)));
+    }
+
     @Test
     public void testOrderBy() throws Exception {
         PigServer pigServer = newPigServer();
@@ -410,6 +737,34 @@ public class TestSpark {
                 data.get("output"));
     }
 
+    @Test
+    public void testOrderByMultipleColumns() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input",
+                tuple("a", 2),
+                tuple("b", 3),
+                tuple("a", 5),
+                tuple("c", 1),
+                tuple("a", 5),
+                tuple("b", 1));
+
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage as (s:chararray, i:int);");
+        pigServer.registerQuery("B = ORDER A BY s ASC, i DESC PARALLEL 3;");
+        pigServer.registerQuery("STORE B INTO 'output' using mock.Storage;");
+
+        assertEquals(
+                Arrays.asList(
+                        tuple("a", 5),
+                        tuple("a", 5),
+                        tuple("a", 2),
+                        tuple("b", 3),
+                        tuple("b", 1),
+                        tuple("c", 1)
+                        ),
+                data.get("output"));
+    }
+
     @Test
     public void testLimit() throws Exception {
         PigServer pigServer = newPigServer();
@@ -429,6 +784,65 @@ public class TestSpark {
                 data.get("output"));
     }
 
+    @Test
+    public void testOrderByLimit() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input",
+                tuple(5),
+                tuple(3),
+                tuple(8),
+                tuple(1),
+                tuple(4),
+                tuple(1));
+
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage as (i:int);");
+        pigServer.registerQuery("B = ORDER A BY i DESC;");
+        pigServer.registerQuery("C = LIMIT B 3;");
+        pigServer.registerQuery("STORE C INTO 'output' using mock.Storage;");
+
+        assertEquals(
+                Arrays.asList(
+                        tuple(8),
+                        tuple(5),
+                        tuple(4)
+                        ),
+                data.get("output"));
+    }
+
+    @Test
+    public void testOrderByBigLimit() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input",
+                tuple(5),
+                tuple(3),
+                tuple(8),
+                tuple(1));
+
+        // too many rows to keep the top ones of each partition, the input is sorted then limited
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage as (i:int);");
+        pigServer.registerQuery("B = ORDER A BY i DESC;");
+        pigServer.registerQuery("C = LIMIT B 200000;");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream ps = new PrintStream(bytes);
+        pigServer.explain("C", "text", false, false, ps, ps, ps);
+        String explain = bytes.toString();
+        Assert.assertTrue(explain, explain.contains("Shuffle: range partitioner"));
+
+        pigServer.registerQuery("STORE C INTO 'output' using mock.Storage;");
+
+        assertEquals(
+                Arrays.asList(
+                        tuple(8),
+                        tuple(5),
+                        tuple(3),
+                        tuple(1)
+                        ),
+                data.get("output"));
+    }
+
     @Test
     public void testUnion() throws Exception {
         PigServer pigServer = newPigServer();
@@ -591,6 +1005,315 @@ public class TestSpark {
                         data.get("output"));
     }
 
+    @Test
+    public void testReplicatedJoin() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input1",
+                tuple(1, "a"),
+                tuple(2, "b"),
+                tuple(3, "c"),
+                tuple(1, "d"));
+        data.set("input2",
+                tuple(1, "e"),
+                tuple(2, "f"),
+                tuple(1, "g"));
+        data.set("input3",
+                tuple(1, "h"),
+                tuple(3, "i"));
+
+        pigServer.registerQuery("A = LOAD 'input1' using mock.Storage;");
+        pigServer.registerQuery("B = LOAD 'input2' using mock.Storage;");
+        pigServer.registerQuery("C = LOAD 'input3' using mock.Storage;");
+        pigServer.registerQuery("D = JOIN A BY $0, B BY $0, C BY $0 USING 'replicated';");
+        pigServer.registerQuery("STORE D INTO 'output' using mock.Storage;");
+
+        assertEquals(
+                Arrays.asList(
+                        tuple(1, "a", 1, "e", 1, "h"),
+                        tuple(1, "a", 1, "g", 1, "h"),
+                        tuple(1, "d", 1, "e", 1, "h"),
+                        tuple(1, "d", 1, "g", 1, "h")
+                        ),
+                        sortByIndex(sortByIndex(data.get("output"), 3), 1));
+    }
+
+    @Test
+    public void testSkewedJoin() throws Exception {
+        PigServer pigServer = newPigServer();
+        // make key 1 skewed
+        pigServer.getPigContext().getProperties().setProperty("pig.skewedjoin.reduce.maxtuple", "2");
+        Data data = Storage.resetData(pigServer);
+        data.set("input1",
+                tuple(1, "a"),
+                tuple(1, "b"),
+                tuple(1, "c"),
+                tuple(1, "d"),
+                tuple(1, "e"),
+                tuple(1, "f"),
+                tuple(2, "g"),
+                tuple(3, "h"));
+        data.set("input2",
+                tuple(1, "x"),
+                tuple(2, "y"),
+                tuple(4, "z"));
+
+        pigServer.registerQuery("A = LOAD 'input1' using mock.Storage;");
+        pigServer.registerQuery("B = LOAD 'input2' using mock.Storage;");
+        pigServer.registerQuery("C = JOIN A BY $0, B BY $0 USING 'skewed' PARALLEL 4;");
+        pigServer.registerQuery("STORE C INTO 'output' using mock.Storage;");
+
+        assertEquals(
+                Arrays.asList(
+                        tuple(1, "a", 1, "x"),
+                        tuple(1, "b", 1, "x"),
+                        tuple(1, "c", 1, "x"),
+                        tuple(1, "d", 1, "x"),
+                        tuple(1, "e", 1, "x"),
+                        tuple(1, "f", 1, "x"),
+                        tuple(2, "g", 2, "y")
+                        ),
+                        sortByIndex(data.get("output"), 1));
+    }
+
+    @Test
+    public void testMergeJoin() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        // merge join needs an OrderedLoadFunc on the right side
+        File input1 = Util.createFile(new String[] {
+                "1\ta",
+                "1\td",
+                "2\tb",
+                "3\tc" });
+        File input2 = Util.createFile(new String[] {
+                "1\te",
+                "1\tg",
+                "2\tf",
+                "4\th" });
+
+        pigServer.registerQuery("A = LOAD '" + Util.encodeEscape(input1.getAbsolutePath())
+                + "' AS (k:int, v:chararray);");
+        pigServer.registerQuery("B = LOAD '" + Util.encodeEscape(input2.getAbsolutePath())
+                + "' AS (k:int, v:chararray);");
+        pigServer.registerQuery("C = JOIN A BY k, B BY k USING 'merge';");
+        pigServer.registerQuery("STORE C INTO 'output' using mock.Storage;");
+
+        assertEquals(
+                Arrays.asList(
+                        tuple(1, "a", 1, "e"),
+                        tuple(1, "a", 1, "g"),
+                        tuple(1, "d", 1, "e"),
+                        tuple(1, "d", 1, "g"),
+                        tuple(2, "b", 2, "f")
+                        ),
+                        data.get("output"));
+    }
+
+    @Test
+    public void testMergeCogroup() throws Exception {
+        PigServer pigServer = newPigServer();
+        pigServer.getPigContext().getProperties().setProperty("pig.splitCombination", "false");
+        Data data = Storage.resetData(pigServer);
+        // two partitions for the base input, each side partition spans both of them
+        File input1 = createDir(new String[][] { { "1\ta", "2\tb" }, { "3\tc", "4\td" } });
+        File input2 = createDir(new String[][] { { "0\tv", "1\tw", "3\tx" },
+                { "3\ty", "5\tz" } });
+
+        pigServer.registerQuery("A = LOAD '" + Util.encodeEscape(input1.getAbsolutePath())
+                + "' USING " + CollectableLoader.class.getName() + "() AS (k:int, v:chararray);");
+        pigServer.registerQuery("B = LOAD '" + Util.encodeEscape(input2.getAbsolutePath())
+                + "' USING " + IndexableLoader.class.getName() + "() AS (k:int, v:chararray);");
+        pigServer.registerQuery("C = COGROUP A BY k, B BY k USING 'merge';");
+        pigServer.registerQuery("D = FOREACH C GENERATE group, COUNT(A), COUNT(B);");
+        pigServer.registerQuery("STORE D INTO 'output' using mock.Storage;");
+
+        assertEquals(
+                Arrays.asList(
+                        tuple(0, 0L, 1L),
+                        tuple(1, 1L, 1L),
+                        tuple(2, 1L, 0L),
+                        tuple(3, 1L, 2L),
+                        tuple(4, 1L, 0L),
+                        tuple(5, 0L, 1L)
+                        ),
+                        sortByIndex(data.get("output"), 0));
+    }
+
+    @Test
+    public void testCollectedGroup() throws Exception {
+        PigServer pigServer = newPigServer();
+        pigServer.getPigContext().getProperties().setProperty("pig.splitCombination", "false");
+        Data data = Storage.resetData(pigServer);
+        // all the rows of a key are in the same file, the last key of each file is flushed at
+        // the end of its partition
+        File input = createDir(new String[][] { { "1\ta", "1\tb", "2\tc" },
+                { "3\td", "3\te" } });
+
+        pigServer.registerQuery("A = LOAD '" + Util.encodeEscape(input.getAbsolutePath())
+                + "' USING " + CollectableLoader.class.getName() + "() AS (k:int, v:chararray);");
+        pigServer.registerQuery("B = GROUP A BY k USING 'collected';");
+        pigServer.registerQuery("C = FOREACH B GENERATE group, COUNT(A);");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream ps = new PrintStream(bytes);
+        pigServer.explain("C", "text", false, false, ps, ps, ps);
+        String explain = bytes.toString();
+        Assert.assertTrue(explain, explain.contains("Converter: CollectedGroupConverter"));
+        Assert.assertFalse(explain, explain.contains("Converter: GlobalRearrangeConverter"));
+
+        pigServer.registerQuery("STORE C INTO 'output' using mock.Storage;");
+
+        assertEquals(
+                Arrays.asList(
+                        tuple(1, 2L),
+                        tuple(2, 1L),
+                        tuple(3, 2L)),
+                sortByIndex(data.get("output"), 0));
+    }
+
+    @Test
+    public void testNativeMapReduce() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input",
+                tuple("one"),
+                tuple("two two"),
+                tuple("three three three"));
+        File dir = createDir(new String[0][]);
+        String jobInput = Util.encodeEscape(new File(dir, "input").getAbsolutePath());
+        String jobOutput = Util.encodeEscape(new File(dir, "output").getAbsolutePath());
+
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage() AS (line:chararray);");
+        pigServer.registerQuery("B = MAPREDUCE 'test/org/apache/pig/test/data/TestWordCount.jar' "
+                + "STORE A INTO '" + jobInput + "' "
+                + "LOAD '" + jobOutput + "' AS (word:chararray, count:int) "
+                + "`org.apache.pig.test.utils.WordCount " + jobInput + " " + jobOutput + "`;");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream ps = new PrintStream(bytes);
+        pigServer.explain("B", "text", false, false, ps, ps, ps);
+        String explain = bytes.toString();
+        Assert.assertTrue(explain, explain.contains("Converter: NativeConverter"));
+
+        pigServer.registerQuery("STORE B INTO 'output' using mock.Storage;");
+
+        assertEquals(
+                Arrays.asList(
+                        tuple("one", 1),
+                        tuple("three", 3),
+                        tuple("two", 2)),
+                sortByIndex(data.get("output"), 0));
+    }
+
+    public static class CollectableLoader extends PigStorage implements CollectableLoadFunc {
+        @Override
+        public void ensureAllKeyInstancesInSameSplit() throws IOException {
+        }
+    }
+
+    /**
+     * The side inputs of a merge cogroup are read as any other load in Spark, the index
+     * is not used.
+     */
+    public static class IndexableLoader extends PigStorage implements IndexableLoadFunc {
+        @Override
+        public void initialize(Configuration conf) throws IOException {
+        }
+
+        @Override
+        public void seekNear(Tuple keys) throws IOException {
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+
+    @Test
+    public void testCross() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input1", tuple(1), tuple(2));
+        data.set("input2", tuple("a"), tuple("b"));
+
+        pigServer.registerQuery("A = LOAD 'input1' using mock.Storage;");
+        pigServer.registerQuery("B = LOAD 'input2' using mock.Storage;");
+        pigServer.registerQuery("C = CROSS A, B;");
+        pigServer.registerQuery("STORE C INTO 'output' using mock.Storage;");
+
+        // the sort is stable: by the second field, then by the first one
+        assertEquals(
+                Arrays.asList(
+                        tuple(1, "a"),
+                        tuple(1, "b"),
+                        tuple(2, "a"),
+                        tuple(2, "b")),
+                sortByIndex(sortByIndex(data.get("output"), 1), 0));
+    }
+
+    @Test
+    public void testRank() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input",
+                tuple(4, "c"),
+                tuple(2, "b"),
+                tuple(1, "a"),
+                tuple(3, "b"));
+
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage() AS (k:int, v:chararray);");
+        pigServer.registerQuery("B = RANK A;");
+        pigServer.registerQuery("C = RANK A BY v;");
+        pigServer.registerQuery("D = RANK A BY v DENSE;");
+        pigServer.registerQuery("STORE B INTO 'output1' using mock.Storage;");
+        pigServer.registerQuery("STORE C INTO 'output2' using mock.Storage;");
+        pigServer.registerQuery("STORE D INTO 'output3' using mock.Storage;");
+
+        assertEquals(
+                Arrays.asList(
+                        tuple(1l, 4, "c"),
+                        tuple(2l, 2, "b"),
+                        tuple(3l, 1, "a"),
+                        tuple(4l, 3, "b")),
+                sortByIndex(data.get("output1"), 0));
+        assertEquals(
+                Arrays.asList(
+                        tuple(1l, 1, "a"),
+                        tuple(2l, 2, "b"),
+                        tuple(2l, 3, "b"),
+                        tuple(4l, 4, "c")),
+                sortByIndex(data.get("output2"), 1));
+        assertEquals(
+                Arrays.asList(
+                        tuple(1l, 1, "a"),
+                        tuple(2l, 2, "b"),
+                        tuple(2l, 3, "b"),
+                        tuple(3l, 4, "c")),
+                sortByIndex(data.get("output3"), 1));
+    }
+
+    @Test
+    public void testStream() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input",
+                tuple(1, "a"),
+                tuple(2, "b"),
+                tuple(3, "c"));
+
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage() AS (k:int, v:chararray);");
+        pigServer.registerQuery("B = STREAM A THROUGH `cat` AS (k:int, v:chararray);");
+        pigServer.registerQuery("STORE B INTO 'output' using mock.Storage;");
+
+        assertEquals(
+                Arrays.asList(
+                        tuple(1, "a"),
+                        tuple(2, "b"),
+                        tuple(3, "c")),
+                sortByIndex(data.get("output"), 0));
+    }
+
     @Test
     public void testCachingLoad() throws Exception {
 
@@ -633,6 +1356,58 @@ public class TestSpark {
                 "STORE A INTO 'output' using mock.Storage;");
     }
 
+    @Test
+    public void testCachingSplit() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input",
+                tuple("test1"),
+                tuple("test2"));
+
+        // the split does not persist the cached relation again
+        pigServer.setBatchOn();
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage;" +
+                "A = FILTER A by $0 != 'testCachingSplit';" +
+                "CACHE A;" +
+                "B = FILTER A by $0 == 'test1';" +
+                "C = FILTER A by $0 == 'test2';" +
+                "STORE B INTO 'output1' using mock.Storage;" +
+                "STORE C INTO 'output2' using mock.Storage;");
+        pigServer.executeBatch();
+
+        assertEquals(Arrays.asList(tuple("test1")), data.get("output1"));
+        assertEquals(Arrays.asList(tuple("test2")), data.get("output2"));
+    }
+
+    @Test
+    public void testCacheStats() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input",
+                tuple("test1"),
+                tuple("test2"));
+
+        pigServer.setBatchOn();
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage;" +
+                "A = FILTER A by $0 != 'testCacheStats';" +
+                "CACHE A;" +
+                "STORE A INTO 'output' using mock.Storage;");
+        pigServer.executeBatch();
+
+        SparkStats stats = (SparkStats) PigStats.get();
+        assertEquals(0, stats.getCacheHits());
+        assertEquals(1, stats.getCacheMisses());
+        Assert.assertTrue(stats.getCachedBytes() > 0);
+
+        pigServer.registerQuery("STORE A INTO 'output2' using mock.Storage;");
+        pigServer.executeBatch();
+
+        stats = (SparkStats) PigStats.get();
+        assertEquals(1, stats.getCacheHits());
+        assertEquals(0, stats.getCacheMisses());
+        assertEquals(2, data.get("output2").size());
+    }
+
     @Test
     public void testIgnoreWrongUDFCache() throws Exception {
         testIgnoreCache(
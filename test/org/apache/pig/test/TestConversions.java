@@ -173,6 +173,47 @@ public class TestConversions {
         }
     }
 
+    @Test
+    public void testBytesToNumbersInRange() throws IOException {
+        Utf8StorageConverter caster = (Utf8StorageConverter) ps.getLoadCaster();
+        String[] a = {"1234", " -42 ", "+7", "12L", "1.5", "-0.0", "1.02e-2", "2147483648",
+                "9223372036854775807", "+9007199254740993", "0.30000000000000004", "1e400", "NaN",
+                "true", "FaLsE", "abc", "-", ".", "1e"};
+        for (String s : a) {
+            byte[] b = s.getBytes();
+            // the field in the middle of a line
+            byte[] line = ("9\t" + s + "\t7.").getBytes();
+            int start = 2;
+            int end = start + b.length;
+            assertEquals(s, caster.bytesToInteger(b), caster.bytesToInteger(line, start, end));
+            assertEquals(s, caster.bytesToLong(b), caster.bytesToLong(line, start, end));
+            assertEquals(s, caster.bytesToFloat(b), caster.bytesToFloat(line, start, end));
+            assertEquals(s, caster.bytesToDouble(b), caster.bytesToDouble(line, start, end));
+            assertEquals(s, caster.bytesToBoolean(b), caster.bytesToBoolean(line, start, end));
+        }
+        assertEquals(Double.valueOf(-0.0), caster.bytesToDouble("-0.0".getBytes()));
+        assertEquals(Float.valueOf(-0.0f), caster.bytesToFloat("-0".getBytes()));
+        assertEquals(Long.valueOf(9223372036854775807L), caster.bytesToLong(" 9223372036854775807L".getBytes()));
+    }
+
+    @Test
+    public void testBytesToDateTime() throws IOException {
+        Utf8StorageConverter caster = (Utf8StorageConverter) ps.getLoadCaster();
+        for (int i = 0; i < MAX; i++) {
+            DateTime dt = new DateTime(r.nextLong() % 4000000000000000L,
+                    DateTimeZone.forOffsetMillis((r.nextInt(48) - 24) * 1800000));
+            DateTime converted = caster.bytesToDateTime(dt.toString().getBytes());
+            assertEquals(dt, converted);
+            assertEquals(dt.getZone(), converted.getZone());
+        }
+        // other ISO forms are left to the full parser
+        assertEquals(new DateTime("2013-01-01T10:00:00.5+05:30",
+                DateTimeZone.forOffsetMillis(19800000)),
+                caster.bytesToDateTime("2013-01-01T10:00:00.5+05:30".getBytes()));
+        assertNull(caster.bytesToDateTime("2013-13-01T10:00:00.000Z".getBytes()));
+        assertNull(caster.bytesToDateTime("not a date".getBytes()));
+    }
+
     @Test
     public  void testBytesToChar() throws IOException
     {
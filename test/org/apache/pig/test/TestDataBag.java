@@ -22,13 +22,18 @@ import static org.junit.Assert.*;
 import java.util.*;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
+import java.lang.ref.WeakReference;
 
 
+import org.apache.pig.PigConfiguration;
 import org.apache.pig.data.*;
 import org.apache.pig.impl.util.Spillable;
+import org.apache.pig.impl.util.SpillableMemoryManager;
 import org.junit.After;
 import org.junit.Test;
 
@@ -516,6 +521,104 @@ public class TestDataBag  {
             bIter.hasNext());
     }
 
+    // Test reading a sorted bag spilled more times than any fan-in, so that
+    // its files are merged while it spills and again before it is read,
+    // in the natural order and in an order given by a comparator.
+    @Test
+    public void testSortedMultiPassMerge() throws Exception {
+        Comparator<Tuple> descending = new Comparator<Tuple>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public int compare(Tuple t1, Tuple t2) {
+                return t2.compareTo(t1);
+            }
+        };
+        for (Comparator<Tuple> comp : Arrays.asList(null, descending)) {
+            InternalSortedBag b = new InternalSortedBag(comp);
+            PriorityQueue<Tuple> rightAnswer = comp == null ?
+                new PriorityQueue<Tuple>(30) : new PriorityQueue<Tuple>(30, comp);
+
+            for (int j = 0; j < 1234; j++) {
+                for (int i = 0; i < 5; i++) {
+                    Tuple t = TupleFactory.getInstance().newTuple(2);
+                    t.set(0, rand.nextInt(100));
+                    t.set(1, "value" + rand.nextInt(1000));
+                    b.add(t);
+                    rightAnswer.add(t);
+                }
+                b.spill();
+            }
+
+            Iterator<Tuple> bIter = b.iterator();
+            Tuple t;
+            while ((t = rightAnswer.poll()) != null) {
+                assertTrue("bag ran out of tuples before answer", bIter.hasNext());
+                assertEquals("tuples should be the same", t, bIter.next());
+            }
+            assertFalse("right answer ran out of tuples before the bag",
+                bIter.hasNext());
+        }
+    }
+
+    // Test clearing sorted bags while their spill files are being merged:
+    // the merge is abandoned, its output deleted, and the bag only holds
+    // what is added after.
+    @Test
+    public void testSortedClearWhileMerging() throws Exception {
+        File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+        for (int k = 0; k < 2; k++) {
+            // the files of the bags of the other tests may be deleted meanwhile, only the new
+            // ones are the bag's
+            Set<String> before = listSpillFiles(tmpDir);
+            DataBag b = k == 0 ? new InternalSortedBag(null) : new SortedDataBag(null);
+            // more spills than the largest fan-in, a merge is started
+            for (int j = 0; j < 1100; j++) {
+                for (int i = 0; i < 5; i++) {
+                    b.add(TupleFactory.getInstance().newTuple(rand.nextInt(100)));
+                }
+                b.spill();
+            }
+            b.clear();
+            assertEquals(0, b.size());
+
+            PriorityQueue<Tuple> rightAnswer = new PriorityQueue<Tuple>();
+            for (int i = 0; i < 10; i++) {
+                Tuple t = TupleFactory.getInstance().newTuple(1000 + i);
+                b.add(t);
+                rightAnswer.add(t);
+                b.spill();
+            }
+            Iterator<Tuple> bIter = b.iterator();
+            Tuple t;
+            while ((t = rightAnswer.poll()) != null) {
+                assertTrue("bag ran out of tuples before answer", bIter.hasNext());
+                assertEquals("tuples should be the same", t, bIter.next());
+            }
+            assertFalse("cleared tuples came back", bIter.hasNext());
+
+            b.clear();
+            // the abandoned merge deletes its output when it stops
+            long deadline = System.currentTimeMillis() + 30000;
+            Set<String> left = listSpillFiles(tmpDir);
+            left.removeAll(before);
+            while (!left.isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+                left.retainAll(listSpillFiles(tmpDir));
+            }
+            assertEquals("spill files left", Collections.emptySet(), left);
+        }
+    }
+
+    private static Set<String> listSpillFiles(File dir) {
+        String[] names = dir.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith("pigbag");
+            }
+        });
+        return names == null ? new HashSet<String>() : new HashSet<String>(Arrays.asList(names));
+    }
+
     // Test reading and writing distinct from memory, no spills.
     @Test
     public void testDistinctInMemory() throws Exception {
@@ -900,6 +1003,54 @@ public class TestDataBag  {
         assertEquals(bg4.size(), 0);        
     }
     
+    @Test
+    public void testSerializedCachedBag() throws Exception {
+        // in memory, then with all the full pages spilled
+        for (float percent : new float[] { 0.5f, 0.0f }) {
+            DataBag bg = new SerializedCachedBag(1, percent);
+            for (int i = 0; i < 20000; i++) {
+                bg.add(TupleFactory.getInstance().newTuple(Arrays.<Object>asList(i, "value " + i)));
+            }
+            assertEquals(20000, bg.size());
+            assertFalse(bg.isSorted());
+            assertFalse(bg.isDistinct());
+            for (int n = 0; n < 2; n++) {
+                Iterator<Tuple> iter = bg.iterator();
+                for (int i = 0; i < 20000; i++) {
+                    assertTrue(iter.hasNext());
+                    Tuple t = iter.next();
+                    assertEquals(i, t.get(0));
+                    assertEquals("value " + i, t.get(1));
+                }
+                assertFalse(iter.hasNext());
+            }
+            bg.clear();
+            assertEquals(0, bg.size());
+            assertFalse(bg.iterator().hasNext());
+        }
+
+        // spilled by the memory manager, a tuple spanning the spill file and the pages
+        DataBag bg1 = new SerializedCachedBag(1, 0.5f);
+        DataBag bg2 = new InternalCachedBag(1, 0.5f);
+        for (int i = 0; i < 5000; i++) {
+            Tuple t = Util.createTuple(new String[] { "a" + i, "b" + (i % 7) });
+            bg1.add(t);
+            bg2.add(t);
+            if (i == 2500) {
+                assertTrue(bg1.spill() > 0);
+            }
+        }
+        assertEquals(bg2, bg1);
+
+        // a small bag stays in its first page on the heap, a big one counts its pages
+        DataBag small = new SerializedCachedBag(1, 0.5f);
+        for (int i = 0; i < 10; i++) {
+            small.add(Util.createTuple(new String[] { "a" + i }));
+        }
+        assertTrue(small.getMemorySize() < 64 * 1024);
+        assertTrue(bg1.getMemorySize() > 64 * 1024);
+    }
+
     public void testInternalSortedBag() throws Exception {    
     	
     	// check adding empty tuple
@@ -1185,6 +1336,87 @@ public class TestDataBag  {
         assertTrue(t2.equals(t));
     }
     
+    @Test
+    public void testSpillOverBudget() throws Exception {
+        SpillableMemoryManager manager = SpillableMemoryManager.getInstance();
+        Properties props = new Properties();
+        props.setProperty("pig.spill.size.threshold", "0");
+        props.setProperty("pig.spill.gc.activation.size", "40000000");
+        // a budget of 1MB
+        props.setProperty(PigConfiguration.PROP_SPILL_MEMUSAGE,
+                String.valueOf(1000000.0 / Runtime.getRuntime().maxMemory()));
+        SpillableMemoryManager.configure(props);
+        try {
+            long spills = SpillableMemoryManager.getSpillCount();
+            DataBag bag = new DefaultDataBag();
+            for (int i = 0; i < 50000; i++) {
+                bag.add(TupleFactory.getInstance().newTuple("a string of some length " + i));
+            }
+            // spilled as it grew, without any notification of the heap
+            assertTrue(SpillableMemoryManager.getSpillCount() > spills);
+            assertTrue(manager.getAccountedSize() <= manager.getMemoryBudget() + 1000000);
+            assertEquals(50000, bag.size());
+            Iterator<Tuple> it = bag.iterator();
+            for (int i = 0; i < 50000; i++) {
+                assertEquals("a string of some length " + i, it.next().get(0));
+            }
+            assertFalse(it.hasNext());
+        } finally {
+            props.setProperty("pig.spill.size.threshold", "5000000");
+            props.setProperty(PigConfiguration.PROP_SPILL_MEMUSAGE, "0.3");
+            SpillableMemoryManager.configure(props);
+        }
+    }
+
+    @Test
+    public void testAccountsWithBudget() throws Exception {
+        SpillableMemoryManager manager = SpillableMemoryManager.getInstance();
+        Properties props = new Properties();
+        props.setProperty("pig.spill.size.threshold", "5000000");
+        props.setProperty("pig.spill.gc.activation.size", "40000000");
+        props.setProperty(PigConfiguration.PROP_SPILL_MEMUSAGE, "0");
+        SpillableMemoryManager.configure(props);
+        try {
+            // no budget, no accounts
+            assertNull(manager.track(new SizedSpillable()));
+
+            // a new budget drops the accounts of the earlier tests
+            props.setProperty(PigConfiguration.PROP_SPILL_MEMUSAGE, "0.3");
+            SpillableMemoryManager.configure(props);
+            assertEquals(0, manager.getAccountedSize());
+            SizedSpillable s = new SizedSpillable();
+            manager.account(manager.track(s), 1000);
+            assertEquals(1000, manager.getAccountedSize());
+
+            // the account of a collected spillable is dropped when the next one is tracked
+            WeakReference<Spillable> ref = new WeakReference<Spillable>(s);
+            s = null;
+            for (int i = 0; i < 100 && ref.get() != null; i++) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            SizedSpillable other = new SizedSpillable();
+            SpillableMemoryManager.Account account = manager.track(other);
+            assertEquals(0, manager.getAccountedSize());
+            manager.account(account, 0);
+        } finally {
+            props.setProperty(PigConfiguration.PROP_SPILL_MEMUSAGE, "0.3");
+            SpillableMemoryManager.configure(props);
+        }
+    }
+
+    private static class SizedSpillable implements Spillable {
+        @Override
+        public long spill() {
+            return 0;
+        }
+
+        @Override
+        public long getMemorySize() {
+            return 0;
+        }
+    }
+
     void processDataBag(DataBag bg, boolean doSpill) {
         Tuple t = TupleFactory.getInstance().newTuple(new Integer(0));
         bg.add(t);
@@ -16,6 +16,7 @@
 package org.apache.pig.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
@@ -23,15 +24,25 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.pig.PigConfiguration;
 import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigMapReduce;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.Add;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ConstantExpression;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.Divide;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.EqualToExpr;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ExpressionCompiler;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.GreaterThanExpr;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POAnd;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POIsNull;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.PONot;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POOr;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POProject;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.VectorBatch;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFilter;
 import org.apache.pig.data.BagFactory;
@@ -40,6 +51,7 @@ import org.apache.pig.data.DataType;
 import org.apache.pig.data.DefaultTuple;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.plan.OperatorKey;
 import org.apache.pig.test.utils.GenPhyOp;
 import org.apache.pig.test.utils.GenRandomData;
 import org.apache.pig.test.utils.TestHelper;
@@ -313,4 +325,156 @@ public class TestFilter {
             assertEquals(1, (int)i2);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * The filter (c0 + c1 > 10 AND c2 IS NOT NULL) OR c0 / c1 == 2 keeps the same tuples
+     * compiled as interpreted, nulls and divisions by zero included.
+     */
+    @Test
+    public void testCompiledFilter() throws Exception {
+        PhysicalPlan ip = genMixedFilterPlan();
+        assertNotNull(ExpressionCompiler.compile(ip));
+        DataBag inbag = genMixedFilterInput();
+
+        Configuration conf = new Configuration();
+        PigMapReduce.sJobConfInternal.set(conf);
+        try {
+            List<Tuple> interpreted = runFilter(ip, inbag);
+            conf.setBoolean(PigConfiguration.PROP_EXEC_CODEGEN, true);
+            List<Tuple> compiled = runFilter(ip, inbag);
+            assertTrue(interpreted.size() > 0);
+            assertEquals(interpreted, compiled);
+        } finally {
+            PigMapReduce.sJobConfInternal.set(null);
+        }
+    }
+
+    @Test
+    public void testBatchFilter() throws Exception {
+        PhysicalPlan ip = genMixedFilterPlan();
+        DataBag inbag = genMixedFilterInput();
+        List<Tuple> interpreted = runFilter(ip, inbag);
+        // the last batch is not full
+        List<Tuple> batched = runFilterBatch(ip, inbag, 64);
+        assertTrue(interpreted.size() > 0);
+        assertEquals(interpreted, batched);
+    }
+
+    /**
+     * (c0 + c1 > 10 AND c2 IS NOT NULL) OR c0 / c1 == 2
+     */
+    private PhysicalPlan genMixedFilterPlan() throws Exception {
+        PhysicalPlan ip = new PhysicalPlan();
+        POProject c0 = GenPhyOp.exprProject(0);
+        POProject c1 = GenPhyOp.exprProject(1);
+        POProject c2 = GenPhyOp.exprProject(2);
+        POProject c0Div = GenPhyOp.exprProject(0);
+        POProject c1Div = GenPhyOp.exprProject(1);
+        for (POProject p : new POProject[] { c0, c1, c2, c0Div, c1Div }) {
+            p.setResultType(DataType.INTEGER);
+            ip.add(p);
+        }
+        ConstantExpression ten = GenPhyOp.exprConst();
+        ten.setValue(10);
+        ten.setResultType(DataType.INTEGER);
+        ConstantExpression two = GenPhyOp.exprConst();
+        two.setValue(2);
+        two.setResultType(DataType.INTEGER);
+        ip.add(ten);
+        ip.add(two);
+
+        Add add = new Add(new OperatorKey("", r.nextLong()));
+        add.setLhs(c0);
+        add.setRhs(c1);
+        add.setResultType(DataType.INTEGER);
+        ip.add(add);
+        ip.connect(c0, add);
+        ip.connect(c1, add);
+        GreaterThanExpr gt = GenPhyOp.compGreaterThanExpr(add, ten, DataType.INTEGER);
+        ip.add(gt);
+        ip.connect(add, gt);
+        ip.connect(ten, gt);
+
+        POIsNull isNull = new POIsNull(new OperatorKey("", r.nextLong()), -1, c2);
+        isNull.setOperandType(DataType.INTEGER);
+        isNull.setResultType(DataType.BOOLEAN);
+        ip.add(isNull);
+        ip.connect(c2, isNull);
+        PONot not = new PONot(new OperatorKey("", r.nextLong()));
+        not.setExpr(isNull);
+        ip.add(not);
+        ip.connect(isNull, not);
+        POAnd and = GenPhyOp.compAndExpr(gt, not);
+        ip.add(and);
+        ip.connect(gt, and);
+        ip.connect(not, and);
+
+        Divide div = new Divide(new OperatorKey("", r.nextLong()));
+        div.setLhs(c0Div);
+        div.setRhs(c1Div);
+        div.setResultType(DataType.INTEGER);
+        ip.add(div);
+        ip.connect(c0Div, div);
+        ip.connect(c1Div, div);
+        EqualToExpr eq = GenPhyOp.compEqualToExpr(div, two, DataType.INTEGER);
+        ip.add(eq);
+        ip.connect(div, eq);
+        ip.connect(two, eq);
+
+        POOr or = new POOr(new OperatorKey("", r.nextLong()));
+        or.setLhs(and);
+        or.setRhs(eq);
+        or.setOperandType(DataType.BOOLEAN);
+        ip.add(or);
+        ip.connect(and, or);
+        ip.connect(eq, or);
+        return ip;
+    }
+
+    private DataBag genMixedFilterInput() throws Exception {
+        TupleFactory tf = TupleFactory.getInstance();
+        DataBag inbag = BagFactory.getInstance().newDefaultBag();
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = tf.newTuple(3);
+            for (int j = 0; j < 3; j++) {
+                t.set(j, r.nextInt(5) == 0 ? null : r.nextInt(20) - 5);
+            }
+            inbag.add(t);
+        }
+        return inbag;
+    }
+
+    private List<Tuple> runFilter(PhysicalPlan ip, DataBag inbag) throws Exception {
+        PORead read = GenPhyOp.topReadOp(inbag);
+        POFilter filter = GenPhyOp.connectedFilterOp(read);
+        filter.setPlan(ip);
+        List<Tuple> out = new ArrayList<Tuple>();
+        Result res;
+        while ((res = filter.getNext(t)).returnStatus == POStatus.STATUS_OK) {
+            out.add((Tuple)res.result);
+        }
+        assertEquals(POStatus.STATUS_EOP, res.returnStatus);
+        return out;
+    }
+
+    private List<Tuple> runFilterBatch(PhysicalPlan ip, DataBag inbag, int batchSize)
+            throws Exception {
+        POFilter filter = new POFilter(new OperatorKey("", r.nextLong()));
+        filter.setPlan(ip);
+        assertTrue(filter.canProcessBatch(batchSize));
+        List<Tuple> out = new ArrayList<Tuple>();
+        VectorBatch batch = new VectorBatch(batchSize);
+        Iterator<Tuple> it = inbag.iterator();
+        while (it.hasNext()) {
+            while (!batch.isFull() && it.hasNext()) {
+                batch.add(it.next());
+            }
+            filter.filterBatch(batch);
+            for (int i = 0; i < batch.getSelectedCount(); i++) {
+                out.add(batch.getRow(batch.getSelected()[i]));
+            }
+            batch.clear();
+        }
+        return out;
+    }
+}
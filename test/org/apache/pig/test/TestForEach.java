@@ -16,23 +16,41 @@
 package org.apache.pig.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.pig.EvalFunc;
+import org.apache.pig.FuncSpec;
+import org.apache.pig.PigConfiguration;
 import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigMapReduce;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.Add;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.Divide;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ExpressionCompiler;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POCast;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.PONegative;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POProject;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POUserFunc;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.VectorBatch;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
+import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
 import org.apache.pig.data.DataType;
 import org.apache.pig.data.DefaultTuple;
 import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.plan.OperatorKey;
 import org.apache.pig.test.utils.GenPhyOp;
 import org.apache.pig.test.utils.GenRandomData;
 import org.apache.pig.test.utils.TestHelper;
@@ -52,6 +70,7 @@ public class TestForEach {
     Tuple t;
     DataBag db;
     DataBag projDB;
+    Random r = new Random(42L);
 
     @Before
     public void setUp() throws Exception {
@@ -82,4 +101,216 @@ public class TestForEach {
         }
         assertEquals(size, db.size());
     }
+
+    @Test
+    public void testBatchForEach() throws Exception {
+        DataBag inbag = genMixedInput();
+        List<Tuple> interpreted = runForEach(genMixedPlans(), inbag);
+        int calls = BatchSum.batches;
+        // the last batch is not full
+        List<Tuple> batched = runForEachBatch(genMixedPlans(), inbag, 64);
+        assertTrue(interpreted.size() > 0);
+        // the rows with a negative c0 are dropped
+        assertTrue(interpreted.size() < inbag.size());
+        assertEquals(interpreted, batched);
+        // the UDF is called once per batch
+        assertEquals((inbag.size() + 63) / 64, BatchSum.batches - calls);
+    }
+
+    @Test
+    public void testCompiledForEach() throws Exception {
+        List<PhysicalPlan> plans = genMixedPlans();
+        // the arithmetic, and the negation of the operator left to the interpreter
+        assertNotNull(ExpressionCompiler.compile(plans.get(0)));
+        assertNotNull(ExpressionCompiler.compile(plans.get(1)));
+        assertNotNull(ExpressionCompiler.compile(plans.get(4)));
+        DataBag inbag = genMixedInput();
+
+        Configuration conf = new Configuration();
+        PigMapReduce.sJobConfInternal.set(conf);
+        try {
+            List<Tuple> interpreted = runForEach(genMixedPlans(), inbag);
+            conf.setBoolean(PigConfiguration.PROP_EXEC_CODEGEN, true);
+            List<Tuple> compiled = runForEach(genMixedPlans(), inbag);
+            assertTrue(interpreted.size() > 0);
+            assertTrue(interpreted.size() < inbag.size());
+            assertEquals(interpreted, compiled);
+        } finally {
+            PigMapReduce.sJobConfInternal.set(null);
+        }
+    }
+
+    /**
+     * Generates c0 + c1, c0 / c1, BatchSum(c0, c1), (int)c2 and -DropNegative(c0) on
+     * (c0:int, c1:int, c2:chararray): arithmetic with nulls and divisions by zero, a UDF,
+     * a cast from chararray which is only interpreted, and an operator unknown to the
+     * batches and to the compiler, which drops the row with POStatus.STATUS_EOP.
+     */
+    private List<PhysicalPlan> genMixedPlans() throws Exception {
+        List<PhysicalPlan> plans = new ArrayList<PhysicalPlan>();
+
+        PhysicalPlan addPlan = new PhysicalPlan();
+        POProject c0 = project(addPlan, 0, DataType.INTEGER);
+        POProject c1 = project(addPlan, 1, DataType.INTEGER);
+        Add add = new Add(new OperatorKey("", r.nextLong()));
+        add.setLhs(c0);
+        add.setRhs(c1);
+        add.setResultType(DataType.INTEGER);
+        addPlan.add(add);
+        addPlan.connect(c0, add);
+        addPlan.connect(c1, add);
+        plans.add(addPlan);
+
+        PhysicalPlan divPlan = new PhysicalPlan();
+        c0 = project(divPlan, 0, DataType.INTEGER);
+        c1 = project(divPlan, 1, DataType.INTEGER);
+        Divide div = new Divide(new OperatorKey("", r.nextLong()));
+        div.setLhs(c0);
+        div.setRhs(c1);
+        div.setResultType(DataType.INTEGER);
+        divPlan.add(div);
+        divPlan.connect(c0, div);
+        divPlan.connect(c1, div);
+        plans.add(divPlan);
+
+        PhysicalPlan udfPlan = new PhysicalPlan();
+        c0 = project(udfPlan, 0, DataType.INTEGER);
+        c1 = project(udfPlan, 1, DataType.INTEGER);
+        POUserFunc udf = new POUserFunc(new OperatorKey("", r.nextLong()), -1, null,
+                new FuncSpec(BatchSum.class.getName()));
+        udf.setResultType(DataType.INTEGER);
+        udfPlan.add(udf);
+        udfPlan.connect(c0, udf);
+        udfPlan.connect(c1, udf);
+        plans.add(udfPlan);
+
+        PhysicalPlan castPlan = new PhysicalPlan();
+        POProject c2 = project(castPlan, 2, DataType.CHARARRAY);
+        POCast cast = new POCast(new OperatorKey("", r.nextLong()), -1);
+        cast.setResultType(DataType.INTEGER);
+        castPlan.add(cast);
+        castPlan.connect(c2, cast);
+        plans.add(castPlan);
+
+        PhysicalPlan negPlan = new PhysicalPlan();
+        DropNegative drop = new DropNegative(new OperatorKey("", r.nextLong()));
+        drop.setColumn(0);
+        drop.setResultType(DataType.INTEGER);
+        negPlan.add(drop);
+        PONegative neg = new PONegative(new OperatorKey("", r.nextLong()));
+        neg.setExpr(drop);
+        neg.setResultType(DataType.INTEGER);
+        negPlan.add(neg);
+        negPlan.connect(drop, neg);
+        plans.add(negPlan);
+        return plans;
+    }
+
+    private POProject project(PhysicalPlan plan, int column, byte type) {
+        POProject p = GenPhyOp.exprProject(column);
+        p.setResultType(type);
+        plan.add(p);
+        return p;
+    }
+
+    private DataBag genMixedInput() throws Exception {
+        TupleFactory tf = TupleFactory.getInstance();
+        DataBag inbag = BagFactory.getInstance().newDefaultBag();
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = tf.newTuple(3);
+            t.set(0, r.nextInt(5) == 0 ? null : r.nextInt(20) - 3);
+            t.set(1, r.nextInt(5) == 0 ? null : r.nextInt(5));
+            t.set(2, r.nextInt(5) == 0 ? null : r.nextInt(5) == 0 ? "x" : String.valueOf(i));
+            inbag.add(t);
+        }
+        return inbag;
+    }
+
+    private POForEach genForEach(List<PhysicalPlan> plans) {
+        POForEach foreach = GenPhyOp.topForEachOp();
+        List<Boolean> flattens = new ArrayList<Boolean>();
+        for (int i = 0; i < plans.size(); i++) {
+            flattens.add(false);
+        }
+        foreach.setInputPlans(plans);
+        foreach.setToBeFlattened(flattens);
+        foreach.setResultType(DataType.TUPLE);
+        return foreach;
+    }
+
+    /**
+     * Runs the tuples through the foreach one at a time, as the map pipeline attaches them:
+     * the STATUS_EOP of a dropped row only ends the processing of that row.
+     */
+    private List<Tuple> runForEach(List<PhysicalPlan> plans, DataBag inbag) throws Exception {
+        POForEach foreach = genForEach(plans);
+        List<Tuple> out = new ArrayList<Tuple>();
+        for (Tuple in : inbag) {
+            foreach.attachInput(in);
+            Result res;
+            while ((res = foreach.getNext(t)).returnStatus == POStatus.STATUS_OK) {
+                out.add((Tuple)res.result);
+            }
+            assertEquals(POStatus.STATUS_EOP, res.returnStatus);
+        }
+        return out;
+    }
+
+    private List<Tuple> runForEachBatch(List<PhysicalPlan> plans, DataBag inbag, int batchSize)
+            throws Exception {
+        POForEach foreach = genForEach(plans);
+        assertTrue(foreach.canProcessBatch(batchSize));
+        List<Tuple> out = new ArrayList<Tuple>();
+        VectorBatch batch = new VectorBatch(batchSize);
+        Iterator<Tuple> it = inbag.iterator();
+        while (it.hasNext()) {
+            while (!batch.isFull() && it.hasNext()) {
+                batch.add(it.next());
+            }
+            foreach.processBatch(batch, out);
+            batch.clear();
+        }
+        return out;
+    }
+
+    /**
+     * Sums its two arguments, counting the batches it is called on.
+     */
+    public static class BatchSum extends EvalFunc<Integer> {
+        static int batches = 0;
+
+        @Override
+        public Integer exec(Tuple input) throws IOException {
+            Integer a = (Integer)input.get(0);
+            Integer b = (Integer)input.get(1);
+            return a == null || b == null ? null : a + b;
+        }
+
+        @Override
+        public void execBatch(Tuple[] inputs, int count, Object[] outputs) throws IOException {
+            batches++;
+            super.execBatch(inputs, count, outputs);
+        }
+    }
+
+    /**
+     * Projects a field, ending the evaluation with POStatus.STATUS_EOP on negative values.
+     */
+    private static class DropNegative extends POProject {
+        private static final long serialVersionUID = 1L;
+
+        DropNegative(OperatorKey k) {
+            super(k);
+        }
+
+        @Override
+        public Result getNext(Integer i) throws ExecException {
+            Result res = super.getNext(i);
+            if (res.returnStatus == POStatus.STATUS_OK && res.result != null
+                    && (Integer)res.result < 0) {
+                return new Result(POStatus.STATUS_EOP, null);
+            }
+            return res;
+        }
+    }
 }
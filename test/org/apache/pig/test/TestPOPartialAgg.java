@@ -35,6 +35,9 @@ import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOpe
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POUserFunc;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPartialAgg;
+import org.apache.pig.builtin.COUNT;
+import org.apache.pig.builtin.DoubleMax;
+import org.apache.pig.builtin.IntAvg;
 import org.apache.pig.builtin.IntSum;
 import org.apache.pig.data.DataType;
 import org.apache.pig.data.Tuple;
@@ -92,6 +95,20 @@ public class TestPOPartialAgg {
         partAggOp.setValuePlans(valuePlans);
     }
 
+    private PhysicalPlan createValuePlan(int column, String intermediate) throws PlanException {
+        PhysicalPlan valPlan = new PhysicalPlan();
+        POProject projVal = new POProject(GenPhyOp.getOK(), -1, column);
+        projVal.setResultType(DataType.BAG);
+        valPlan.add(projVal);
+        List<PhysicalOperator> udfInps = new ArrayList<PhysicalOperator>();
+        udfInps.add(projVal);
+        POUserFunc udf = new POUserFunc(GenPhyOp.getOK(), -1, udfInps,
+                new FuncSpec(intermediate));
+        valPlan.add(udf);
+        valPlan.connect(projVal, udf);
+        return valPlan;
+    }
+
     @After
     public void tearDown() throws Exception {
     }
@@ -218,6 +235,37 @@ public class TestPOPartialAgg {
     }
 
 
+    @Test
+    public void testPartialMultiAggregates() throws Exception {
+        // COUNT, AVG of ints and MAX of doubles, kept in primitive accumulators
+        List<PhysicalPlan> valuePlans = new ArrayList<PhysicalPlan>();
+        valuePlans.add(createValuePlan(1, COUNT.Intermediate.class.getName()));
+        valuePlans.add(createValuePlan(2, IntAvg.Intermediate.class.getName()));
+        valuePlans.add(createValuePlan(3, DoubleMax.Intermediate.class.getName()));
+        partAggOp.setValuePlans(valuePlans);
+
+        String[] inputTups = { "(1,(1L),(2L,1L),(2.0))", "(2,(1L),(null,1L),(null))",
+                "(1,(0L),(5L,1L),(7.5))", "(null,(1L),(1L,1L),(1.0))",
+                "(2,(1L),(null,1L),(null))" };
+        String[] outputTups = { "(1,(1L),(7L,2L),(7.5))", "(2,(2L),(null,2L),(null))",
+                "(null,(1L),(1L,1L),(1.0))" };
+        checkInputAndOutput(inputTups, outputTups, false);
+    }
+
+    @Test
+    public void testPartialMultiAggregatesNotPrimitive() throws Exception {
+        Configuration conf = new Configuration();
+        conf.setBoolean(PigConfiguration.PROP_EXEC_MAP_PARTAGG_PRIMITIVE, false);
+        List<PhysicalPlan> valuePlans = new ArrayList<PhysicalPlan>();
+        valuePlans.add(createValuePlan(1, COUNT.Intermediate.class.getName()));
+        valuePlans.add(createValuePlan(2, IntAvg.Intermediate.class.getName()));
+        partAggOp.setValuePlans(valuePlans);
+
+        String[] inputTups = { "(1,(1L),(2L,1L))", "(1,(1L),(null,1L))", "(2,(1L),(3L,1L))" };
+        String[] outputTups = { "(1,(2L),(2L,2L))", "(2,(1L),(3L,1L))" };
+        checkInputAndOutput(inputTups, outputTups, false, conf);
+    }
+
     /**
      * run the plan on inputTups and check if output matches outputTups if
      * isMapMemEmpty is set to true, set memory available for the hash-map to
@@ -232,8 +280,13 @@ public class TestPOPartialAgg {
      */
     private void checkInputAndOutput(String[] inputTups, String[] outputTups,
             boolean isMapMemEmpty) throws Exception {
+        checkInputAndOutput(inputTups, outputTups, isMapMemEmpty, new Configuration());
+    }
+
+    private void checkInputAndOutput(String[] inputTups, String[] outputTups,
+            boolean isMapMemEmpty, Configuration conf) throws Exception {
 
-        PigMapReduce.sJobConfInternal.set(new Configuration());
+        PigMapReduce.sJobConfInternal.set(conf);
         if (isMapMemEmpty) {
             PigMapReduce.sJobConfInternal.get().set(PigConfiguration.PROP_CACHEDBAG_MEMUSAGE,
                     "0");
@@ -48,6 +48,8 @@ import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.backend.hadoop.datastorage.ConfigurationUtil;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POProject;
 import org.apache.pig.builtin.PigStorage;
+import org.apache.pig.builtin.Utf8StorageConverter;
+import org.apache.pig.data.DataByteArray;
 import org.apache.pig.data.DataType;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.impl.PigContext;
@@ -381,6 +383,57 @@ public class TestPigStorage  {
         Assert.assertFalse(sessions.hasNext());
     }
 
+    @Test
+    public void testTypedFieldsWithPigSchema() throws Exception {
+        String[] lines = new String[] {
+                "peter\t1\t2\t0.1\t0.1\tx",
+                "samir\t-42\t-9007199254740993\t-1.5\t-123456.789012345\ty",
+                "john\t 7 \t12L\t1.25f\t1e3\t",
+                "mary\t1.9\t1.9\t-0.0\t-0\t\u00e9",
+                "\t2147483648\t99999999999999999999\t3.4028236e38\t0.00000000000000000000001\tz",
+                "\u00fcber\tx\t-\t.\t1.",
+                "" };
+        Util.createLocalInputFile(datadir + "typedinput", lines);
+        Util.createLocalInputFile(datadir + ".pig_schema",
+                new String[] {
+                "{\"fields\":[{\"name\":\"name\",\"type\":55,\"schema\":null}," +
+                "{\"name\":\"i\",\"type\":10,\"schema\":null}," +
+                "{\"name\":\"l\",\"type\":15,\"schema\":null}," +
+                "{\"name\":\"f\",\"type\":20,\"schema\":null}," +
+                "{\"name\":\"d\",\"type\":25,\"schema\":null}," +
+                "{\"name\":\"b\",\"type\":50,\"schema\":null}]," +
+                "\"version\":0,\"sortKeys\":[],\"sortKeyOrders\":[]}"
+        });
+        // the fields are parsed as the caster would parse their bytes
+        Utf8StorageConverter caster = new Utf8StorageConverter();
+        pig.registerQuery("a = LOAD '" + datadir + "typedinput' USING PigStorage('\\t', '-schema');");
+        pig.registerQuery("b = foreach a generate d, name;");
+        Iterator<Tuple> all = pig.openIterator("a");
+        Iterator<Tuple> pruned = pig.openIterator("b");
+        for (String line : lines) {
+            String[] fields = line.split("\t", -1);
+            Object[] expected = new Object[6];
+            for (int i = 0; i < fields.length; i++) {
+                byte[] bytes = fields[i].getBytes("UTF-8");
+                if (bytes.length == 0) {
+                    continue;
+                }
+                switch (i) {
+                case 0: expected[i] = caster.bytesToCharArray(bytes); break;
+                case 1: expected[i] = caster.bytesToInteger(bytes); break;
+                case 2: expected[i] = caster.bytesToLong(bytes); break;
+                case 3: expected[i] = caster.bytesToFloat(bytes); break;
+                case 4: expected[i] = caster.bytesToDouble(bytes); break;
+                default: expected[i] = new DataByteArray(bytes); break;
+                }
+            }
+            assertEquals(tuple(expected), all.next());
+            assertEquals(tuple(expected[4], expected[0]), pruned.next());
+        }
+        assertFalse(all.hasNext());
+        assertFalse(pruned.hasNext());
+    }
+
     @Test
     public void testPigStorageSchemaHeaderDelimiter() throws Exception {
         pigContext.connect();